@@ -0,0 +1,323 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.order.shoppingcart.product;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.base.util.UtilProperties;
+import org.ofbiz.base.util.UtilValidate;
+import org.ofbiz.base.util.cache.UtilCache;
+import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.GenericEntityException;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.util.EntityQuery;
+import org.ofbiz.entity.util.EntityUtil;
+import org.ofbiz.order.shoppingcart.ShoppingCart;
+import org.ofbiz.order.shoppingcart.ShoppingCartItem;
+
+/**
+ * SCIPIO: Compiled product promotion used by {@link ProductPromoWorker}: the rules of the promo with their conditions
+ * and actions, and the productId sets of the conditions and actions, built from the cached ProductPromo* entity lists.
+ * <p>
+ * A compiled promo is kept per delegator and productPromoId, and is rebuilt when one of the cached ProductPromoRule,
+ * ProductPromoCond, ProductPromoAction, ProductPromoCategory or ProductPromoProduct lists of the promo was replaced
+ * in the entity cache, that is after any change to them. This is checked once per nowTimestamp instance, so once per
+ * doPromotions run. The productId sets also depend on category members, which are not checked: they are rebuilt
+ * after <code>order.promotion.productIds.expireTime</code> milliseconds (order.properties; 0 to rebuild at each use).
+ * <p>
+ * Where possible, each rule also has a required condition: a product quantity, amount or total condition that fails
+ * when no cart line is in its productId set, and that no condition changing the cart comes before. If all rules have
+ * one, {@link #canApply} skips the promo for carts with no line in any of their sets, unless
+ * <code>order.promotion.skipUnmatched</code> is false (order.properties; see also {@link #setSkipUnmatched}).
+ */
+public final class ProductPromoEngine {
+
+    private static final Debug.OfbizLogger module = Debug.getOfbizLogger(java.lang.invoke.MethodHandles.lookup().lookupClass());
+
+    private static final UtilCache<String, ProductPromoEngine> promoEngineCache = UtilCache.createUtilCache("order.ProductPromoEngine", false);
+    private static final long productIdsExpireTime = UtilProperties.getPropertyAsLong("order", "order.promotion.productIds.expireTime", 60000);
+    private static volatile boolean skipUnmatched = UtilProperties.getPropertyAsBoolean("order", "order.promotion.skipUnmatched", true);
+
+    private final String productPromoId;
+    private final List<GenericValue> productPromoRules;
+    private final List<GenericValue> productPromoConds;
+    private final List<GenericValue> productPromoActions;
+    private final List<GenericValue> productPromoCategories;
+    private final List<GenericValue> productPromoProducts;
+    private final Map<String, List<GenericValue>> ruleConds;
+    private final Map<String, List<GenericValue>> ruleActions;
+    /** The required conditions of all rules, or null if at least one rule has none. */
+    private final List<GenericValue> requiredConds;
+    private final boolean hasOrderTotalCondition;
+    private final Map<String, ProductIds> condActionProductIds = new ConcurrentHashMap<>();
+    private volatile Timestamp checkedTimestamp;
+
+    private ProductPromoEngine(String productPromoId, List<GenericValue> productPromoRules, List<GenericValue> productPromoConds,
+            List<GenericValue> productPromoActions, List<GenericValue> productPromoCategories, List<GenericValue> productPromoProducts) {
+        this.productPromoId = productPromoId;
+        this.productPromoRules = productPromoRules;
+        this.productPromoConds = productPromoConds;
+        this.productPromoActions = productPromoActions;
+        this.productPromoCategories = productPromoCategories;
+        this.productPromoProducts = productPromoProducts;
+        this.ruleConds = groupByRule(productPromoConds);
+        this.ruleActions = groupByRule(productPromoActions);
+
+        List<GenericValue> requiredConds = new ArrayList<>(productPromoRules.size());
+        for (GenericValue productPromoRule : productPromoRules) {
+            GenericValue requiredCond = findRequiredCond(getConditions(productPromoRule.getString("productPromoRuleId")));
+            if (requiredCond == null) {
+                requiredConds = null;
+                break;
+            }
+            requiredConds.add(requiredCond);
+        }
+        this.requiredConds = requiredConds;
+
+        boolean hasOrderTotalCondition = false;
+        for (GenericValue productPromoCond : productPromoConds) {
+            String inputParamEnumId = productPromoCond.getString("inputParamEnumId");
+            // SCIPIO (10/28/2018): added new enumId in order to distinguish between totals and subtotals
+            if ("PPIP_ORDER_TOTAL".equals(inputParamEnumId) || "PPIP_ORDER_SUBTOTAL".equals(inputParamEnumId)) {
+                hasOrderTotalCondition = true;
+                break;
+            }
+        }
+        this.hasOrderTotalCondition = hasOrderTotalCondition;
+    }
+
+    /**
+     * Returns the compiled promo, rebuilding it if its entity lists changed since it was built; the check is skipped
+     * if the promo was already checked for the same nowTimestamp instance (null to always check).
+     */
+    public static ProductPromoEngine getInstance(Delegator delegator, String productPromoId, Timestamp nowTimestamp) throws GenericEntityException {
+        String cacheKey = delegator.getDelegatorName() + "::" + productPromoId;
+        ProductPromoEngine engine = promoEngineCache.get(cacheKey);
+        if (engine != null && nowTimestamp != null && nowTimestamp == engine.checkedTimestamp) {
+            return engine;
+        }
+        List<GenericValue> productPromoRules = EntityQuery.use(delegator).from("ProductPromoRule").where("productPromoId", productPromoId).cache(true).queryList();
+        List<GenericValue> productPromoConds = EntityQuery.use(delegator).from("ProductPromoCond").where("productPromoId", productPromoId)
+                .orderBy("productPromoCondSeqId").cache(true).queryList();
+        List<GenericValue> productPromoActions = EntityQuery.use(delegator).from("ProductPromoAction").where("productPromoId", productPromoId)
+                .orderBy("productPromoRuleId", "productPromoActionSeqId").cache(true).queryList();
+        List<GenericValue> productPromoCategories = EntityQuery.use(delegator).from("ProductPromoCategory").where("productPromoId", productPromoId).cache(true).queryList();
+        List<GenericValue> productPromoProducts = EntityQuery.use(delegator).from("ProductPromoProduct").where("productPromoId", productPromoId).cache(true).queryList();
+        // the cached lists are replaced, not modified, when the entities change
+        if (engine == null || engine.productPromoRules != productPromoRules || engine.productPromoConds != productPromoConds
+                || engine.productPromoActions != productPromoActions || engine.productPromoCategories != productPromoCategories
+                || engine.productPromoProducts != productPromoProducts) {
+            if (Debug.verboseOn()) {
+                Debug.logVerbose("Compiling promotion [" + productPromoId + "]", module);
+            }
+            engine = new ProductPromoEngine(productPromoId, productPromoRules, productPromoConds, productPromoActions,
+                    productPromoCategories, productPromoProducts);
+            promoEngineCache.put(cacheKey, engine);
+        }
+        engine.checkedTimestamp = nowTimestamp;
+        return engine;
+    }
+
+    public String getProductPromoId() {
+        return productPromoId;
+    }
+
+    /** Returns the rules of the promo. */
+    public List<GenericValue> getRules() {
+        return productPromoRules;
+    }
+
+    /** Returns the conditions of the rule ordered by productPromoCondSeqId. */
+    public List<GenericValue> getConditions(String productPromoRuleId) {
+        List<GenericValue> conds = ruleConds.get(productPromoRuleId);
+        return (conds != null) ? conds : Collections.<GenericValue>emptyList();
+    }
+
+    /** Returns the actions of the rule ordered by productPromoActionSeqId. */
+    public List<GenericValue> getActions(String productPromoRuleId) {
+        List<GenericValue> actions = ruleActions.get(productPromoRuleId);
+        return (actions != null) ? actions : Collections.<GenericValue>emptyList();
+    }
+
+    /** Returns true if a condition of the promo is on the order total or subtotal. */
+    public boolean hasOrderTotalCondition() {
+        return hasOrderTotalCondition;
+    }
+
+    /** Returns true if {@link #canApply} skips the promos whose rules all need products the cart does not have. */
+    public static boolean isSkipUnmatched() {
+        return skipUnmatched;
+    }
+
+    /** Enables or disables the skip of {@link #canApply}, overriding <code>order.promotion.skipUnmatched</code>. */
+    public static void setSkipUnmatched(boolean skipUnmatched) {
+        ProductPromoEngine.skipUnmatched = skipUnmatched;
+    }
+
+    /**
+     * Returns false if no rule of the promo can perform its actions for a cart with the given products, as returned by
+     * {@link #getCartProductIds}; true if one may, or if the skip is disabled.
+     */
+    public boolean canApply(Set<String> cartProductIds, Delegator delegator, Timestamp nowTimestamp) throws GenericEntityException {
+        if (requiredConds == null || !skipUnmatched) {
+            return true;
+        }
+        for (GenericValue requiredCond : requiredConds) {
+            Set<String> productIds = getCondProductIds(requiredCond, delegator, nowTimestamp);
+            Set<String> smaller = (productIds.size() < cartProductIds.size()) ? productIds : cartProductIds;
+            Set<String> larger = (smaller == productIds) ? cartProductIds : productIds;
+            for (String productId : smaller) {
+                if (larger.contains(productId)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Returns the productIds of the condition; the returned set must not be modified. */
+    public Set<String> getCondProductIds(GenericValue productPromoCond, Delegator delegator, Timestamp nowTimestamp) throws GenericEntityException {
+        return getProductIds("productPromoCondSeqId", productPromoCond, delegator, nowTimestamp);
+    }
+
+    /** Returns the productIds of the action; the returned set must not be modified. */
+    public Set<String> getActionProductIds(GenericValue productPromoAction, Delegator delegator, Timestamp nowTimestamp) throws GenericEntityException {
+        return getProductIds("productPromoActionSeqId", productPromoAction, delegator, nowTimestamp);
+    }
+
+    /**
+     * Returns the productIds and parent productIds of the cart lines that promo conditions can count (promo items
+     * are excluded; they are also the only lines promo actions add, so the set stays valid during a pass).
+     */
+    public static Set<String> getCartProductIds(ShoppingCart cart) {
+        Set<String> cartProductIds = new HashSet<>();
+        for (ShoppingCartItem cartItem : cart) {
+            if (cartItem.getIsPromo()) {
+                continue;
+            }
+            if (cartItem.getProductId() != null) {
+                cartProductIds.add(cartItem.getProductId());
+            }
+            if (cartItem.getParentProductId() != null) {
+                cartProductIds.add(cartItem.getParentProductId());
+            }
+        }
+        return cartProductIds;
+    }
+
+    private Set<String> getProductIds(String seqIdField, GenericValue productPromoCondOrAction, Delegator delegator, Timestamp nowTimestamp) throws GenericEntityException {
+        String productPromoRuleId = productPromoCondOrAction.getString("productPromoRuleId");
+        String seqId = productPromoCondOrAction.getString(seqIdField);
+        String key = seqIdField + "::" + productPromoRuleId + "::" + seqId;
+        long now = System.currentTimeMillis();
+        ProductIds productIds = condActionProductIds.get(key);
+        if (productIds != null && now - productIds.createdTime < productIdsExpireTime) {
+            return productIds.productIds;
+        }
+        // get the promo lists and filter them as needed
+        List<GenericValue> categories = EntityUtil.filterByAnd(productPromoCategories, UtilMisc.toMap("productPromoRuleId", "_NA_", seqIdField, "_NA_"));
+        categories.addAll(EntityUtil.filterByAnd(productPromoCategories, UtilMisc.toMap("productPromoRuleId", productPromoRuleId, seqIdField, seqId)));
+        List<GenericValue> products = EntityUtil.filterByAnd(productPromoProducts, UtilMisc.toMap("productPromoRuleId", "_NA_", seqIdField, "_NA_"));
+        products.addAll(EntityUtil.filterByAnd(productPromoProducts, UtilMisc.toMap("productPromoRuleId", productPromoRuleId, seqIdField, seqId)));
+
+        Set<String> productIdSet = new HashSet<>();
+        ProductPromoWorker.makeProductPromoIdSet(productIdSet, categories, products, delegator, nowTimestamp, false);
+        productIdSet = Collections.unmodifiableSet(productIdSet);
+        if (productIdsExpireTime > 0) {
+            condActionProductIds.put(key, new ProductIds(productIdSet, now));
+        }
+        return productIdSet;
+    }
+
+    private static Map<String, List<GenericValue>> groupByRule(List<GenericValue> condsOrActions) {
+        Map<String, List<GenericValue>> ruleMap = new HashMap<>();
+        for (GenericValue condOrAction : condsOrActions) {
+            String productPromoRuleId = condOrAction.getString("productPromoRuleId");
+            List<GenericValue> ruleList = ruleMap.get(productPromoRuleId);
+            if (ruleList == null) {
+                ruleList = new ArrayList<>();
+                ruleMap.put(productPromoRuleId, ruleList);
+            }
+            ruleList.add(condOrAction);
+        }
+        for (Map.Entry<String, List<GenericValue>> entry : ruleMap.entrySet()) {
+            entry.setValue(Collections.unmodifiableList(entry.getValue()));
+        }
+        return ruleMap;
+    }
+
+    /**
+     * Returns the first product condition of the rule that fails when no cart line is in its productId set, or null if
+     * there is none or a service condition, which may change the cart, comes before it.
+     */
+    private static GenericValue findRequiredCond(List<GenericValue> productPromoConds) {
+        for (GenericValue productPromoCond : productPromoConds) {
+            String inputParamEnumId = productPromoCond.getString("inputParamEnumId");
+            String condValue = productPromoCond.getString("condValue");
+            try {
+                if ("PPIP_PRODUCT_QUANT".equals(inputParamEnumId)) {
+                    // with nothing needed, the condition passes without using any line
+                    BigDecimal quantityNeeded = UtilValidate.isNotEmpty(condValue) ? new BigDecimal(condValue) : BigDecimal.ONE;
+                    if (quantityNeeded.signum() > 0) {
+                        return productPromoCond;
+                    }
+                } else if ("PPIP_PRODUCT_AMOUNT".equals(inputParamEnumId)) {
+                    if (UtilValidate.isNotEmpty(condValue) && new BigDecimal(condValue).signum() > 0) {
+                        return productPromoCond;
+                    }
+                } else if ("PPIP_PRODUCT_TOTAL".equals(inputParamEnumId) && UtilValidate.isNotEmpty(condValue)) {
+                    // with no line the amount available is zero
+                    int amountNeededSign = new BigDecimal(condValue).signum();
+                    String operatorEnumId = productPromoCond.getString("operatorEnumId");
+                    if (("PPC_GT".equals(operatorEnumId) && amountNeededSign >= 0) || ("PPC_GTE".equals(operatorEnumId) && amountNeededSign > 0)
+                            || ("PPC_EQ".equals(operatorEnumId) && amountNeededSign != 0)) {
+                        return productPromoCond;
+                    }
+                } else if ("PPIP_SERVICE".equals(inputParamEnumId)) {
+                    return null;
+                }
+            } catch (NumberFormatException e) {
+                // let the condition check report it
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private static final class ProductIds {
+        final Set<String> productIds;
+        final long createdTime;
+
+        ProductIds(Set<String> productIds, long createdTime) {
+            this.productIds = productIds;
+            this.createdTime = createdTime;
+        }
+    }
+}
@@ -345,8 +345,14 @@ public final class ProductPromoWorker {
             List<GenericValue> sortedExplodedProductPromoList = new ArrayList<>(sortedPromoUses.size());
             Map<String, Long> usesPerPromo = new HashMap<>();
             int indexOfFirstOrderTotalPromo = -1;
+            // SCIPIO: fetch the promos at once instead of one query per use
+            List<String> sortedPromoIds = new ArrayList<>(sortedPromoUses.size());
             for (ProductPromoUseInfo promoUse: sortedPromoUses) {
-                GenericValue productPromo = EntityQuery.use(delegator).from("ProductPromo").where("productPromoId", promoUse.getProductPromoId()).cache().queryOne();
+                sortedPromoIds.add(promoUse.getProductPromoId());
+            }
+            Map<Object, GenericValue> sortedProductPromos = EntityQuery.use(delegator).from("ProductPromo").cache().queryAllByPrimaryKeyValues(sortedPromoIds);
+            for (ProductPromoUseInfo promoUse: sortedPromoUses) {
+                GenericValue productPromo = sortedProductPromos.get(promoUse.getProductPromoId());
                 GenericValue newProductPromo = (GenericValue)productPromo.clone();
                 if (!usesPerPromo.containsKey(promoUse.getProductPromoId())) {
                     usesPerPromo.put(promoUse.getProductPromoId(), 0L);
@@ -396,20 +402,8 @@ public final class ProductPromoWorker {
     }
 
     protected static boolean hasOrderTotalCondition(GenericValue productPromo, Delegator delegator) throws GenericEntityException {
-        boolean hasOtCond = false;
-        List<GenericValue> productPromoConds = EntityQuery.use(delegator).from("ProductPromoCond")
-                .where("productPromoId", productPromo.get("productPromoId"))
-                .orderBy("productPromoCondSeqId")
-                .cache(true).queryList();
-        for (GenericValue productPromoCond : productPromoConds) {
-            String inputParamEnumId = productPromoCond.getString("inputParamEnumId");
-            // SCIPIO (10/28/2018): added new enumId in order to distinguish between totals and subtotals
-            if ("PPIP_ORDER_TOTAL".equals(inputParamEnumId) || "PPIP_ORDER_SUBTOTAL".equals(inputParamEnumId)) {
-                hasOtCond = true;
-                break;
-            }
-        }
-        return hasOtCond;
+        // SCIPIO: determined once per compiled promo
+        return ProductPromoEngine.getInstance(delegator, productPromo.getString("productPromoId"), null).hasOrderTotalCondition();
     }
 
     protected static void runProductPromos(List<GenericValue> productPromoList, ShoppingCart cart, Delegator delegator, LocalDispatcher dispatcher, Timestamp nowTimestamp, boolean isolatedTestRun) throws GeneralException {
@@ -436,11 +430,17 @@ public final class ProductPromoWorker {
                     break;
                 }
 
+                // SCIPIO: products of the cart lines, to skip the promos whose rules all need other products; promo
+                // actions only add promo lines, which conditions ignore, so this holds for the whole pass
+                Set<String> cartProductIds = ProductPromoEngine.getCartProductIds(cart);
+
                 for (GenericValue productPromo : productPromoList) {
                     String productPromoId = productPromo.getString("productPromoId");
 
-                    List<GenericValue> productPromoRules = productPromo.getRelated("ProductPromoRule", null, null, true);
-                    if (UtilValidate.isNotEmpty(productPromoRules)) {
+                    // SCIPIO: use the compiled promo instead of looking up rules, conditions and actions on each pass
+                    ProductPromoEngine promoEngine = ProductPromoEngine.getInstance(delegator, productPromoId, nowTimestamp);
+                    List<GenericValue> productPromoRules = promoEngine.getRules();
+                    if (UtilValidate.isNotEmpty(productPromoRules) && promoEngine.canApply(cartProductIds, delegator, nowTimestamp)) {
                         // always have a useLimit to avoid unlimited looping, default to 1 if no other is specified
                         Long candidateUseLimit = getProductPromoUseLimit(productPromo, partyId, delegator);
                         Long useLimit = candidateUseLimit;
@@ -732,6 +732,11 @@ public final class ProductPromoWorker {
             }
 
             List<GenericValue> productPromoActions = productPromoRule.getRelated("ProductPromoAction", null, UtilMisc.toList("productPromoActionSeqId"), true);
+            // SCIPIO: fetch the action products at once instead of one query per action
+            Map<Object, GenericValue> actionProducts = null;
+            if (productPromoActions != null) {
+                actionProducts = EntityQuery.use(delegator).from("Product").cache().queryAllByPrimaryKeyValues(EntityUtil.getFieldListFromEntityList(productPromoActions, "productId", true));
+            }
             Iterator<GenericValue> productPromoActionIter = UtilMisc.toIterator(productPromoActions);
             while (productPromoActionIter != null && productPromoActionIter.hasNext()) {
                 GenericValue productPromoAction = productPromoActionIter.next();
@@ -746,7 +751,7 @@ public final class ProductPromoWorker {
                 if (UtilValidate.isEmpty(messageContext.get("partyId"))) {
                     messageContext.put("partyId", "any");
                 }
-                GenericValue product = EntityQuery.use(delegator).from("Product").where("productId", productId).cache().queryOne();
+                GenericValue product = (productId != null) ? actionProducts.get(productId) : null;
                 if (product != null) {
                     // SCIPIO: No need to HTML-escape this
                     messageContext.put("productName", ProductContentWrapper.getProductContentAsText(product, "PRODUCT_NAME", locale, null, "raw"));
@@ -820,6 +825,7 @@ public final class ProductPromoWorker {
         boolean cartChanged = false;
         Map<ShoppingCartItem,BigDecimal> usageInfoMap = prepareProductUsageInfoMap(cart);
         String productPromoId = productPromo.getString("productPromoId");
+        ProductPromoEngine promoEngine = ProductPromoEngine.getInstance(delegator, productPromoId, nowTimestamp); // SCIPIO
         while ((useLimit == null || useLimit > cart.getProductPromoUseCount(productPromoId)) &&
                 (!requireCode || UtilValidate.isNotEmpty(productPromoCodeId)) &&
                 (codeUseLimit == null || codeUseLimit > cart.getProductPromoCodeUse(productPromoCodeId))) {
@@ -835,9 +841,8 @@ public final class ProductPromoWorker {
                 boolean performActions = true;
 
                 // loop through conditions for rule, if any false, set allConditionsTrue to false
-                List<GenericValue> productPromoConds = EntityQuery.use(delegator).from("ProductPromoCond").where("productPromoId", productPromo.get("productPromoId")).orderBy("productPromoCondSeqId").cache(true).queryList();
-                productPromoConds = EntityUtil.filterByAnd(productPromoConds, UtilMisc.toMap("productPromoRuleId", productPromoRule.get("productPromoRuleId")));
-                // using the other method to consolidate cache entries because the same cache is used elsewhere: List productPromoConds = productPromoRule.getRelated("ProductPromoCond", null, UtilMisc.toList("productPromoCondSeqId"), true);
+                // SCIPIO: conditions of the rule from the compiled promo, instead of filtering the promo conditions each time
+                List<GenericValue> productPromoConds = promoEngine.getConditions(productPromoRule.getString("productPromoRuleId"));
                 if (Debug.verboseOn()) {
                     Debug.logVerbose("Checking " + productPromoConds.size() + " conditions for rule " + productPromoRule, module);
                 }
@@ -858,7 +863,7 @@ public final class ProductPromoWorker {
                 if (performActions) {
                     // perform all actions, either apply or unapply
 
-                    List<GenericValue> productPromoActions = productPromoRule.getRelated("ProductPromoAction", null, UtilMisc.toList("productPromoActionSeqId"), true);
+                    List<GenericValue> productPromoActions = promoEngine.getActions(productPromoRule.getString("productPromoRuleId")); // SCIPIO
                     Iterator<GenericValue> productPromoActionIter = UtilMisc.toIterator(productPromoActions);
                     while (productPromoActionIter != null && productPromoActionIter.hasNext()) {
                         GenericValue productPromoAction = productPromoActionIter.next();
@@ -1310,10 +1315,9 @@ public final class ProductPromoWorker {
     }
 
     public static boolean checkConditionsForItem(GenericValue productPromoActionOrCond, ShoppingCart cart, ShoppingCartItem cartItem, Delegator delegator, LocalDispatcher dispatcher, Timestamp nowTimestamp) throws GenericEntityException {
-        GenericValue productPromoRule = productPromoActionOrCond.getRelatedOne("ProductPromoRule", true);
-
-        List<GenericValue> productPromoConds = EntityQuery.use(delegator).from("ProductPromoCond").where("productPromoId", productPromoRule.get("productPromoId")).orderBy("productPromoCondSeqId").cache(true).queryList();
-        productPromoConds = EntityUtil.filterByAnd(productPromoConds, UtilMisc.toMap("productPromoRuleId", productPromoRule.get("productPromoRuleId")));
+        // SCIPIO: conditions of the rule from the compiled promo
+        List<GenericValue> productPromoConds = ProductPromoEngine.getInstance(delegator, productPromoActionOrCond.getString("productPromoId"), nowTimestamp)
+                .getConditions(productPromoActionOrCond.getString("productPromoRuleId"));
         for (GenericValue productPromoCond: productPromoConds) {
             boolean passed = checkConditionForItem(productPromoCond, cart, cartItem, delegator, dispatcher, nowTimestamp);
             if (!passed) {
@@ -1329,6 +1333,13 @@ public final class ProductPromoWorker {
         String inputParamEnumId = productPromoCond.getString("inputParamEnumId");
         String operatorEnumId = productPromoCond.getString("operatorEnumId");
 
+        // SCIPIO: only these conditions apply to individual items; checked before the list price lookup, which is
+        // otherwise done for every cart line and condition
+        if (!"PPIP_LPMUP_AMT".equals(inputParamEnumId) && !"PPIP_LPMUP_PER".equals(inputParamEnumId)) {
+            // condition doesn't apply to individual item, always passes
+            return true;
+        }
+
         // don't get list price from cart because it may have tax included whereas the base price does not: BigDecimal listPrice = cartItem.getListPrice();
         List<GenericValue> listProductPriceList = EntityQuery.use(delegator).from("ProductPrice")
                 .where("productId", cartItem.getProductId(), "productPriceTypeId", "LIST_PRICE", "productPricePurposeId", "PURCHASE")
@@ -1980,33 +1991,24 @@ public final class ProductPromoWorker {
         return null;
     }
 
+    /**
+     * Returns the productIds of the promo condition.
+     * <p>
+     * SCIPIO: The set is memoized by the compiled promo ({@link ProductPromoEngine}) and must not be modified.
+     */
     public static Set<String> getPromoRuleCondProductIds(GenericValue productPromoCond, Delegator delegator, Timestamp nowTimestamp) throws GenericEntityException {
-        // get a cached list for the whole promo and filter it as needed, this for better efficiency in caching
-        List<GenericValue> productPromoCategoriesAll = EntityQuery.use(delegator).from("ProductPromoCategory").where("productPromoId", productPromoCond.get("productPromoId")).cache(true).queryList();
-        List<GenericValue> productPromoCategories = EntityUtil.filterByAnd(productPromoCategoriesAll, UtilMisc.toMap("productPromoRuleId", "_NA_", "productPromoCondSeqId", "_NA_"));
-        productPromoCategories.addAll(EntityUtil.filterByAnd(productPromoCategoriesAll, UtilMisc.toMap("productPromoRuleId", productPromoCond.get("productPromoRuleId"), "productPromoCondSeqId", productPromoCond.get("productPromoCondSeqId"))));
-        List<GenericValue> productPromoProductsAll = EntityQuery.use(delegator).from("ProductPromoProduct").where("productPromoId", productPromoCond.get("productPromoId")).cache(true).queryList();
-        List<GenericValue> productPromoProducts = EntityUtil.filterByAnd(productPromoProductsAll, UtilMisc.toMap("productPromoRuleId", "_NA_", "productPromoCondSeqId", "_NA_"));
-        productPromoProducts.addAll(EntityUtil.filterByAnd(productPromoProductsAll, UtilMisc.toMap("productPromoRuleId", productPromoCond.get("productPromoRuleId"), "productPromoCondSeqId", productPromoCond.get("productPromoCondSeqId"))));
-
-        Set<String> productIds = new HashSet<>();
-        makeProductPromoIdSet(productIds, productPromoCategories, productPromoProducts, delegator, nowTimestamp, false);
-        return productIds;
+        return ProductPromoEngine.getInstance(delegator, productPromoCond.getString("productPromoId"), nowTimestamp)
+                .getCondProductIds(productPromoCond, delegator, nowTimestamp);
     }
 
+    /**
+     * Returns the productIds of the promo action.
+     * <p>
+     * SCIPIO: The set is memoized by the compiled promo ({@link ProductPromoEngine}) and must not be modified.
+     */
     public static Set<String> getPromoRuleActionProductIds(GenericValue productPromoAction, Delegator delegator, Timestamp nowTimestamp) throws GenericEntityException {
-        // get a cached list for the whole promo and filter it as needed, this for better efficiency in caching
-        List<GenericValue> productPromoCategoriesAll = EntityQuery.use(delegator).from("ProductPromoCategory").where("productPromoId", productPromoAction.get("productPromoId")).cache(true).queryList();
-        List<GenericValue> productPromoCategories = EntityUtil.filterByAnd(productPromoCategoriesAll, UtilMisc.toMap("productPromoRuleId", "_NA_", "productPromoActionSeqId", "_NA_"));
-        productPromoCategories.addAll(EntityUtil.filterByAnd(productPromoCategoriesAll, UtilMisc.toMap("productPromoRuleId", productPromoAction.get("productPromoRuleId"), "productPromoActionSeqId", productPromoAction.get("productPromoActionSeqId"))));
-
-        List<GenericValue> productPromoProductsAll = EntityQuery.use(delegator).from("ProductPromoProduct").where("productPromoId", productPromoAction.get("productPromoId")).cache(true).queryList();
-        List<GenericValue> productPromoProducts = EntityUtil.filterByAnd(productPromoProductsAll, UtilMisc.toMap("productPromoRuleId", "_NA_", "productPromoActionSeqId", "_NA_"));
-        productPromoProducts.addAll(EntityUtil.filterByAnd(productPromoProductsAll, UtilMisc.toMap("productPromoRuleId", productPromoAction.get("productPromoRuleId"), "productPromoActionSeqId", productPromoAction.get("productPromoActionSeqId"))));
-
-        Set<String> productIds = new HashSet<>();
-        makeProductPromoIdSet(productIds, productPromoCategories, productPromoProducts, delegator, nowTimestamp, false);
-        return productIds;
+        return ProductPromoEngine.getInstance(delegator, productPromoAction.getString("productPromoId"), nowTimestamp)
+                .getActionProductIds(productPromoAction, delegator, nowTimestamp);
     }
 
     public static void makeProductPromoIdSet(Set<String> productIds, List<GenericValue> productPromoCategories, List<GenericValue> productPromoProducts, Delegator delegator, Timestamp nowTimestamp, boolean filterOldProducts) throws GenericEntityException {
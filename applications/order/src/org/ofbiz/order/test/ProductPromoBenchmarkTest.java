@@ -0,0 +1,160 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.order.test;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilDateTime;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.util.EntityQuery;
+import org.ofbiz.order.shoppingcart.CartItemModifyException;
+import org.ofbiz.order.shoppingcart.ItemNotFoundException;
+import org.ofbiz.order.shoppingcart.ShoppingCart;
+import org.ofbiz.order.shoppingcart.ShoppingCartItem;
+import org.ofbiz.order.shoppingcart.product.ProductPromoEngine;
+import org.ofbiz.order.shoppingcart.product.ProductPromoWorker;
+import org.ofbiz.service.testtools.OFBizTestCase;
+
+/**
+ * SCIPIO: Times {@link ProductPromoWorker#doPromotions} on a synthetic large cart made of the first finished goods,
+ * against the store promotions of the demo store, and checks that skipping the promos that cannot apply
+ * ({@link ProductPromoEngine#canApply}) gives the same promotions and totals as running all of them.
+ */
+public class ProductPromoBenchmarkTest extends OFBizTestCase {
+
+    private static final Debug.OfbizLogger module = Debug.getOfbizLogger(java.lang.invoke.MethodHandles.lookup().lookupClass());
+
+    protected static final int cartLines = 200;
+    protected static final int runs = 20;
+    /** Music CD of the demo catalog: 4 of them match the music total condition of demo promo 9018. */
+    protected static final String promoProductId = "CD-2002";
+    protected static final BigDecimal promoProductQuantity = new BigDecimal("4");
+
+    public ProductPromoBenchmarkTest(String name) {
+        super(name);
+    }
+
+    public void testDoPromotionsLargeCart() throws Exception {
+        ShoppingCart cart = new ShoppingCart(delegator, "ScipioShop", Locale.getDefault(), "USD");
+        cart.setDoPromotions(false);
+        List<GenericValue> products = EntityQuery.use(delegator).from("Product").where("productTypeId", "FINISHED_GOOD", "isVirtual", "N")
+                .orderBy("productId").maxRows(cartLines).queryList();
+        for (GenericValue product : products) {
+            addItem(cart, product.getString("productId"), BigDecimal.ONE);
+        }
+        addItem(cart, promoProductId, promoProductQuantity);
+        assertTrue("No product could be added to the cart", cart.size() > 0);
+        cart.setDoPromotions(true);
+
+        // the cart must match a store promo that the skip checks, so that the comparison covers its matching path
+        Timestamp nowTimestamp = UtilDateTime.nowTimestamp();
+        Set<String> cartProductIds = ProductPromoEngine.getCartProductIds(cart);
+        int matchedPromos = 0;
+        boolean skipUnmatched = ProductPromoEngine.isSkipUnmatched();
+        try {
+            ProductPromoEngine.setSkipUnmatched(true);
+            for (GenericValue productPromo : ProductPromoWorker.getProductStorePromotions(cart, nowTimestamp, dispatcher)) {
+                ProductPromoEngine promoEngine = ProductPromoEngine.getInstance(delegator, productPromo.getString("productPromoId"), nowTimestamp);
+                if (!promoEngine.canApply(Collections.<String>emptySet(), delegator, nowTimestamp)
+                        && promoEngine.canApply(cartProductIds, delegator, nowTimestamp)) {
+                    matchedPromos++;
+                }
+            }
+            assertTrue("The cart matches no product condition of the demo store promos", matchedPromos > 0);
+
+            // reference run without the skip
+            ProductPromoEngine.setSkipUnmatched(false);
+            ProductPromoWorker.doPromotions(cart, dispatcher);
+            List<String> expectedPromos = getPromoSummary(cart);
+            BigDecimal expectedTotal = cart.getGrandTotal();
+            assertTrue("No demo store promo applied to the cart", cart.getProductPromoUseInfoIter().hasNext());
+
+            // first run with the skip compiles the promotions
+            ProductPromoEngine.setSkipUnmatched(true);
+            long startTime = System.nanoTime();
+            ProductPromoWorker.doPromotions(cart, dispatcher);
+            long firstRunTime = System.nanoTime() - startTime;
+            assertEquals("Promotions differ from a run without the skip", expectedPromos, getPromoSummary(cart));
+            assertEquals("Cart total differs from a run without the skip", 0, expectedTotal.compareTo(cart.getGrandTotal()));
+
+            startTime = System.nanoTime();
+            for (int i = 0; i < runs; i++) {
+                ProductPromoWorker.doPromotions(cart, dispatcher);
+            }
+            long runTime = (System.nanoTime() - startTime) / runs;
+            Debug.logInfo("doPromotions on a cart of " + cart.size() + " lines (" + matchedPromos + " matched product promos): first run "
+                    + (firstRunTime / 1000000) + " ms, then " + (runTime / 1000000) + " ms per run (average of " + runs + ")", module);
+            assertEquals("Promotions changed between doPromotions runs", expectedPromos, getPromoSummary(cart));
+            assertEquals("Cart total changed between doPromotions runs", 0, expectedTotal.compareTo(cart.getGrandTotal()));
+        } finally {
+            ProductPromoEngine.setSkipUnmatched(skipUnmatched);
+        }
+    }
+
+    private void addItem(ShoppingCart cart, String productId, BigDecimal quantity) {
+        try {
+            cart.addOrIncreaseItem(productId, null, quantity, null, null, null, null, null, null, null, null,
+                    null, null, null, null, dispatcher);
+        } catch (CartItemModifyException | ItemNotFoundException e) {
+            // not orderable in this store, leave it out
+        }
+    }
+
+    /**
+     * Returns the promo uses, the promo adjustments of the cart and of its lines, and the lines (including the promo
+     * lines) of the cart, sorted, to compare two doPromotions runs.
+     */
+    private static List<String> getPromoSummary(ShoppingCart cart) {
+        List<String> summary = new ArrayList<>();
+        Iterator<ShoppingCart.ProductPromoUseInfo> promoUseIter = cart.getProductPromoUseInfoIter();
+        while (promoUseIter.hasNext()) {
+            ShoppingCart.ProductPromoUseInfo promoUse = promoUseIter.next();
+            summary.add("use " + promoUse.getProductPromoId() + " " + toString(promoUse.getTotalDiscountAmount()));
+        }
+        addAdjustments(summary, "cart", cart.getAdjustments());
+        for (ShoppingCartItem cartItem : cart) {
+            String item = "item " + cartItem.getProductId() + (cartItem.getIsPromo() ? " promo" : "");
+            summary.add(item + " x" + toString(cartItem.getQuantity()));
+            addAdjustments(summary, item, cartItem.getAdjustments());
+        }
+        Collections.sort(summary);
+        return summary;
+    }
+
+    private static void addAdjustments(List<String> summary, String prefix, List<GenericValue> adjustments) {
+        for (GenericValue adjustment : adjustments) {
+            if (adjustment.get("productPromoId") != null) {
+                summary.add(prefix + " adjustment " + adjustment.getString("productPromoId") + " "
+                        + toString(adjustment.getBigDecimal("amount")) + " " + toString(adjustment.getBigDecimal("sourcePercentage")));
+            }
+        }
+    }
+
+    private static String toString(BigDecimal value) {
+        return (value != null) ? value.stripTrailingZeros().toPlainString() : "null";
+    }
+}
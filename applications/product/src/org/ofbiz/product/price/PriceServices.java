@@ -21,8 +21,11 @@ package org.ofbiz.product.price;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
@@ -48,6 +51,7 @@ import org.ofbiz.product.product.ProductWorker;
 import org.ofbiz.service.DispatchContext;
 import org.ofbiz.service.GenericServiceException;
 import org.ofbiz.service.LocalDispatcher;
+import org.ofbiz.service.ModelService;
 import org.ofbiz.service.ServiceUtil;
 
 /**
@@ -425,8 +429,17 @@ public class PriceServices {
             if (errorResult != null) return errorResult;
         } else {
             try {
-                List<GenericValue> allProductPriceRules = makeProducePriceRuleList(delegator, optimizeForLargeRuleSet, productId, virtualProductId, prodCatalogId, productStoreGroupId, webSiteId, partyId, currencyDefaultUomId, useCache);
-                allProductPriceRules = EntityUtil.filterByDate(allProductPriceRules, true);
+                // SCIPIO: with caching, select and evaluate the rules with the compiled rule engine (rebuilt when the rules change)
+                ProductPriceRuleEngine.Evaluation evaluation = null;
+                List<GenericValue> allProductPriceRules;
+                if (useCache) {
+                    evaluation = ProductPriceRuleEngine.getInstance(delegator).newEvaluation(delegator, productId, virtualProductId, prodCatalogId,
+                            productStoreGroupId, webSiteId, partyId, currencyDefaultUomId, nowTimestamp);
+                    allProductPriceRules = evaluation.getCandidateRules();
+                } else {
+                    allProductPriceRules = makeProducePriceRuleList(delegator, optimizeForLargeRuleSet, productId, virtualProductId, prodCatalogId, productStoreGroupId, webSiteId, partyId, currencyDefaultUomId, useCache);
+                    allProductPriceRules = EntityUtil.filterByDate(allProductPriceRules, true);
+                }
 
                 List<GenericValue> quantityProductPriceRules = null;
                 List<GenericValue> nonQuantityProductPriceRules = null;
@@ -435,19 +448,28 @@ public class PriceServices {
                     quantityProductPriceRules = new LinkedList<GenericValue>();
                     nonQuantityProductPriceRules = new LinkedList<GenericValue>();
                     for (GenericValue productPriceRule: allProductPriceRules) {
-                        List<GenericValue> productPriceCondList = EntityQuery.use(delegator).from("ProductPriceCond").where("productPriceRuleId", productPriceRule.get("productPriceRuleId")).cache(useCache).queryList();
-
                         boolean foundQuantityInputParam = false;
                         // only consider a rule if all conditions except the quantity condition are true
                         boolean allExceptQuantTrue = true;
-                        for (GenericValue productPriceCond: productPriceCondList) {
-                            if ("PRIP_QUANTITY".equals(productPriceCond.getString("inputParamEnumId"))) {
-                                foundQuantityInputParam = true;
-                            } else {
-                                if (!checkPriceCondition(productPriceCond, productId, virtualProductId, prodCatalogId, productStoreGroupId, webSiteId, partyId, quantity, listPrice, currencyDefaultUomId, delegator, nowTimestamp, useCache)) {
+                        if (evaluation != null) {
+                            for (ProductPriceRuleEngine.Condition cond : evaluation.getEngine().getConditions(productPriceRule.getString("productPriceRuleId"))) {
+                                if ("PRIP_QUANTITY".equals(cond.getInputParamEnumId())) {
+                                    foundQuantityInputParam = true;
+                                } else if (!evaluation.check(cond, quantity, listPrice)) {
                                     allExceptQuantTrue = false;
                                 }
                             }
+                        } else {
+                            List<GenericValue> productPriceCondList = EntityQuery.use(delegator).from("ProductPriceCond").where("productPriceRuleId", productPriceRule.get("productPriceRuleId")).cache(useCache).queryList();
+                            for (GenericValue productPriceCond: productPriceCondList) {
+                                if ("PRIP_QUANTITY".equals(productPriceCond.getString("inputParamEnumId"))) {
+                                    foundQuantityInputParam = true;
+                                } else {
+                                    if (!checkPriceCondition(productPriceCond, productId, virtualProductId, prodCatalogId, productStoreGroupId, webSiteId, partyId, quantity, listPrice, currencyDefaultUomId, delegator, nowTimestamp, useCache)) {
+                                        allExceptQuantTrue = false;
+                                    }
+                                }
+                            }
                         }
 
                         if (foundQuantityInputParam && allExceptQuantTrue) {
@@ -471,7 +493,7 @@ public class PriceServices {
                         Map<String, Object> quantCalcResults = calcPriceResultFromRules(ruleListToUse, listPrice, defaultPrice, promoPrice,
                             wholesalePrice, maximumPriceValue, minimumPriceValue, validPriceFound,
                             averageCostValue, productId, virtualProductId, prodCatalogId, productStoreGroupId,
-                            webSiteId, partyId, null, currencyDefaultUomId, delegator, nowTimestamp, locale, useCache);
+                            webSiteId, partyId, null, currencyDefaultUomId, delegator, nowTimestamp, locale, useCache, evaluation);
                         Map<String, Object> quantErrorResult = addGeneralResults(quantCalcResults, competitivePriceValue, specialPromoPriceValue, productStore,
                             checkIncludeVat, currencyDefaultUomId, productId, quantity, partyId, dispatcher, locale, useCache);
                         if (quantErrorResult != null) return quantErrorResult;
@@ -487,7 +509,7 @@ public class PriceServices {
                     Map<String, Object> calcResults = calcPriceResultFromRules(allProductPriceRules, listPrice, defaultPrice, promoPrice,
                         wholesalePrice, maximumPriceValue, minimumPriceValue, validPriceFound,
                         averageCostValue, productId, virtualProductId, prodCatalogId, productStoreGroupId,
-                        webSiteId, partyId, BigDecimal.ONE, currencyDefaultUomId, delegator, nowTimestamp, locale, useCache);
+                        webSiteId, partyId, BigDecimal.ONE, currencyDefaultUomId, delegator, nowTimestamp, locale, useCache, evaluation);
                     result.putAll(calcResults);
                     // The orderItemPriceInfos out parameter requires a special treatment:
                     // the list of OrderItemPriceInfos generated by the price rule is appended to
@@ -505,7 +527,7 @@ public class PriceServices {
                     Map<String, Object> calcResults = calcPriceResultFromRules(allProductPriceRules, listPrice, defaultPrice, promoPrice,
                         wholesalePrice, maximumPriceValue, minimumPriceValue, validPriceFound,
                         averageCostValue, productId, virtualProductId, prodCatalogId, productStoreGroupId,
-                        webSiteId, partyId, quantity, currencyDefaultUomId, delegator, nowTimestamp, locale, useCache);
+                        webSiteId, partyId, quantity, currencyDefaultUomId, delegator, nowTimestamp, locale, useCache, evaluation);
                     result.putAll(calcResults);
                     // The orderItemPriceInfos out parameter requires a special treatment:
                     // the list of OrderItemPriceInfos generated by the price rule is appended to
@@ -588,6 +610,80 @@ public class PriceServices {
         return result;
     }
 
+    /**
+     * SCIPIO: Calculates the prices of several products, such as those of a category listing page, by running
+     * calculateProductPrice for each with the same inputs; returns the results by productId in <code>productPriceMap</code>,
+     * leaving out (and logging) the products whose price could not be calculated.
+     * <p>
+     * The products are taken from <code>products</code> and/or <code>productIds</code> (read with one query), and
+     * productPriceMap keeps their order: first <code>products</code>, then <code>productIds</code>.
+     */
+    public static Map<String, Object> calculateProductPrices(DispatchContext dctx, Map<String, ? extends Object> context) {
+        Delegator delegator = dctx.getDelegator();
+        LocalDispatcher dispatcher = dctx.getDispatcher();
+        Locale locale = (Locale) context.get("locale");
+        boolean useCache = !Boolean.FALSE.equals(context.get("useCache"));
+
+        List<GenericValue> products = new ArrayList<>();
+        List<GenericValue> productList = UtilGenerics.checkList(context.get("products"));
+        if (productList != null) {
+            products.addAll(productList);
+        }
+        List<String> productIds = UtilGenerics.checkList(context.get("productIds"));
+        if (UtilValidate.isNotEmpty(productIds)) {
+            Map<String, GenericValue> productsById = new HashMap<>();
+            try {
+                for (GenericValue product : EntityQuery.use(delegator).from("Product").where(EntityCondition.makeCondition("productId", EntityOperator.IN, productIds))
+                        .cache(useCache).queryList()) {
+                    productsById.put(product.getString("productId"), product);
+                }
+            } catch (GenericEntityException e) {
+                Debug.logError(e, "Error getting products from the database while calculating prices: " + e.toString(), module);
+                return ServiceUtil.returnError(e.toString());
+            }
+            // the query returns the products in database order
+            for (String productId : productIds) {
+                GenericValue product = productsById.get(productId);
+                if (product != null) {
+                    products.add(product);
+                } else {
+                    Debug.logWarning("Could not calculate price of product [" + productId + "]: product not found", module);
+                }
+            }
+        }
+
+        Map<String, Object> priceContext;
+        try {
+            priceContext = dctx.makeValidContext("calculateProductPrice", ModelService.IN_PARAM, context);
+        } catch (GenericServiceException e) {
+            Debug.logError(e, "Error preparing calculateProductPrice context: " + e.toString(), module);
+            return ServiceUtil.returnError(e.toString());
+        }
+        Map<String, Map<String, Object>> productPriceMap = new LinkedHashMap<>();
+        for (GenericValue product : products) {
+            String productId = product.getString("productId");
+            if (productPriceMap.containsKey(productId)) {
+                continue;
+            }
+            Map<String, Object> productPriceContext = new HashMap<>(priceContext);
+            productPriceContext.put("product", product);
+            try {
+                Map<String, Object> priceResult = dispatcher.runSync("calculateProductPrice", productPriceContext);
+                if (ServiceUtil.isSuccess(priceResult)) {
+                    productPriceMap.put(productId, priceResult);
+                } else {
+                    Debug.logWarning("Could not calculate price of product [" + productId + "]: " + ServiceUtil.getErrorMessage(priceResult), module);
+                }
+            } catch (GenericServiceException e) {
+                Debug.logError(e, "Could not calculate price of product [" + productId + "]: " + e.toString(), module);
+            }
+        }
+
+        Map<String, Object> result = ServiceUtil.returnSuccess();
+        result.put("productPriceMap", productPriceMap);
+        return result;
+    }
+
     private static GenericValue getPriceValueForType(String productPriceTypeId, List<GenericValue> productPriceList, List<GenericValue> secondaryPriceList, Boolean getMinimumVariantPrice) {
         List<GenericValue> filteredPrices = EntityUtil.filterByAnd(productPriceList, UtilMisc.toMap("productPriceTypeId", productPriceTypeId));
         GenericValue priceValue = EntityUtil.getFirst(filteredPrices);
@@ -835,6 +931,17 @@ public class PriceServices {
         GenericValue averageCostValue, String productId, String virtualProductId, String prodCatalogId, String productStoreGroupId,
         String webSiteId, String partyId, BigDecimal quantity, String currencyUomId, Delegator delegator, Timestamp nowTimestamp,
         Locale locale, boolean useCache) throws GenericEntityException {
+        return calcPriceResultFromRules(productPriceRules, listPrice, defaultPrice, promoPrice, wholesalePrice, maximumPriceValue, minimumPriceValue, validPriceFound,
+                averageCostValue, productId, virtualProductId, prodCatalogId, productStoreGroupId, webSiteId, partyId, quantity,
+                currencyUomId, delegator, nowTimestamp, locale, useCache, null);
+    }
+
+    // SCIPIO: added evaluation: if set, the conditions and actions come from the compiled rule engine instead of queries
+    private static Map<String, Object> calcPriceResultFromRules(List<GenericValue> productPriceRules, BigDecimal listPrice, BigDecimal defaultPrice, BigDecimal promoPrice,
+        BigDecimal wholesalePrice, GenericValue maximumPriceValue, GenericValue minimumPriceValue, boolean validPriceFound,
+        GenericValue averageCostValue, String productId, String virtualProductId, String prodCatalogId, String productStoreGroupId,
+        String webSiteId, String partyId, BigDecimal quantity, String currencyUomId, Delegator delegator, Timestamp nowTimestamp,
+        Locale locale, boolean useCache, ProductPriceRuleEngine.Evaluation evaluation) throws GenericEntityException {
 
         Map<String, Object> calcResults = new HashMap<String, Object>();
 
@@ -872,7 +979,18 @@ public class PriceServices {
             // check all conditions
             boolean allTrue = true;
             StringBuilder condsDescription = new StringBuilder();
-            List<GenericValue> productPriceConds = EntityQuery.use(delegator).from("ProductPriceCond").where("productPriceRuleId", productPriceRuleId).cache(useCache).queryList();
+            if (evaluation != null) {
+                for (ProductPriceRuleEngine.Condition cond : evaluation.getEngine().getConditions(productPriceRuleId)) {
+                    totalConds++;
+                    if (!evaluation.check(cond, quantity, listPrice)) {
+                        allTrue = false;
+                        break;
+                    }
+                    condsDescription.append(cond.getDescription());
+                }
+            }
+            List<GenericValue> productPriceConds = (evaluation != null) ? Collections.<GenericValue>emptyList()
+                    : EntityQuery.use(delegator).from("ProductPriceCond").where("productPriceRuleId", productPriceRuleId).cache(useCache).queryList();
             for (GenericValue productPriceCond: productPriceConds) {
 
                 totalConds++;
@@ -914,7 +1032,8 @@ public class PriceServices {
                     isSale = true;
                 }
 
-                List<GenericValue> productPriceActions = EntityQuery.use(delegator).from("ProductPriceAction").where("productPriceRuleId", productPriceRuleId).cache(useCache).queryList();
+                List<GenericValue> productPriceActions = (evaluation != null) ? evaluation.getEngine().getActions(productPriceRuleId)
+                        : EntityQuery.use(delegator).from("ProductPriceAction").where("productPriceRuleId", productPriceRuleId).cache(useCache).queryList();
                 for (GenericValue productPriceAction: productPriceActions) {
 
                     totalActions++;
@@ -0,0 +1,453 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.product.price;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.base.util.UtilValidate;
+import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.GenericEntityException;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.util.EntityQuery;
+
+/**
+ * SCIPIO: The ProductPriceRule set compiled for {@link PriceServices#calculateProductPrice}: the rules with their
+ * conditions and actions in memory, the rules indexed by the value of one of their equality conditions
+ * (product, party, catalog, website, store group, currency, category or feature), and the condition values
+ * parsed once.
+ * <p>
+ * {@link #newEvaluation} selects the rules that can apply to a product with a few hash lookups (plus one cached
+ * query each for the category memberships and features of the product, if any rule is indexed by them), and
+ * {@link Evaluation#check} evaluates the conditions without a query for the input-only ones. The candidate rules are
+ * returned in productPriceRuleId order, like the optimizeForLargeRuleSet pre-filter.
+ * <p>
+ * The engine is built from the entity cache lists of ProductPriceRule, ProductPriceCond and ProductPriceAction and
+ * rebuilt by {@link #getInstance} as soon as one of them was cleared, that is on any change to these entities
+ * (including distributed cache clears). Only meant for calls with useCache=true.
+ */
+public final class ProductPriceRuleEngine {
+
+    private static final Debug.OfbizLogger module = Debug.getOfbizLogger(java.lang.invoke.MethodHandles.lookup().lookupClass());
+
+    private static final Map<String, ProductPriceRuleEngine> delegatorEngines = new ConcurrentHashMap<>();
+
+    /** The condition inputs a rule can be indexed by, most selective and cheapest first. */
+    private static final List<String> INDEX_INPUT_PARAMS = UtilMisc.unmodifiableArrayList("PRIP_PRODUCT_ID", "PRIP_PARTY_ID",
+            "PRIP_PROD_CLG_ID", "PRIP_WEBSITE_ID", "PRIP_PROD_SGRP_ID", "PRIP_CURRENCY_UOMID", "PRIP_PROD_CAT_ID", "PRIP_PROD_FEAT_ID");
+
+    private static final int OP_EQ = 0;
+    private static final int OP_NEQ = 1;
+    private static final int OP_LT = 2;
+    private static final int OP_LTE = 3;
+    private static final int OP_GT = 4;
+    private static final int OP_GTE = 5;
+    private static final int OP_UNSUPPORTED = -1;
+
+    private final List<GenericValue> cachedRules;
+    private final List<GenericValue> cachedConds;
+    private final List<GenericValue> cachedActions;
+
+    private final Rule[] rules;
+    private final Map<String, Rule> ruleMap;
+    /** Rules without an indexable equality condition; candidates for every product. */
+    private final BitSet unindexedRules;
+    /** Rule ordinals by index input and condition value. */
+    private final Map<String, Map<String, BitSet>> ruleIndex;
+
+    private ProductPriceRuleEngine(Delegator delegator, List<GenericValue> cachedRules, List<GenericValue> cachedConds,
+            List<GenericValue> cachedActions) throws GenericEntityException {
+        this.cachedRules = cachedRules;
+        this.cachedConds = cachedConds;
+        this.cachedActions = cachedActions;
+
+        Map<String, List<Condition>> ruleConds = new HashMap<>();
+        for (GenericValue productPriceCond : cachedConds) {
+            ruleConds.computeIfAbsent(productPriceCond.getString("productPriceRuleId"), k -> new ArrayList<>()).add(new Condition(productPriceCond));
+        }
+        Map<String, List<GenericValue>> ruleActions = new HashMap<>();
+        for (GenericValue productPriceAction : cachedActions) {
+            ruleActions.computeIfAbsent(productPriceAction.getString("productPriceRuleId"), k -> new ArrayList<>()).add(productPriceAction);
+        }
+
+        this.rules = new Rule[cachedRules.size()];
+        this.ruleMap = new HashMap<>();
+        this.unindexedRules = new BitSet(rules.length);
+        this.ruleIndex = new HashMap<>();
+        for (String inputParamEnumId : INDEX_INPUT_PARAMS) {
+            ruleIndex.put(inputParamEnumId, new HashMap<>());
+        }
+        for (int i = 0; i < rules.length; i++) {
+            GenericValue productPriceRule = cachedRules.get(i);
+            String productPriceRuleId = productPriceRule.getString("productPriceRuleId");
+            List<Condition> conds = ruleConds.getOrDefault(productPriceRuleId, Collections.emptyList());
+            List<GenericValue> actions = ruleActions.getOrDefault(productPriceRuleId, Collections.emptyList());
+            for (Condition cond : conds) {
+                cond.makeDescription(delegator);
+            }
+            Rule rule = new Rule(i, productPriceRule, Collections.unmodifiableList(conds), Collections.unmodifiableList(actions));
+            rules[i] = rule;
+            ruleMap.put(productPriceRuleId, rule);
+
+            Condition indexCond = null;
+            for (Condition cond : conds) {
+                if (cond.operator == OP_EQ && UtilValidate.isNotEmpty(cond.condValue) && INDEX_INPUT_PARAMS.contains(cond.inputParamEnumId)
+                        && (indexCond == null || INDEX_INPUT_PARAMS.indexOf(cond.inputParamEnumId) < INDEX_INPUT_PARAMS.indexOf(indexCond.inputParamEnumId))) {
+                    indexCond = cond;
+                }
+            }
+            if (indexCond != null) {
+                ruleIndex.get(indexCond.inputParamEnumId).computeIfAbsent(indexCond.condValue, k -> new BitSet(rules.length)).set(i);
+            } else {
+                unindexedRules.set(i);
+            }
+        }
+        if (Debug.verboseOn()) {
+            Debug.logVerbose("Compiled " + rules.length + " price rules (" + unindexedRules.cardinality() + " unindexed) with "
+                    + cachedConds.size() + " conditions and " + cachedActions.size() + " actions", module);
+        }
+    }
+
+    /**
+     * Returns the engine of the delegator, rebuilding it if the price rule entities changed since it was built.
+     */
+    public static ProductPriceRuleEngine getInstance(Delegator delegator) throws GenericEntityException {
+        List<GenericValue> cachedRules = EntityQuery.use(delegator).from("ProductPriceRule").orderBy("productPriceRuleId").cache(true).queryList();
+        List<GenericValue> cachedConds = EntityQuery.use(delegator).from("ProductPriceCond").orderBy("productPriceRuleId", "productPriceCondSeqId").cache(true).queryList();
+        List<GenericValue> cachedActions = EntityQuery.use(delegator).from("ProductPriceAction").orderBy("productPriceRuleId", "productPriceActionSeqId").cache(true).queryList();
+        ProductPriceRuleEngine engine = delegatorEngines.get(delegator.getDelegatorName());
+        // the entity cache returns the same list instances until an entity of the lists changes
+        if (engine == null || engine.cachedRules != cachedRules || engine.cachedConds != cachedConds || engine.cachedActions != cachedActions) {
+            engine = new ProductPriceRuleEngine(delegator, cachedRules, cachedConds, cachedActions);
+            delegatorEngines.put(delegator.getDelegatorName(), engine);
+        }
+        return engine;
+    }
+
+    /** Returns the number of compiled rules. */
+    public int getRuleCount() {
+        return rules.length;
+    }
+
+    /**
+     * Returns the conditions of the rule, in sequence order; empty for an unknown rule.
+     */
+    public List<Condition> getConditions(String productPriceRuleId) {
+        Rule rule = ruleMap.get(productPriceRuleId);
+        return (rule != null) ? rule.conds : Collections.emptyList();
+    }
+
+    /**
+     * Returns the ProductPriceAction records of the rule, in sequence order; empty for an unknown rule.
+     */
+    public List<GenericValue> getActions(String productPriceRuleId) {
+        Rule rule = ruleMap.get(productPriceRuleId);
+        return (rule != null) ? rule.actions : Collections.emptyList();
+    }
+
+    /**
+     * Selects the rules that can apply to the product with the given inputs; see {@link Evaluation}.
+     */
+    public Evaluation newEvaluation(Delegator delegator, String productId, String virtualProductId, String prodCatalogId,
+            String productStoreGroupId, String webSiteId, String partyId, String currencyUomId, Timestamp nowTimestamp) throws GenericEntityException {
+        return new Evaluation(delegator, productId, virtualProductId, prodCatalogId, productStoreGroupId, webSiteId, partyId, currencyUomId, nowTimestamp);
+    }
+
+    private static int parseOperator(String operatorEnumId) {
+        if ("PRC_EQ".equals(operatorEnumId)) {
+            return OP_EQ;
+        } else if ("PRC_NEQ".equals(operatorEnumId)) {
+            return OP_NEQ;
+        } else if ("PRC_LT".equals(operatorEnumId)) {
+            return OP_LT;
+        } else if ("PRC_LTE".equals(operatorEnumId)) {
+            return OP_LTE;
+        } else if ("PRC_GT".equals(operatorEnumId)) {
+            return OP_GT;
+        } else if ("PRC_GTE".equals(operatorEnumId)) {
+            return OP_GTE;
+        }
+        return OP_UNSUPPORTED;
+    }
+
+    private static BigDecimal parseNumber(String inputParamEnumId, String condValue) {
+        if (("PRIP_QUANTITY".equals(inputParamEnumId) || "PRIP_LIST_PRICE".equals(inputParamEnumId)) && condValue != null) {
+            try {
+                return new BigDecimal(condValue);
+            } catch (NumberFormatException e) {
+                Debug.logWarning("Invalid number in ProductPriceCond " + inputParamEnumId + " value: " + condValue, module);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A compiled ProductPriceCond.
+     */
+    public static final class Condition {
+        private final GenericValue productPriceCond;
+        private final String inputParamEnumId;
+        private final String condValue;
+        private final int operator;
+        private final BigDecimal numberValue;
+        private String description;
+
+        private Condition(GenericValue productPriceCond) {
+            this.productPriceCond = productPriceCond;
+            this.inputParamEnumId = productPriceCond.getString("inputParamEnumId");
+            this.condValue = productPriceCond.getString("condValue");
+            this.operator = parseOperator(productPriceCond.getString("operatorEnumId"));
+            this.numberValue = parseNumber(inputParamEnumId, condValue);
+        }
+
+        private void makeDescription(Delegator delegator) throws GenericEntityException {
+            // same as PriceServices.calcPriceResultFromRules
+            GenericValue inputParamEnum = productPriceCond.getRelatedOne("InputParamEnumeration", true);
+            GenericValue operatorEnum = productPriceCond.getRelatedOne("OperatorEnumeration", true);
+            this.description = "[" + (inputParamEnum != null ? inputParamEnum.getString("enumCode") : inputParamEnumId)
+                    + (operatorEnum != null ? operatorEnum.getString("description") : productPriceCond.getString("operatorEnumId"))
+                    + condValue + "] ";
+        }
+
+        public GenericValue getValue() {
+            return productPriceCond;
+        }
+
+        public String getInputParamEnumId() {
+            return inputParamEnumId;
+        }
+
+        /** Returns the description of the condition for OrderItemPriceInfo. */
+        public String getDescription() {
+            return description;
+        }
+    }
+
+    private static final class Rule {
+        final int ordinal;
+        final GenericValue productPriceRule;
+        final List<Condition> conds;
+        final List<GenericValue> actions;
+
+        Rule(int ordinal, GenericValue productPriceRule, List<Condition> conds, List<GenericValue> actions) {
+            this.ordinal = ordinal;
+            this.productPriceRule = productPriceRule;
+            this.conds = conds;
+            this.actions = actions;
+        }
+    }
+
+    /**
+     * The rules that can apply to one product with one set of inputs, and the evaluation of their conditions.
+     * <p>
+     * Not thread-safe; meant for one price calculation.
+     */
+    public final class Evaluation {
+        private final Delegator delegator;
+        private final String productId;
+        private final String virtualProductId;
+        private final String prodCatalogId;
+        private final String productStoreGroupId;
+        private final String webSiteId;
+        private final String partyId;
+        private final String currencyUomId;
+        private final Timestamp nowTimestamp;
+        private Set<String> productCategoryIds;
+        private Set<String> productFeatureIds;
+        private final List<GenericValue> candidateRules;
+
+        private Evaluation(Delegator delegator, String productId, String virtualProductId, String prodCatalogId, String productStoreGroupId,
+                String webSiteId, String partyId, String currencyUomId, Timestamp nowTimestamp) throws GenericEntityException {
+            this.delegator = delegator;
+            this.productId = productId;
+            this.virtualProductId = virtualProductId;
+            this.prodCatalogId = prodCatalogId;
+            this.productStoreGroupId = productStoreGroupId;
+            this.webSiteId = webSiteId;
+            this.partyId = partyId;
+            this.currencyUomId = currencyUomId;
+            this.nowTimestamp = nowTimestamp;
+
+            BitSet candidates = (BitSet) unindexedRules.clone();
+            addIndexed(candidates, "PRIP_PRODUCT_ID", productId);
+            addIndexed(candidates, "PRIP_PARTY_ID", partyId);
+            addIndexed(candidates, "PRIP_PROD_CLG_ID", prodCatalogId);
+            addIndexed(candidates, "PRIP_WEBSITE_ID", webSiteId);
+            addIndexed(candidates, "PRIP_PROD_SGRP_ID", productStoreGroupId);
+            addIndexed(candidates, "PRIP_CURRENCY_UOMID", currencyUomId);
+            if (!ruleIndex.get("PRIP_PROD_CAT_ID").isEmpty()) {
+                for (String productCategoryId : getProductCategoryIds()) {
+                    addIndexed(candidates, "PRIP_PROD_CAT_ID", productCategoryId);
+                }
+            }
+            if (!ruleIndex.get("PRIP_PROD_FEAT_ID").isEmpty()) {
+                for (String productFeatureId : getProductFeatureIds()) {
+                    addIndexed(candidates, "PRIP_PROD_FEAT_ID", productFeatureId);
+                }
+            }
+
+            List<GenericValue> candidateRules = new ArrayList<>(candidates.cardinality());
+            for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+                GenericValue productPriceRule = rules[i].productPriceRule;
+                Timestamp fromDate = productPriceRule.getTimestamp("fromDate");
+                Timestamp thruDate = productPriceRule.getTimestamp("thruDate");
+                if ((fromDate == null || !fromDate.after(nowTimestamp)) && (thruDate == null || thruDate.after(nowTimestamp))) {
+                    candidateRules.add(productPriceRule);
+                }
+            }
+            this.candidateRules = Collections.unmodifiableList(candidateRules);
+        }
+
+        private void addIndexed(BitSet candidates, String inputParamEnumId, String value) {
+            if (value != null) {
+                BitSet indexed = ruleIndex.get(inputParamEnumId).get(value);
+                if (indexed != null) {
+                    candidates.or(indexed);
+                }
+            }
+        }
+
+        /** Returns the active rules that can apply, in productPriceRuleId order. */
+        public List<GenericValue> getCandidateRules() {
+            return candidateRules;
+        }
+
+        public ProductPriceRuleEngine getEngine() {
+            return ProductPriceRuleEngine.this;
+        }
+
+        /**
+         * Checks the condition like {@link PriceServices#checkPriceCondition}; quantity may be null, in which case
+         * quantity conditions pass.
+         */
+        public boolean check(Condition cond, BigDecimal quantity, BigDecimal listPrice) throws GenericEntityException {
+            int compare;
+            switch (cond.inputParamEnumId) {
+            case "PRIP_PRODUCT_ID":
+                compare = compare(productId, cond.condValue);
+                break;
+            case "PRIP_PROD_CAT_ID":
+                compare = getProductCategoryIds().contains(cond.condValue) ? 0 : 1;
+                break;
+            case "PRIP_PROD_FEAT_ID":
+                compare = getProductFeatureIds().contains(cond.condValue) ? 0 : 1;
+                break;
+            case "PRIP_PROD_CLG_ID":
+                compare = compare(prodCatalogId, cond.condValue);
+                break;
+            case "PRIP_PROD_SGRP_ID":
+                compare = compare(productStoreGroupId, cond.condValue);
+                break;
+            case "PRIP_WEBSITE_ID":
+                compare = compare(webSiteId, cond.condValue);
+                break;
+            case "PRIP_PARTY_ID":
+                compare = compare(partyId, cond.condValue);
+                break;
+            case "PRIP_CURRENCY_UOMID":
+                compare = compare(currencyUomId, cond.condValue);
+                break;
+            case "PRIP_QUANTITY":
+                if (quantity == null) {
+                    return true;
+                }
+                if (cond.numberValue == null) {
+                    return false;
+                }
+                compare = quantity.compareTo(cond.numberValue);
+                break;
+            case "PRIP_LIST_PRICE":
+                if (cond.numberValue == null) {
+                    return false;
+                }
+                compare = listPrice.compareTo(cond.numberValue);
+                break;
+            default:
+                // party groups, classifications and roles, or unsupported inputs
+                return PriceServices.checkPriceCondition(cond.productPriceCond, productId, virtualProductId, prodCatalogId, productStoreGroupId,
+                        webSiteId, partyId, quantity, listPrice, currencyUomId, delegator, nowTimestamp, true);
+            }
+            switch (cond.operator) {
+            case OP_EQ:
+                return compare == 0;
+            case OP_NEQ:
+                return compare != 0;
+            case OP_LT:
+                return compare < 0;
+            case OP_LTE:
+                return compare <= 0;
+            case OP_GT:
+                return compare > 0;
+            case OP_GTE:
+                return compare >= 0;
+            default:
+                Debug.logWarning("An un-supported productPriceCond condition was used: " + cond.productPriceCond.getString("operatorEnumId") + ", returning false, ie check failed", module);
+                return false;
+            }
+        }
+
+        /** Compares an input to a condition value; an empty input never equals. */
+        private int compare(String input, String condValue) {
+            if (UtilValidate.isEmpty(input) || condValue == null) {
+                return 1;
+            }
+            return input.compareTo(condValue);
+        }
+
+        /** Returns the categories the product or its virtual product is currently a member of. */
+        private Set<String> getProductCategoryIds() throws GenericEntityException {
+            if (productCategoryIds == null) {
+                Set<String> categoryIds = new HashSet<>();
+                // the virtual is checked too, since variants are typically not category members (see PriceServices.checkPriceCondition)
+                for (String memberProductId : new String[] { productId, virtualProductId }) {
+                    if (UtilValidate.isNotEmpty(memberProductId)) {
+                        List<GenericValue> productCategoryMembers = EntityQuery.use(delegator).from("ProductCategoryMember")
+                                .where("productId", memberProductId).cache(true).filterByDate(nowTimestamp).queryList();
+                        UtilMisc.getMapValuesForKey(productCategoryMembers, "productCategoryId", categoryIds);
+                    }
+                }
+                productCategoryIds = categoryIds;
+            }
+            return productCategoryIds;
+        }
+
+        /** Returns the features currently applied to the product (not its virtual product, see PriceServices.checkPriceCondition). */
+        private Set<String> getProductFeatureIds() throws GenericEntityException {
+            if (productFeatureIds == null) {
+                Set<String> featureIds = new HashSet<>();
+                List<GenericValue> productFeatureAppls = EntityQuery.use(delegator).from("ProductFeatureAppl")
+                        .where("productId", productId).cache(true).filterByDate(nowTimestamp).queryList();
+                UtilMisc.getMapValuesForKey(productFeatureAppls, "productFeatureId", featureIds);
+                productFeatureIds = featureIds;
+            }
+            return productFeatureIds;
+        }
+    }
+}
@@ -23,6 +23,7 @@ import java.math.MathContext;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
@@ -1184,11 +1185,20 @@ public final class ProductWorker {
         List<GenericValue> productsByIds = findProductsById(delegator, idToFind, goodIdentificationTypeId);
         List<GenericValue> products = null;
         if (UtilValidate.isNotEmpty(productsByIds)) {
+            // SCIPIO: fetch the Products for the view entity values at once instead of one query per value
+            List<Object> viewProductIds = new ArrayList<>();
+            for (GenericValue product : productsByIds) {
+                if (! "Product".equals(product.getEntityName())) {
+                    viewProductIds.add(product.get("productId"));
+                }
+            }
+            Map<Object, GenericValue> viewProducts = viewProductIds.isEmpty() ? Collections.<Object, GenericValue>emptyMap()
+                    : EntityQuery.use(delegator).from("Product").cache().queryAllByPrimaryKeyValues(viewProductIds);
             for (GenericValue product : productsByIds) {
                 GenericValue productToAdd = product;
                 //retreive product GV if the actual genericValue came from viewEntity
                 if (! "Product".equals(product.getEntityName())) {
-                    productToAdd = EntityQuery.use(delegator).from("Product").where("productId", product.get("productId")).cache().queryOne();
+                    productToAdd = viewProducts.get(product.get("productId"));
                 }
 
                 if (UtilValidate.isEmpty(products)) {
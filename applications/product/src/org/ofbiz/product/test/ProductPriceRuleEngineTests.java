@@ -0,0 +1,182 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.product.test;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.ofbiz.base.util.UtilGenerics;
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.product.price.ProductPriceRuleEngine;
+import org.ofbiz.service.ServiceUtil;
+import org.ofbiz.service.testtools.OFBizTestCase;
+
+/**
+ * SCIPIO: Checks that calculateProductPrice gives the same results with the compiled {@link ProductPriceRuleEngine}
+ * (useCache=true) as with the query path (useCache=false), for rules on product, category (including through the
+ * virtual product), feature, party, quantity and NEQ conditions, and an unindexed rule.
+ */
+public class ProductPriceRuleEngineTests extends OFBizTestCase {
+
+    private static final Timestamp FROM_DATE = Timestamp.valueOf("2000-01-01 00:00:00.0");
+    private static final String PARTY_ID = "PPRE_PARTY";
+    private static final List<String> PRODUCT_IDS = UtilMisc.toList("PPRE_PLAIN", "PPRE_VIRT", "PPRE_VAR1", "PPRE_VAR2");
+
+    private final List<GenericValue> testValues = new ArrayList<>();
+
+    public ProductPriceRuleEngineTests(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        create("Product", "productId", "PPRE_PLAIN", "productTypeId", "FINISHED_GOOD", "productName", "Price Rule Test Plain", "isVirtual", "N", "isVariant", "N");
+        create("Product", "productId", "PPRE_VIRT", "productTypeId", "FINISHED_GOOD", "productName", "Price Rule Test Virtual", "isVirtual", "Y", "isVariant", "N");
+        create("Product", "productId", "PPRE_VAR1", "productTypeId", "FINISHED_GOOD", "productName", "Price Rule Test Variant 1", "isVirtual", "N", "isVariant", "Y");
+        create("Product", "productId", "PPRE_VAR2", "productTypeId", "FINISHED_GOOD", "productName", "Price Rule Test Variant 2", "isVirtual", "N", "isVariant", "Y");
+        create("ProductAssoc", "productId", "PPRE_VIRT", "productIdTo", "PPRE_VAR1", "productAssocTypeId", "PRODUCT_VARIANT", "fromDate", FROM_DATE);
+        create("ProductAssoc", "productId", "PPRE_VIRT", "productIdTo", "PPRE_VAR2", "productAssocTypeId", "PRODUCT_VARIANT", "fromDate", FROM_DATE);
+        createPrices("PPRE_PLAIN", "20.00");
+        createPrices("PPRE_VIRT", "30.00");
+        createPrices("PPRE_VAR1", "40.00");
+        createPrices("PPRE_VAR2", "50.00");
+
+        // the virtual is the category member, not the variants
+        create("ProductCategory", "productCategoryId", "PPRE_CAT", "productCategoryTypeId", "CATALOG_CATEGORY", "categoryName", "Price Rule Test Category");
+        create("ProductCategoryMember", "productCategoryId", "PPRE_CAT", "productId", "PPRE_PLAIN", "fromDate", FROM_DATE);
+        create("ProductCategoryMember", "productCategoryId", "PPRE_CAT", "productId", "PPRE_VIRT", "fromDate", FROM_DATE);
+        create("ProductFeature", "productFeatureId", "PPRE_FEAT", "productFeatureTypeId", "COLOR", "description", "Price Rule Test Feature");
+        create("ProductFeatureAppl", "productId", "PPRE_VAR1", "productFeatureId", "PPRE_FEAT", "productFeatureApplTypeId", "STANDARD_FEATURE", "fromDate", FROM_DATE);
+
+        createRule("PPRE_PROD", "-10", "PRIP_PRODUCT_ID", "PRC_EQ", "PPRE_PLAIN");
+        createRule("PPRE_CAT", "-5", "PRIP_PROD_CAT_ID", "PRC_EQ", "PPRE_CAT");
+        createRule("PPRE_FEAT", "-3", "PRIP_PROD_FEAT_ID", "PRC_EQ", "PPRE_FEAT");
+        createRule("PPRE_PARTY", "-7", "PRIP_PARTY_ID", "PRC_EQ", PARTY_ID, "PRIP_PROD_CAT_ID", "PRC_EQ", "PPRE_CAT");
+        createRule("PPRE_QTY", "-20", "PRIP_PROD_CAT_ID", "PRC_EQ", "PPRE_CAT", "PRIP_QUANTITY", "PRC_GTE", "10");
+        createRule("PPRE_NEQ", "-2", "PRIP_PROD_CAT_ID", "PRC_EQ", "PPRE_CAT", "PRIP_PRODUCT_ID", "PRC_NEQ", "PPRE_VAR2");
+        // no equality condition: a candidate for every product
+        createRule("PPRE_UNIDX", "-1", "PRIP_PARTY_ID", "PRC_NEQ", PARTY_ID, "PRIP_QUANTITY", "PRC_GTE", "3");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        List<GenericValue> values = new ArrayList<>(testValues);
+        Collections.reverse(values);
+        delegator.removeAll(values);
+        testValues.clear();
+    }
+
+    public void testEngineMatchesQueryPath() throws Exception {
+        for (String productId : PRODUCT_IDS) {
+            for (String partyId : new String[] { null, PARTY_ID }) {
+                for (BigDecimal quantity : new BigDecimal[] { BigDecimal.ONE, new BigDecimal("3"), BigDecimal.TEN }) {
+                    String label = productId + " party " + partyId + " quantity " + quantity;
+                    Map<String, Object> engineResult = calculatePrice(productId, partyId, quantity, true);
+                    Map<String, Object> queryResult = calculatePrice(productId, partyId, quantity, false);
+                    assertEquals(label + ": applied rules", getRuleIds(queryResult), getRuleIds(engineResult));
+                    assertEquals(label + ": price", (BigDecimal) queryResult.get("price"), (BigDecimal) engineResult.get("price"));
+                    assertEquals(label + ": basePrice", (BigDecimal) queryResult.get("basePrice"), (BigDecimal) engineResult.get("basePrice"));
+                    assertEquals(label + ": listPrice", (BigDecimal) queryResult.get("listPrice"), (BigDecimal) engineResult.get("listPrice"));
+                    assertEquals(label + ": isSale", queryResult.get("isSale"), engineResult.get("isSale"));
+                }
+            }
+        }
+    }
+
+    /*
+     * Guards against both paths ignoring the rules: checks the rules applied for a few inputs.
+     */
+    public void testAppliedRules() throws Exception {
+        assertEquals("Plain product, no party, quantity 3", new TreeSet<>(UtilMisc.toList("PPRE_CAT", "PPRE_NEQ", "PPRE_PROD", "PPRE_UNIDX")),
+                getRuleIds(calculatePrice("PPRE_PLAIN", null, new BigDecimal("3"), true)));
+        assertEquals("Variant with feature through virtual category, party, quantity 10",
+                new TreeSet<>(UtilMisc.toList("PPRE_CAT", "PPRE_FEAT", "PPRE_NEQ", "PPRE_PARTY", "PPRE_QTY")),
+                getRuleIds(calculatePrice("PPRE_VAR1", PARTY_ID, BigDecimal.TEN, true)));
+        assertEquals("Excluded variant, no party, quantity 1", new TreeSet<>(UtilMisc.toList("PPRE_CAT")),
+                getRuleIds(calculatePrice("PPRE_VAR2", null, BigDecimal.ONE, true)));
+    }
+
+    public void testCalculateProductPricesOrder() throws Exception {
+        Map<String, Object> ctx = new HashMap<>();
+        ctx.put("products", UtilMisc.toList(delegator.findOne("Product", UtilMisc.toMap("productId", "PPRE_VIRT"), false)));
+        ctx.put("productIds", UtilMisc.toList("PPRE_VAR2", "PPRE_PLAIN", "PPRE_VAR1"));
+        ctx.put("currencyUomId", "USD");
+        Map<String, Object> result = dispatcher.runSync("calculateProductPrices", ctx);
+        assertTrue(ServiceUtil.getErrorMessage(result), ServiceUtil.isSuccess(result));
+        Map<String, Map<String, Object>> productPriceMap = UtilGenerics.checkMap(result.get("productPriceMap"));
+        assertEquals("Products in input order", UtilMisc.toList("PPRE_VIRT", "PPRE_VAR2", "PPRE_PLAIN", "PPRE_VAR1"),
+                new ArrayList<>(productPriceMap.keySet()));
+        assertEquals("Same price as calculateProductPrice", calculatePrice("PPRE_VAR1", null, null, true).get("price"),
+                productPriceMap.get("PPRE_VAR1").get("price"));
+    }
+
+    private Map<String, Object> calculatePrice(String productId, String partyId, BigDecimal quantity, boolean useCache) throws Exception {
+        Map<String, Object> ctx = new HashMap<>();
+        ctx.put("product", delegator.findOne("Product", UtilMisc.toMap("productId", productId), false));
+        ctx.put("partyId", partyId);
+        ctx.put("quantity", quantity);
+        ctx.put("currencyUomId", "USD");
+        ctx.put("useCache", useCache);
+        Map<String, Object> result = dispatcher.runSync("calculateProductPrice", ctx);
+        assertTrue(ServiceUtil.getErrorMessage(result), ServiceUtil.isSuccess(result));
+        return result;
+    }
+
+    private static Set<String> getRuleIds(Map<String, Object> priceResult) {
+        Set<String> ruleIds = new TreeSet<>();
+        List<GenericValue> orderItemPriceInfos = UtilGenerics.checkList(priceResult.get("orderItemPriceInfos"));
+        if (orderItemPriceInfos != null) {
+            for (GenericValue orderItemPriceInfo : orderItemPriceInfos) {
+                ruleIds.add(orderItemPriceInfo.getString("productPriceRuleId"));
+            }
+        }
+        return ruleIds;
+    }
+
+    private void create(String entityName, Object... fields) throws Exception {
+        testValues.add(delegator.createOrStore(delegator.makeValue(entityName, fields)));
+    }
+
+    private void createPrices(String productId, String price) throws Exception {
+        for (String productPriceTypeId : new String[] { "LIST_PRICE", "DEFAULT_PRICE" }) {
+            create("ProductPrice", "productId", productId, "productPriceTypeId", productPriceTypeId, "productPricePurposeId", "PURCHASE",
+                    "currencyUomId", "USD", "productStoreGroupId", "_NA_", "fromDate", FROM_DATE, "price", new BigDecimal(price));
+        }
+    }
+
+    /** Creates a rule with a percent of list price action and the given conditions (input, operator, value triples). */
+    private void createRule(String productPriceRuleId, String percent, String... conds) throws Exception {
+        create("ProductPriceRule", "productPriceRuleId", productPriceRuleId, "ruleName", "Price rule engine test " + productPriceRuleId,
+                "isSale", "N", "fromDate", FROM_DATE);
+        for (int i = 0; i < conds.length; i += 3) {
+            create("ProductPriceCond", "productPriceRuleId", productPriceRuleId, "productPriceCondSeqId", String.format("%02d", i / 3 + 1),
+                    "inputParamEnumId", conds[i], "operatorEnumId", conds[i + 1], "condValue", conds[i + 2]);
+        }
+        create("ProductPriceAction", "productPriceRuleId", productPriceRuleId, "productPriceActionSeqId", "01",
+                "productPriceActionTypeId", "PRICE_POL", "amount", new BigDecimal(percent));
+    }
+}
@@ -0,0 +1,296 @@
+package com.ilscipio.scipio.solr;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.solr.client.solrj.impl.HttpSolrClient;
+import org.apache.solr.common.SolrInputDocument;
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilProperties;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.util.EntityListIterator;
+import org.ofbiz.service.DispatchContext;
+
+/**
+ * SCIPIO: Staged pipeline behind {@link SolrProductSearch#rebuildSolrIndex}: the calling thread reads the products
+ * from the cursor in batches, a pool of builder threads turns each batch into Solr documents, and a single sender
+ * thread adds them to Solr without committing; {@link #run} commits once at the end.
+ * <p>
+ * The stages are connected by bounded queues, so at most a few batches are held in memory whatever the catalog size,
+ * and a slow stage holds back the ones before it. Batches can be built out of order; the sender keeps as checkpoint
+ * the last productId of the last batch up to which all batches were sent and stores it in SolrStatus every
+ * <code>solr.index.rebuild.checkpoint.interval</code> seconds, so an interrupted rebuild can resume after it
+ * (the cursor must be ordered by productId). Documents sent but not committed yet survive a Solr restart through
+ * its update log.
+ * <p>
+ * Progress and throughput are logged every <code>solr.index.rebuild.progress.interval</code> seconds.
+ */
+public class SolrIndexRebuilder {
+
+    private static final Debug.OfbizLogger module = Debug.getOfbizLogger(java.lang.invoke.MethodHandles.lookup().lookupClass());
+
+    private static final Batch END = new Batch(-1, null, null, null);
+
+    private final DispatchContext dctx;
+    private final Map<String, Object> productContext;
+    private final boolean useCache;
+    private final HttpSolrClient client;
+    private final int bufSize;
+    private final int builderThreads;
+    private final int queueSize;
+    private final long checkpointIntervalMillis;
+    private final long progressIntervalMillis;
+    private final long totalDocs;
+
+    private final BlockingQueue<Batch> readQueue;
+    private final BlockingQueue<Batch> sendQueue;
+    private final AtomicInteger liveBuilders;
+    private final AtomicLong numBuilt = new AtomicLong();
+    private volatile long numRead = 0;
+    private volatile long numSent = 0;
+    /** The last productId up to which all products were sent; written by the sender thread only. */
+    private volatile String checkpointId;
+    private String storedCheckpointId;
+    private volatile Throwable failure;
+    private long startTime;
+
+    /**
+     * Constructor.
+     * @param dctx the dispatch context
+     * @param productContext the context passed to {@link SolrProductUtil#getProductContent}, including <code>useCache</code>
+     * @param client the Solr update client
+     * @param bufSize the number of products per batch; zero or less for a single batch
+     * @param totalDocs the number of products the cursor will return, for progress only
+     */
+    public SolrIndexRebuilder(DispatchContext dctx, Map<String, Object> productContext, HttpSolrClient client, int bufSize, long totalDocs) {
+        this.dctx = dctx;
+        this.productContext = productContext;
+        this.useCache = Boolean.TRUE.equals(productContext.get("useCache"));
+        this.client = client;
+        this.bufSize = (bufSize > 0) ? bufSize : Integer.MAX_VALUE;
+        int builderThreads = UtilProperties.getPropertyAsInteger(SolrUtil.solrConfigName, "solr.index.rebuild.builder.threads", 0);
+        this.builderThreads = (builderThreads > 0) ? builderThreads : Runtime.getRuntime().availableProcessors();
+        this.queueSize = Math.max(1, UtilProperties.getPropertyAsInteger(SolrUtil.solrConfigName, "solr.index.rebuild.queue.size", 4));
+        this.checkpointIntervalMillis = UtilProperties.getPropertyAsLong(SolrUtil.solrConfigName, "solr.index.rebuild.checkpoint.interval", 60) * 1000;
+        this.progressIntervalMillis = UtilProperties.getPropertyAsLong(SolrUtil.solrConfigName, "solr.index.rebuild.progress.interval", 30) * 1000;
+        this.totalDocs = totalDocs;
+        this.readQueue = new ArrayBlockingQueue<>(this.queueSize);
+        this.sendQueue = new ArrayBlockingQueue<>(this.queueSize);
+        this.liveBuilders = new AtomicInteger(this.builderThreads);
+    }
+
+    /**
+     * Indexes the products of the cursor and commits; returns the number of documents sent.
+     * <p>
+     * If a stage fails, the others stop, the last checkpoint is stored and the error is rethrown.
+     */
+    public long run(EntityListIterator prodIt) throws Exception {
+        startTime = System.currentTimeMillis();
+        Debug.logInfo("Solr: rebuildSolrIndex: Indexing " + totalDocs + " products with " + builderThreads
+                + " builder threads in batches of " + (bufSize == Integer.MAX_VALUE ? "all" : bufSize), module);
+        List<Thread> threads = new ArrayList<>(builderThreads + 1);
+        for (int i = 1; i <= builderThreads; i++) {
+            threads.add(startThread(this::build, "Scipio-SolrRebuild-builder-" + i));
+        }
+        threads.add(startThread(this::send, "Scipio-SolrRebuild-sender"));
+        try {
+            read(prodIt);
+        } catch (Throwable t) {
+            fail(t);
+        }
+        for (Thread thread : threads) {
+            while (thread.isAlive()) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    fail(e); // the threads stop on their own at the next poll
+                }
+            }
+        }
+        if (failure != null) {
+            if (checkpointId != null && !checkpointId.equals(storedCheckpointId)) {
+                SolrUtil.setSolrRebuildCheckpointIdSepTxSafe(dctx.getDelegator(), checkpointId);
+            }
+            Debug.logError("Solr: rebuildSolrIndex: Indexing stopped after " + numSent + " documents sent; checkpoint: "
+                    + (checkpointId != null ? "productId '" + checkpointId + "'" : "none"), module);
+            if (failure instanceof Exception) {
+                throw (Exception) failure;
+            }
+            throw (Error) failure;
+        }
+        client.commit();
+        long elapsed = Math.max(1, System.currentTimeMillis() - startTime);
+        Debug.logInfo("Solr: rebuildSolrIndex: Sent and committed " + numSent + " documents in " + (elapsed / 1000) + "s ("
+                + (numSent * 1000 / elapsed) + " docs/s)", module);
+        return numSent;
+    }
+
+    /** Returns the last productId up to which all products were sent, or null. */
+    public String getCheckpointId() {
+        return checkpointId;
+    }
+
+    /** Returns true if a checkpoint was stored in SolrStatus during the run. */
+    public boolean isCheckpointStored() {
+        return storedCheckpointId != null;
+    }
+
+    private void read(EntityListIterator prodIt) throws Exception {
+        long seq = 0;
+        List<GenericValue> products = new ArrayList<>(Math.min(bufSize, 1024));
+        GenericValue product;
+        while (failure == null && (product = prodIt.next()) != null) {
+            products.add(product);
+            numRead++;
+            if (products.size() >= bufSize) {
+                if (!put(readQueue, new Batch(seq++, products, null, null))) {
+                    return;
+                }
+                products = new ArrayList<>(Math.min(bufSize, 1024));
+            }
+        }
+        if (!products.isEmpty() && !put(readQueue, new Batch(seq++, products, null, null))) {
+            return;
+        }
+        for (int i = 0; i < builderThreads; i++) {
+            if (!put(readQueue, END)) {
+                return;
+            }
+        }
+    }
+
+    private void build() {
+        try {
+            Batch batch;
+            while ((batch = take(readQueue)) != null && batch != END) {
+                List<SolrInputDocument> docs = new ArrayList<>(batch.products.size());
+                for (Map<String, Object> productContent : SolrProductUtil.getProductContentList(batch.products, dctx, productContext)) {
+                    if (failure != null) {
+                        return;
+                    }
+                    docs.add(SolrProductUtil.generateSolrDocument(dctx.getDelegator(), dctx.getDispatcher(), productContent, useCache));
+                }
+                numBuilt.addAndGet(docs.size());
+                String lastProductId = batch.products.get(batch.products.size() - 1).getString("productId");
+                if (!put(sendQueue, new Batch(batch.seq, null, docs, lastProductId))) {
+                    return;
+                }
+            }
+        } catch (Throwable t) {
+            fail(t);
+        } finally {
+            if (liveBuilders.decrementAndGet() == 0) {
+                put(sendQueue, END);
+            }
+        }
+    }
+
+    private void send() {
+        // last productIds of the batches sent ahead of a batch still being built
+        Map<Long, String> sentAhead = new HashMap<>();
+        long nextSeq = 0;
+        long lastCheckpointTime = startTime;
+        long lastProgressTime = startTime;
+        long lastProgressSent = 0;
+        try {
+            Batch batch;
+            while ((batch = take(sendQueue)) != null && batch != END) {
+                client.add(batch.docs);
+                numSent += batch.docs.size();
+                sentAhead.put(batch.seq, batch.lastProductId);
+                String lastProductId;
+                while ((lastProductId = sentAhead.remove(nextSeq)) != null) {
+                    checkpointId = lastProductId;
+                    nextSeq++;
+                }
+                long now = System.currentTimeMillis();
+                if (checkpointIntervalMillis > 0 && now - lastCheckpointTime >= checkpointIntervalMillis
+                        && checkpointId != null && !checkpointId.equals(storedCheckpointId)) {
+                    if (SolrUtil.setSolrRebuildCheckpointIdSepTxSafe(dctx.getDelegator(), checkpointId)) {
+                        storedCheckpointId = checkpointId;
+                    }
+                    lastCheckpointTime = now;
+                }
+                if (progressIntervalMillis > 0 && now - lastProgressTime >= progressIntervalMillis) {
+                    logProgress(now, (numSent - lastProgressSent) * 1000 / Math.max(1, now - lastProgressTime));
+                    lastProgressTime = now;
+                    lastProgressSent = numSent;
+                }
+            }
+        } catch (Throwable t) {
+            fail(t);
+        }
+    }
+
+    private void logProgress(long now, long intervalRate) {
+        long elapsed = Math.max(1, now - startTime);
+        Debug.logInfo("Solr: rebuildSolrIndex: Sent " + numSent + " / " + totalDocs + " documents"
+                + (totalDocs > 0 ? " (" + (numSent * 100 / totalDocs) + "%)" : "") + " in " + (elapsed / 1000) + "s; "
+                + intervalRate + " docs/s (average " + (numSent * 1000 / elapsed) + " docs/s); read: " + numRead
+                + ", built: " + numBuilt.get() + ", queued batches: " + readQueue.size() + "/" + queueSize + " to build, "
+                + sendQueue.size() + "/" + queueSize + " to send; checkpoint: productId '" + checkpointId + "'", module);
+    }
+
+    private void fail(Throwable t) {
+        if (failure == null) {
+            failure = t;
+        }
+    }
+
+    /** Waits for room in the queue; returns false if the rebuild failed in the meantime. */
+    private boolean put(BlockingQueue<Batch> queue, Batch batch) {
+        try {
+            while (failure == null) {
+                if (queue.offer(batch, 1, TimeUnit.SECONDS)) {
+                    return true;
+                }
+            }
+        } catch (InterruptedException e) {
+            fail(e);
+        }
+        return false;
+    }
+
+    /** Waits for a batch; returns null if the rebuild failed in the meantime. */
+    private Batch take(BlockingQueue<Batch> queue) {
+        try {
+            while (failure == null) {
+                Batch batch = queue.poll(1, TimeUnit.SECONDS);
+                if (batch != null) {
+                    return batch;
+                }
+            }
+        } catch (InterruptedException e) {
+            fail(e);
+        }
+        return null;
+    }
+
+    private static Thread startThread(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private static final class Batch {
+        final long seq;
+        final List<GenericValue> products;
+        final List<SolrInputDocument> docs;
+        final String lastProductId;
+
+        Batch(long seq, List<GenericValue> products, List<SolrInputDocument> docs, String lastProductId) {
+            this.seq = seq;
+            this.products = products;
+            this.docs = docs;
+            this.lastProductId = lastProductId;
+        }
+    }
+}
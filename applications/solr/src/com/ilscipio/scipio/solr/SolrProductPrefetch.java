@@ -0,0 +1,248 @@
+package com.ilscipio.scipio.solr;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.GenericEntityException;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.condition.EntityCondition;
+import org.ofbiz.entity.condition.EntityOperator;
+import org.ofbiz.entity.util.EntityQuery;
+import org.ofbiz.service.DispatchContext;
+
+/**
+ * SCIPIO: The related records that {@link SolrProductUtil#getProductContent} reads for a chunk of products, loaded
+ * with one <code>IN</code> query per entity for the whole chunk and grouped by productId in memory.
+ * <p>
+ * Covers the associations, selectable features, category members, approved keywords and name/description content of
+ * the products, the last three also for their virtual parents. The getters return null for a product outside the
+ * chunk, in which case the caller queries as before. Category trails, catalogs and stores are memoized for the chunk,
+ * since its products mostly share their categories. Prices, stock and content rendering still go through their
+ * services, which have their own caches.
+ * <p>
+ * Not thread-safe; a prefetch is meant for one chunk on one thread.
+ */
+public class SolrProductPrefetch {
+
+    /** Max number of values in one IN condition (Oracle limit). */
+    private static final int MAX_IN_SIZE = 1000;
+
+    static final List<String> PRODUCT_CONTENT_TYPE_IDS = UtilMisc.unmodifiableArrayList("PRODUCT_NAME", "DESCRIPTION", "LONG_DESCRIPTION");
+
+    private final Timestamp moment;
+    private final Set<String> productIds;
+    private final Set<String> relatedProductIds;
+    private final Map<String, List<GenericValue>> assocsFrom;
+    private final Map<String, List<GenericValue>> assocsTo;
+    private final Map<String, List<GenericValue>> features;
+    private final Map<String, List<GenericValue>> categoryMembers;
+    private final Map<String, List<GenericValue>> keywords;
+    private final Map<String, List<GenericValue>> productContents;
+    private final Map<String, GenericValue> contents;
+    private final Map<String, List<List<String>>> categoryTrails = new HashMap<>();
+    private final Map<String, List<String>> categoryCatalogIds = new HashMap<>();
+    private final Map<List<String>, List<GenericValue>> catalogProductStores = new HashMap<>();
+
+    protected SolrProductPrefetch(Delegator delegator, Collection<GenericValue> products, Timestamp moment) throws GenericEntityException {
+        this.moment = moment;
+        this.productIds = new LinkedHashSet<>();
+        for (GenericValue product : products) {
+            productIds.add(product.getString("productId"));
+        }
+        this.assocsFrom = groupBy(findIn(delegator, "ProductAssoc", "productId", productIds, null, null, true, moment), "productId");
+        // same order as ProductWorker.getParentProductAssoc
+        this.assocsTo = groupBy(findIn(delegator, "ProductAssoc", "productIdTo", productIds, null, UtilMisc.toList("-fromDate"), true, moment), "productIdTo");
+        this.features = groupBy(findIn(delegator, "ProductFeatureAndAppl", "productId", productIds,
+                EntityCondition.makeCondition("productFeatureApplTypeId", "SELECTABLE_FEATURE"), UtilMisc.toList("sequenceNum", "productFeatureTypeId"), true, moment), "productId");
+
+        this.relatedProductIds = new LinkedHashSet<>(productIds);
+        for (List<GenericValue> productAssocs : assocsTo.values()) {
+            for (GenericValue productAssoc : productAssocs) {
+                String productAssocTypeId = productAssoc.getString("productAssocTypeId");
+                if ("PRODUCT_VARIANT".equals(productAssocTypeId) || "UNIQUE_ITEM".equals(productAssocTypeId)) {
+                    relatedProductIds.add(productAssoc.getString("productId"));
+                }
+            }
+        }
+        this.categoryMembers = groupBy(findIn(delegator, "ProductCategoryMember", "productId", relatedProductIds, null, null, true, moment), "productId");
+        this.keywords = groupBy(findIn(delegator, "ProductKeyword", "productId", relatedProductIds,
+                EntityCondition.makeCondition("statusId", "KW_APPROVED"), null, false, moment), "productId");
+        this.productContents = groupBy(findIn(delegator, "ProductContent", "productId", relatedProductIds,
+                EntityCondition.makeCondition("productContentTypeId", EntityOperator.IN, PRODUCT_CONTENT_TYPE_IDS), UtilMisc.toList("-fromDate"), true, moment), "productId");
+
+        Set<String> contentIds = new LinkedHashSet<>();
+        for (List<GenericValue> productContentList : productContents.values()) {
+            UtilMisc.getMapValuesForKey(productContentList, "contentId", contentIds);
+        }
+        this.contents = new HashMap<>();
+        for (GenericValue content : findIn(delegator, "Content", "contentId", contentIds, null, null, false, moment)) {
+            contents.put(content.getString("contentId"), content);
+        }
+    }
+
+    /**
+     * Loads the related records of the products.
+     */
+    public static SolrProductPrefetch load(Delegator delegator, Collection<GenericValue> products, Timestamp moment) throws GenericEntityException {
+        return new SolrProductPrefetch(delegator, products, moment);
+    }
+
+    /**
+     * Returns the Product records of the given IDs, with one query per {@value #MAX_IN_SIZE} IDs.
+     */
+    public static List<GenericValue> findProducts(Delegator delegator, Collection<String> productIds) throws GenericEntityException {
+        return findIn(delegator, "Product", "productId", productIds, null, null, false, null);
+    }
+
+    private static List<GenericValue> findIn(Delegator delegator, String entityName, String fieldName, Collection<String> values,
+            EntityCondition extraCond, List<String> orderBy, boolean filterByDate, Timestamp moment) throws GenericEntityException {
+        if (values.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<String> valueList = new ArrayList<>(values);
+        List<GenericValue> result = new ArrayList<>();
+        for (int i = 0; i < valueList.size(); i += MAX_IN_SIZE) {
+            EntityCondition cond = EntityCondition.makeCondition(fieldName, EntityOperator.IN, valueList.subList(i, Math.min(i + MAX_IN_SIZE, valueList.size())));
+            if (extraCond != null) {
+                cond = EntityCondition.makeCondition(cond, EntityOperator.AND, extraCond);
+            }
+            result.addAll(EntityQuery.use(delegator).from(entityName).where(cond).orderBy(orderBy).filterByDate(filterByDate, moment).cache(false).queryList());
+        }
+        return result;
+    }
+
+    private static Map<String, List<GenericValue>> groupBy(List<GenericValue> values, String fieldName) {
+        Map<String, List<GenericValue>> groups = new HashMap<>();
+        for (GenericValue value : values) {
+            groups.computeIfAbsent(value.getString(fieldName), k -> new ArrayList<>()).add(value);
+        }
+        return groups;
+    }
+
+    private static List<GenericValue> getGroup(Map<String, List<GenericValue>> groups, Set<String> loadedIds, String productId) {
+        if (!loadedIds.contains(productId)) {
+            return null;
+        }
+        List<GenericValue> values = groups.get(productId);
+        return (values != null) ? values : Collections.emptyList();
+    }
+
+    public Timestamp getMoment() {
+        return moment;
+    }
+
+    /** Returns true if the product is one of the chunk. */
+    public boolean hasProduct(String productId) {
+        return productIds.contains(productId);
+    }
+
+    /** Returns the ProductAssoc records from the product, or null if not loaded. */
+    public List<GenericValue> getProductAssocsFrom(String productId) {
+        return getGroup(assocsFrom, productIds, productId);
+    }
+
+    /** Returns the ProductAssoc records to the product, most recent first, or null if not loaded. */
+    public List<GenericValue> getProductAssocsTo(String productId) {
+        return getGroup(assocsTo, productIds, productId);
+    }
+
+    /**
+     * Returns the parent productId with the logic of {@link org.ofbiz.product.product.ProductWorker#getParentProductId},
+     * or null if none; must only be called for products of the chunk.
+     */
+    public String getParentProductId(String productId) {
+        List<GenericValue> productAssocs = getProductAssocsTo(productId);
+        for (String productAssocTypeId : new String[] { "PRODUCT_VARIANT", "UNIQUE_ITEM" }) {
+            for (GenericValue productAssoc : productAssocs) {
+                if (productAssocTypeId.equals(productAssoc.getString("productAssocTypeId"))) {
+                    return productAssoc.getString("productId");
+                }
+            }
+        }
+        return null;
+    }
+
+    /** Returns the selectable feature type IDs of the product, like the getProductFeatureSet service, or null if not loaded. */
+    public Set<String> getFeatureTypeIds(String productId) {
+        List<GenericValue> featureList = getGroup(features, productIds, productId);
+        if (featureList == null) {
+            return null;
+        }
+        Set<String> featureSet = new LinkedHashSet<>();
+        UtilMisc.getMapValuesForKey(featureList, "productFeatureTypeId", featureSet);
+        return featureSet;
+    }
+
+    /** Returns the ProductCategoryMember records of the product or parent, or null if not loaded. */
+    public List<GenericValue> getProductCategoryMembers(String productId) {
+        return getGroup(categoryMembers, relatedProductIds, productId);
+    }
+
+    /** Returns the approved ProductKeyword records of the product or parent, or null if not loaded. */
+    public List<GenericValue> getProductKeywords(String productId) {
+        return getGroup(keywords, relatedProductIds, productId);
+    }
+
+    /**
+     * Returns the ProductContent records of the given type of the product or parent, most recent first, or null if
+     * not loaded (only {@link #PRODUCT_CONTENT_TYPE_IDS} are).
+     */
+    public List<GenericValue> getProductContents(String productId, String productContentTypeId) {
+        List<GenericValue> productContentList = getGroup(productContents, relatedProductIds, productId);
+        if (productContentList == null || !PRODUCT_CONTENT_TYPE_IDS.contains(productContentTypeId)) {
+            return null;
+        }
+        List<GenericValue> result = new ArrayList<>(productContentList.size());
+        for (GenericValue productContent : productContentList) {
+            if (productContentTypeId.equals(productContent.getString("productContentTypeId"))) {
+                result.add(productContent);
+            }
+        }
+        return result;
+    }
+
+    /** Returns a Content record linked by the loaded ProductContent records, or null if not loaded. */
+    public GenericValue getContent(String contentId) {
+        return contents.get(contentId);
+    }
+
+    /** Returns the category trails of the category, memoized for the chunk. */
+    public List<List<String>> getCategoryTrail(String productCategoryId, DispatchContext dctx, boolean useCache) {
+        List<List<String>> trail = categoryTrails.get(productCategoryId);
+        if (trail == null) {
+            trail = SolrCategoryUtil.getCategoryTrail(productCategoryId, dctx, useCache);
+            categoryTrails.put(productCategoryId, trail);
+        }
+        return trail;
+    }
+
+    /** Returns the catalog IDs of the category, memoized for the chunk. */
+    public List<String> getCatalogIdsByCategoryId(Delegator delegator, String productCategoryId, boolean useCache) {
+        List<String> catalogIds = categoryCatalogIds.get(productCategoryId);
+        if (catalogIds == null) {
+            catalogIds = SolrCategoryUtil.getCatalogIdsByCategoryId(delegator, productCategoryId, moment, useCache);
+            categoryCatalogIds.put(productCategoryId, catalogIds);
+        }
+        return catalogIds;
+    }
+
+    /** Returns a new list of the stores of the catalogs, memoized for the chunk. */
+    public List<GenericValue> getProductStoresFromCatalogIds(Delegator delegator, Collection<String> catalogIds, boolean useCache) {
+        List<String> key = new ArrayList<>(catalogIds);
+        List<GenericValue> productStores = catalogProductStores.get(key);
+        if (productStores == null) {
+            productStores = SolrCategoryUtil.getProductStoresFromCatalogIds(delegator, catalogIds, moment, useCache);
+            catalogProductStores.put(key, productStores);
+        }
+        return new ArrayList<>(productStores);
+    }
+}
@@ -11,10 +11,12 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.TimeZone;
 
 import org.apache.commons.lang3.StringUtils;
@@ -43,6 +45,8 @@ import org.ofbiz.entity.Delegator;
 import org.ofbiz.entity.GenericDelegator;
 import org.ofbiz.entity.GenericEntityException;
 import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.condition.EntityCondition;
+import org.ofbiz.entity.condition.EntityOperator;
 import org.ofbiz.entity.transaction.TransactionUtil;
 import org.ofbiz.entity.util.EntityFindOptions;
 import org.ofbiz.entity.util.EntityListIterator;
@@ -69,6 +73,8 @@ public abstract class SolrProductSearch {
             "solr.index.rebuild.clearAndUseCache", false);
     private static final String defaultRegisterUpdateToSolrUpdateSrv = UtilProperties.getPropertyValue(SolrUtil.solrConfigName,
             "solr.service.registerUpdateToSolr.updateSrv", "updateToSolr");
+    private static final int updatePrefetchSize = UtilProperties.getPropertyAsInteger(SolrUtil.solrConfigName,
+            "solr.index.update.prefetch.size", 500);
 
     private static final String reindexStartupForceSysProp = "scipio.solr.index.rebuild.startup.force";
     private static final String reindexStartupForceSysPropLegacy = "scipio.solr.reindex.startup.force"; // old name
@@ -78,11 +84,12 @@ public abstract class SolrProductSearch {
         return updateToSolrCommon(dctx, context, Boolean.TRUE, true);
     }
 
-    private static Map<String, Object> addToSolrCore(DispatchContext dctx, Map<String, Object> context, GenericValue product, String productId) {
+    private static Map<String, Object> addToSolrCore(DispatchContext dctx, Map<String, Object> context, GenericValue product, String productId,
+            SolrProductPrefetch prefetch) {
         Map<String, Object> result;
         if (Debug.verboseOn()) Debug.logVerbose("Solr: addToSolr: Running indexing for productId '" + productId + "'", module);
         try {
-            Map<String, Object> dispatchContext = SolrProductUtil.getProductContent(product, dctx, context);
+            Map<String, Object> dispatchContext = SolrProductUtil.getProductContent(product, dctx, context, prefetch);
             dispatchContext.put("treatConnectErrorNonFatal", SolrUtil.isEcaTreatConnectErrorNonFatal());
             copyStdServiceFieldsNotSet(context, dispatchContext);
             Map<String, Object> runResult = dctx.getDispatcher().runSync("addToSolrIndex", dispatchContext);
@@ -139,6 +146,47 @@ public abstract class SolrProductSearch {
         return updateToSolrCommon(dctx, context, updateToSolrActionMap.get(context.get("action")), false);
     }
 
+    /**
+     * SCIPIO: Adds the products to the node-local {@link SolrUpdateQueue}, which updates them in batches with other
+     * transactions' products; meant as registerUpdateToSolr updateSrv.
+     */
+    public static Map<String, Object> queueUpdateToSolr(DispatchContext dctx, Map<String, Object> context) {
+        Map<String, Map<String, Object>> productIdMap = UtilGenerics.checkMap(context.get("productIdMap"));
+        if (productIdMap == null) {
+            productIdMap = new LinkedHashMap<>();
+        }
+        Map<String, Object> productInst = UtilGenerics.checkMap(context.get("instance"));
+        String productId = (productInst != null) ? (String) productInst.get("productId") : (String) context.get("productId");
+        if (productId != null) {
+            Map<String, Object> productProps = new HashMap<>(context);
+            productProps.remove("instance");
+            productIdMap.put(productId, productProps);
+        }
+        try {
+            SolrUpdateQueue.getInstance(dctx).add(productIdMap);
+        } catch (GenericEntityException e) {
+            Debug.logError(e, "Solr: queueUpdateToSolr: Could not queue " + productIdMap.size() + " products; updating them immediately: " + e.getMessage(), module);
+            return updateToSolr(dctx, context);
+        }
+        return ServiceUtil.returnSuccess();
+    }
+
+    /**
+     * SCIPIO: Flushes the {@link SolrUpdateQueue}, including the updates left pending at the last shutdown; by default
+     * first waits for Solr to be ready (see waitSolrReady), since at startup it runs before the server is running.
+     */
+    public static Map<String, Object> flushSolrUpdateQueue(DispatchContext dctx, Map<String, Object> context) {
+        SolrUpdateQueue queue = SolrUpdateQueue.getInstance(dctx);
+        if (queue.size() > 0 && !Boolean.FALSE.equals(context.get("waitSolrReady"))) {
+            Map<String, Object> waitResult = waitSolrReady(dctx, new HashMap<>());
+            if (!ServiceUtil.isSuccess(waitResult)) {
+                // the queue retries by itself; its products are never dropped
+                return ServiceUtil.returnFailure("Solr not ready; " + queue.size() + " products left queued: " + ServiceUtil.getErrorMessage(waitResult));
+            }
+        }
+        return queue.flush();
+    }
+
     /**
      * Core implementation for the updateToSolr, addToSolr, removeFromSolr, and registerUpdateToSolr services.
      * <p>
@@ -430,16 +478,29 @@ public abstract class SolrProductSearch {
             }
         }
 
+        // SCIPIO: batched update with commitWithin instead of a commit per product (used by the SolrUpdateQueue flushes)
+        Integer commitWithin = (Integer) context.get("commitWithin");
+        if (commitWithin != null) {
+            return updateToSolrCoreBatch(dctx, context, expandedProducts, commitWithin);
+        }
+
         Map<String, String> productIndexErrorMsgs = new HashMap<>();
 
-        for(Map.Entry<String, Map<String, Object>> entry : expandedProducts.entrySet()) {
+        // SCIPIO: for bursts (such as catalog imports), read the products and their related records per chunk rather than per product
+        List<Map.Entry<String, Map<String, Object>>> entries = new ArrayList<>(expandedProducts.entrySet());
+        SolrProductPrefetch prefetch = null;
+        for (int i = 0; i < entries.size(); i++) {
+            if (updatePrefetchSize > 0 && entries.size() > 1 && (i % updatePrefetchSize) == 0) {
+                prefetch = prefetchUpdateProducts(dctx, entries.subList(i, Math.min(i + updatePrefetchSize, entries.size())));
+            }
+            Map.Entry<String, Map<String, Object>> entry = entries.get(i);
             String productId = entry.getKey();
             Map<String, Object> props = entry.getValue();
             Map<String, Object> productInst = UtilGenerics.checkMap(props.get("instance"));
             Object actionObj = props.get("action");
             Boolean forceAdd = (actionObj instanceof Boolean) ? (Boolean) actionObj : updateToSolrActionMap.get(actionObj);
 
-            Map<String, Object> updateSingleResult = updateToSolrCoreSingleImpl(dctx, context, forceAdd, productId, productInst);
+            Map<String, Object> updateSingleResult = updateToSolrCoreSingleImpl(dctx, context, forceAdd, productId, productInst, prefetch);
             if (!ServiceUtil.isSuccess(updateSingleResult)) {
                 productIndexErrorMsgs.put(productId, ServiceUtil.getErrorMessage(updateSingleResult));
             }
@@ -458,8 +519,147 @@ public abstract class SolrProductSearch {
         }
     }
 
+    /**
+     * SCIPIO: Adds and removes the products in batches per prefetch chunk, letting Solr commit within the given time
+     * instead of committing after each product.
+     * <p>
+     * The result holds <code>updatedProductIds</code>, the products sent to Solr, and <code>productErrorMsgs</code>,
+     * the products that could not be indexed by productId (such as an explicit add of a missing product); these do not
+     * fail the other products. An error of a whole chunk stops the update, leaving the remaining products out of both.
+     */
+    private static Map<String, Object> updateToSolrCoreBatch(DispatchContext dctx, Map<String, Object> context,
+            Map<String, Map<String, Object>> products, int commitWithin) {
+        List<Map.Entry<String, Map<String, Object>>> entries = new ArrayList<>(products.entrySet());
+        int chunkSize = (updatePrefetchSize > 0) ? updatePrefetchSize : 500;
+        boolean useCache = Boolean.TRUE.equals(context.get("useCache"));
+        List<String> updatedProductIds = new ArrayList<>(products.size());
+        Map<String, String> productErrorMsgs = new LinkedHashMap<>();
+        int numAdded = 0;
+        int numRemoved = 0;
+        Map<String, Object> result = null;
+        try {
+            HttpSolrClient client = SolrUtil.getUpdateHttpSolrClient((String) context.get("core"));
+            for (int i = 0; i < entries.size(); i += chunkSize) {
+                List<Map.Entry<String, Map<String, Object>>> chunk = entries.subList(i, Math.min(i + chunkSize, entries.size()));
+                SolrProductPrefetch prefetch = prefetchUpdateProducts(dctx, chunk);
+                List<SolrInputDocument> docs = new ArrayList<>(chunk.size());
+                List<String> docProductIds = new ArrayList<>(chunk.size());
+                List<String> removeTerms = new ArrayList<>();
+                List<String> removeProductIds = new ArrayList<>();
+                for (Map.Entry<String, Map<String, Object>> entry : chunk) {
+                    String productId = entry.getKey();
+                    try {
+                        Object actionObj = entry.getValue().get("action");
+                        Boolean forceAdd = (actionObj instanceof Boolean) ? (Boolean) actionObj : updateToSolrActionMap.get(actionObj);
+                        Map<String, Object> productInst = UtilGenerics.checkMap(entry.getValue().get("instance"));
+                        GenericValue product;
+                        if (productInst instanceof GenericValue) {
+                            product = (GenericValue) productInst;
+                        } else if ((productInst != null && productInst.isEmpty()) || Boolean.FALSE.equals(forceAdd)) { // SPECIAL MARKER for null, or removal
+                            product = null;
+                        } else {
+                            product = dctx.getDelegator().findOne("Product", UtilMisc.toMap("productId", productId), false);
+                        }
+                        if (Boolean.FALSE.equals(forceAdd) || (product == null && forceAdd == null)) {
+                            removeTerms.add(SolrExprUtil.escapeTermFull(productId));
+                            removeProductIds.add(productId);
+                        } else if (product == null) {
+                            productErrorMsgs.put(productId, "Error updating index for product '" + productId
+                                    + "': Explicit add action requested, but product not found for productId: " + productId);
+                        } else {
+                            Map<String, Object> productContent = SolrProductUtil.getProductContent(product, dctx, context, prefetch);
+                            docs.add(SolrProductUtil.generateSolrDocument(dctx.getDelegator(), dctx.getDispatcher(), productContent, useCache));
+                            docProductIds.add(productId);
+                        }
+                    } catch (Exception e) {
+                        Debug.logError(e, "Solr: updateToSolr: Error preparing product '" + productId + "' for solr index: " + e.getMessage(), module);
+                        productErrorMsgs.put(productId, "Error updating index for product '" + productId + "': " + e.toString());
+                    }
+                }
+                if (!docs.isEmpty()) {
+                    client.add(docs, commitWithin);
+                    numAdded += docs.size();
+                    updatedProductIds.addAll(docProductIds);
+                }
+                if (!removeTerms.isEmpty()) {
+                    client.deleteByQuery("productId:(" + StringUtils.join(removeTerms, " OR ") + ")", commitWithin);
+                    numRemoved += removeTerms.size();
+                    updatedProductIds.addAll(removeProductIds);
+                }
+            }
+        } catch (SolrServerException e) {
+            if (e.getCause() != null && e.getCause() instanceof ConnectException) {
+                final String statusStr = "Failure connecting to solr server to update " + products.size() + " products; products not updated";
+                if (SolrUtil.isEcaTreatConnectErrorNonFatal()) {
+                    Debug.logWarning(e, "Solr: updateToSolr: " + statusStr, module);
+                    result = ServiceUtil.returnFailure(statusStr);
+                } else {
+                    Debug.logError(e, "Solr: updateToSolr: " + statusStr, module);
+                    result = ServiceUtil.returnError(statusStr);
+                }
+            } else {
+                Debug.logError(e, "Solr: updateToSolr: Error updating " + products.size() + " products in solr index: " + e.getMessage(), module);
+                result = ServiceUtil.returnError("Error updating " + products.size() + " products in solr index: " + e.toString());
+            }
+        } catch (Exception e) {
+            Debug.logError(e, "Solr: updateToSolr: Error updating " + products.size() + " products in solr index: " + e.getMessage(), module);
+            result = ServiceUtil.returnError("Error updating " + products.size() + " products in solr index: " + e.toString());
+        }
+        Debug.logInfo("Solr: updateToSolr: Added " + numAdded + " and removed " + numRemoved + " products (commitWithin: " + commitWithin + "ms)", module);
+        if (result == null) {
+            if (!productErrorMsgs.isEmpty()) {
+                Debug.logError("Solr: updateToSolr: " + productErrorMsgs.values(), module);
+                result = ServiceUtil.returnError(new ArrayList<>(productErrorMsgs.values()));
+            } else {
+                result = ServiceUtil.returnSuccess();
+            }
+        }
+        result.put("updatedProductIds", updatedProductIds);
+        result.put("productErrorMsgs", productErrorMsgs);
+        return result;
+    }
+
+    /**
+     * SCIPIO: Looks up the products of the entries that have no instance yet with one query, storing them (or the
+     * not-found marker) as instance, then prefetches the related records of the products to add; returns null on error.
+     */
+    private static SolrProductPrefetch prefetchUpdateProducts(DispatchContext dctx, List<Map.Entry<String, Map<String, Object>>> entries) {
+        try {
+            Set<String> lookupProductIds = new LinkedHashSet<>();
+            for (Map.Entry<String, Map<String, Object>> entry : entries) {
+                Object actionObj = entry.getValue().get("action");
+                Boolean forceAdd = (actionObj instanceof Boolean) ? (Boolean) actionObj : updateToSolrActionMap.get(actionObj);
+                if (!Boolean.FALSE.equals(forceAdd) && entry.getValue().get("instance") == null) {
+                    lookupProductIds.add(entry.getKey());
+                }
+            }
+            Map<String, GenericValue> lookedUpProducts = new HashMap<>();
+            for (GenericValue product : SolrProductPrefetch.findProducts(dctx.getDelegator(), lookupProductIds)) {
+                lookedUpProducts.put(product.getString("productId"), product);
+            }
+            List<GenericValue> products = new ArrayList<>(entries.size());
+            for (Map.Entry<String, Map<String, Object>> entry : entries) {
+                Map<String, Object> props = entry.getValue();
+                if (lookupProductIds.contains(entry.getKey())) {
+                    GenericValue product = lookedUpProducts.get(entry.getKey());
+                    // NOTE: SPECIAL MARKER for null (see updateToSolrCoreSingleImpl)
+                    props = new HashMap<>(props);
+                    props.put("instance", (product != null) ? product : Collections.emptyMap());
+                    entry.setValue(props);
+                }
+                if (props.get("instance") instanceof GenericValue) {
+                    products.add((GenericValue) props.get("instance"));
+                }
+            }
+            return (products.size() > 1) ? SolrProductPrefetch.load(dctx.getDelegator(), products, UtilDateTime.nowTimestamp()) : null;
+        } catch (GenericEntityException e) {
+            Debug.logError(e, "Solr: updateToSolr: Error prefetching " + entries.size() + " products; reading them per product: " + e.getMessage(), module);
+            return null;
+        }
+    }
+
     private static Map<String, Object> updateToSolrCoreSingleImpl(DispatchContext dctx, Map<String, Object> context, Boolean forceAdd,
-            String productId, Map<String, Object> productInst) {
+            String productId, Map<String, Object> productInst, SolrProductPrefetch prefetch) {
         Map<String, Object> result;
         if (Boolean.FALSE.equals(forceAdd)) {
             result = removeFromSolrCore(dctx, context, productId);
@@ -482,11 +682,11 @@ public abstract class SolrProductSearch {
                     //Debug.logError("Solr: updateToSolr: Explicit add action requested, but product not found for productId: " + productId, module); // SCIPIO: Redundant logging
                     return ServiceUtil.returnError("Explicit add action requested, but product not found for productId: " + productId);
                 }
-                result = addToSolrCore(dctx, context, product, productId);
+                result = addToSolrCore(dctx, context, product, productId, prefetch);
             } else {
                 if (product != null) {
                     if (Debug.verboseOn()) Debug.logVerbose("Solr: updateToSolr: productId '" + productId + "' found in system; running solr add", module);
-                    result = addToSolrCore(dctx, context, product, productId);
+                    result = addToSolrCore(dctx, context, product, productId, prefetch);
                 } else {
                     if (Debug.verboseOn()) Debug.logVerbose("Solr: updateToSolr: productId '" + productId + "' not found in system; running solr remove", module);
                     result = removeFromSolrCore(dctx, context, productId);
@@ -1604,9 +1804,11 @@ public abstract class SolrProductSearch {
         Boolean treatConnectErrorNonFatal = (Boolean) context.get("treatConnectErrorNonFatal");
         Boolean clearAndUseCache = (Boolean) context.get("clearAndUseCache");
         if (clearAndUseCache == null) clearAndUseCache = rebuildClearAndUseCacheDefault;
+        // SCIPIO: resume an interrupted rebuild after its last checkpoint, if any
+        String resumeProductId = Boolean.TRUE.equals(context.get("resumeFromCheckpoint")) ? SolrUtil.getSolrRebuildCheckpointId(delegator) : null;
 
         int numDocs = 0;
-        int numDocsIndexed = 0; // 2018-02: needed for accurate stats in case a client edit filters out products within loop
+        long numDocsIndexed = 0; // 2018-02: needed for accurate stats in case a client edit filters out products within loop
         EntityListIterator prodIt = null;
         boolean executed = false;
         try {
@@ -1624,10 +1826,16 @@ public abstract class SolrProductSearch {
             }
 
             executed = true;
-            Debug.logInfo("Solr: rebuildSolrIndex: Clearing solr index", module);
-            // this removes everything from the index
-            client.deleteByQuery("*:*");
-            client.commit();
+            if (resumeProductId != null) {
+                Debug.logInfo("Solr: rebuildSolrIndex: Resuming interrupted rebuild after checkpoint productId '" + resumeProductId + "'", module);
+            } else {
+                // SCIPIO: drop any old checkpoint before the index is cleared, so it can never be resumed against an empty index
+                SolrUtil.setSolrRebuildCheckpointIdSepTxSafe(delegator, null);
+                Debug.logInfo("Solr: rebuildSolrIndex: Clearing solr index", module);
+                // this removes everything from the index
+                client.deleteByQuery("*:*");
+                client.commit();
+            }
 
             // NEW 2017-09-14: clear all entity caches at beginning, and then enable caching during
             // the product reading - this should significantly speed up the process
@@ -1641,71 +1849,28 @@ public abstract class SolrProductSearch {
                 bufSize = UtilProperties.getPropertyAsInteger(SolrUtil.solrConfigName, "solr.index.rebuild.record.buffer.size", 1000);
             }
 
-            // now lets fetch all products
+            // now lets fetch all products, in productId order for the checkpoints
             EntityFindOptions findOptions = new EntityFindOptions();
             //findOptions.setResultSetType(EntityFindOptions.TYPE_SCROLL_INSENSITIVE); // not needed anymore, only for getPartialList (done manual instead)
-            prodIt = delegator.find("Product", null, null, null, null, findOptions);
+            EntityCondition resumeCond = (resumeProductId != null) ? EntityCondition.makeCondition("productId", EntityOperator.GREATER_THAN, resumeProductId) : null;
+            prodIt = delegator.find("Product", resumeCond, null, null, UtilMisc.toList("productId"), findOptions);
 
             numDocs = prodIt.getResultsSizeAfterPartialList();
-            int startIndex = 1;
-            int bufNumDocs = 0;
-
-            // NOTE: use ArrayList instead of LinkedList (EntityListIterator) in buffered mode because it will use less total memory
-            List<Map<String, Object>> solrDocs = (bufSize > 0) ? new ArrayList<>(Math.min(bufSize, numDocs)) : new LinkedList<>();
 
             Map<String, Object> productContext = new HashMap<>(context);
             productContext.put("useCache", clearAndUseCache);
 
-            boolean lastReached = false;
-            while (!lastReached) {
-                startIndex = startIndex + bufNumDocs;
-
-                // NOTE: the endIndex is actually a prediction, but if it's ever false, there is a serious DB problem
-                int endIndex;
-                if (bufSize > 0) endIndex = startIndex + Math.min(bufSize, numDocs-(startIndex-1)) - 1;
-                else endIndex = numDocs;
-                Debug.logInfo("Solr: rebuildSolrIndex: Reading products " + startIndex + "-" + endIndex + " / " + numDocs + " for indexing", module);
-
-                solrDocs.clear();
-                int numLeft = bufSize;
-                while ((bufSize <= 0 || numLeft > 0) && !lastReached) {
-                    GenericValue product = prodIt.next();
-                    if (product != null) {
-                        Map<String, Object> dispatchContext = SolrProductUtil.getProductContent(product, dctx, productContext);
-                        solrDocs.add(dispatchContext);
-                        numDocsIndexed++;
-                        numLeft--;
-                    } else {
-                        lastReached = true;
-                    }
-                }
-                bufNumDocs = solrDocs.size();
-                if (bufNumDocs == 0) {
-                    break;
-                }
-
-                // This adds all products to the Index (instantly)
-                Map<String, Object> servCtx = UtilMisc.toMap("fieldList", solrDocs, "treatConnectErrorNonFatal", treatConnectErrorNonFatal);
-                servCtx.put("useCache", clearAndUseCache);
-                copyStdServiceFieldsNotSet(context, servCtx);
-                Map<String, Object> runResult = dispatcher.runSync("addListToSolrIndex", servCtx);
-
-                if (ServiceUtil.isError(runResult) || ServiceUtil.isFailure(runResult)) {
-                    String runMsg = ServiceUtil.getErrorMessage(runResult);
-                    if (UtilValidate.isEmpty(runMsg)) {
-                        runMsg = null;
-                    }
-                    if (ServiceUtil.isFailure(runResult)) result = ServiceUtil.returnFailure(runMsg);
-                    else result = ServiceUtil.returnError(runMsg);
-                    break;
-                }
+            // SCIPIO: read, build and send in a pipeline, with a single commit at the end
+            SolrIndexRebuilder rebuilder = new SolrIndexRebuilder(dctx, productContext, client, bufSize, numDocs);
+            numDocsIndexed = rebuilder.run(prodIt);
+            if (resumeProductId != null || rebuilder.isCheckpointStored()) {
+                SolrUtil.setSolrRebuildCheckpointIdSepTxSafe(delegator, null);
             }
 
-            if (result == null) {
-                Debug.logInfo("Solr: rebuildSolrIndex: Finished with " + numDocsIndexed + " documents indexed", module);
-                final String statusMsg = "Cleared solr index and reindexed " + numDocsIndexed + " documents";
-                result = ServiceUtil.returnSuccess(statusMsg);
-            }
+            Debug.logInfo("Solr: rebuildSolrIndex: Finished with " + numDocsIndexed + " documents indexed", module);
+            final String statusMsg = (resumeProductId != null) ? "Resumed solr index rebuild after productId '" + resumeProductId + "' and reindexed " + numDocsIndexed + " documents"
+                    : "Cleared solr index and reindexed " + numDocsIndexed + " documents";
+            result = ServiceUtil.returnSuccess(statusMsg);
         } catch (SolrServerException e) {
             if (e.getCause() != null && e.getCause() instanceof ConnectException) {
                 final String statusStr = "Failure connecting to solr server to rebuild index; index not updated";
@@ -428,6 +428,36 @@ public abstract class SolrProductUtil {
      * <b>WARNING:</b> You should use the provided nowTimestamp for filter-by-date operations.
      */
     public static Map<String, Object> getProductContent(GenericValue product, DispatchContext dctx, Map<String, Object> context) {
+        return getProductContent(product, dctx, context, null);
+    }
+
+    /**
+     * SCIPIO: Gets the product content of each product, reading the related records of the whole list at once
+     * through a {@link SolrProductPrefetch} (with one query per entity instead of one per product).
+     * The list should be a chunk of a reasonable size (such as solr.index.rebuild.record.buffer.size).
+     */
+    public static List<Map<String, Object>> getProductContentList(List<GenericValue> products, DispatchContext dctx, Map<String, Object> context) {
+        SolrProductPrefetch prefetch = null;
+        if (products.size() > 1) {
+            try {
+                prefetch = SolrProductPrefetch.load(dctx.getDelegator(), products, UtilDateTime.nowTimestamp());
+            } catch (GenericEntityException e) {
+                Debug.logError(e, "Solr: getProductContentList: Error prefetching related records of " + products.size()
+                        + " products; reading them per product: " + e.getMessage(), module);
+            }
+        }
+        List<Map<String, Object>> productContentList = new ArrayList<>(products.size());
+        for (GenericValue product : products) {
+            productContentList.add(getProductContent(product, dctx, context, prefetch));
+        }
+        return productContentList;
+    }
+
+    /**
+     * SCIPIO: Gets the product content, reading the related records from the given prefetch where it has them.
+     * @param prefetch the related records of the chunk of products this product belongs to, or null
+     */
+    public static Map<String, Object> getProductContent(GenericValue product, DispatchContext dctx, Map<String, Object> context, SolrProductPrefetch prefetch) {
         Delegator delegator = dctx.getDelegator();
         LocalDispatcher dispatcher = dctx.getDispatcher();
         GenericValue userLogin = (GenericValue) context.get("userLogin");
@@ -436,6 +466,9 @@ public abstract class SolrProductUtil {
         Map<String, Object> targetCtx = new HashMap<>();
         Timestamp nowTimestamp = UtilDateTime.nowTimestamp();
         Timestamp moment = nowTimestamp;
+        if (prefetch != null && !prefetch.hasProduct(productId)) {
+            prefetch = null;
+        }
 
         if (Debug.verboseOn()) Debug.logVerbose("Solr: Getting product content for productId '" + productId + "'", module);
 
@@ -446,8 +479,10 @@ public abstract class SolrProductUtil {
             Map<String, Object> fields = getGenSolrDocFieldsMap(targetCtx);
 
             // Get all product assoc
-            List<GenericValue> productAssocFromList = delegator.from("ProductAssoc").where("productId", productId).filterByDate(moment).cache(useCache).queryList();
-            List<GenericValue> productAssocToList = delegator.from("ProductAssoc").where("productIdTo", productId).filterByDate(moment).cache(useCache).queryList();
+            List<GenericValue> productAssocFromList = (prefetch != null) ? prefetch.getProductAssocsFrom(productId) :
+                    delegator.from("ProductAssoc").where("productId", productId).filterByDate(moment).cache(useCache).queryList();
+            List<GenericValue> productAssocToList = (prefetch != null) ? prefetch.getProductAssocsTo(productId) :
+                    delegator.from("ProductAssoc").where("productIdTo", productId).filterByDate(moment).cache(useCache).queryList();
 
             // 2017-09: if variant, must also get virtual's categories
             //List<GenericValue> productVariantAssocs = ProductWorker.getVariantVirtualAssocs(product, useCache);
@@ -458,19 +493,20 @@ public abstract class SolrProductUtil {
 
             // 2017-09: do EARLY cat lookup so that we can find out a ProductStore
             Set<String> productCategoryIds = new LinkedHashSet<>();
-            getProductCategoryIds(productCategoryIds, dctx, productId, productVariantAssocs, moment, useCache);
+            getProductCategoryIds(productCategoryIds, dctx, productId, productVariantAssocs, moment, useCache, prefetch);
 
             // Trying to set a correctand trail
             Collection<String> trails = new LinkedHashSet<String>();
-            getCategoryTrails(trails, dctx, productCategoryIds, moment, useCache);
+            getCategoryTrails(trails, dctx, productCategoryIds, moment, useCache, prefetch);
 
             // Get the catalogs that have associated the categories
             Collection<String> catalogs = new LinkedHashSet<>();
-            getCatalogIdsFromCategoryTrails(catalogs, dctx, trails, moment, useCache);
+            getCatalogIdsFromCategoryTrails(catalogs, dctx, trails, moment, useCache, prefetch);
 
             List<GenericValue> productStores;
             if (!catalogs.isEmpty()) {
-                productStores = SolrCategoryUtil.getProductStoresFromCatalogIds(delegator, catalogs, moment, useCache);
+                productStores = (prefetch != null) ? prefetch.getProductStoresFromCatalogIds(delegator, catalogs, useCache) :
+                        SolrCategoryUtil.getProductStoresFromCatalogIds(delegator, catalogs, moment, useCache);
             } else {
                 productStores = new ArrayList<>();
             }
@@ -541,7 +577,7 @@ public abstract class SolrProductUtil {
             String parentProductId = null;
             if ("Y".equals(product.getString("isVariant"))) {
                 // IMPORTANT: same parent lookup logic as used by ProductContentWrapper
-                parentProductId = ProductWorker.getParentProductId(productId, delegator, useCache);
+                parentProductId = (prefetch != null) ? prefetch.getParentProductId(productId) : ProductWorker.getParentProductId(productId, delegator, useCache);
             }
 
             targetCtx.put("productId", productId);
@@ -573,9 +609,13 @@ public abstract class SolrProductUtil {
             // if(category.size()>0) targetCtx.put("category", category);
             // if(product.get("popularity") != null) targetCtx.put("popularity", "");
 
-            Map<String, Object> featureSet = dispatcher.runSync("getProductFeatureSet", UtilMisc.toMap("productId", productId, "emptyAction", "success", "useCache", useCache));
-            if (featureSet != null) {
-                targetCtx.put("features", (Set<?>) featureSet.get("featureSet"));
+            if (prefetch != null) {
+                targetCtx.put("features", prefetch.getFeatureTypeIds(productId));
+            } else {
+                Map<String, Object> featureSet = dispatcher.runSync("getProductFeatureSet", UtilMisc.toMap("productId", productId, "emptyAction", "success", "useCache", useCache));
+                if (featureSet != null) {
+                    targetCtx.put("features", (Set<?>) featureSet.get("featureSet"));
+                }
             }
 
             /* 2018-05-29: Use a more precise, total AND per-store count
@@ -621,9 +661,9 @@ public abstract class SolrProductUtil {
             Boolean requireAmount = product.getBoolean("requireAmount");
             if (Boolean.TRUE.equals(requireAmount)) fields.put("requireAmount_b", requireAmount);
 
-            targetCtx.put("title", getLocalizedContentStringMap(delegator, dispatcher, product, "PRODUCT_NAME", locales, defaultProductLocale, pcwList, moment, useCache));
-            targetCtx.put("description", getLocalizedContentStringMap(delegator, dispatcher, product, "DESCRIPTION", locales, defaultProductLocale, pcwList, moment, useCache));
-            targetCtx.put("longDescription", getLocalizedContentStringMap(delegator, dispatcher, product, "LONG_DESCRIPTION", locales, defaultProductLocale, pcwList, moment, useCache));
+            targetCtx.put("title", getLocalizedContentStringMap(delegator, dispatcher, product, "PRODUCT_NAME", locales, defaultProductLocale, pcwList, moment, useCache, prefetch));
+            targetCtx.put("description", getLocalizedContentStringMap(delegator, dispatcher, product, "DESCRIPTION", locales, defaultProductLocale, pcwList, moment, useCache, prefetch));
+            targetCtx.put("longDescription", getLocalizedContentStringMap(delegator, dispatcher, product, "LONG_DESCRIPTION", locales, defaultProductLocale, pcwList, moment, useCache, prefetch));
 
             // targetCtx.put("comments", "");
             // targetCtx.put("keywords", "");
@@ -650,7 +690,19 @@ public abstract class SolrProductUtil {
             // 2017-09-12: added missing ProductKeyword lookup, otherwise can't input keywords from ofbiz
             Set<String> keywords = new LinkedHashSet<>();
             // NOTE: for variant products, we also include the keywords from the virtual/parent
-            getProductKeywords(keywords, delegator, useCache, productId, parentProductId);
+            if (prefetch != null) {
+                UtilMisc.getMapValuesForKey(prefetch.getProductKeywords(productId), "keyword", keywords);
+                if (parentProductId != null) {
+                    List<GenericValue> parentKeywords = prefetch.getProductKeywords(parentProductId);
+                    if (parentKeywords != null) {
+                        UtilMisc.getMapValuesForKey(parentKeywords, "keyword", keywords);
+                    } else {
+                        getProductKeywords(keywords, delegator, useCache, parentProductId);
+                    }
+                }
+            } else {
+                getProductKeywords(keywords, delegator, useCache, productId, parentProductId);
+            }
             targetCtx.put("keywords", new ArrayList<>(keywords));
 
             /*
@@ -670,15 +722,26 @@ public abstract class SolrProductUtil {
 
     protected static void getProductCategoryIds(Collection<String> productCategoryIds, DispatchContext dctx, String productId, Collection<GenericValue> productVariantAssocs,
             Timestamp moment, boolean useCache) throws GenericEntityException {
-        List<GenericValue> categories = EntityQuery.use(dctx.getDelegator()).from("ProductCategoryMember").where("productId", productId)
-                .filterByDate(moment).cache(useCache).queryList();
+        getProductCategoryIds(productCategoryIds, dctx, productId, productVariantAssocs, moment, useCache, null);
+    }
+
+    protected static void getProductCategoryIds(Collection<String> productCategoryIds, DispatchContext dctx, String productId, Collection<GenericValue> productVariantAssocs,
+            Timestamp moment, boolean useCache, SolrProductPrefetch prefetch) throws GenericEntityException {
+        List<GenericValue> categories = (prefetch != null) ? prefetch.getProductCategoryMembers(productId) : null;
+        if (categories == null) {
+            categories = EntityQuery.use(dctx.getDelegator()).from("ProductCategoryMember").where("productId", productId)
+                    .filterByDate(moment).cache(useCache).queryList();
+        }
         UtilMisc.getMapValuesForKey(categories, "productCategoryId", productCategoryIds);
 
         if (UtilValidate.isNotEmpty(productVariantAssocs)) {
             for(GenericValue productVariantAssoc : productVariantAssocs) {
                 String virtualProductId = productVariantAssoc.getString("productId");
-                List<GenericValue> virtualCategories = EntityQuery.use(dctx.getDelegator()).from("ProductCategoryMember")
-                        .where("productId", virtualProductId).filterByDate(moment).cache(useCache).queryList();
+                List<GenericValue> virtualCategories = (prefetch != null) ? prefetch.getProductCategoryMembers(virtualProductId) : null;
+                if (virtualCategories == null) {
+                    virtualCategories = EntityQuery.use(dctx.getDelegator()).from("ProductCategoryMember")
+                            .where("productId", virtualProductId).filterByDate(moment).cache(useCache).queryList();
+                }
                 UtilMisc.getMapValuesForKey(virtualCategories, "productCategoryId", productCategoryIds);
             }
         }
@@ -755,8 +818,14 @@ public abstract class SolrProductUtil {
     }
 
     protected static void getCategoryTrails(Collection<String> trails, DispatchContext dctx, Collection<String> productCategoryIds, Timestamp moment, boolean useCache) {
+        getCategoryTrails(trails, dctx, productCategoryIds, moment, useCache, null);
+    }
+
+    protected static void getCategoryTrails(Collection<String> trails, DispatchContext dctx, Collection<String> productCategoryIds, Timestamp moment, boolean useCache,
+            SolrProductPrefetch prefetch) {
         for (String productCategoryId : productCategoryIds) {
-            List<List<String>> trailElements = SolrCategoryUtil.getCategoryTrail(productCategoryId, dctx, useCache);
+            List<List<String>> trailElements = (prefetch != null) ? prefetch.getCategoryTrail(productCategoryId, dctx, useCache) :
+                    SolrCategoryUtil.getCategoryTrail(productCategoryId, dctx, useCache);
             for (List<String> trailElement : trailElements) {
                 StringBuilder catMember = new StringBuilder();
                 int i = 0;
@@ -774,12 +843,18 @@ public abstract class SolrProductUtil {
     }
 
     protected static void getCatalogIdsFromCategoryTrails(Collection<String> catalogIds, DispatchContext dctx, Collection<String> trails, Timestamp moment, boolean useCache) {
+        getCatalogIdsFromCategoryTrails(catalogIds, dctx, trails, moment, useCache, null);
+    }
+
+    protected static void getCatalogIdsFromCategoryTrails(Collection<String> catalogIds, DispatchContext dctx, Collection<String> trails, Timestamp moment, boolean useCache,
+            SolrProductPrefetch prefetch) {
         Map<String, List<String>> categoryIdCatalogIdMap = new HashMap<>(); // 2017-09: local cache; multiple lookups for same
         for (String trail : trails) {
             String productCategoryId = (trail.split("/").length > 0) ? trail.split("/")[1] : trail;
             List<String> catalogMembers = categoryIdCatalogIdMap.get(productCategoryId);
             if (catalogMembers == null) {
-                catalogMembers = SolrCategoryUtil.getCatalogIdsByCategoryId(dctx.getDelegator(), productCategoryId, moment, useCache);
+                catalogMembers = (prefetch != null) ? prefetch.getCatalogIdsByCategoryId(dctx.getDelegator(), productCategoryId, useCache) :
+                        SolrCategoryUtil.getCatalogIdsByCategoryId(dctx.getDelegator(), productCategoryId, moment, useCache);
                 categoryIdCatalogIdMap.put(productCategoryId, catalogMembers);
             }
             for (String catalogMember : catalogMembers) {
@@ -849,11 +924,17 @@ public abstract class SolrProductUtil {
 
     protected static Map<String, String> getLocalizedContentStringMap(Delegator delegator, LocalDispatcher dispatcher, GenericValue product,
             String productContentTypeId, List<Locale> locales, Locale defaultProductLocale, List<ProductContentWrapper> pcwList, Timestamp moment, boolean useCache) throws GeneralException, IOException {
+        return getLocalizedContentStringMap(delegator, dispatcher, product, productContentTypeId, locales, defaultProductLocale, pcwList, moment, useCache, null);
+    }
+
+    protected static Map<String, String> getLocalizedContentStringMap(Delegator delegator, LocalDispatcher dispatcher, GenericValue product,
+            String productContentTypeId, List<Locale> locales, Locale defaultProductLocale, List<ProductContentWrapper> pcwList, Timestamp moment, boolean useCache,
+            SolrProductPrefetch prefetch) throws GeneralException, IOException {
         Map<String, String> contentMap = new HashMap<>();
 
         contentMap.put(SolrLocaleUtil.I18N_GENERAL, ProductContentWrapper.getEntityFieldValue(product, productContentTypeId, delegator, dispatcher, useCache));
 
-        getProductContentForLocales(contentMap, delegator, dispatcher, product, productContentTypeId, locales, defaultProductLocale, moment, useCache);
+        getProductContentForLocales(contentMap, delegator, dispatcher, product, productContentTypeId, locales, defaultProductLocale, moment, useCache, prefetch);
 
         refineLocalizedContentValues(contentMap, locales, defaultProductLocale);
 
@@ -900,13 +981,29 @@ public abstract class SolrProductUtil {
      */
     protected static void getProductContentForLocales(Map<String, String> contentMap, Delegator delegator, LocalDispatcher dispatcher,
             GenericValue product, String productContentTypeId, Collection<Locale> locales, Locale defaultProductLocale, Timestamp moment, boolean useCache) throws GeneralException, IOException {
+        getProductContentForLocales(contentMap, delegator, dispatcher, product, productContentTypeId, locales, defaultProductLocale, moment, useCache, null);
+    }
+
+    protected static void getProductContentForLocales(Map<String, String> contentMap, Delegator delegator, LocalDispatcher dispatcher,
+            GenericValue product, String productContentTypeId, Collection<Locale> locales, Locale defaultProductLocale, Timestamp moment, boolean useCache,
+            SolrProductPrefetch prefetch) throws GeneralException, IOException {
         String productId = product.getString("productId");
 
-        List<GenericValue> productContentList = EntityQuery.use(delegator).from("ProductContent").where("productId", productId, "productContentTypeId", productContentTypeId).orderBy("-fromDate").cache(useCache).filterByDate(moment).queryList();
+        List<GenericValue> productContentList = (prefetch != null) ? prefetch.getProductContents(productId, productContentTypeId) : null;
+        if (productContentList == null) {
+            productContentList = EntityQuery.use(delegator).from("ProductContent").where("productId", productId, "productContentTypeId", productContentTypeId).orderBy("-fromDate").cache(useCache).filterByDate(moment).queryList();
+        }
         if (UtilValidate.isEmpty(productContentList) && ("Y".equals(product.getString("isVariant")))) {
-            GenericValue parent = ProductWorker.getParentProduct(productId, delegator, useCache);
-            if (UtilValidate.isNotEmpty(parent)) {
-                productContentList = EntityQuery.use(delegator).from("ProductContent").where("productId", parent.get("productId"), "productContentTypeId", productContentTypeId).orderBy("-fromDate").cache(useCache).filterByDate(moment).queryList();
+            if (prefetch != null) {
+                String parentProductId = prefetch.getParentProductId(productId);
+                if (parentProductId != null) {
+                    productContentList = prefetch.getProductContents(parentProductId, productContentTypeId);
+                }
+            } else {
+                GenericValue parent = ProductWorker.getParentProduct(productId, delegator, useCache);
+                if (UtilValidate.isNotEmpty(parent)) {
+                    productContentList = EntityQuery.use(delegator).from("ProductContent").where("productId", parent.get("productId"), "productContentTypeId", productContentTypeId).orderBy("-fromDate").cache(useCache).filterByDate(moment).queryList();
+                }
             }
         }
         GenericValue productContent = EntityUtil.getFirst(productContentList);
@@ -915,7 +1012,10 @@ public abstract class SolrProductUtil {
         }
         String contentId = productContent.getString("contentId");
 
-        GenericValue content = EntityQuery.use(delegator).from("Content").where("contentId", contentId).cache(useCache).queryOne();
+        GenericValue content = (prefetch != null) ? prefetch.getContent(contentId) : null;
+        if (content == null) {
+            content = EntityQuery.use(delegator).from("Content").where("contentId", contentId).cache(useCache).queryOne();
+        }
         if (content == null) {
             return;
         }
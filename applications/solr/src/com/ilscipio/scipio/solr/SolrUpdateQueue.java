@@ -0,0 +1,352 @@
+package com.ilscipio.scipio.solr;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.ofbiz.base.concurrent.ExecutionPool;
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilGenerics;
+import org.ofbiz.base.util.UtilProperties;
+import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.GenericEntityException;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.condition.EntityCondition;
+import org.ofbiz.entity.condition.EntityOperator;
+import org.ofbiz.entity.util.EntityQuery;
+import org.ofbiz.service.DispatchContext;
+import org.ofbiz.service.GenericServiceException;
+import org.ofbiz.service.LocalDispatcher;
+import org.ofbiz.service.ServiceUtil;
+
+/**
+ * SCIPIO: Node-local queue of pending Solr product updates, filled by the <code>queueUpdateToSolr</code> service
+ * (the registerUpdateToSolr updateSrv) and flushed with a single batched <code>updateToSolr</code> call that relies
+ * on commitWithin instead of a commit per product.
+ * <p>
+ * A product queued several times before a flush is updated once: the last action wins and the variant/virtual
+ * flags are combined. The queue is flushed <code>solr.update.queue.flush.interval</code> milliseconds after the
+ * first product queued since the last flush, or as soon as it holds <code>solr.update.queue.flush.size</code>
+ * products.
+ * <p>
+ * Each queued product is also stored as a SolrPendingUpdate record, which is removed once the product was updated, so
+ * the products still pending at a crash or shutdown are flushed at the next startup (flushSolrUpdateQueue job).
+ * <p>
+ * If a flush does not update some products without an error of their own (Solr unreachable or not ready yet), they
+ * are merged back into the queue and flushed again after a delay that doubles up to
+ * <code>solr.update.queue.retry.maxDelay</code>. The products that failed by themselves (productErrorMsgs) keep their
+ * records for the next startup.
+ */
+public final class SolrUpdateQueue {
+
+    private static final Debug.OfbizLogger module = Debug.getOfbizLogger(java.lang.invoke.MethodHandles.lookup().lookupClass());
+
+    private static final String[] FLAG_NAMES = new String[] { "updateVariants", "updateVariantsDeep", "updateVirtual", "updateVirtualDeep" };
+    /** Max number of records removed by one condition. */
+    private static final int REMOVE_CHUNK_SIZE = 200;
+
+    private static final Map<String, SolrUpdateQueue> delegatorQueues = new ConcurrentHashMap<>();
+
+    private final LocalDispatcher dispatcher;
+    private final Delegator delegator;
+    private final long flushInterval;
+    private final long retryMaxDelay;
+    private final int flushSize;
+    private final int commitWithin;
+    private final ScheduledExecutorService executor;
+    private final Object flushLock = new Object();
+
+    /** Pending products with their merged updateToSolr options, in order of last change. Guarded by this. */
+    private Map<String, Map<String, Object>> pending = new LinkedHashMap<>();
+    /** Stamps of the SolrPendingUpdate records of the pending products. Guarded by this. */
+    private Map<String, Timestamp> pendingStamps = new HashMap<>();
+    private boolean flushScheduled = false; // guarded by this
+    private long lastStamp = 0; // guarded by this
+    /** Delay before the retry of a failed flush, 0 if the last flush succeeded. Guarded by this. */
+    private long retryDelay = 0;
+
+    private SolrUpdateQueue(DispatchContext dctx) {
+        this.dispatcher = dctx.getDispatcher();
+        this.delegator = dctx.getDelegator();
+        this.flushInterval = UtilProperties.getPropertyAsLong(SolrUtil.solrConfigName, "solr.update.queue.flush.interval", 2000);
+        this.retryMaxDelay = UtilProperties.getPropertyAsLong(SolrUtil.solrConfigName, "solr.update.queue.retry.maxDelay", 60000);
+        this.flushSize = UtilProperties.getPropertyAsInteger(SolrUtil.solrConfigName, "solr.update.queue.flush.size", 1000);
+        this.commitWithin = UtilProperties.getPropertyAsInteger(SolrUtil.solrConfigName, "solr.update.queue.commitWithin", 5000);
+        String name = "Scipio-SolrUpdateQueue-" + delegator.getDelegatorName();
+        this.executor = ExecutionPool.getScheduledExecutor(new ThreadGroup(name), name, 1, 0, true);
+        loadPending();
+    }
+
+    /**
+     * Returns the queue of the delegator of the dispatch context, loading the updates left pending at the last
+     * shutdown on first access.
+     */
+    public static SolrUpdateQueue getInstance(DispatchContext dctx) {
+        return delegatorQueues.computeIfAbsent(dctx.getDelegator().getDelegatorName(), k -> new SolrUpdateQueue(dctx));
+    }
+
+    /**
+     * Queues the products of the map (productId to updateToSolrSingleInterface options); instances are not kept,
+     * the products are re-read at flush.
+     */
+    public void add(Map<String, Map<String, Object>> productIdMap) throws GenericEntityException {
+        if (productIdMap.isEmpty()) {
+            return;
+        }
+        Map<String, Map<String, Object>> merged = new LinkedHashMap<>();
+        Timestamp stamp;
+        synchronized (this) {
+            stamp = nextStamp();
+            for (Map.Entry<String, Map<String, Object>> entry : productIdMap.entrySet()) {
+                merged.put(entry.getKey(), mergeProps(pending.get(entry.getKey()), entry.getValue()));
+            }
+        }
+        // store first, so that a flush draining the queue in between never removes a record it has not updated
+        List<GenericValue> records = new ArrayList<>(merged.size());
+        for (Map.Entry<String, Map<String, Object>> entry : merged.entrySet()) {
+            records.add(makeRecord(entry.getKey(), entry.getValue(), stamp));
+        }
+        delegator.storeAll(records);
+
+        boolean flushNow = false;
+        synchronized (this) {
+            // merge again in case another thread queued the product meanwhile
+            addMerged(pending, pendingStamps, merged, stamp);
+            if (pending.size() >= flushSize && retryDelay == 0) { // no early flush while waiting to retry
+                flushNow = true;
+            } else if (!flushScheduled) {
+                flushScheduled = true;
+                executor.schedule(this::runFlush, flushInterval, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (flushNow) {
+            executor.execute(this::runFlush);
+        }
+    }
+
+    /** Returns the number of products waiting for the next flush. */
+    public synchronized int size() {
+        return pending.size();
+    }
+
+    /**
+     * Updates the pending products in Solr with one updateToSolr call and returns its result. The SolrPendingUpdate
+     * records of the updated products are removed; the products not updated for lack of Solr are queued again for a
+     * retry, and those that failed by themselves are left for the next startup.
+     */
+    public Map<String, Object> flush() {
+        synchronized (flushLock) {
+            Map<String, Map<String, Object>> productIdMap;
+            Map<String, Timestamp> stamps;
+            synchronized (this) {
+                flushScheduled = false;
+                if (pending.isEmpty()) {
+                    return ServiceUtil.returnSuccess();
+                }
+                productIdMap = pending;
+                stamps = pendingStamps;
+                pending = new LinkedHashMap<>();
+                pendingStamps = new HashMap<>();
+            }
+            // updateToSolr edits the map and options in place (instances, expanded variants), so pass a copy
+            Map<String, Map<String, Object>> updateMap = new LinkedHashMap<>();
+            for (Map.Entry<String, Map<String, Object>> entry : productIdMap.entrySet()) {
+                updateMap.put(entry.getKey(), new HashMap<>(entry.getValue()));
+            }
+            Map<String, Object> servCtx = new HashMap<>();
+            servCtx.put("productIdMap", updateMap);
+            servCtx.put("commitWithin", commitWithin);
+            Map<String, Object> result;
+            try {
+                result = dispatcher.runSync("updateToSolr", servCtx);
+            } catch (GenericServiceException e) {
+                Debug.logError(e, "Solr: flushSolrUpdateQueue: Could not run updateToSolr for " + productIdMap.size() + " products: " + e.getMessage(), module);
+                result = ServiceUtil.returnError("Could not run updateToSolr for " + productIdMap.size() + " products: " + e.toString());
+            }
+            // NOTE: updatedProductIds is missing if updateToSolr skipped indexing, such as before the server is running
+            List<String> updatedList = UtilGenerics.checkList(result.get("updatedProductIds"));
+            Set<String> updatedProductIds = (updatedList != null) ? new HashSet<>(updatedList) : Collections.emptySet();
+            Map<String, String> productErrorMsgs = UtilGenerics.checkMap(result.get("productErrorMsgs"));
+            if (productErrorMsgs == null) {
+                productErrorMsgs = Collections.emptyMap();
+            }
+            Map<String, Timestamp> updatedStamps = new HashMap<>();
+            Map<String, Map<String, Object>> retryMap = new LinkedHashMap<>();
+            Map<String, Timestamp> retryStamps = new HashMap<>();
+            for (Map.Entry<String, Map<String, Object>> entry : productIdMap.entrySet()) {
+                String productId = entry.getKey();
+                if (updatedProductIds.contains(productId)) {
+                    updatedStamps.put(productId, stamps.get(productId));
+                } else if (!productErrorMsgs.containsKey(productId)) {
+                    retryMap.put(productId, entry.getValue());
+                    retryStamps.put(productId, stamps.get(productId));
+                }
+            }
+            removeRecords(updatedStamps);
+            if (!productErrorMsgs.isEmpty()) {
+                Debug.logWarning("Solr: flushSolrUpdateQueue: " + productErrorMsgs.size()
+                        + " products could not be updated; leaving them in SolrPendingUpdate: " + productErrorMsgs.values(), module);
+            }
+            long delay = requeue(retryMap, retryStamps);
+            if (delay > 0) {
+                Debug.logWarning("Solr: flushSolrUpdateQueue: " + retryMap.size() + " products not updated; retrying in " + delay + "ms: "
+                        + (ServiceUtil.isSuccess(result) ? "indexing skipped (Solr not ready or ECA indexing disabled)" : ServiceUtil.getErrorMessage(result)), module);
+            } else if (Debug.verboseOn()) {
+                Debug.logVerbose("Solr: flushSolrUpdateQueue: Updated " + updatedStamps.size() + " products", module);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Merges the products to retry back into the queue and schedules the retry after the backoff delay, which is
+     * reset if there is nothing to retry; returns the delay, or 0.
+     */
+    private synchronized long requeue(Map<String, Map<String, Object>> retryMap, Map<String, Timestamp> retryStamps) {
+        if (retryMap.isEmpty()) {
+            retryDelay = 0;
+            return 0;
+        }
+        pending = mergeFailed(retryMap, retryStamps, pending, pendingStamps);
+        retryDelay = nextRetryDelay(retryDelay, flushInterval, retryMaxDelay);
+        flushScheduled = true;
+        executor.schedule(this::runFlush, retryDelay, TimeUnit.MILLISECONDS);
+        return retryDelay;
+    }
+
+    private void runFlush() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            Debug.logError(e, "Solr: flushSolrUpdateQueue: Error flushing queue: " + e.getMessage(), module);
+        }
+    }
+
+    private void loadPending() {
+        List<GenericValue> records;
+        try {
+            records = EntityQuery.use(delegator).from("SolrPendingUpdate").orderBy("queuedStamp").cache(false).queryList();
+        } catch (GenericEntityException e) {
+            Debug.logError(e, "Solr: Could not read pending updates from SolrPendingUpdate: " + e.getMessage(), module);
+            return;
+        }
+        if (records.isEmpty()) {
+            return;
+        }
+        synchronized (this) {
+            for (GenericValue record : records) {
+                String productId = record.getString("productId");
+                Map<String, Object> props = new HashMap<>();
+                props.put("action", record.getString("updateAction"));
+                for (String flagName : FLAG_NAMES) {
+                    props.put(flagName, record.getBoolean(flagName));
+                }
+                pending.put(productId, props);
+                pendingStamps.put(productId, record.getTimestamp("queuedStamp"));
+                lastStamp = Math.max(lastStamp, record.getTimestamp("queuedStamp").getTime());
+            }
+            flushScheduled = true;
+            executor.schedule(this::runFlush, flushInterval, TimeUnit.MILLISECONDS);
+        }
+        Debug.logInfo("Solr: Loaded " + records.size() + " pending product updates from SolrPendingUpdate", module);
+    }
+
+    /**
+     * Removes the records of the flushed products, except those queued again since (newer stamp).
+     */
+    private void removeRecords(Map<String, Timestamp> stamps) {
+        List<EntityCondition> conds = new ArrayList<>(Math.min(stamps.size(), REMOVE_CHUNK_SIZE));
+        try {
+            for (Map.Entry<String, Timestamp> entry : stamps.entrySet()) {
+                conds.add(EntityCondition.makeCondition(EntityCondition.makeCondition("productId", entry.getKey()), EntityOperator.AND,
+                        EntityCondition.makeCondition("queuedStamp", EntityOperator.LESS_THAN_EQUAL_TO, entry.getValue())));
+                if (conds.size() >= REMOVE_CHUNK_SIZE) {
+                    delegator.removeByCondition("SolrPendingUpdate", EntityCondition.makeCondition(conds, EntityOperator.OR));
+                    conds.clear();
+                }
+            }
+            if (!conds.isEmpty()) {
+                delegator.removeByCondition("SolrPendingUpdate", EntityCondition.makeCondition(conds, EntityOperator.OR));
+            }
+        } catch (GenericEntityException e) {
+            // harmless: the products are only updated again at next startup
+            Debug.logError(e, "Solr: flushSolrUpdateQueue: Could not remove updated products from SolrPendingUpdate: " + e.getMessage(), module);
+        }
+    }
+
+    /** Returns a stamp later than all previous ones, so records of re-queued products are never removed too early. */
+    private Timestamp nextStamp() {
+        lastStamp = Math.max(lastStamp + 1, System.currentTimeMillis());
+        return new Timestamp(lastStamp);
+    }
+
+    private GenericValue makeRecord(String productId, Map<String, Object> props, Timestamp stamp) {
+        GenericValue record = delegator.makeValue("SolrPendingUpdate");
+        record.set("productId", productId);
+        record.set("updateAction", props.get("action"));
+        for (String flagName : FLAG_NAMES) {
+            record.set(flagName, Boolean.TRUE.equals(props.get(flagName)) ? "Y" : "N");
+        }
+        record.set("queuedStamp", stamp);
+        return record;
+    }
+
+    /**
+     * Adds the products to the pending ones with the given stamp, merging their options; a product already pending is
+     * moved to the end, so the map stays in order of last change.
+     */
+    static void addMerged(Map<String, Map<String, Object>> pending, Map<String, Timestamp> pendingStamps,
+            Map<String, Map<String, Object>> productIdMap, Timestamp stamp) {
+        for (Map.Entry<String, Map<String, Object>> entry : productIdMap.entrySet()) {
+            String productId = entry.getKey();
+            Map<String, Object> props = mergeProps(pending.remove(productId), entry.getValue());
+            pending.put(productId, props);
+            pendingStamps.put(productId, stamp);
+        }
+    }
+
+    /**
+     * Returns the products of a failed flush merged back into the pending ones: they come first, being older, and the
+     * options and stamps of the products queued again since take precedence (flags are combined). Updates pendingStamps.
+     */
+    static Map<String, Map<String, Object>> mergeFailed(Map<String, Map<String, Object>> failed, Map<String, Timestamp> failedStamps,
+            Map<String, Map<String, Object>> pending, Map<String, Timestamp> pendingStamps) {
+        Map<String, Map<String, Object>> merged = new LinkedHashMap<>();
+        for (Map.Entry<String, Map<String, Object>> entry : failed.entrySet()) {
+            if (!pending.containsKey(entry.getKey())) {
+                merged.put(entry.getKey(), entry.getValue());
+                pendingStamps.put(entry.getKey(), failedStamps.get(entry.getKey()));
+            }
+        }
+        for (Map.Entry<String, Map<String, Object>> entry : pending.entrySet()) {
+            merged.put(entry.getKey(), mergeProps(failed.get(entry.getKey()), entry.getValue()));
+        }
+        return merged;
+    }
+
+    /** Returns the next retry delay: the flush interval at first, then doubled up to the max. */
+    static long nextRetryDelay(long retryDelay, long flushInterval, long maxDelay) {
+        long delay = (retryDelay > 0) ? retryDelay * 2 : flushInterval;
+        return Math.max(1, Math.min(delay, maxDelay));
+    }
+
+    /** Merges the new options into the pending ones: the last action wins, the variant/virtual flags are combined. */
+    static Map<String, Object> mergeProps(Map<String, Object> pendingProps, Map<String, Object> newProps) {
+        Map<String, Object> props = new HashMap<>();
+        props.put("action", newProps.get("action"));
+        for (String flagName : FLAG_NAMES) {
+            props.put(flagName, Boolean.TRUE.equals(newProps.get(flagName))
+                    || (pendingProps != null && Boolean.TRUE.equals(pendingProps.get(flagName))));
+        }
+        return props;
+    }
+}
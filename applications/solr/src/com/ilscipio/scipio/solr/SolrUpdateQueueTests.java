@@ -0,0 +1,122 @@
+package com.ilscipio.scipio.solr;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * SCIPIO: Tests of the merge logic of {@link SolrUpdateQueue}: deduplication of queued products and merging the
+ * products of a failed flush back into the queue.
+ * <p>
+ * NOTE: In the queue's package to reach its package-private helpers.
+ */
+public class SolrUpdateQueueTests extends TestCase {
+
+    private static final Timestamp STAMP1 = new Timestamp(1000);
+    private static final Timestamp STAMP2 = new Timestamp(2000);
+    private static final Timestamp STAMP3 = new Timestamp(3000);
+
+    public SolrUpdateQueueTests(String name) {
+        super(name);
+    }
+
+    public void testAddMergedDedupes() {
+        Map<String, Map<String, Object>> pending = new LinkedHashMap<>();
+        Map<String, Timestamp> pendingStamps = new HashMap<>();
+
+        Map<String, Map<String, Object>> first = new LinkedHashMap<>();
+        first.put("A", props("add", "updateVariants"));
+        first.put("B", props(null));
+        SolrUpdateQueue.addMerged(pending, pendingStamps, first, STAMP1);
+
+        Map<String, Map<String, Object>> second = new LinkedHashMap<>();
+        second.put("A", props("remove", "updateVirtual"));
+        SolrUpdateQueue.addMerged(pending, pendingStamps, second, STAMP2);
+
+        assertEquals("Products queued once, in order of last change", list("B", "A"), new ArrayList<>(pending.keySet()));
+        assertEquals("Last action wins", "remove", pending.get("A").get("action"));
+        assertEquals("Flags combined", Boolean.TRUE, pending.get("A").get("updateVariants"));
+        assertEquals("Flags combined", Boolean.TRUE, pending.get("A").get("updateVirtual"));
+        assertEquals("Unset flag", Boolean.FALSE, pending.get("A").get("updateVariantsDeep"));
+        assertEquals("Stamp of the last queueing", STAMP2, pendingStamps.get("A"));
+        assertEquals("Stamp of the first queueing", STAMP1, pendingStamps.get("B"));
+        assertNull("Auto action", pending.get("B").get("action"));
+    }
+
+    public void testMergeFailedKeepsNewer() {
+        Map<String, Map<String, Object>> failed = new LinkedHashMap<>();
+        failed.put("A", props("add", "updateVariants"));
+        failed.put("B", props("add"));
+        Map<String, Timestamp> failedStamps = new HashMap<>();
+        failedStamps.put("A", STAMP1);
+        failedStamps.put("B", STAMP2);
+
+        // queued while the failed flush ran
+        Map<String, Map<String, Object>> pending = new LinkedHashMap<>();
+        pending.put("C", props("add"));
+        pending.put("A", props("remove", "updateVirtual"));
+        Map<String, Timestamp> pendingStamps = new HashMap<>();
+        pendingStamps.put("C", STAMP3);
+        pendingStamps.put("A", STAMP3);
+
+        Map<String, Map<String, Object>> merged = SolrUpdateQueue.mergeFailed(failed, failedStamps, pending, pendingStamps);
+
+        assertEquals("Failed products first, then the newer ones", list("B", "C", "A"), new ArrayList<>(merged.keySet()));
+        assertEquals("Newer action wins", "remove", merged.get("A").get("action"));
+        assertEquals("Flags combined", Boolean.TRUE, merged.get("A").get("updateVariants"));
+        assertEquals("Flags combined", Boolean.TRUE, merged.get("A").get("updateVirtual"));
+        assertEquals("Failed product kept as is", "add", merged.get("B").get("action"));
+        assertEquals("Newer stamp kept", STAMP3, pendingStamps.get("A"));
+        assertEquals("Failed product stamp restored", STAMP2, pendingStamps.get("B"));
+        assertEquals("Newer product stamp", STAMP3, pendingStamps.get("C"));
+    }
+
+    public void testMergeFailedIntoEmptyQueue() {
+        Map<String, Map<String, Object>> failed = new LinkedHashMap<>();
+        failed.put("A", props("add"));
+        failed.put("B", props("remove"));
+        Map<String, Timestamp> failedStamps = new HashMap<>();
+        failedStamps.put("A", STAMP1);
+        failedStamps.put("B", STAMP1);
+        Map<String, Timestamp> pendingStamps = new HashMap<>();
+
+        Map<String, Map<String, Object>> merged = SolrUpdateQueue.mergeFailed(failed, failedStamps, new LinkedHashMap<>(), pendingStamps);
+
+        assertEquals("All failed products queued again", list("A", "B"), new ArrayList<>(merged.keySet()));
+        assertEquals("Stamps restored", failedStamps, pendingStamps);
+    }
+
+    public void testNextRetryDelay() {
+        long delay = SolrUpdateQueue.nextRetryDelay(0, 2000, 10000);
+        assertEquals("First retry after the flush interval", 2000, delay);
+        delay = SolrUpdateQueue.nextRetryDelay(delay, 2000, 10000);
+        assertEquals("Doubled", 4000, delay);
+        delay = SolrUpdateQueue.nextRetryDelay(delay, 2000, 10000);
+        assertEquals("Doubled", 8000, delay);
+        delay = SolrUpdateQueue.nextRetryDelay(delay, 2000, 10000);
+        assertEquals("Capped", 10000, delay);
+        assertEquals("Stays at the cap", 10000, SolrUpdateQueue.nextRetryDelay(delay, 2000, 10000));
+    }
+
+    private static Map<String, Object> props(String action, String... flagNames) {
+        Map<String, Object> props = new HashMap<>();
+        props.put("action", action);
+        for (String flagName : flagNames) {
+            props.put(flagName, Boolean.TRUE);
+        }
+        return props;
+    }
+
+    private static List<String> list(String... values) {
+        List<String> list = new ArrayList<>();
+        for (String value : values) {
+            list.add(value);
+        }
+        return list;
+    }
+}
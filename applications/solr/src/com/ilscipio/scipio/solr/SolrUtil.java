@@ -478,6 +478,67 @@ public abstract class SolrUtil {
         return false;
     }
 
+    /**
+     * SCIPIO: Returns the productId checkpoint of the last unfinished rebuildSolrIndex run, or null if the last rebuild completed.
+     */
+    public static String getSolrRebuildCheckpointId(Delegator delegator) {
+        GenericValue solrStatus = getSolrStatus(delegator, false);
+        return solrStatus != null ? solrStatus.getString("rebuildCheckpointId") : null;
+    }
+
+    /**
+     * SCIPIO: Stores the rebuildSolrIndex productId checkpoint (null to clear it) in a separate transaction, so that
+     * it survives a rollback or crash of the rebuild.
+     */
+    public static boolean setSolrRebuildCheckpointIdSepTxSafe(Delegator delegator, String checkpointId) {
+        Transaction parentTransaction = null;
+        boolean beganTrans = false;
+        try {
+            try {
+                if (TransactionUtil.isTransactionInPlace()) {
+                    parentTransaction = TransactionUtil.suspend();
+                }
+                beganTrans = TransactionUtil.begin();
+            } catch (GenericTransactionException t) {
+                Debug.logError(t, "Solr: Cannot create transaction to store Solr rebuild checkpoint (" + checkpointId + ")", module);
+            }
+            try {
+                GenericValue solrStatus = EntityQuery.use(delegator).from("SolrStatus")
+                        .where("solrId", "SOLR-MAIN").cache(false).queryOne();
+                if (solrStatus == null) {
+                    solrStatus = delegator.create("SolrStatus", "solrId", "SOLR-MAIN", "rebuildCheckpointId", checkpointId);
+                } else {
+                    solrStatus.setString("rebuildCheckpointId", checkpointId);
+                    solrStatus.store();
+                }
+                return true;
+            } catch (Throwable t) {
+                final String errMsg = "Error while trying to store Solr rebuild checkpoint (" + checkpointId + "): " + t.getMessage();
+                Debug.logError(t, "Solr: " + errMsg, module);
+                try {
+                    TransactionUtil.rollback(beganTrans, errMsg, t);
+                } catch (GenericTransactionException te) {
+                    Debug.logError(te, "Solr: Cannot rollback transaction to store Solr rebuild checkpoint (" + checkpointId + ")", module);
+                }
+            } finally {
+                try {
+                    TransactionUtil.commit(beganTrans);
+                } catch (GenericTransactionException e) {
+                    Debug.logError(e, "Solr: Could not commit transaction to store Solr rebuild checkpoint (" + checkpointId + ")", module);
+                }
+            }
+        } finally {
+            if (parentTransaction != null) {
+                try {
+                    TransactionUtil.resume(parentTransaction);
+                } catch (GenericTransactionException t) {
+                    Debug.logError(t, "Solr: Error resuming parent transaction after storing Solr rebuild checkpoint (" + checkpointId + ")", module);
+                }
+            }
+        }
+        return false;
+    }
+
     /**
      * Returns a Solr client for making read-only queries, for given core or default core (if null).
      * <p>
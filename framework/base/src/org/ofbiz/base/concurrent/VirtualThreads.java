@@ -0,0 +1,85 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.base.concurrent;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+import org.ofbiz.base.util.Debug;
+
+/**
+ * SCIPIO: Access to virtual threads (JDK 21+) through reflection, so the code still compiles and runs on older JDKs,
+ * where {@link #isSupported()} is false.
+ * <p>
+ * Virtual threads suit tasks that mostly block on I/O (JDBC, outbound HTTP): blocking unmounts the virtual thread
+ * from its carrier thread instead of holding a platform thread. Before JDK 24, blocking inside a synchronized block
+ * pins the carrier thread, so code that does that heavily gains less.
+ */
+public final class VirtualThreads {
+
+    private static final Debug.OfbizLogger module = Debug.getOfbizLogger(java.lang.invoke.MethodHandles.lookup().lookupClass());
+
+    private static final Method ofVirtual;
+    private static final Method builderName;
+    private static final Method builderFactory;
+
+    static {
+        Method ofVirtualMethod = null;
+        Method nameMethod = null;
+        Method factoryMethod = null;
+        try {
+            ofVirtualMethod = Thread.class.getMethod("ofVirtual");
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            nameMethod = builderClass.getMethod("name", String.class, long.class);
+            factoryMethod = builderClass.getMethod("factory");
+        } catch (ReflectiveOperationException e) {
+            // not supported by this JDK
+            ofVirtualMethod = null;
+        }
+        ofVirtual = ofVirtualMethod;
+        builderName = nameMethod;
+        builderFactory = factoryMethod;
+    }
+
+    private VirtualThreads() {
+    }
+
+    /** Returns true if the JDK supports virtual threads. */
+    public static boolean isSupported() {
+        return ofVirtual != null;
+    }
+
+    /**
+     * Returns a factory of virtual threads named <code>namePrefix</code> followed by a counter, or null if virtual
+     * threads are not supported.
+     */
+    public static ThreadFactory newThreadFactory(String namePrefix) {
+        if (ofVirtual == null) {
+            return null;
+        }
+        try {
+            Object builder = ofVirtual.invoke(null);
+            builder = builderName.invoke(builder, namePrefix, 0L);
+            return (ThreadFactory) builderFactory.invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            Debug.logWarning(e, "Unable to create virtual thread factory: ", module);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.base.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * SCIPIO: Lock-free log-linear latency histogram, in the style of HdrHistogram.
+ * <p>
+ * Values are recorded in microseconds into buckets of 8 sub-buckets per power of two (values below 16 are exact),
+ * so any reported percentile is within 12.5% of the true value; values above {@link #MAX_TRACKABLE_VALUE}
+ * (about 38 hours) are clamped. Recording is a single atomic increment, so it is safe and cheap to call from many
+ * threads at once; reads work on a snapshot that may be slightly behind concurrent recorders.
+ * <p>
+ * Each instance takes about 2.3KB, so histograms should be created per named operation, not per call.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS; // 8
+    private static final int MAX_MSB = 36;
+
+    public static final long MAX_TRACKABLE_VALUE = (1L << (MAX_MSB + 1)) - 1;
+    private static final int BUCKET_COUNT = bucketIndex(MAX_TRACKABLE_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder totalCount = new LongAdder();
+    private final LongAdder totalValue = new LongAdder();
+    private final AtomicLong maxValue = new AtomicLong();
+
+    /**
+     * Records a value in microseconds; negative values are recorded as 0.
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        } else if (value > MAX_TRACKABLE_VALUE) {
+            value = MAX_TRACKABLE_VALUE;
+        }
+        counts.incrementAndGet(bucketIndex(value));
+        totalCount.increment();
+        totalValue.add(value);
+        long max = maxValue.get();
+        while (value > max && !maxValue.compareAndSet(max, value)) {
+            max = maxValue.get();
+        }
+    }
+
+    /**
+     * Records the time elapsed since the given {@link System#nanoTime()} value.
+     */
+    public void recordNanosSince(long startNanos) {
+        record((System.nanoTime() - startNanos) / 1000);
+    }
+
+    public long getTotalCount() {
+        return totalCount.sum();
+    }
+
+    /** Returns the sum of all recorded values, in microseconds. */
+    public long getTotalValue() {
+        return totalValue.sum();
+    }
+
+    /** Returns the highest recorded value, in microseconds. */
+    public long getMaxValue() {
+        return maxValue.get();
+    }
+
+    /** Returns the mean of all recorded values, in microseconds. */
+    public double getMean() {
+        long count = getTotalCount();
+        return (count > 0) ? (double) getTotalValue() / count : 0;
+    }
+
+    /**
+     * Returns the value at the given percentile (0-100), in microseconds: the upper bound of the bucket holding
+     * the value at that rank, capped to the highest recorded value. Returns 0 if nothing was recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        return getSnapshot().getValueAtPercentile(percentile);
+    }
+
+    /**
+     * Returns a consistent copy of the bucket counts, for computing several percentiles at once.
+     */
+    public Snapshot getSnapshot() {
+        long[] snapshotCounts = new long[BUCKET_COUNT];
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshotCounts[i] = counts.get(i);
+            count += snapshotCounts[i];
+        }
+        return new Snapshot(snapshotCounts, count, getTotalValue(), getMaxValue());
+    }
+
+    /**
+     * Clears all recorded values. Values recorded concurrently with a reset may be partially kept.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts.set(i, 0);
+        }
+        totalCount.reset();
+        totalValue.reset();
+        maxValue.set(0);
+    }
+
+    static int bucketIndex(long value) {
+        if (value < (SUB_BUCKET_COUNT << 1)) {
+            return (int) value;
+        }
+        int shift = (63 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+        return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+    }
+
+    static long bucketUpperBound(int index) {
+        if (index < (SUB_BUCKET_COUNT << 1)) {
+            return index;
+        }
+        int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        long subBucket = index - ((long) shift << SUB_BUCKET_BITS);
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    /**
+     * Point-in-time copy of a {@link LatencyHistogram}.
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long totalCount;
+        private final long totalValue;
+        private final long maxValue;
+
+        private Snapshot(long[] counts, long totalCount, long totalValue, long maxValue) {
+            this.counts = counts;
+            this.totalCount = totalCount;
+            this.totalValue = totalValue;
+            this.maxValue = maxValue;
+        }
+
+        public long getTotalCount() {
+            return totalCount;
+        }
+
+        public long getTotalValue() {
+            return totalValue;
+        }
+
+        public long getMaxValue() {
+            return maxValue;
+        }
+
+        public double getMean() {
+            return (totalCount > 0) ? (double) totalValue / totalCount : 0;
+        }
+
+        public long getValueAtPercentile(double percentile) {
+            if (totalCount <= 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil((Math.min(Math.max(percentile, 0), 100) / 100.0) * totalCount);
+            if (rank < 1) {
+                rank = 1;
+            }
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(bucketUpperBound(i), maxValue);
+                }
+            }
+            return maxValue;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.base.util;
+
+import java.math.BigDecimal;
+
+/**
+ * SCIPIO: A comparison of {@link ObjectType#doRealCompare} compiled once for a given operator, type and constant,
+ * for the String and number types that make up nearly all ECA conditions.
+ * <p>
+ * {@link #compare(Object, Object)} handles the common case where the values already have the compare type, with the
+ * same result as doRealCompare but without its class loading, conversions and allocations; in any other case it
+ * returns null and the caller must fall back to doRealCompare.
+ */
+public final class CompiledComparison {
+
+    private enum Operator {
+        EQUALS, NOT_EQUALS, LESS, GREATER, LESS_EQUALS, GREATER_EQUALS, IS_EMPTY, IS_NOT_EMPTY, IS_NULL, IS_NOT_NULL;
+
+        static Operator fromName(String name) {
+            switch (name) {
+            case "equals": return EQUALS;
+            case "not-equals": return NOT_EQUALS;
+            case "less": return LESS;
+            case "greater": return GREATER;
+            case "less-equals": return LESS_EQUALS;
+            case "greater-equals": return GREATER_EQUALS;
+            case "is-empty": return IS_EMPTY;
+            case "is-not-empty": return IS_NOT_EMPTY;
+            case "is-null": return IS_NULL;
+            case "is-not-null": return IS_NOT_NULL;
+            default: return null;
+            }
+        }
+    }
+
+    private final Operator operator;
+    /** The exact class values must have to be compared here: String or one of the number classes. */
+    private final Class<?> valueClass;
+    private final boolean constant;
+    private final Object constantValue;
+
+    private CompiledComparison(Operator operator, Class<?> valueClass, boolean constant, Object constantValue) {
+        this.operator = operator;
+        this.valueClass = valueClass;
+        this.constant = constant;
+        this.constantValue = constantValue;
+    }
+
+    /**
+     * Compiles the comparison, or returns null if the operator, type or format is not supported here.
+     * @param operator the doRealCompare operator
+     * @param type the doRealCompare type (String, PlainString, BigDecimal, Long, ...)
+     * @param format the doRealCompare format; only empty formats are supported
+     * @param constant true if value2 is the given inline constant rather than a field value
+     * @param constantValue the inline constant (the XML attribute value), if constant
+     */
+    public static CompiledComparison compile(String operator, String type, String format, boolean constant, String constantValue) {
+        Operator op = (operator != null) ? Operator.fromName(operator) : null;
+        if (op == null || UtilValidate.isNotEmpty(format)) {
+            return null;
+        }
+        Class<?> valueClass = getValueClass(type);
+        if (valueClass == null) {
+            return null;
+        }
+        Object value = null;
+        if (constant && constantValue != null) {
+            if (valueClass == String.class) {
+                value = constantValue;
+            } else {
+                try {
+                    value = ObjectType.simpleTypeConvert(constantValue, valueClass.getName(), null, UtilMisc.parseLocale("en"));
+                } catch (GeneralException | RuntimeException e) {
+                    return null; // leave the error to doRealCompare
+                }
+                if (value == null || value.getClass() != valueClass) {
+                    return null;
+                }
+            }
+        }
+        return new CompiledComparison(op, valueClass, constant, value);
+    }
+
+    private static Class<?> getValueClass(String type) {
+        if (UtilValidate.isEmpty(type)) {
+            return null;
+        }
+        switch (type) {
+        case "String": case "java.lang.String": case "PlainString": return String.class;
+        case "BigDecimal": case "java.math.BigDecimal": return BigDecimal.class;
+        case "Long": case "java.lang.Long": return Long.class;
+        case "Integer": case "java.lang.Integer": return Integer.class;
+        case "Double": case "java.lang.Double": return Double.class;
+        case "Float": case "java.lang.Float": return Float.class;
+        default: return null;
+        }
+    }
+
+    /**
+     * Compares the values like {@link ObjectType#doRealCompare}, or returns null if they must be compared by it instead.
+     * value2 is ignored for comparisons to a constant.
+     */
+    public Boolean compare(Object value1, Object value2) {
+        if (constant) {
+            value2 = constantValue;
+        }
+        if (value1 == null) {
+            switch (operator) {
+            case IS_NULL: case IS_EMPTY: return Boolean.TRUE;
+            case IS_NOT_NULL: case IS_NOT_EMPTY: return Boolean.FALSE;
+            case EQUALS: return (value2 != null && value2.getClass() == valueClass) ? Boolean.FALSE : null;
+            case NOT_EQUALS: return (value2 != null && value2.getClass() == valueClass) ? Boolean.TRUE : null;
+            default: return null;
+            }
+        }
+        if (value1.getClass() != valueClass) {
+            return null;
+        }
+        if (operator == Operator.IS_EMPTY) {
+            return (valueClass == String.class && ((String) value1).isEmpty()) ? Boolean.TRUE : Boolean.FALSE;
+        } else if (operator == Operator.IS_NOT_EMPTY) {
+            return (valueClass == String.class && ((String) value1).isEmpty()) ? Boolean.FALSE : Boolean.TRUE;
+        } else if (operator == Operator.IS_NULL || operator == Operator.IS_NOT_NULL) {
+            return null; // doRealCompare treats these as unknown for non-null values
+        }
+        if (value2 == null) {
+            if (operator == Operator.EQUALS) {
+                return Boolean.FALSE;
+            } else if (operator == Operator.NOT_EQUALS) {
+                return Boolean.TRUE;
+            }
+            return null;
+        }
+        if (value2.getClass() != valueClass) {
+            return null;
+        }
+        int result;
+        if (valueClass == String.class) {
+            String str1 = (String) value1;
+            String str2 = (String) value2;
+            if (operator == Operator.EQUALS) {
+                return str1.equals(str2) ? Boolean.TRUE : Boolean.FALSE;
+            } else if (operator == Operator.NOT_EQUALS) {
+                return str1.equals(str2) ? Boolean.FALSE : Boolean.TRUE;
+            }
+            if (str1.isEmpty() || str2.isEmpty()) {
+                return null;
+            }
+            result = str1.compareTo(str2);
+        } else {
+            double value1Double = ((Number) value1).doubleValue();
+            double value2Double = ((Number) value2).doubleValue();
+            result = (value1Double < value2Double) ? -1 : ((value1Double > value2Double) ? 1 : 0);
+        }
+        switch (operator) {
+        case EQUALS: return result == 0;
+        case NOT_EQUALS: return result != 0;
+        case LESS: return result < 0;
+        case GREATER: return result > 0;
+        case LESS_EQUALS: return result <= 0;
+        case GREATER_EQUALS: return result >= 0;
+        default: return null;
+        }
+    }
+}
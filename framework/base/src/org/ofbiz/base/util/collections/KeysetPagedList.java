@@ -0,0 +1,71 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.base.util.collections;
+
+import java.util.List;
+
+/**
+ * SCIPIO: A {@link PagedList} fetched by keyset (seek) pagination, which carries the opaque cursor tokens to fetch
+ * the next page instead of relying on an offset.
+ * <p>
+ * The start and end indexes are tracked through the cursors; the size of the full list is -1 (unknown) unless
+ * a count was requested.
+ */
+public class KeysetPagedList<E> extends PagedList<E> {
+
+    protected String cursor;
+    protected String nextCursor;
+
+    /**
+     * @param startIndex
+     * @param endIndex
+     * @param size the full list size, or -1 if unknown
+     * @param viewIndex
+     * @param viewSize
+     * @param data
+     * @param cursor the cursor this page was fetched after, null for the first page
+     * @param nextCursor the cursor to fetch the next page, null if this is the last page
+     */
+    public KeysetPagedList(int startIndex, int endIndex, int size, int viewIndex, int viewSize, List<E> data, String cursor, String nextCursor) {
+        super(startIndex, endIndex, size, viewIndex, viewSize, data);
+        this.cursor = cursor;
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * @return the cursor this page was fetched after, or null for the first page
+     */
+    public String getCursor() {
+        return cursor;
+    }
+
+    /**
+     * @return the cursor to pass to fetch the next page, or null if this is the last page
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    /**
+     * @return true if there is a page after this one
+     */
+    public boolean hasNext() {
+        return nextCursor != null;
+    }
+}
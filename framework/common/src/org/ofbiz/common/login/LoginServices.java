@@ -54,6 +54,7 @@ import org.ofbiz.entity.transaction.TransactionUtil;
 import org.ofbiz.entity.util.EntityListIterator;
 import org.ofbiz.entity.util.EntityQuery;
 import org.ofbiz.entity.util.EntityUtilProperties;
+import org.ofbiz.entity.util.EntityWriteBehind;
 import org.ofbiz.security.Security;
 import org.ofbiz.service.DispatchContext;
 import org.ofbiz.service.LocalDispatcher;
@@ -338,7 +339,8 @@ public class LoginServices {
                                             ulhCreateMap.put("passwordUsed", password);
                                         }
 
-                                        delegator.create("UserLoginHistory", ulhCreateMap);
+                                        // SCIPIO: queued if UserLoginHistory is write-behind (see EntityWriteBehind)
+                                        EntityWriteBehind.create(delegator.makeValue("UserLoginHistory", ulhCreateMap));
                                     }
                                 }
                             } catch (GenericEntityException e) {
@@ -0,0 +1,351 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.entity;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+import org.ofbiz.entity.model.FieldSlotIndex;
+
+/**
+ * SCIPIO: Compact field storage for {@link GenericEntity}: the field values are kept in an array indexed by the
+ * {@link FieldSlotIndex} shared by all values of the entity, instead of a HashMap with a table and an entry object
+ * per field.
+ * <p>
+ * Implements the full Map contract, including null values being distinct from absent fields (needed to tell a field
+ * set to null from one not to be modified on update). Keys that are not fields of the entity are kept in a
+ * separate HashMap. Iteration is in field definition order. Not synchronized, like the HashMap it replaces.
+ */
+@SuppressWarnings("serial")
+final class CompactFieldMap extends AbstractMap<String, Object> implements Serializable {
+
+    /** Marks a slot holding a null value; an empty (absent) slot is null. An enum so it stays a singleton when serialized. */
+    private enum Marker { NULL }
+
+    private final FieldSlotIndex index;
+    private final Object[] values;
+    private int slotCount = 0;
+    private HashMap<String, Object> extra = null;
+    private boolean frozen = false;
+    private transient Set<Map.Entry<String, Object>> entrySet;
+
+    CompactFieldMap(FieldSlotIndex index) {
+        this.index = index;
+        this.values = new Object[index.size()];
+    }
+
+    /** Copy constructor; the copy is not frozen. */
+    CompactFieldMap(CompactFieldMap other) {
+        this.index = other.index;
+        this.values = other.values.clone();
+        this.slotCount = other.slotCount;
+        this.extra = (other.extra != null) ? new HashMap<>(other.extra) : null;
+    }
+
+    /** Makes this map read-only; mutators then throw UnsupportedOperationException. */
+    void freeze() {
+        this.frozen = true;
+    }
+
+    boolean isFrozen() {
+        return frozen;
+    }
+
+    private void checkMutable() {
+        if (frozen) {
+            throw new UnsupportedOperationException("Field map is read-only");
+        }
+    }
+
+    private static Object mask(Object value) {
+        return (value != null) ? value : Marker.NULL;
+    }
+
+    private static Object unmask(Object stored) {
+        return (stored != Marker.NULL) ? stored : null;
+    }
+
+    @Override
+    public int size() {
+        return slotCount + (extra != null ? extra.size() : 0);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        int slot = index.getSlot(key);
+        if (slot >= 0) {
+            return values[slot] != null;
+        }
+        return extra != null && extra.containsKey(key);
+    }
+
+    @Override
+    public Object get(Object key) {
+        int slot = index.getSlot(key);
+        if (slot >= 0) {
+            return unmask(values[slot]);
+        }
+        return (extra != null) ? extra.get(key) : null;
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        checkMutable();
+        int slot = index.getSlot(key);
+        if (slot >= 0) {
+            Object old = values[slot];
+            values[slot] = mask(value);
+            if (old == null) {
+                slotCount++;
+            }
+            return unmask(old);
+        }
+        if (extra == null) {
+            extra = new HashMap<>();
+        }
+        return extra.put(key, value);
+    }
+
+    @Override
+    public void putAll(Map<? extends String, ? extends Object> map) {
+        if (map instanceof CompactFieldMap && ((CompactFieldMap) map).index == this.index) {
+            checkMutable();
+            CompactFieldMap other = (CompactFieldMap) map;
+            for (int slot = 0; slot < values.length; slot++) {
+                Object stored = other.values[slot];
+                if (stored != null) {
+                    if (values[slot] == null) {
+                        slotCount++;
+                    }
+                    values[slot] = stored;
+                }
+            }
+            if (other.extra != null) {
+                if (extra == null) {
+                    extra = new HashMap<>();
+                }
+                extra.putAll(other.extra);
+            }
+            return;
+        }
+        super.putAll(map);
+    }
+
+    @Override
+    public Object remove(Object key) {
+        checkMutable();
+        int slot = index.getSlot(key);
+        if (slot >= 0) {
+            Object old = values[slot];
+            if (old != null) {
+                values[slot] = null;
+                slotCount--;
+            }
+            return unmask(old);
+        }
+        return (extra != null) ? extra.remove(key) : null;
+    }
+
+    @Override
+    public void clear() {
+        checkMutable();
+        Arrays.fill(values, null);
+        slotCount = 0;
+        extra = null;
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        Set<Map.Entry<String, Object>> entrySet = this.entrySet;
+        if (entrySet == null) {
+            entrySet = new EntrySet();
+            this.entrySet = entrySet;
+        }
+        return entrySet;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (o instanceof CompactFieldMap && ((CompactFieldMap) o).index == this.index) {
+            // fast path for values of the same entity: null markers are identical, so compare the slot arrays
+            CompactFieldMap other = (CompactFieldMap) o;
+            return slotCount == other.slotCount && Arrays.equals(values, other.values)
+                    && Objects.equals(extraOrNull(extra), extraOrNull(other.extra));
+        }
+        return super.equals(o);
+    }
+
+    private static Map<String, Object> extraOrNull(HashMap<String, Object> extra) {
+        return (extra != null && !extra.isEmpty()) ? extra : null;
+    }
+
+    @Override
+    public int hashCode() {
+        // same as the Map contract (sum of key ^ value hashes), without allocating entries
+        int hash = 0;
+        for (int slot = 0; slot < values.length; slot++) {
+            Object stored = values[slot];
+            if (stored != null) {
+                hash += index.getName(slot).hashCode() ^ Objects.hashCode(unmask(stored));
+            }
+        }
+        if (extra != null) {
+            hash += extra.hashCode();
+        }
+        return hash;
+    }
+
+    private final class EntrySet extends AbstractSet<Map.Entry<String, Object>> {
+        @Override
+        public Iterator<Map.Entry<String, Object>> iterator() {
+            return new EntryIterator();
+        }
+
+        @Override
+        public int size() {
+            return CompactFieldMap.this.size();
+        }
+
+        @Override
+        public void clear() {
+            CompactFieldMap.this.clear();
+        }
+    }
+
+    private final class EntryIterator implements Iterator<Map.Entry<String, Object>> {
+        private int nextSlot = -1;
+        private int lastSlot = -1;
+        private Iterator<Map.Entry<String, Object>> extraIterator = null;
+        private boolean lastFromExtra = false;
+
+        EntryIterator() {
+            advance();
+        }
+
+        private void advance() {
+            nextSlot++;
+            while (nextSlot < values.length && values[nextSlot] == null) {
+                nextSlot++;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (nextSlot < values.length) {
+                return true;
+            }
+            if (extraIterator == null && extra != null) {
+                extraIterator = extra.entrySet().iterator();
+            }
+            return extraIterator != null && extraIterator.hasNext();
+        }
+
+        @Override
+        public Map.Entry<String, Object> next() {
+            if (nextSlot < values.length) {
+                lastSlot = nextSlot;
+                lastFromExtra = false;
+                advance();
+                return new SlotEntry(lastSlot);
+            }
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            lastFromExtra = true;
+            lastSlot = -1;
+            return extraIterator.next();
+        }
+
+        @Override
+        public void remove() {
+            checkMutable();
+            if (lastFromExtra) {
+                extraIterator.remove();
+                lastFromExtra = false;
+                return;
+            }
+            if (lastSlot < 0) {
+                throw new IllegalStateException();
+            }
+            if (values[lastSlot] != null) {
+                values[lastSlot] = null;
+                slotCount--;
+            }
+            lastSlot = -1;
+        }
+    }
+
+    private final class SlotEntry implements Map.Entry<String, Object> {
+        private final int slot;
+
+        SlotEntry(int slot) {
+            this.slot = slot;
+        }
+
+        @Override
+        public String getKey() {
+            return index.getName(slot);
+        }
+
+        @Override
+        public Object getValue() {
+            return unmask(values[slot]);
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            return put(getKey(), value);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> that = (Map.Entry<?, ?>) o;
+            return getKey().equals(that.getKey()) && Objects.equals(getValue(), that.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return getKey().hashCode() ^ Objects.hashCode(getValue());
+        }
+
+        @Override
+        public String toString() {
+            return getKey() + "=" + getValue();
+        }
+    }
+}
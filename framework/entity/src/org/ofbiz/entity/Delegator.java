@@ -166,6 +166,19 @@ public interface Delegator {
      */
     GenericValue create(GenericValue value) throws GenericEntityException;
 
+    /**
+     * SCIPIO: Creates all the given values in one transaction, with the same
+     * ECA rules, audit logging and cache clearing per value as
+     * {@link #create(GenericValue)}, but sending the inserts of consecutive
+     * values of the same entity in JDBC batches (see the datasource
+     * <code>batch-size</code> attribute).
+     *
+     * @param values
+     *            List of GenericValue instances to create
+     * @return int representing number of rows effected by this operation
+     */
+    int createAll(List<GenericValue> values) throws GenericEntityException;
+
     /**
      * Creates a Entity in the form of a GenericValue and write it to the
      * database
@@ -413,6 +426,21 @@ public interface Delegator {
      */
     GenericValue findOne(String entityName, Map<String, ? extends Object> fields, boolean useCache) throws GenericEntityException;
 
+    /**
+     * SCIPIO: Finds the values for a number of primary keys, of one or more entities, at once.
+     * <p>
+     * With <code>useCache</code>, keys found in the primary key cache are served from it (including cached misses)
+     * and only the remaining keys are queried; the values loaded, and the keys not found, are then put in the cache,
+     * as {@link #findOne(String, Map, boolean)} does. Keys are queried with one <code>pk IN (...)</code> query per entity,
+     * chunked to the datasource <code>max-in-list-size</code>.
+     *
+     * @param primaryKeys The primary keys to find; each must be complete
+     * @param useCache Serve and populate from the primary key cache when <code>true</code>
+     * @return The values found by primary key, in the order of the passed keys; keys with no value are not in the map
+     * @throws GenericEntityException
+     */
+    Map<GenericPK, GenericValue> findAllByPrimaryKeys(Collection<GenericPK> primaryKeys, boolean useCache) throws GenericEntityException;
+
     Cache getCache();
 
     String getCurrentSessionIdentifier();
@@ -898,6 +926,10 @@ public interface Delegator {
      * will either all succeed or all fail, if the data source supports
      * transactions. This is just like to othersToStore feature of the
      * GenericEntity on a create or store.</p>
+     * <p>SCIPIO: Consecutive values of the same entity are checked for
+     * existence with one IN lookup and their inserts and updates are sent in
+     * JDBC batches (see the datasource <code>batch-size</code> attribute);
+     * ECA rules and cache clearing still apply per value.</p>
      *
      * @param values
      *            List of GenericValue instances containing the entities to
@@ -21,9 +21,12 @@ package org.ofbiz.entity;
 import java.io.IOException;
 import java.net.URL;
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -58,6 +61,7 @@ import org.ofbiz.entity.config.model.EntityConfig;
 import org.ofbiz.entity.datasource.GenericHelper;
 import org.ofbiz.entity.datasource.GenericHelperFactory;
 import org.ofbiz.entity.datasource.GenericHelperInfo;
+import org.ofbiz.entity.datasource.ReadReplicas;
 import org.ofbiz.entity.eca.EntityEcaHandler;
 import org.ofbiz.entity.model.DynamicViewEntity;
 import org.ofbiz.entity.model.ModelEntity;
@@ -1292,55 +1296,61 @@ public class GenericDelegator implements Delegator {
         try {
             beganTransaction = TransactionUtil.begin();
 
-            for (GenericValue value: values) {
-                String entityName = value.getEntityName();
-                GenericPK primaryKey = value.getPrimaryKey();
+            // SCIPIO: process consecutive runs of the same entity together: one IN lookup to check existence,
+            // then the inserts and updates of the run are sent in JDBC batches (see datasource batch-size)
+            for (List<GenericValue> run : splitBatchRuns(values)) {
+                String entityName = run.get(0).getEntityName();
                 GenericHelper helper = getEntityHelper(entityName);
+                ModelEntity modelEntity = run.get(0).getModelEntity();
 
-                // exists?
-                // NOTE: don't use findByPrimaryKey because we don't want to the ECA events to fire and such
-                if (!primaryKey.isPrimaryKey()) {
-                    throw new GenericModelException("[GenericDelegator.storeAll] One of the passed primary keys is not a valid primary key: " + primaryKey);
-                }
-                GenericValue existing = null;
-                try {
-                    existing = helper.findByPrimaryKey(primaryKey);
-                } catch (GenericEntityNotFoundException e) {
-                    existing = null;
+                if (this.getEcaRuleRunner(entityName).hasWriteRules()) {
+                    // ECA rules may read or write rows of the run: check and write one value at a time
+                    for (GenericValue value : run) {
+                        numberChanged += this.storeOne(helper, value, storeOptions);
+                    }
+                    continue;
                 }
 
-                if (existing == null) {
-                    if (storeOptions.isCreateDummyFks()) {
-                        value.checkFks(true);
-                    }
-                    this.create(value);
-                    numberChanged++;
-                } else {
-                    // don't send fields that are the same, and if no fields have changed, update nothing
-                    ModelEntity modelEntity = value.getModelEntity();
-                    GenericValue toStore = GenericValue.create(this, modelEntity, value.getPrimaryKey());
-                    boolean atLeastOneField = false;
-                    Iterator<ModelField> nonPksIter = modelEntity.getNopksIterator();
-                    while (nonPksIter.hasNext()) {
-                        ModelField modelField = nonPksIter.next();
-                        String fieldName = modelField.getName();
-                        if (value.containsKey(fieldName)) {
-                            Object fieldValue = value.get(fieldName);
-                            Object oldValue = existing.get(fieldName);
-                            if (!UtilObject.equalsHelper(oldValue, fieldValue)) {
-                                toStore.put(fieldName, fieldValue);
-                                atLeastOneField = true;
-                            }
-                        }
+                List<GenericPK> primaryKeys = new ArrayList<>(run.size());
+                for (GenericValue value: run) {
+                    GenericPK primaryKey = value.getPrimaryKey();
+                    // NOTE: don't use findByPrimaryKey because we don't want to the ECA events to fire and such
+                    if (!primaryKey.isPrimaryKey()) {
+                        throw new GenericModelException("[GenericDelegator.storeAll] One of the passed primary keys is not a valid primary key: " + primaryKey);
                     }
+                    primaryKeys.add(primaryKey);
+                }
+                // exists?
+                Map<GenericPK, GenericValue> existingByPk = new HashMap<>();
+                for (GenericValue existing : helper.findAllByPrimaryKeys(primaryKeys)) {
+                    existingByPk.put(existing.getPrimaryKey(), existing);
+                }
 
-                    if (atLeastOneField) {
+                List<GenericValue> toCreate = new ArrayList<>();
+                List<GenericValue> toStore = new ArrayList<>();
+                List<GenericValue> toStoreExisting = new ArrayList<>();
+                for (int i = 0; i < run.size(); i++) {
+                    GenericValue value = run.get(i);
+                    GenericValue existing = existingByPk.get(primaryKeys.get(i));
+                    if (existing == null) {
                         if (storeOptions.isCreateDummyFks()) {
                             value.checkFks(true);
                         }
-                        numberChanged += this.store(toStore);
+                        toCreate.add(value);
+                    } else {
+                        GenericValue valueToStore = this.makeChangedValue(modelEntity, value, existing);
+                        if (valueToStore != null) {
+                            if (storeOptions.isCreateDummyFks()) {
+                                value.checkFks(true);
+                            }
+                            toStore.add(valueToStore);
+                            toStoreExisting.add(existing);
+                        }
                     }
                 }
+
+                numberChanged += this.createBatch(helper, toCreate);
+                numberChanged += this.storeBatch(helper, toStore, toStoreExisting);
             }
             TransactionUtil.commit(beganTransaction);
             return numberChanged;
@@ -1352,6 +1362,214 @@ public class GenericDelegator implements Delegator {
         }
     }
 
+    /**
+     * SCIPIO: Stores one value for {@link #storeAll(List, EntityStoreOptions)}: creates it if its row does not exist,
+     * otherwise stores its changed fields, if any. Returns the number of rows changed.
+     */
+    private int storeOne(GenericHelper helper, GenericValue value, EntityStoreOptions storeOptions) throws GenericEntityException {
+        GenericPK primaryKey = value.getPrimaryKey();
+        // exists?
+        // NOTE: don't use findByPrimaryKey because we don't want to the ECA events to fire and such
+        if (!primaryKey.isPrimaryKey()) {
+            throw new GenericModelException("[GenericDelegator.storeAll] One of the passed primary keys is not a valid primary key: " + primaryKey);
+        }
+        GenericValue existing = null;
+        try {
+            existing = helper.findByPrimaryKey(primaryKey);
+        } catch (GenericEntityNotFoundException e) {
+            existing = null;
+        }
+
+        if (existing == null) {
+            if (storeOptions.isCreateDummyFks()) {
+                value.checkFks(true);
+            }
+            this.create(value);
+            return 1;
+        }
+        GenericValue toStore = this.makeChangedValue(value.getModelEntity(), value, existing);
+        if (toStore == null) {
+            return 0;
+        }
+        if (storeOptions.isCreateDummyFks()) {
+            value.checkFks(true);
+        }
+        return this.store(toStore);
+    }
+
+    /**
+     * SCIPIO: Returns a value with the primary key and the non-pk fields of value that differ from existing, or null
+     * if none differ, so that fields that are the same are not sent and unchanged values update nothing.
+     */
+    private GenericValue makeChangedValue(ModelEntity modelEntity, GenericValue value, GenericValue existing) {
+        GenericValue changedValue = GenericValue.create(this, modelEntity, value.getPrimaryKey());
+        boolean atLeastOneField = false;
+        Iterator<ModelField> nonPksIter = modelEntity.getNopksIterator();
+        while (nonPksIter.hasNext()) {
+            ModelField modelField = nonPksIter.next();
+            String fieldName = modelField.getName();
+            if (value.containsKey(fieldName)) {
+                Object fieldValue = value.get(fieldName);
+                Object oldValue = existing.get(fieldName);
+                if (!UtilObject.equalsHelper(oldValue, fieldValue)) {
+                    changedValue.put(fieldName, fieldValue);
+                    atLeastOneField = true;
+                }
+            }
+        }
+        return atLeastOneField ? changedValue : null;
+    }
+
+    /* (non-Javadoc)
+     * @see org.ofbiz.entity.Delegator#createAll(java.util.List)
+     */
+    @Override
+    public int createAll(List<GenericValue> values) throws GenericEntityException {
+        if (values == null) {
+            return 0;
+        }
+
+        int numberCreated = 0;
+
+        boolean beganTransaction = false;
+        try {
+            beganTransaction = TransactionUtil.begin();
+
+            for (List<GenericValue> run : splitBatchRuns(values)) {
+                String entityName = run.get(0).getEntityName();
+                if (this.getEcaRuleRunner(entityName).hasWriteRules()) {
+                    // ECA rules may read or write rows of the run: create one value at a time
+                    for (GenericValue value : run) {
+                        this.create(value);
+                        numberCreated++;
+                    }
+                } else {
+                    numberCreated += this.createBatch(getEntityHelper(entityName), run);
+                }
+            }
+            TransactionUtil.commit(beganTransaction);
+            return numberCreated;
+        } catch (IllegalStateException | GenericEntityException e) {
+            String errMsg = "Failure in createAll operation: " + e.toString() + ". Rolling back transaction.";
+            Debug.logError(e, errMsg, module);
+            TransactionUtil.rollback(beganTransaction, errMsg, e);
+            throw new GenericEntityException(e);
+        }
+    }
+
+    /**
+     * SCIPIO: Splits values into runs of consecutive values of the same entity that can be written together.
+     * <p>
+     * Only consecutive values are grouped so the relative order of the writes across entities (and so foreign key
+     * dependencies between them) is the same as when writing one value at a time. A run is also cut when a primary key
+     * repeats within it, so a later value for the same key still sees the write of the earlier one.
+     * <p>
+     * The runs of entities with validate, run or return ECA rules ({@link EntityEcaRuleRunner#hasWriteRules}) are still
+     * written one value at a time, so each rule sees the rows written for the values before it, and the values after it
+     * see the rows it writes.
+     */
+    private static List<List<GenericValue>> splitBatchRuns(List<GenericValue> values) throws GenericEntityException {
+        List<List<GenericValue>> runs = new ArrayList<>();
+        List<GenericValue> run = null;
+        Set<GenericPK> runPks = new HashSet<>();
+        for (GenericValue value : values) {
+            if (value == null) {
+                throw new GenericEntityException("Cannot write a null value");
+            }
+            GenericPK primaryKey = value.containsPrimaryKey() ? value.getPrimaryKey() : null;
+            if (run == null || !run.get(0).getEntityName().equals(value.getEntityName()) || (primaryKey != null && runPks.contains(primaryKey))) {
+                run = new ArrayList<>();
+                runs.add(run);
+                runPks.clear();
+            }
+            run.add(value);
+            if (primaryKey != null) {
+                runPks.add(primaryKey);
+            }
+        }
+        return runs;
+    }
+
+    /**
+     * SCIPIO: Creates values of a single entity like {@link #create(GenericValue)} does for each, except the inserts
+     * are handed to the helper together so it can batch them. Must be called within a transaction.
+     */
+    private int createBatch(GenericHelper helper, List<GenericValue> values) throws GenericEntityException {
+        if (values.isEmpty()) {
+            return 0;
+        }
+        EntityEcaRuleRunner<?> ecaRunner = this.getEcaRuleRunner(values.get(0).getEntityName());
+        for (GenericValue value : values) {
+            ecaRunner.evalRules(EntityEcaHandler.EV_VALIDATE, EntityEcaHandler.OP_CREATE, value, false);
+            ecaRunner.evalRules(EntityEcaHandler.EV_RUN, EntityEcaHandler.OP_CREATE, value, false);
+
+            value.setDelegator(this);
+
+            // if audit log on for any fields, save new value with no old value because it's a create
+            if (value.getModelEntity().getHasFieldWithAuditLog()) {
+                createEntityAuditLogAll(value, false, false);
+            }
+        }
+
+        int numberCreated = helper.createAll(values);
+
+        for (GenericValue value : values) {
+            if (testMode) {
+                storeForTestRollback(new TestOperation(OperationType.INSERT, value));
+            }
+            if (value.lockEnabled()) {
+                refresh(value);
+            } else {
+                // doCacheClear
+                ecaRunner.evalRules(EntityEcaHandler.EV_CACHE_CLEAR, EntityEcaHandler.OP_CREATE, value, false);
+                this.clearCacheLine(value);
+            }
+            ecaRunner.evalRules(EntityEcaHandler.EV_RETURN, EntityEcaHandler.OP_CREATE, value, false);
+        }
+        return numberCreated;
+    }
+
+    /**
+     * SCIPIO: Stores values of a single entity like {@link #store(GenericValue)} does for each, except the updates
+     * are handed to the helper together so it can batch them. existingValues holds the current row for each value,
+     * as already read by the caller. Must be called within a transaction.
+     */
+    private int storeBatch(GenericHelper helper, List<GenericValue> values, List<GenericValue> existingValues) throws GenericEntityException {
+        if (values.isEmpty()) {
+            return 0;
+        }
+        EntityEcaRuleRunner<?> ecaRunner = this.getEcaRuleRunner(values.get(0).getEntityName());
+        for (GenericValue value : values) {
+            ecaRunner.evalRules(EntityEcaHandler.EV_VALIDATE, EntityEcaHandler.OP_STORE, value, false);
+            ecaRunner.evalRules(EntityEcaHandler.EV_RUN, EntityEcaHandler.OP_STORE, value, false);
+
+            // if audit log on for any fields, save old value before the update so we still have both
+            if (value.getModelEntity().getHasFieldWithAuditLog()) {
+                createEntityAuditLogAll(value, true, false);
+            }
+        }
+
+        int numberStored = helper.storeAll(values);
+
+        for (int i = 0; i < values.size(); i++) {
+            GenericValue value = values.get(i);
+            // doCacheClear
+            ecaRunner.evalRules(EntityEcaHandler.EV_CACHE_CLEAR, EntityEcaHandler.OP_STORE, value, false);
+            this.clearCacheLine(value);
+
+            if (testMode) {
+                storeForTestRollback(new TestOperation(OperationType.UPDATE, existingValues.get(i)));
+            }
+            // refresh the valueObject to get the new version
+            if (value.lockEnabled()) {
+                refresh(value);
+            }
+
+            ecaRunner.evalRules(EntityEcaHandler.EV_RETURN, EntityEcaHandler.OP_STORE, value, false);
+        }
+        return numberStored;
+    }
+
     /* (non-Javadoc)
      * @see org.ofbiz.entity.Delegator#removeAll(java.lang.String)
      */
@@ -1373,13 +1591,26 @@ public class GenericDelegator implements Delegator {
         int numRemoved = 0;
 
         try {
+            // SCIPIO: the removes were documented to happen in one transaction, but none was begun
+            beganTransaction = TransactionUtil.begin();
+
+            // SCIPIO: consecutive complete primary keys of the same entity are removed in JDBC batches
+            List<GenericPK> pkRun = new ArrayList<>();
             for (GenericEntity value: dummyPKs) {
                 if (value.containsPrimaryKey()) {
-                    numRemoved += this.removeByPrimaryKey(value.getPrimaryKey());
+                    GenericPK primaryKey = value.getPrimaryKey();
+                    if (!pkRun.isEmpty() && !pkRun.get(0).getEntityName().equals(primaryKey.getEntityName())) {
+                        numRemoved += this.removeBatchByPrimaryKey(pkRun);
+                        pkRun.clear();
+                    }
+                    pkRun.add(primaryKey);
                 } else {
+                    numRemoved += this.removeBatchByPrimaryKey(pkRun);
+                    pkRun.clear();
                     numRemoved += this.removeByAnd(value.getEntityName(), value.getAllFields());
                 }
             }
+            numRemoved += this.removeBatchByPrimaryKey(pkRun);
             TransactionUtil.commit(beganTransaction);
             return numRemoved;
         } catch (GenericEntityException e) {
@@ -1390,6 +1621,48 @@ public class GenericDelegator implements Delegator {
         }
     }
 
+    /**
+     * SCIPIO: Removes primary keys of a single entity like {@link #removeByPrimaryKey(GenericPK)} does for each, except
+     * the deletes are handed to the helper together so it can batch them. Entities with audit-logged fields, and test mode,
+     * need the old row of each value and so still go through removeByPrimaryKey, as do entities with validate, run or
+     * return ECA rules, which may depend on the removes before them. Must be called within a transaction.
+     */
+    private int removeBatchByPrimaryKey(List<GenericPK> primaryKeys) throws GenericEntityException {
+        if (primaryKeys.isEmpty()) {
+            return 0;
+        }
+        if (primaryKeys.size() == 1 || testMode || primaryKeys.get(0).getModelEntity().getHasFieldWithAuditLog()
+                || this.getEcaRuleRunner(primaryKeys.get(0).getEntityName()).hasWriteRules()) {
+            int numRemoved = 0;
+            for (GenericPK primaryKey : primaryKeys) {
+                numRemoved += this.removeByPrimaryKey(primaryKey);
+            }
+            return numRemoved;
+        }
+        String entityName = primaryKeys.get(0).getEntityName();
+        EntityEcaRuleRunner<?> ecaRunner = this.getEcaRuleRunner(entityName);
+        GenericHelper helper = getEntityHelper(entityName);
+        for (GenericPK primaryKey : primaryKeys) {
+            ecaRunner.evalRules(EntityEcaHandler.EV_VALIDATE, EntityEcaHandler.OP_REMOVE, primaryKey, false);
+            ecaRunner.evalRules(EntityEcaHandler.EV_RUN, EntityEcaHandler.OP_REMOVE, primaryKey, false);
+        }
+
+        int numRemoved = helper.removeAllByPrimaryKey(primaryKeys);
+
+        for (GenericPK primaryKey : primaryKeys) {
+            // doCacheClear
+            ecaRunner.evalRules(EntityEcaHandler.EV_CACHE_CLEAR, EntityEcaHandler.OP_REMOVE, primaryKey, false);
+            this.clearCacheLine(primaryKey);
+
+            if (saveEntitySyncRemoveInfo) {
+                this.saveEntitySyncRemoveInfo(primaryKey);
+            }
+
+            ecaRunner.evalRules(EntityEcaHandler.EV_RETURN, EntityEcaHandler.OP_REMOVE, primaryKey, false);
+        }
+        return numRemoved;
+    }
+
     // ======================================
     // ======= Find Methods =================
     // ======================================
@@ -1435,6 +1708,9 @@ public class GenericDelegator implements Delegator {
             GenericValue value = null;
 
             ecaRunner.evalRules(EntityEcaHandler.EV_RUN, EntityEcaHandler.OP_FIND, primaryKey, false);
+            // SCIPIO: a row read from a read replica is returned but not cached, so a lagging replica cannot leave a
+            // stale row in the cache until the next write to the entity
+            long replicaReads = ReadReplicas.getReplicaReadCount();
             try {
                 value = helper.findByPrimaryKey(primaryKey);
             } catch (GenericEntityNotFoundException e) {
@@ -1443,7 +1719,7 @@ public class GenericDelegator implements Delegator {
                 value.setDelegator(this);
             }
 
-            if (useCache) {
+            if (useCache && ReadReplicas.getReplicaReadCount() == replicaReads) {
                 if (value != null) {
                     ecaRunner.evalRules(EntityEcaHandler.EV_CACHE_PUT, EntityEcaHandler.OP_FIND, value, false);
                     this.putInPrimaryKeyCache(primaryKey, value);
@@ -1463,6 +1739,99 @@ public class GenericDelegator implements Delegator {
         }
     }
 
+    /* (non-Javadoc)
+     * @see org.ofbiz.entity.Delegator#findAllByPrimaryKeys(java.util.Collection, boolean)
+     */
+    @Override
+    public Map<GenericPK, GenericValue> findAllByPrimaryKeys(Collection<GenericPK> primaryKeys, boolean useCache) throws GenericEntityException {
+        Map<GenericPK, GenericValue> results = new LinkedHashMap<>();
+        if (UtilValidate.isEmpty(primaryKeys)) {
+            return results;
+        }
+        // the keys to query, by entity; the results map is pre-filled in key order so it keeps that order
+        Map<String, List<GenericPK>> entityMisses = new LinkedHashMap<>();
+        for (GenericPK primaryKey : primaryKeys) {
+            if (!primaryKey.isPrimaryKey()) {
+                throw new GenericModelException("[GenericDelegator.findAllByPrimaryKeys] Passed primary key is not a valid primary key: " + primaryKey);
+            }
+            if (results.containsKey(primaryKey)) {
+                continue;
+            }
+            results.put(primaryKey, null);
+            if (useCache) {
+                this.getEcaRuleRunner(primaryKey.getEntityName()).evalRules(EntityEcaHandler.EV_CACHE_CHECK, EntityEcaHandler.OP_FIND, primaryKey, false);
+                GenericValue value = cache.get(primaryKey);
+                if (value != null) {
+                    results.put(primaryKey, value);
+                    continue;
+                }
+            }
+            List<GenericPK> misses = entityMisses.get(primaryKey.getEntityName());
+            if (misses == null) {
+                misses = new ArrayList<>();
+                entityMisses.put(primaryKey.getEntityName(), misses);
+            }
+            misses.add(primaryKey);
+        }
+
+        if (!entityMisses.isEmpty()) {
+            boolean beganTransaction = false;
+            try {
+                if (alwaysUseTransaction) {
+                    beganTransaction = TransactionUtil.begin();
+                }
+
+                for (Map.Entry<String, List<GenericPK>> entry : entityMisses.entrySet()) {
+                    String entityName = entry.getKey();
+                    List<GenericPK> misses = entry.getValue();
+                    EntityEcaRuleRunner<?> ecaRunner = this.getEcaRuleRunner(entityName);
+                    for (GenericPK primaryKey : misses) {
+                        ecaRunner.evalRules(EntityEcaHandler.EV_VALIDATE, EntityEcaHandler.OP_FIND, primaryKey, false);
+                        ecaRunner.evalRules(EntityEcaHandler.EV_RUN, EntityEcaHandler.OP_FIND, primaryKey, false);
+                    }
+
+                    GenericHelper helper = getEntityHelper(entityName);
+                    // SCIPIO: rows read from a read replica are returned but not cached (see findOne)
+                    long replicaReads = ReadReplicas.getReplicaReadCount();
+                    for (GenericValue value : helper.findAllByPrimaryKeys(misses)) {
+                        value.setDelegator(this);
+                        results.put(value.getPrimaryKey(), value);
+                    }
+                    boolean cacheMisses = useCache && ReadReplicas.getReplicaReadCount() == replicaReads;
+
+                    for (GenericPK primaryKey : misses) {
+                        GenericValue value = results.get(primaryKey);
+                        if (cacheMisses) {
+                            if (value != null) {
+                                ecaRunner.evalRules(EntityEcaHandler.EV_CACHE_PUT, EntityEcaHandler.OP_FIND, value, false);
+                                this.putInPrimaryKeyCache(primaryKey, value);
+                            } else {
+                                this.putInPrimaryKeyCache(primaryKey, GenericValue.NULL_VALUE);
+                            }
+                        }
+                        ecaRunner.evalRules(EntityEcaHandler.EV_RETURN, EntityEcaHandler.OP_FIND, (value == null ? primaryKey : value), false);
+                    }
+                }
+                TransactionUtil.commit(beganTransaction);
+            } catch (GenericEntityException e) {
+                String errMsg = "Failure in findAllByPrimaryKeys operation for entities " + entityMisses.keySet() + ": " + e.toString() + ". Rolling back transaction.";
+                Debug.logError(e, errMsg, module);
+                TransactionUtil.rollback(beganTransaction, errMsg, e);
+                throw new GenericEntityException(e);
+            }
+        }
+
+        // drop the keys with no value (and the cached misses)
+        Iterator<GenericValue> it = results.values().iterator();
+        while (it.hasNext()) {
+            GenericValue value = it.next();
+            if (value == null || value == GenericValue.NULL_VALUE) {
+                it.remove();
+            }
+        }
+        return results;
+    }
+
     /* (non-Javadoc)
      * @see org.ofbiz.entity.Delegator#findByPrimaryKeyPartial(org.ofbiz.entity.GenericPK, java.util.Set)
      */
@@ -1584,11 +1953,13 @@ public class GenericDelegator implements Delegator {
             }
 
             List<GenericValue> list = null;
+            // SCIPIO: a list read from a read replica is returned but not cached (see findOne)
+            long replicaReads = ReadReplicas.getReplicaReadCount();
             try (EntityListIterator eli = this.find(entityName, entityCondition, null, fieldsToSelect, orderBy, findOptions)) {
                 list = eli.getCompleteList();
             }
 
-            if (useCache) {
+            if (useCache && ReadReplicas.getReplicaReadCount() == replicaReads) {
                 ecaRunner.evalRules(EntityEcaHandler.EV_CACHE_PUT, EntityEcaHandler.OP_FIND, dummyValue, false);
                 this.cache.put(entityName, entityCondition, orderBy, list);
             }
@@ -2178,6 +2549,9 @@ public class GenericDelegator implements Delegator {
     // ======= Misc Methods ========
 
     protected static class EntityEcaRuleRunner<T> {
+        /** SCIPIO: Shared runner for entities without ECA rules (or without a handler); runs nothing. */
+        protected static final EntityEcaRuleRunner<?> EMPTY = new EntityEcaRuleRunner<>(null, null);
+
         protected EntityEcaHandler<T> entityEcaHandler;
         protected Map<String, List<T>> eventMap;
 
@@ -2187,22 +2561,39 @@ public class GenericDelegator implements Delegator {
         }
 
         protected void evalRules(String event, String currentOperation, GenericEntity value, boolean isError) throws GenericEntityException {
-            if (entityEcaHandler == null) {
+            // SCIPIO: most entities have no ECA rules at all, so skip the handler call entirely for them
+            if (entityEcaHandler == null || eventMap == null || eventMap.isEmpty()) {
                 return;
             }
             entityEcaHandler.evalRules(currentOperation, eventMap, event, value, isError);
         }
+
+        /**
+         * SCIPIO: Returns true if the entity has validate, run or return ECA rules: they run between the writes of the
+         * values of a batch, so such entities are not written in batches.
+         */
+        protected boolean hasWriteRules() {
+            if (entityEcaHandler == null || eventMap == null || eventMap.isEmpty()) {
+                return false;
+            }
+            return UtilValidate.isNotEmpty(eventMap.get(EntityEcaHandler.EV_VALIDATE)) || UtilValidate.isNotEmpty(eventMap.get(EntityEcaHandler.EV_RUN))
+                    || UtilValidate.isNotEmpty(eventMap.get(EntityEcaHandler.EV_RETURN));
+        }
     }
 
     protected EntityEcaRuleRunner<?> getEcaRuleRunner(String entityName) {
         if (this.testRollbackInProgress) {
-            return createEntityEcaRuleRunner(null, null);
+            return EntityEcaRuleRunner.EMPTY; // SCIPIO: shared instance
         }
         return createEntityEcaRuleRunner(getEntityEcaHandler(), entityName);
     }
 
     protected static <T> EntityEcaRuleRunner<T> createEntityEcaRuleRunner(EntityEcaHandler<T> entityEcaHandler, String entityName) {
-        return new EntityEcaRuleRunner<>(entityEcaHandler, entityEcaHandler != null ? entityEcaHandler.getEntityEventMap(entityName) : null);
+        Map<String, List<T>> eventMap = (entityEcaHandler != null) ? entityEcaHandler.getEntityEventMap(entityName) : null;
+        if (eventMap == null || eventMap.isEmpty()) {
+            return UtilGenerics.cast(EntityEcaRuleRunner.EMPTY); // SCIPIO: no allocation for entities without rules
+        }
+        return new EntityEcaRuleRunner<>(entityEcaHandler, eventMap);
     }
 
     /* (non-Javadoc)
@@ -103,8 +103,11 @@ public class GenericEntity implements Map<String, Object>, LocalizedMap<Object>,
      *  null values. Null values are important because with them we can distinguish
      *  between desiring to set a value to null and desiring to not modify the
      *  current value on an update.
+     *  <p>
+     *  SCIPIO: This is a {@link CompactFieldMap} (same properties as HashMap, much smaller) unless
+     *  <code>entity.compactFields.enabled=false</code>; see {@link #makeFieldMap}. Assigned by the init methods.
      */
-    private Map<String, Object> fields = new HashMap<>();
+    private Map<String, Object> fields = Collections.emptyMap();
 
     /** Contains the entityName of this entity, necessary for efficiency when creating EJBs */
     private String entityName = null;
@@ -121,9 +124,31 @@ public class GenericEntity implements Map<String, Object>, LocalizedMap<Object>,
     /** This is an internal field used to specify that a value has come from a sync process and that the auto-stamps should not be over-written */
     private boolean isFromEntitySync = false;
 
+    /** SCIPIO: If true, values store their fields in a {@link CompactFieldMap} instead of a HashMap. */
+    private static final boolean COMPACT_FIELDS = UtilProperties.getPropertyAsBoolean("entity", "entity.compactFields.enabled", true);
+
     /** Creates new GenericEntity - Should never be used, prefer the other options. */
     protected GenericEntity() { }
 
+    /** SCIPIO: Makes an empty field map for a value of the entity: an array indexed by the entity fields if compact
+     * fields are enabled, otherwise a HashMap. */
+    private static Map<String, Object> makeFieldMap(ModelEntity modelEntity) {
+        if (COMPACT_FIELDS && modelEntity != null) {
+            return new CompactFieldMap(modelEntity.getFieldSlotIndex());
+        }
+        return new HashMap<>();
+    }
+
+    /** SCIPIO: Makes a mutable copy of a field map, keeping the compact representation. */
+    private static Map<String, Object> copyFieldMap(Map<String, Object> fields, ModelEntity modelEntity) {
+        if (fields instanceof CompactFieldMap) {
+            return new CompactFieldMap((CompactFieldMap) fields);
+        }
+        Map<String, Object> copy = makeFieldMap(modelEntity);
+        copy.putAll(fields);
+        return copy;
+    }
+
     /** Creates new GenericEntity */
     public static GenericEntity createGenericEntity(ModelEntity modelEntity) {
         if (modelEntity == null) {
@@ -181,6 +206,7 @@ public class GenericEntity implements Map<String, Object>, LocalizedMap<Object>,
         }
         this.modelEntity = modelEntity;
         this.entityName = modelEntity.getEntityName();
+        this.fields = makeFieldMap(modelEntity); // SCIPIO
         this.observable = new Observable();
 
         // check some things
@@ -197,6 +223,7 @@ public class GenericEntity implements Map<String, Object>, LocalizedMap<Object>,
         }
         this.modelEntity = modelEntity;
         this.entityName = modelEntity.getEntityName();
+        this.fields = makeFieldMap(modelEntity); // SCIPIO
         this.delegatorName = delegator.getDelegatorName();
         this.internalDelegator = delegator;
         this.observable = new Observable();
@@ -219,6 +246,7 @@ public class GenericEntity implements Map<String, Object>, LocalizedMap<Object>,
         }
         this.modelEntity = modelEntity;
         this.entityName = modelEntity.getEntityName();
+        this.fields = makeFieldMap(modelEntity); // SCIPIO
         this.delegatorName = delegator.getDelegatorName();
         this.internalDelegator = delegator;
         this.observable = new Observable();
@@ -240,9 +268,8 @@ public class GenericEntity implements Map<String, Object>, LocalizedMap<Object>,
         this.entityName = value.getEntityName();
         // NOTE: could call getModelEntity to insure we have a value, just in case the value passed in has been serialized, but might as well leave it null to keep the object light if it isn't there
         this.modelEntity = value.modelEntity;
-        if (value.fields != null) {
-            this.fields.putAll(value.fields);
-        }
+        // SCIPIO: copy keeping the compact representation
+        this.fields = (value.fields != null) ? copyFieldMap(value.fields, value.modelEntity) : makeFieldMap(value.modelEntity);
         this.delegatorName = value.delegatorName;
         this.internalDelegator = value.internalDelegator;
         this.observable = new Observable(value.observable);
@@ -259,6 +286,7 @@ public class GenericEntity implements Map<String, Object>, LocalizedMap<Object>,
         }
         this.modelEntity = modelEntity;
         this.entityName = modelEntity.getEntityName();
+        this.fields = makeFieldMap(modelEntity); // SCIPIO
         this.delegatorName = delegator.getDelegatorName();
         this.internalDelegator = delegator;
         this.observable = new Observable();
@@ -304,7 +332,7 @@ public class GenericEntity implements Map<String, Object>, LocalizedMap<Object>,
         if (!thisPK.equals(newPK)) {
             throw new GenericEntityException("Could not refresh value, new value did not have the same primary key; this PK=" + thisPK + ", new value PK=" + newPK);
         }
-        this.fields = new HashMap<>(newValue.fields);
+        this.fields = copyFieldMap(newValue.fields, newValue.modelEntity); // SCIPIO: was new HashMap<>(newValue.fields)
         this.setDelegator(newValue.getDelegator());
         this.generateHashCode = newValue.generateHashCode;
         this.cachedHashCode = newValue.cachedHashCode;
@@ -326,7 +354,14 @@ public class GenericEntity implements Map<String, Object>, LocalizedMap<Object>,
      */
     public void synchronizedWithDatasource() {
         assertIsMutable();
-        this.originalDbValues = Collections.unmodifiableMap(getAllFields());
+        // SCIPIO: compact read-only copy instead of an unmodifiable HashMap copy, which doubled the size of every value read
+        Map<String, Object> originalDbValues = copyFieldMap(this.fields, this.modelEntity);
+        if (originalDbValues instanceof CompactFieldMap) {
+            ((CompactFieldMap) originalDbValues).freeze();
+            this.originalDbValues = originalDbValues;
+        } else {
+            this.originalDbValues = Collections.unmodifiableMap(originalDbValues);
+        }
         this.clearChanged();
     }
 
@@ -349,7 +384,12 @@ public class GenericEntity implements Map<String, Object>, LocalizedMap<Object>,
     public void setImmutable() {
         if (this.mutable) {
             this.mutable = false;
-            this.fields = Collections.unmodifiableMap(this.fields);
+            if (this.fields instanceof CompactFieldMap) {
+                // SCIPIO: read-only in place, no wrapper per cached value
+                ((CompactFieldMap) this.fields).freeze();
+            } else {
+                this.fields = Collections.unmodifiableMap(this.fields);
+            }
         }
     }
 
@@ -26,6 +26,7 @@ import java.util.concurrent.ConcurrentMap;
 
 import org.ofbiz.base.util.Debug;
 import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.base.util.UtilProperties;
 import org.ofbiz.base.util.cache.UtilCache;
 import org.ofbiz.entity.GenericEntity;
 import org.ofbiz.entity.GenericPK;
@@ -37,10 +38,69 @@ public abstract class AbstractEntityConditionCache<K, V> extends AbstractCache<E
 
     private static final Debug.OfbizLogger module = Debug.getOfbizLogger(java.lang.invoke.MethodHandles.lookup().lookupClass());
 
+    /**
+     * SCIPIO: Default for {@link #isIndexEnabled()}, from <code>cache.properties#entitycache.condition.index.enable</code>.
+     */
+    private static final boolean INDEX_ENABLED_DEFAULT = UtilProperties.getPropertyAsBoolean("cache", "entitycache.condition.index.enable", true);
+
+    /**
+     * SCIPIO: Invalidation indexes by entity name, used by {@link #storeHook(String, boolean, List, List)} to test only
+     * the conditions that could match the stored value instead of every cached condition.
+     */
+    private final ConcurrentMap<String, EntityConditionCacheIndex<ConcurrentMap<K, V>>> indexes = new ConcurrentHashMap<>();
+    private volatile boolean indexEnabled = INDEX_ENABLED_DEFAULT;
+
     protected AbstractEntityConditionCache(String delegatorName, String id) {
         super(delegatorName, id);
     }
 
+    /** SCIPIO: Returns true if the condition keys are indexed by equality fields for store invalidation. */
+    public boolean isIndexEnabled() {
+        return indexEnabled;
+    }
+
+    /**
+     * SCIPIO: Enables or disables the condition key index for store invalidation; when disabled, every cached
+     * condition of the entity is tested on each store. Mainly for tests and benchmarks.
+     */
+    public void setIndexEnabled(boolean indexEnabled) {
+        this.indexEnabled = indexEnabled;
+        if (!indexEnabled) {
+            for (String entityName : indexes.keySet()) {
+                EntityConditionCacheIndex<ConcurrentMap<K, V>> index = indexes.remove(entityName);
+                if (index != null) {
+                    index.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * SCIPIO: Returns the condition key index for the given entity cache, creating it (and indexing any keys
+     * already cached) if needed, or null if indexing is disabled.
+     */
+    protected EntityConditionCacheIndex<ConcurrentMap<K, V>> getOrCreateIndex(String entityName, UtilCache<EntityCondition, ConcurrentMap<K, V>> utilCache) {
+        if (!indexEnabled) {
+            return null;
+        }
+        EntityConditionCacheIndex<ConcurrentMap<K, V>> index = indexes.get(entityName);
+        if (index != null && index.getCache() == utilCache) {
+            return index;
+        }
+        synchronized (indexes) {
+            index = indexes.get(entityName);
+            if (index != null && index.getCache() == utilCache) {
+                return index;
+            }
+            if (index != null) {
+                index.close();
+            }
+            index = new EntityConditionCacheIndex<>(utilCache);
+            indexes.put(entityName, index);
+            return index;
+        }
+    }
+
     protected V get(String entityName, EntityCondition condition, K key) {
         ConcurrentMap<K, V> conditionCache = getConditionCache(entityName, condition);
         if (conditionCache == null) {
@@ -113,6 +173,8 @@ public abstract class AbstractEntityConditionCache<K, V> extends AbstractCache<E
         EntityCondition conditionKey = getConditionKey(condition);
         ConcurrentMap<K, V> conditionCache = utilCache.get(conditionKey);
         if (conditionCache == null) {
+            // SCIPIO: make sure the index listens to the cache before the key is added
+            getOrCreateIndex(entityName, utilCache);
             conditionCache = new ConcurrentHashMap<>();
             utilCache.put(conditionKey, conditionCache);
         }
@@ -177,51 +239,82 @@ public abstract class AbstractEntityConditionCache<K, V> extends AbstractCache<E
     }
 
     protected <T1 extends Map<String, Object>, T2 extends Map<String, Object>> void storeHook(String entityName, boolean isPK, List<T1> oldValues, List<T2> newValues) {
-        UtilCache<EntityCondition, Map<K, V>> entityCache = UtilCache.findCache(getCacheName(entityName));
+        UtilCache<EntityCondition, ConcurrentMap<K, V>> entityCache = UtilCache.findCache(getCacheName(entityName));
         // for info about cache clearing
         if (entityCache == null) {
             return;
         }
-        for (EntityCondition condition: entityCache.getCacheLineKeys()) {
-            boolean shouldRemove = false;
-            if (condition == null) {
-                shouldRemove = true;
-            } else if (oldValues == null) {
-                Iterator<T2> newValueIter = newValues.iterator();
-                while (newValueIter.hasNext() && !shouldRemove) {
-                    T2 newValue = newValueIter.next();
-                    shouldRemove |= condition.mapMatches(getDelegator(), newValue);
+        // SCIPIO: when a PK is stored, every condition not matching the old value is removed, so the index can't help there
+        EntityConditionCacheIndex<ConcurrentMap<K, V>> index = isPK ? null : getOrCreateIndex(entityName, entityCache);
+        if (index == null) {
+            for (EntityCondition condition: entityCache.getCacheLineKeys()) {
+                if (shouldRemove(condition, isPK, oldValues, newValues)) {
+                    removeCondition(entityName, entityCache, condition);
                 }
-            } else {
-                boolean oldMatched = false;
-                Iterator<T1> oldValueIter = oldValues.iterator();
-                while (oldValueIter.hasNext() && !shouldRemove) {
-                    T1 oldValue = oldValueIter.next();
-                    if (condition.mapMatches(getDelegator(), oldValue)) {
-                        oldMatched = true;
-                        if (newValues != null) {
-                            Iterator<T2> newValueIter = newValues.iterator();
-                            while (newValueIter.hasNext() && !shouldRemove) {
-                                T2 newValue = newValueIter.next();
-                                shouldRemove |= isNull(newValue) || condition.mapMatches(getDelegator(), newValue);
-                            }
-                        } else {
-                            shouldRemove = true;
+            }
+            return;
+        }
+        if (entityCache.containsKey(null)) {
+            removeCondition(entityName, entityCache, null);
+        }
+        // SCIPIO: only conditions that can match the values tested below can be removed (same logic as shouldRemove)
+        for (EntityCondition condition: index.getCandidates(oldValues != null ? oldValues : newValues)) {
+            if (!entityCache.containsKey(condition)) {
+                index.remove(condition); // evicted without notification
+                continue;
+            }
+            if (shouldRemove(condition, isPK, oldValues, newValues)) {
+                removeCondition(entityName, entityCache, condition);
+            }
+        }
+        index.pruneIfStale();
+    }
+
+    /**
+     * SCIPIO: Returns true if the given cached condition must be removed for a store of the given old/new values
+     * (factored out of {@link #storeHook(String, boolean, List, List)}).
+     */
+    protected <T1 extends Map<String, Object>, T2 extends Map<String, Object>> boolean shouldRemove(EntityCondition condition, boolean isPK, List<T1> oldValues, List<T2> newValues) {
+        boolean shouldRemove = false;
+        if (condition == null) {
+            shouldRemove = true;
+        } else if (oldValues == null) {
+            Iterator<T2> newValueIter = newValues.iterator();
+            while (newValueIter.hasNext() && !shouldRemove) {
+                T2 newValue = newValueIter.next();
+                shouldRemove |= condition.mapMatches(getDelegator(), newValue);
+            }
+        } else {
+            boolean oldMatched = false;
+            Iterator<T1> oldValueIter = oldValues.iterator();
+            while (oldValueIter.hasNext() && !shouldRemove) {
+                T1 oldValue = oldValueIter.next();
+                if (condition.mapMatches(getDelegator(), oldValue)) {
+                    oldMatched = true;
+                    if (newValues != null) {
+                        Iterator<T2> newValueIter = newValues.iterator();
+                        while (newValueIter.hasNext() && !shouldRemove) {
+                            T2 newValue = newValueIter.next();
+                            shouldRemove |= isNull(newValue) || condition.mapMatches(getDelegator(), newValue);
                         }
+                    } else {
+                        shouldRemove = true;
                     }
                 }
-                // QUESTION: what is this? why would we do this?
-                if (!oldMatched && isPK) {
-                    shouldRemove = true;
-                }
             }
-            if (shouldRemove) {
-                if (Debug.verboseOn()) {
-                    Debug.logVerbose("In storeHook, matched condition, removing from cache for entityName [" + entityName + "] in cache with name [" + entityCache.getName() + "] entry with condition: " + condition, module);
-                }
-                // doesn't work anymore since this is a copy of the cache keySet, can call remove directly though with a concurrent mod exception: cacheKeyIter.remove();
-                entityCache.remove(condition);
+            // QUESTION: what is this? why would we do this?
+            if (!oldMatched && isPK) {
+                shouldRemove = true;
             }
         }
+        return shouldRemove;
+    }
+
+    private void removeCondition(String entityName, UtilCache<EntityCondition, ConcurrentMap<K, V>> entityCache, EntityCondition condition) {
+        if (Debug.verboseOn()) {
+            Debug.logVerbose("In storeHook, matched condition, removing from cache for entityName [" + entityName + "] in cache with name [" + entityCache.getName() + "] entry with condition: " + condition, module);
+        }
+        // doesn't work anymore since this is a copy of the cache keySet, can call remove directly though with a concurrent mod exception: cacheKeyIter.remove();
+        entityCache.remove(condition);
     }
 }
@@ -0,0 +1,327 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.entity.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.ofbiz.base.util.cache.CacheListener;
+import org.ofbiz.base.util.cache.UtilCache;
+import org.ofbiz.entity.GenericEntity;
+import org.ofbiz.entity.condition.EntityCondition;
+import org.ofbiz.entity.condition.EntityConditionList;
+import org.ofbiz.entity.condition.EntityConditionValue;
+import org.ofbiz.entity.condition.EntityExpr;
+import org.ofbiz.entity.condition.EntityFieldMap;
+import org.ofbiz.entity.condition.EntityFieldValue;
+import org.ofbiz.entity.condition.EntityJoinOperator;
+import org.ofbiz.entity.condition.EntityOperator;
+
+/**
+ * SCIPIO: Invalidation index for the condition keys of a single entity condition cache (see {@link AbstractEntityConditionCache}).
+ * <p>
+ * Each condition key is filed under one of the fields its top-level AND-joined terms constrain with EQUALS (or a small IN),
+ * once per constrained value. A condition can only match a value whose field equals one of those, so on store only the
+ * conditions filed under the value's own field values need to be tested with <code>mapMatches</code>. Conditions with
+ * no such term (OR, ranges, LIKE, etc.) are kept apart and always tested, as before.
+ * <p>
+ * The index follows the cache through {@link CacheListener}; keys dropped by the LRU without notification are pruned
+ * lazily when they turn up as candidates or when the index outgrows the cache.
+ */
+final class EntityConditionCacheIndex<V> implements CacheListener<EntityCondition, V> {
+
+    /** Max number of IN values for which a condition is filed under each value rather than kept unindexed. */
+    static final int MAX_IN_VALUES = 100;
+
+    private final UtilCache<EntityCondition, V> cache;
+    /** field name -&gt; constrained value -&gt; condition keys */
+    private final Map<String, Map<Object, Set<EntityCondition>>> fieldIndex = new HashMap<>();
+    /** condition key -&gt; field it was filed under, or null if unindexed */
+    private final Map<EntityCondition, IndexEntry> entries = new HashMap<>();
+    private final Set<EntityCondition> unindexed = new LinkedHashSet<>();
+
+    EntityConditionCacheIndex(UtilCache<EntityCondition, V> cache) {
+        this.cache = cache;
+        cache.addListener(this);
+        for (EntityCondition condition : cache.getCacheLineKeys()) {
+            add(condition);
+        }
+    }
+
+    UtilCache<EntityCondition, V> getCache() {
+        return cache;
+    }
+
+    /** Detaches the index from its cache; it must not be used after this. */
+    void close() {
+        cache.removeListener(this);
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized void add(EntityCondition condition) {
+        if (condition == null || entries.containsKey(condition)) {
+            return;
+        }
+        Map<String, Collection<Object>> candidates = new HashMap<>();
+        collectEqualityTerms(condition, candidates);
+        String bestField = null;
+        Collection<Object> bestValues = null;
+        for (Map.Entry<String, Collection<Object>> candidate : candidates.entrySet()) {
+            Collection<Object> values = candidate.getValue();
+            if (values == null || values.isEmpty()) {
+                continue;
+            }
+            // prefer the fewest values (EQUALS over IN), then the field with the most distinct values so far (most selective)
+            if (bestField == null || values.size() < bestValues.size()
+                    || (values.size() == bestValues.size() && getDistinctCount(candidate.getKey()) > getDistinctCount(bestField))) {
+                bestField = candidate.getKey();
+                bestValues = values;
+            }
+        }
+        if (bestField == null) {
+            unindexed.add(condition);
+            entries.put(condition, new IndexEntry(null, null));
+            return;
+        }
+        Map<Object, Set<EntityCondition>> valueIndex = fieldIndex.get(bestField);
+        if (valueIndex == null) {
+            valueIndex = new HashMap<>();
+            fieldIndex.put(bestField, valueIndex);
+        }
+        for (Object value : bestValues) {
+            Set<EntityCondition> conditions = valueIndex.get(value);
+            if (conditions == null) {
+                conditions = new LinkedHashSet<>();
+                valueIndex.put(value, conditions);
+            }
+            conditions.add(condition);
+        }
+        entries.put(condition, new IndexEntry(bestField, bestValues));
+    }
+
+    synchronized void remove(EntityCondition condition) {
+        if (condition == null) {
+            return;
+        }
+        IndexEntry entry = entries.remove(condition);
+        if (entry == null) {
+            return;
+        }
+        if (entry.fieldName == null) {
+            unindexed.remove(condition);
+            return;
+        }
+        Map<Object, Set<EntityCondition>> valueIndex = fieldIndex.get(entry.fieldName);
+        if (valueIndex == null) {
+            return;
+        }
+        for (Object value : entry.values) {
+            Set<EntityCondition> conditions = valueIndex.get(value);
+            if (conditions != null) {
+                conditions.remove(condition);
+                if (conditions.isEmpty()) {
+                    valueIndex.remove(value);
+                }
+            }
+        }
+        if (valueIndex.isEmpty()) {
+            fieldIndex.remove(entry.fieldName);
+        }
+    }
+
+    /**
+     * Returns the condition keys that could match any of the given values: all unindexed conditions, plus the
+     * conditions filed under each value's own value for every indexed field. The returned set is a copy.
+     */
+    synchronized Set<EntityCondition> getCandidates(List<? extends Map<String, Object>> values) {
+        Set<EntityCondition> candidates = new LinkedHashSet<>(unindexed);
+        if (values == null) {
+            return candidates;
+        }
+        for (Map.Entry<String, Map<Object, Set<EntityCondition>>> fieldEntry : fieldIndex.entrySet()) {
+            String fieldName = fieldEntry.getKey();
+            Map<Object, Set<EntityCondition>> valueIndex = fieldEntry.getValue();
+            for (Map<String, Object> value : values) {
+                if (AbstractEntityConditionCache.isNull(value)) {
+                    continue;
+                }
+                Object fieldValue = value.get(fieldName);
+                if (fieldValue == null) {
+                    continue;
+                }
+                Set<EntityCondition> conditions = valueIndex.get(fieldValue);
+                if (conditions != null) {
+                    candidates.addAll(conditions);
+                }
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Drops index entries for keys no longer in the cache (LRU evictions are not reported to listeners).
+     * Holds the index lock so a concurrent addition can't be dropped after its cache line was put.
+     */
+    synchronized void prune() {
+        List<EntityCondition> stale = new ArrayList<>();
+        for (EntityCondition condition : entries.keySet()) {
+            if (!cache.containsKey(condition)) {
+                stale.add(condition);
+            }
+        }
+        for (EntityCondition condition : stale) {
+            remove(condition);
+        }
+    }
+
+    /** Prunes if the index holds noticeably more keys than the cache (stale keys from evictions). */
+    void pruneIfStale() {
+        int cacheSize = cache.size();
+        if (size() > (cacheSize * 2) + 64) {
+            prune();
+        }
+    }
+
+    private int getDistinctCount(String fieldName) {
+        Map<Object, Set<EntityCondition>> valueIndex = fieldIndex.get(fieldName);
+        return valueIndex != null ? valueIndex.size() : 0;
+    }
+
+    /**
+     * Collects, for each field constrained by an EQUALS or small IN term reachable through AND joins only,
+     * the values the field must take for the condition to match. A field constrained more than once keeps
+     * its first term, which is still a valid (if less tight) necessary condition.
+     */
+    static void collectEqualityTerms(EntityCondition condition, Map<String, Collection<Object>> terms) {
+        if (condition instanceof EntityExpr) {
+            EntityExpr expr = (EntityExpr) condition;
+            String fieldName = getIndexableFieldName(expr.getLhs());
+            if (fieldName == null || terms.containsKey(fieldName)) {
+                return;
+            }
+            Collection<Object> values = getIndexableValues(expr.getOperator(), expr.getRhs());
+            if (values != null) {
+                terms.put(fieldName, values);
+            }
+        } else if (condition instanceof EntityFieldMap) {
+            EntityFieldMap fieldMap = (EntityFieldMap) condition;
+            if (fieldMap.getOperator() != EntityOperator.AND || fieldMap.isEmpty()
+                    || !EntityOperator.EQUALS.equals(fieldMap.getCondition(0).getOperator())) {
+                return;
+            }
+            Iterator<Map.Entry<String, ? extends Object>> it = fieldMap.getFieldEntryIterator();
+            while (it.hasNext()) {
+                Map.Entry<String, ? extends Object> fieldEntry = it.next();
+                if (terms.containsKey(fieldEntry.getKey())) {
+                    continue;
+                }
+                Collection<Object> values = getIndexableValues(EntityOperator.EQUALS, fieldEntry.getValue());
+                if (values != null) {
+                    terms.put(fieldEntry.getKey(), values);
+                }
+            }
+        } else if (condition instanceof EntityConditionList<?>) {
+            EntityConditionList<?> conditionList = (EntityConditionList<?>) condition;
+            EntityJoinOperator operator = conditionList.getOperator();
+            if (operator != EntityOperator.AND) {
+                return;
+            }
+            Iterator<? extends EntityCondition> it = conditionList.getConditionIterator();
+            while (it.hasNext()) {
+                collectEqualityTerms(it.next(), terms);
+            }
+        }
+    }
+
+    private static String getIndexableFieldName(Object lhs) {
+        if (lhs instanceof EntityFieldValue) {
+            return ((EntityFieldValue) lhs).getFieldName();
+        } else if (lhs instanceof String) {
+            return (String) lhs;
+        }
+        return null;
+    }
+
+    private static Collection<Object> getIndexableValues(Object operator, Object rhs) {
+        if (operator == EntityOperator.EQUALS) {
+            if (!isIndexableValue(rhs)) {
+                return null;
+            }
+            List<Object> values = new ArrayList<>(1);
+            values.add(rhs);
+            return values;
+        } else if (operator == EntityOperator.IN) {
+            if (!(rhs instanceof Collection<?>)) {
+                return isIndexableValue(rhs) ? getIndexableValues(EntityOperator.EQUALS, rhs) : null;
+            }
+            Collection<?> rhsValues = (Collection<?>) rhs;
+            if (rhsValues.isEmpty() || rhsValues.size() > MAX_IN_VALUES) {
+                return null;
+            }
+            Set<Object> values = new LinkedHashSet<>();
+            for (Object value : rhsValues) {
+                if (!isIndexableValue(value)) {
+                    return null;
+                }
+                values.add(value);
+            }
+            return values;
+        }
+        return null;
+    }
+
+    private static boolean isIndexableValue(Object value) {
+        return value != null && value != GenericEntity.NULL_FIELD && value != EntityOperator.WILDCARD
+                && !(value instanceof EntityConditionValue) && !(value instanceof Collection<?>);
+    }
+
+    @Override
+    public void noteKeyRemoval(UtilCache<EntityCondition, V> cache, EntityCondition key, V oldValue) {
+        remove(key);
+    }
+
+    @Override
+    public void noteKeyAddition(UtilCache<EntityCondition, V> cache, EntityCondition key, V newValue) {
+        add(key);
+    }
+
+    @Override
+    public void noteKeyUpdate(UtilCache<EntityCondition, V> cache, EntityCondition key, V newValue, V oldValue) {
+        add(key);
+    }
+
+    private static final class IndexEntry {
+        final String fieldName;
+        final Collection<Object> values;
+
+        IndexEntry(String fieldName, Collection<Object> values) {
+            this.fieldName = fieldName;
+            this.values = values;
+        }
+    }
+}
@@ -76,6 +76,13 @@ public final class Datasource {
     private final String collate; // type = xs:string
     private final String rowFormat;
     private final int maxWorkerPoolSize; // type = xs:integer
+    private final int batchSize; // type = xs:nonNegativeInteger
+    private final int maxInListSize; // type = xs:positiveInteger
+    private final boolean cacheSqlTemplates; // type = xs:boolean
+    private final boolean skipLocked; // type = xs:boolean
+    private final String readReplicaRouting; // type = xs:string
+    private final int readReplicaCheckInterval; // type = xs:nonNegativeInteger
+    private final List<ReadReplica> readReplicaList; // <read-replica>
     private final List<SqlLoadPath> sqlLoadPathList; // <sql-load-path>
     private final List<ReadData> readDataList; // <read-data>
     private final InlineJdbc inlineJdbc; // <inline-jdbc>
@@ -181,6 +188,56 @@ public final class Datasource {
                 throw new GenericEntityConfException("<datasource> element max-worker-pool-size attribute is invalid" + lineNumberText);
             }
         }
+        String batchSize = element.getAttribute("batch-size");
+        if (batchSize.isEmpty()) {
+            this.batchSize = 500;
+        } else {
+            try {
+                this.batchSize = Math.max(Integer.parseInt(batchSize), 0);
+            } catch (NumberFormatException e) {
+                throw new GenericEntityConfException("<datasource> element batch-size attribute is invalid" + lineNumberText);
+            }
+        }
+        String maxInListSize = element.getAttribute("max-in-list-size");
+        if (maxInListSize.isEmpty()) {
+            this.maxInListSize = 1000;
+        } else {
+            try {
+                this.maxInListSize = Math.max(Integer.parseInt(maxInListSize), 1);
+            } catch (NumberFormatException e) {
+                throw new GenericEntityConfException("<datasource> element max-in-list-size attribute is invalid" + lineNumberText);
+            }
+        }
+        this.cacheSqlTemplates = !"false".equals(element.getAttribute("cache-sql-templates"));
+        this.skipLocked = "true".equals(element.getAttribute("skip-locked"));
+        String readReplicaRouting = element.getAttribute("read-replica-routing").intern();
+        if (readReplicaRouting.isEmpty()) {
+            this.readReplicaRouting = "non-transactional";
+        } else if ("non-transactional".equals(readReplicaRouting) || "explicit".equals(readReplicaRouting)) {
+            this.readReplicaRouting = readReplicaRouting;
+        } else {
+            throw new GenericEntityConfException("<datasource> element read-replica-routing attribute is invalid" + lineNumberText);
+        }
+        String readReplicaCheckInterval = element.getAttribute("read-replica-check-interval");
+        if (readReplicaCheckInterval.isEmpty()) {
+            this.readReplicaCheckInterval = 10;
+        } else {
+            try {
+                this.readReplicaCheckInterval = Integer.parseInt(readReplicaCheckInterval);
+            } catch (NumberFormatException e) {
+                throw new GenericEntityConfException("<datasource> element read-replica-check-interval attribute is invalid" + lineNumberText);
+            }
+        }
+        List<? extends Element> readReplicaElementList = UtilXml.childElementList(element, "read-replica");
+        if (readReplicaElementList.isEmpty()) {
+            this.readReplicaList = Collections.emptyList();
+        } else {
+            List<ReadReplica> readReplicaList = new ArrayList<ReadReplica>(readReplicaElementList.size());
+            for (Element readReplicaElement : readReplicaElementList) {
+                readReplicaList.add(new ReadReplica(readReplicaElement));
+            }
+            this.readReplicaList = Collections.unmodifiableList(readReplicaList);
+        }
         List<? extends Element> sqlLoadPathElementList = UtilXml.childElementList(element, "sql-load-path");
         if (sqlLoadPathElementList.isEmpty()) {
             this.sqlLoadPathList = Collections.emptyList();
@@ -398,6 +455,41 @@ public final class Datasource {
         return this.maxWorkerPoolSize;
     }
 
+    /** SCIPIO: Returns the value of the <code>batch-size</code> attribute; 0 or 1 disables JDBC batching. */
+    public int getBatchSize() {
+        return this.batchSize;
+    }
+
+    /** SCIPIO: Returns the value of the <code>max-in-list-size</code> attribute. */
+    public int getMaxInListSize() {
+        return this.maxInListSize;
+    }
+
+    /** SCIPIO: Returns the value of the <code>cache-sql-templates</code> attribute. */
+    public boolean getCacheSqlTemplates() {
+        return this.cacheSqlTemplates;
+    }
+
+    /** SCIPIO: Returns the value of the <code>skip-locked</code> attribute: whether the database supports <code>FOR UPDATE SKIP LOCKED</code>. */
+    public boolean getSkipLocked() {
+        return this.skipLocked;
+    }
+
+    /** SCIPIO: Returns the value of the <code>read-replica-routing</code> attribute: "non-transactional" (default) or "explicit". */
+    public String getReadReplicaRouting() {
+        return this.readReplicaRouting;
+    }
+
+    /** SCIPIO: Returns the value of the <code>read-replica-check-interval</code> attribute, in seconds. */
+    public int getReadReplicaCheckInterval() {
+        return this.readReplicaCheckInterval;
+    }
+
+    /** SCIPIO: Returns the <code>&lt;read-replica&gt;</code> child elements. */
+    public List<ReadReplica> getReadReplicaList() {
+        return this.readReplicaList;
+    }
+
     /** Returns the <code>&lt;sql-load-path&gt;</code> child elements. */
     public List<SqlLoadPath> getSqlLoadPathList() {
         return this.sqlLoadPathList;
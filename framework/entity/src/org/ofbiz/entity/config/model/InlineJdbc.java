@@ -49,6 +49,7 @@ public final class InlineJdbc extends JdbcElement {
     private final boolean testOnBorrow; // type = xs:boolean
     private final boolean testOnReturn; // type = xs:boolean
     private final boolean testWhileIdle; // type = xs:boolean
+    private final int poolMaxOpenPreparedStatements; // type = xs:nonNegativeInteger
     private final String poolXaWrapperClass; // type = xs:string
 
     InlineJdbc(Element element) throws GenericEntityConfException {
@@ -166,6 +167,16 @@ public final class InlineJdbc extends JdbcElement {
         this.testOnBorrow = "true".equals(element.getAttribute("test-on-borrow"));
         this.testOnReturn = "true".equals(element.getAttribute("test-on-return"));
         this.testWhileIdle = "true".equals(element.getAttribute("test-while-idle"));
+        String poolMaxOpenPreparedStatements = element.getAttribute("pool-max-open-prepared-statements");
+        if (poolMaxOpenPreparedStatements.isEmpty()) {
+            this.poolMaxOpenPreparedStatements = 0;
+        } else {
+            try {
+                this.poolMaxOpenPreparedStatements = Integer.parseInt(poolMaxOpenPreparedStatements);
+            } catch (Exception e) {
+                throw new GenericEntityConfException("<inline-jdbc> element pool-max-open-prepared-statements attribute is invalid" + lineNumberText);
+            }
+        }
         this.poolXaWrapperClass = element.getAttribute("pool-xa-wrapper-class").intern();
     }
 
@@ -264,6 +275,11 @@ public final class InlineJdbc extends JdbcElement {
         return this.testWhileIdle;
     }
 
+    /** SCIPIO: Returns the value of the <code>pool-max-open-prepared-statements</code> attribute; 0 disables statement pooling. */
+    public int getPoolMaxOpenPreparedStatements() {
+        return this.poolMaxOpenPreparedStatements;
+    }
+
     /** Returns the value of the <code>pool-xa-wrapper-class</code> attribute. */
     public String getPoolXaWrapperClass() {
         return this.poolXaWrapperClass;
@@ -112,6 +112,11 @@ public class DBCPConnectionFactory implements ConnectionFactory {
         factory.setDefaultReadOnly(false);
         factory.setRollbackOnReturn(false);
         factory.setEnableAutoCommitOnReturn(false);
+        // SCIPIO: optional prepared statement pooling; GenericDAO reuses identical SQL strings for its per-value statements
+        if (jdbcElement.getPoolMaxOpenPreparedStatements() > 0) {
+            factory.setPoolStatements(true);
+            factory.setMaxOpenPreparedStatements(jdbcElement.getPoolMaxOpenPreparedStatements());
+        }
         String transIso = jdbcElement.getIsolationLevel();
         if (!transIso.isEmpty()) {
             if ("Serializable".equals(transIso)) {
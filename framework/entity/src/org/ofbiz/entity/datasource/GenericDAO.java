@@ -20,6 +20,7 @@ package org.ofbiz.entity.datasource;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -27,6 +28,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -75,6 +77,7 @@ public class GenericDAO {
     private final GenericHelperInfo helperInfo;
     private final ModelFieldTypeReader modelFieldTypeReader;
     private final Datasource datasource;
+    private final SqlTemplateCache sqlTemplateCache; // SCIPIO
 
     public static GenericDAO getGenericDAO(GenericHelperInfo helperInfo) {
         String cacheKey = helperInfo.getHelperFullName();
@@ -90,6 +93,30 @@ public class GenericDAO {
         this.helperInfo = helperInfo;
         this.modelFieldTypeReader = ModelFieldTypeReader.getModelFieldTypeReader(helperInfo.getHelperBaseName());
         this.datasource = EntityConfig.getDatasource(helperInfo.getHelperBaseName());
+        this.sqlTemplateCache = new SqlTemplateCache(datasource.getCacheSqlTemplates());
+    }
+
+    /**
+     * SCIPIO: Returns true if the SQL of the per-value statements (select, insert, update and delete by primary key)
+     * is cached instead of rebuilt on each call; initially the datasource <code>cache-sql-templates</code> setting.
+     */
+    public boolean isSqlTemplateCacheEnabled() {
+        return sqlTemplateCache.isEnabled();
+    }
+
+    /** SCIPIO: Enables or disables (and clears) the SQL template cache, see {@link #isSqlTemplateCacheEnabled()}. */
+    public void setSqlTemplateCacheEnabled(boolean enabled) {
+        sqlTemplateCache.setEnabled(enabled);
+    }
+
+    /** SCIPIO: Returns the number of cached SQL templates. */
+    public int getSqlTemplateCacheSize() {
+        return sqlTemplateCache.size();
+    }
+
+    /** SCIPIO: Clears the SQL template cache, for example after a model reload. */
+    public void clearSqlTemplateCache() {
+        sqlTemplateCache.clear();
     }
 
     private void addFieldIfMissing(List<ModelField> fieldsToSave, String fieldName, ModelEntity modelEntity) {
@@ -121,6 +148,28 @@ public class GenericDAO {
             return singleUpdateView(entity, (ModelViewEntity) modelEntity, fieldsToSave, sqlP);
         }
 
+        setCreateStamps(entity, modelEntity, fieldsToSave);
+
+        String sql = makeInsertSql(modelEntity, fieldsToSave);
+
+        try {
+            sqlP.prepareStatement(sql);
+            SqlJdbcUtil.setValues(sqlP, fieldsToSave, entity, modelFieldTypeReader);
+            int retVal = sqlP.executeUpdate();
+
+            entity.synchronizedWithDatasource();
+            return retVal;
+        } catch (GenericEntityException e) {
+            throw new GenericEntityException("Error while inserting: " + entity.toString(), e);
+        }
+    }
+
+    /**
+     * Sets the create and update stamp fields of an entity about to be inserted, adding them to fieldsToSave if needed.
+     * <p>
+     * SCIPIO: Factored out of singleInsert so the batch insert applies the same rules.
+     */
+    private void setCreateStamps(GenericEntity entity, ModelEntity modelEntity, List<ModelField> fieldsToSave) {
         // if we have a STAMP_TX_FIELD or CREATE_STAMP_TX_FIELD then set it with NOW, always do this before the STAMP_FIELD
         // NOTE: these fairly complicated if statements have a few objectives:
         //   1. don't run the TransationUtil.getTransaction*Stamp() methods when we don't need to
@@ -153,24 +202,110 @@ public class GenericDAO {
                 addFieldIfMissing(fieldsToSave, ModelEntity.CREATE_STAMP_FIELD, modelEntity);
             }
         }
+    }
 
+    private String makeInsertSql(ModelEntity modelEntity, List<ModelField> fieldsToSave) {
+        String sql = sqlTemplateCache.get(SqlTemplateCache.Operation.INSERT, modelEntity, fieldsToSave); // SCIPIO
+        if (sql != null) {
+            return sql;
+        }
         StringBuilder sqlB = new StringBuilder("INSERT INTO ").append(modelEntity.getTableName(datasource)).append(" (");
 
         modelEntity.colNameString(fieldsToSave, sqlB, "");
         sqlB.append(") VALUES (");
         modelEntity.fieldsStringList(fieldsToSave, sqlB, "?", ", ");
-        String sql = sqlB.append(")").toString();
-
-        try {
-            sqlP.prepareStatement(sql);
-            SqlJdbcUtil.setValues(sqlP, fieldsToSave, entity, modelFieldTypeReader);
-            int retVal = sqlP.executeUpdate();
+        return sqlTemplateCache.put(SqlTemplateCache.Operation.INSERT, modelEntity, fieldsToSave, sqlB.append(")").toString());
+    }
 
-            entity.synchronizedWithDatasource();
+    /**
+     * SCIPIO: Inserts all the given entities, which must be of the same non-view entity, sending the INSERTs
+     * in JDBC batches of at most the datasource <code>batch-size</code>.
+     * Falls back to one {@link #insert(GenericEntity)} per entity for view entities or when batching is disabled.
+     * @return the number of rows inserted
+     */
+    public int insertBatch(List<? extends GenericEntity> entities) throws GenericEntityException {
+        if (UtilValidate.isEmpty(entities)) {
+            return 0;
+        }
+        ModelEntity modelEntity = getCommonModelEntity(entities);
+        int batchSize = datasource.getBatchSize();
+        if (modelEntity instanceof ModelViewEntity || batchSize <= 1 || entities.size() == 1) {
+            int retVal = 0;
+            for (GenericEntity entity : entities) {
+                retVal += insert(entity);
+            }
             return retVal;
-        } catch (GenericEntityException e) {
-            throw new GenericEntityException("Error while inserting: " + entity.toString(), e);
         }
+
+        List<ModelField> fieldsToSave = modelEntity.getFieldsUnmodifiable();
+        String sql = makeInsertSql(modelEntity, fieldsToSave);
+
+        try (SQLProcessor sqlP = new SQLProcessor(entities.get(0).getDelegator(), helperInfo)) {
+            try {
+                sqlP.prepareStatement(sql);
+                int retVal = 0;
+                int pending = 0;
+                for (GenericEntity entity : entities) {
+                    setCreateStamps(entity, modelEntity, fieldsToSave);
+                    SqlJdbcUtil.setValues(sqlP, fieldsToSave, entity, modelFieldTypeReader);
+                    sqlP.addBatch();
+                    if (++pending >= batchSize) {
+                        retVal += countBatchUpdates(sqlP.executeBatch(), null);
+                        pending = 0;
+                    }
+                }
+                if (pending > 0) {
+                    retVal += countBatchUpdates(sqlP.executeBatch(), null);
+                }
+                for (GenericEntity entity : entities) {
+                    entity.synchronizedWithDatasource();
+                }
+                return retVal;
+            } catch (GenericEntityException e) {
+                sqlP.rollback();
+                throw new GenericEntityException("Error while batch inserting " + entities.size() + " values of entity " + modelEntity.getEntityName(), e);
+            }
+        }
+    }
+
+    private static ModelEntity getCommonModelEntity(List<? extends GenericEntity> entities) throws GenericEntityException {
+        ModelEntity modelEntity = entities.get(0).getModelEntity();
+        for (GenericEntity entity : entities) {
+            if (entity.getModelEntity() != modelEntity) {
+                throw new GenericModelException("Batch operations require values of a single entity; found both "
+                        + modelEntity.getEntityName() + " and " + entity.getEntityName());
+            }
+        }
+        return modelEntity;
+    }
+
+    private static boolean hasAllPkValues(ModelEntity modelEntity, GenericEntity entity) {
+        for (ModelField pkField : modelEntity.getPkFieldsUnmodifiable()) {
+            Object pkValue = entity.dangerousGetNoCheckButFast(pkField);
+            if (pkValue == null || pkValue == GenericEntity.NULL_FIELD) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sums the row counts returned by {@link SQLProcessor#executeBatch()}; a driver reporting
+     * {@link Statement#SUCCESS_NO_INFO} is counted as one row.
+     * If batchEntities is non-null, a zero count for any row throws GenericEntityNotFoundException for that entity.
+     */
+    private static int countBatchUpdates(int[] counts, List<? extends GenericEntity> batchEntities) throws GenericEntityNotFoundException {
+        int retVal = 0;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == Statement.SUCCESS_NO_INFO) {
+                retVal++;
+            } else if (counts[i] > 0) {
+                retVal += counts[i];
+            } else if (batchEntities != null && counts[i] == 0) {
+                throw new GenericEntityNotFoundException("Tried to update an entity that does not exist, entity: " + batchEntities.get(i).toString());
+            }
+        }
+        return retVal;
     }
 
     public int updateAll(GenericEntity entity) throws GenericEntityException {
@@ -234,6 +369,34 @@ public class GenericDAO {
             }
         }
 
+        setUpdateStamps(entity, modelEntity, fieldsToSave);
+
+        String sql = makeUpdateSql(modelEntity, fieldsToSave, entity);
+
+        int retVal = 0;
+
+        try {
+            sqlP.prepareStatement(sql);
+            SqlJdbcUtil.setValues(sqlP, fieldsToSave, entity, modelFieldTypeReader);
+            SqlJdbcUtil.setPkValues(sqlP, modelEntity, entity, modelFieldTypeReader);
+            retVal = sqlP.executeUpdate();
+            entity.synchronizedWithDatasource();
+        } catch (GenericEntityException e) {
+            throw new GenericEntityException("Error while updating: " + entity.toString(), e);
+        }
+
+        if (retVal == 0) {
+            throw new GenericEntityNotFoundException("Tried to update an entity that does not exist, entity: " + entity.toString());
+        }
+        return retVal;
+    }
+
+    /**
+     * Sets the update stamp fields of an entity about to be updated, adding them to fieldsToSave if needed.
+     * <p>
+     * SCIPIO: Factored out of singleUpdate so the batch update applies the same rules.
+     */
+    private void setUpdateStamps(GenericEntity entity, ModelEntity modelEntity, List<ModelField> fieldsToSave) {
         // if we have a STAMP_TX_FIELD then set it with NOW, always do this before the STAMP_FIELD
         // NOTE: these fairly complicated if statements have a few objectives:
         //   1. don't run the TransationUtil.getTransaction*Stamp() methods when we don't need to
@@ -248,28 +411,143 @@ public class GenericDAO {
             entity.set(ModelEntity.STAMP_FIELD, TransactionUtil.getTransactionUniqueNowStamp());
             addFieldIfMissing(fieldsToSave, ModelEntity.STAMP_FIELD, modelEntity);
         }
+    }
 
+    private String makeUpdateSql(ModelEntity modelEntity, List<ModelField> fieldsToSave, GenericEntity entity) {
+        // SCIPIO: the where clause only depends on the model when no pk value is null
+        boolean cacheable = hasAllPkValues(modelEntity, entity);
+        if (cacheable) {
+            String cachedSql = sqlTemplateCache.get(SqlTemplateCache.Operation.UPDATE_PK, modelEntity, fieldsToSave);
+            if (cachedSql != null) {
+                return cachedSql;
+            }
+        }
         StringBuilder sql = new StringBuilder().append("UPDATE ").append(modelEntity.getTableName(datasource)).append(" SET ");
         modelEntity.colNameString(fieldsToSave, sql, "", "=?, ", "=?", false);
         sql.append(" WHERE ");
         SqlJdbcUtil.makeWhereStringFromFields(sql, modelEntity.getPkFieldsUnmodifiable(), entity, "AND");
+        return cacheable ? sqlTemplateCache.put(SqlTemplateCache.Operation.UPDATE_PK, modelEntity, fieldsToSave, sql.toString()) : sql.toString();
+    }
 
-        int retVal = 0;
+    /** SCIPIO: Returns the DELETE by primary key SQL for the entity, cached when no pk value is null. */
+    private String makeDeleteSql(ModelEntity modelEntity, GenericEntity entity) {
+        boolean cacheable = hasAllPkValues(modelEntity, entity);
+        if (cacheable) {
+            String cachedSql = sqlTemplateCache.get(SqlTemplateCache.Operation.DELETE_PK, modelEntity, null);
+            if (cachedSql != null) {
+                return cachedSql;
+            }
+        }
+        StringBuilder sql = new StringBuilder().append("DELETE FROM ").append(modelEntity.getTableName(datasource)).append(" WHERE ");
+        SqlJdbcUtil.makeWhereStringFromFields(sql, modelEntity.getPkFieldsUnmodifiable(), entity, "AND");
+        return cacheable ? sqlTemplateCache.put(SqlTemplateCache.Operation.DELETE_PK, modelEntity, null, sql.toString()) : sql.toString();
+    }
 
-        try {
-            sqlP.prepareStatement(sql.toString());
-            SqlJdbcUtil.setValues(sqlP, fieldsToSave, entity, modelFieldTypeReader);
-            SqlJdbcUtil.setPkValues(sqlP, modelEntity, entity, modelFieldTypeReader);
-            retVal = sqlP.executeUpdate();
-            entity.synchronizedWithDatasource();
-        } catch (GenericEntityException e) {
-            throw new GenericEntityException("Error while updating: " + entity.toString(), e);
+    /**
+     * SCIPIO: Returns the SELECT by primary key SQL for the given fields (all non-pk fields for a full select),
+     * cached when no pk value is null.
+     */
+    private String makeSelectSql(SqlTemplateCache.Operation operation, ModelEntity modelEntity, List<ModelField> selectFields, GenericEntity entity) throws GenericEntityException {
+        boolean cacheable = hasAllPkValues(modelEntity, entity);
+        if (cacheable) {
+            String cachedSql = sqlTemplateCache.get(operation, modelEntity, selectFields);
+            if (cachedSql != null) {
+                return cachedSql;
+            }
         }
+        StringBuilder sqlBuffer = new StringBuilder("SELECT ");
 
-        if (retVal == 0) {
-            throw new GenericEntityNotFoundException("Tried to update an entity that does not exist, entity: " + entity.toString());
+        if (selectFields.size() > 0) {
+            modelEntity.colNameString(selectFields, sqlBuffer, "", ", ", "", datasource.getAliasViewColumns());
+        } else {
+            sqlBuffer.append("*");
+        }
+
+        sqlBuffer.append(SqlJdbcUtil.makeFromClause(modelEntity, modelFieldTypeReader, datasource));
+        sqlBuffer.append(SqlJdbcUtil.makeWhereClause(modelEntity, modelEntity.getPkFieldsUnmodifiable(), entity, "AND", datasource.getJoinStyle()));
+        return cacheable ? sqlTemplateCache.put(operation, modelEntity, selectFields, sqlBuffer.toString()) : sqlBuffer.toString();
+    }
+
+    /**
+     * SCIPIO: Updates all the given entities, which must be of the same non-view entity, the same way as
+     * {@link #update(GenericEntity)} (only the non-pk fields present in each value), sending the UPDATEs in
+     * JDBC batches of at most the datasource <code>batch-size</code>.
+     * <p>
+     * Values are grouped by the set of fields they update so each group shares one prepared statement.
+     * Entities using optimistic locking, values with a missing pk field and view entities are updated one by one.
+     * @return the number of rows updated
+     */
+    public int updateBatch(List<? extends GenericEntity> entities) throws GenericEntityException {
+        if (UtilValidate.isEmpty(entities)) {
+            return 0;
+        }
+        ModelEntity modelEntity = getCommonModelEntity(entities);
+        int batchSize = datasource.getBatchSize();
+        if (modelEntity instanceof ModelViewEntity || modelEntity.lock() || batchSize <= 1 || entities.size() == 1) {
+            int retVal = 0;
+            for (GenericEntity entity : entities) {
+                retVal += update(entity);
+            }
+            return retVal;
+        }
+
+        int retVal = 0;
+        // group by statement shape, ie the list of fields to save; insertion-ordered to keep the caller's order within each group
+        Map<List<ModelField>, List<GenericEntity>> shapeEntities = new LinkedHashMap<>();
+        for (GenericEntity entity : entities) {
+            if (!hasAllPkValues(modelEntity, entity)) {
+                retVal += update(entity);
+                continue;
+            }
+            List<ModelField> fieldsToSave = new ArrayList<>(modelEntity.getNopksSize());
+            Iterator<ModelField> nopkIter = modelEntity.getNopksIterator();
+            while (nopkIter.hasNext()) {
+                ModelField curField = nopkIter.next();
+                if (entity.containsKey(curField.getName())) {
+                    fieldsToSave.add(curField);
+                }
+            }
+            if (fieldsToSave.isEmpty()) {
+                // same as singleUpdate: nothing to update, effectively updated
+                retVal++;
+                continue;
+            }
+            setUpdateStamps(entity, modelEntity, fieldsToSave);
+            List<GenericEntity> shapeList = shapeEntities.get(fieldsToSave);
+            if (shapeList == null) {
+                shapeList = new ArrayList<>();
+                shapeEntities.put(fieldsToSave, shapeList);
+            }
+            shapeList.add(entity);
+        }
+
+        try (SQLProcessor sqlP = new SQLProcessor(entities.get(0).getDelegator(), helperInfo)) {
+            try {
+                for (Map.Entry<List<ModelField>, List<GenericEntity>> entry : shapeEntities.entrySet()) {
+                    List<ModelField> fieldsToSave = entry.getKey();
+                    List<GenericEntity> shapeList = entry.getValue();
+                    sqlP.prepareStatement(makeUpdateSql(modelEntity, fieldsToSave, shapeList.get(0)));
+                    int start = 0;
+                    for (int i = 0; i < shapeList.size(); i++) {
+                        GenericEntity entity = shapeList.get(i);
+                        SqlJdbcUtil.setValues(sqlP, fieldsToSave, entity, modelFieldTypeReader);
+                        SqlJdbcUtil.setPkValues(sqlP, modelEntity, entity, modelFieldTypeReader);
+                        sqlP.addBatch();
+                        if (i + 1 - start >= batchSize || i + 1 == shapeList.size()) {
+                            retVal += countBatchUpdates(sqlP.executeBatch(), shapeList.subList(start, i + 1));
+                            start = i + 1;
+                        }
+                    }
+                    for (GenericEntity entity : shapeList) {
+                        entity.synchronizedWithDatasource();
+                    }
+                }
+                return retVal;
+            } catch (GenericEntityException e) {
+                sqlP.rollback();
+                throw e;
+            }
         }
-        return retVal;
     }
 
     public int updateByCondition(Delegator delegator, ModelEntity modelEntity, Map<String, ? extends Object> fieldsToSet, EntityCondition condition) throws GenericEntityException {
@@ -474,18 +752,9 @@ public class GenericDAO {
             throw new GenericEntityException("Entity has no primary keys, cannot select by primary key");
         }
 
-        StringBuilder sqlBuffer = new StringBuilder("SELECT ");
-
-        if (modelEntity.getNopksSize() > 0) {
-            modelEntity.colNameString(modelEntity.getNopksCopy(), sqlBuffer, "", ", ", "", datasource.getAliasViewColumns());
-        } else {
-            sqlBuffer.append("*");
-        }
+        String sql = makeSelectSql(SqlTemplateCache.Operation.SELECT_PK, modelEntity, modelEntity.getNopksUnmodifiable(), entity); // SCIPIO: cached
 
-        sqlBuffer.append(SqlJdbcUtil.makeFromClause(modelEntity, modelFieldTypeReader, datasource));
-        sqlBuffer.append(SqlJdbcUtil.makeWhereClause(modelEntity, modelEntity.getPkFieldsUnmodifiable(), entity, "AND", datasource.getJoinStyle()));
-
-        sqlP.prepareStatement(sqlBuffer.toString(), true, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        sqlP.prepareStatement(sql, true, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
         SqlJdbcUtil.setPkValues(sqlP, modelEntity, entity, modelFieldTypeReader);
         sqlP.executeQuery();
 
@@ -530,18 +799,10 @@ public class GenericDAO {
             throw new GenericModelException("In partialSelect invalid field names specified: " + tempKeys.toString());
         }
 
-        StringBuilder sqlBuffer = new StringBuilder("SELECT ");
-
-        if (partialFields.size() > 0) {
-            modelEntity.colNameString(partialFields, sqlBuffer, "", ", ", "", datasource.getAliasViewColumns());
-        } else {
-            sqlBuffer.append("*");
-        }
-        sqlBuffer.append(SqlJdbcUtil.makeFromClause(modelEntity, modelFieldTypeReader, datasource));
-        sqlBuffer.append(SqlJdbcUtil.makeWhereClause(modelEntity, modelEntity.getPkFieldsUnmodifiable(), entity, "AND", datasource.getJoinStyle()));
+        String sql = makeSelectSql(SqlTemplateCache.Operation.PARTIAL_SELECT_PK, modelEntity, partialFields, entity); // SCIPIO: cached
 
         try (SQLProcessor sqlP = new SQLProcessor(entity.getDelegator(), helperInfo)) {
-            sqlP.prepareStatement(sqlBuffer.toString(), true, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            sqlP.prepareStatement(sql, true, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
             SqlJdbcUtil.setPkValues(sqlP, modelEntity, entity, modelFieldTypeReader);
             sqlP.executeQuery();
 
@@ -561,6 +822,51 @@ public class GenericDAO {
     /* ====================================================================== */
     /* ====================================================================== */
 
+    /**
+     * SCIPIO: Selects the rows for all the given primary keys, which must be of the same entity, using one
+     * <code>pk IN (...)</code> query per chunk of at most the datasource <code>max-in-list-size</code> keys
+     * (for composite keys, an OR of the pk field conditions).
+     * <p>
+     * Keys that have no row are simply absent from the result; the result order is unspecified.
+     */
+    public List<GenericValue> selectByPrimaryKeys(Delegator delegator, ModelEntity modelEntity, Collection<? extends GenericEntity> primaryKeys) throws GenericEntityException {
+        if (UtilValidate.isEmpty(primaryKeys)) {
+            return new ArrayList<>();
+        }
+        if (modelEntity.getPksSize() <= 0) {
+            throw new GenericEntityException("Entity has no primary keys, cannot select by primary key");
+        }
+        int pksSize = modelEntity.getPksSize();
+        int chunkSize = Math.max(datasource.getMaxInListSize() / pksSize, 1);
+        String onlyPkName = (pksSize == 1) ? modelEntity.getOnlyPk().getName() : null;
+
+        List<GenericValue> results = new ArrayList<>(primaryKeys.size());
+        List<Object> pkValues = new ArrayList<>(Math.min(chunkSize, primaryKeys.size()));
+        List<EntityCondition> pkConds = new ArrayList<>(Math.min(chunkSize, primaryKeys.size()));
+        Iterator<? extends GenericEntity> pkIt = primaryKeys.iterator();
+        while (pkIt.hasNext()) {
+            GenericEntity primaryKey = pkIt.next();
+            if (primaryKey.getModelEntity() != modelEntity) {
+                throw new GenericModelException("selectByPrimaryKeys requires primary keys of entity " + modelEntity.getEntityName() + "; found " + primaryKey.getEntityName());
+            }
+            if (onlyPkName != null) {
+                pkValues.add(primaryKey.get(onlyPkName));
+            } else {
+                pkConds.add(EntityCondition.makeCondition(primaryKey.getPrimaryKey().getAllFields()));
+            }
+            if (pkValues.size() + pkConds.size() >= chunkSize || !pkIt.hasNext()) {
+                EntityCondition condition = (onlyPkName != null) ? EntityCondition.makeCondition(onlyPkName, EntityOperator.IN, pkValues)
+                        : EntityCondition.makeCondition(pkConds, EntityOperator.OR);
+                try (EntityListIterator eli = selectListIteratorByCondition(delegator, modelEntity, condition, null, null, null, null)) {
+                    results.addAll(eli.getCompleteList());
+                }
+                pkValues = new ArrayList<>(chunkSize);
+                pkConds = new ArrayList<>(chunkSize);
+            }
+        }
+        return results;
+    }
+
     /** Finds GenericValues by the conditions specified in the EntityCondition object, the the EntityCondition javadoc for more details.
      *@param modelEntity The ModelEntity of the Entity as defined in the entity XML file
      *@param whereEntityCondition The EntityCondition object that specifies how to constrain this query before any groupings are done (if this is a view entity with group-by aliases)
@@ -707,6 +1013,14 @@ public class GenericDAO {
         // OFFSET clause
         makeOffsetString(sqlBuffer, findOptions);
 
+        // SCIPIO: FOR UPDATE [SKIP LOCKED] clause
+        if (findOptions.getForUpdate() || findOptions.getSkipLocked()) {
+            sqlBuffer.append(" FOR UPDATE");
+            if (findOptions.getSkipLocked() && datasource.getSkipLocked()) {
+                sqlBuffer.append(" SKIP LOCKED");
+            }
+        }
+
         // make the final SQL String
         String sql = sqlBuffer.toString();
 
@@ -1108,18 +1422,79 @@ public class GenericDAO {
             throw new org.ofbiz.entity.GenericNotImplementedException("Operation delete not supported yet for view entities");
         }
 
-        StringBuilder sql = new StringBuilder().append("DELETE FROM ").append(modelEntity.getTableName(datasource)).append(" WHERE ");
-        SqlJdbcUtil.makeWhereStringFromFields(sql, modelEntity.getPkFieldsUnmodifiable(), entity, "AND");
+        String sql = makeDeleteSql(modelEntity, entity); // SCIPIO: cached
 
         int retVal;
 
-            sqlP.prepareStatement(sql.toString());
+            sqlP.prepareStatement(sql);
             SqlJdbcUtil.setPkValues(sqlP, modelEntity, entity, modelFieldTypeReader);
             retVal = sqlP.executeUpdate();
             entity.removedFromDatasource();
         return retVal;
     }
 
+    /**
+     * SCIPIO: Deletes all the given entities by primary key, which must be of the same non-view entity, sending the
+     * DELETEs in JDBC batches of at most the datasource <code>batch-size</code>.
+     * Values with a missing pk field are deleted one by one, as by {@link #delete(GenericEntity)}.
+     * @return the number of rows deleted
+     */
+    public int deleteBatch(List<? extends GenericEntity> entities) throws GenericEntityException {
+        if (UtilValidate.isEmpty(entities)) {
+            return 0;
+        }
+        ModelEntity modelEntity = getCommonModelEntity(entities);
+        if (modelEntity instanceof ModelViewEntity) {
+            throw new org.ofbiz.entity.GenericNotImplementedException("Operation delete not supported yet for view entities");
+        }
+        int batchSize = datasource.getBatchSize();
+        if (batchSize <= 1 || entities.size() == 1) {
+            int retVal = 0;
+            for (GenericEntity entity : entities) {
+                retVal += delete(entity);
+            }
+            return retVal;
+        }
+
+        int retVal = 0;
+        List<GenericEntity> batchEntities = new ArrayList<>(entities.size());
+        for (GenericEntity entity : entities) {
+            if (hasAllPkValues(modelEntity, entity)) {
+                batchEntities.add(entity);
+            } else {
+                retVal += delete(entity);
+            }
+        }
+        if (batchEntities.isEmpty()) {
+            return retVal;
+        }
+
+        try (SQLProcessor sqlP = new SQLProcessor(entities.get(0).getDelegator(), helperInfo)) {
+            try {
+                sqlP.prepareStatement(makeDeleteSql(modelEntity, batchEntities.get(0)));
+                int pending = 0;
+                for (GenericEntity entity : batchEntities) {
+                    SqlJdbcUtil.setPkValues(sqlP, modelEntity, entity, modelFieldTypeReader);
+                    sqlP.addBatch();
+                    if (++pending >= batchSize) {
+                        retVal += countBatchUpdates(sqlP.executeBatch(), null);
+                        pending = 0;
+                    }
+                }
+                if (pending > 0) {
+                    retVal += countBatchUpdates(sqlP.executeBatch(), null);
+                }
+                for (GenericEntity entity : batchEntities) {
+                    entity.removedFromDatasource();
+                }
+                return retVal;
+            } catch (GenericDataSourceException e) {
+                sqlP.rollback();
+                throw new GenericDataSourceException("Exception while batch deleting " + batchEntities.size() + " values of entity " + modelEntity.getEntityName(), e);
+            }
+        }
+    }
+
     public int deleteByCondition(Delegator delegator, ModelEntity modelEntity, EntityCondition condition) throws GenericEntityException {
         try (SQLProcessor sqlP = new SQLProcessor(delegator, helperInfo)) {
         try {
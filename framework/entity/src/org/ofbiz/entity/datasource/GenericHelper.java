@@ -52,6 +52,12 @@ public interface GenericHelper {
      */
     public GenericValue create(GenericValue value) throws GenericEntityException;
 
+    /** SCIPIO: Creates all the given values, which must be of the same entity, writing them to the database in JDBC batches
+     *@param values The values to create
+     *@return int representing number of rows effected by this operation
+     */
+    public int createAll(List<GenericValue> values) throws GenericEntityException;
+
     /** Find a Generic Entity by its Primary Key
      *@param primaryKey The primary key to find by.
      *@return The GenericValue corresponding to the primaryKey
@@ -77,6 +83,12 @@ public interface GenericHelper {
      */
     public int removeByPrimaryKey(GenericPK primaryKey) throws GenericEntityException;
 
+    /** SCIPIO: Removes the Generic Entities corresponding to the primaryKeys, which must be of the same entity, in JDBC batches
+     *@param  primaryKeys  The primary keys of the entities to remove.
+     *@return int representing number of rows effected by this operation
+     */
+    public int removeAllByPrimaryKey(List<GenericPK> primaryKeys) throws GenericEntityException;
+
     public List<GenericValue> findByMultiRelation(GenericValue value, ModelRelation modelRelationOne, ModelEntity modelEntityOne,
         ModelRelation modelRelationTwo, ModelEntity modelEntityTwo, List<String> orderBy) throws GenericEntityException;
 
@@ -120,6 +132,12 @@ public interface GenericHelper {
      */
     public int store(GenericValue value) throws GenericEntityException;
 
+    /** SCIPIO: Stores all the given values, which must be of the same entity and already exist, in JDBC batches
+     *@param values GenericValue instances containing the entities
+     *@return int representing number of rows effected by this operation
+     */
+    public int storeAll(List<GenericValue> values) throws GenericEntityException;
+
     /** Check the datasource to make sure the entity definitions are correct, optionally adding missing entities or fields on the server
      *@param modelEntities Map of entityName names and ModelEntity values
      *@param messages List to put any result messages in
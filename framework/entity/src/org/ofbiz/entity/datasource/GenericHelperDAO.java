@@ -20,6 +20,8 @@ package org.ofbiz.entity.datasource;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -67,6 +69,17 @@ public class GenericHelperDAO implements GenericHelper {
         return value;
     }
 
+    /** SCIPIO: Creates all the given values, which must be of the same entity, writing them to the database in JDBC batches
+     *@param values The values to create
+     *@return int representing number of rows effected by this operation
+     */
+    public int createAll(List<GenericValue> values) throws GenericEntityException {
+        if (values == null) {
+            return 0;
+        }
+        return genericDAO.insertBatch(values);
+    }
+
     /** Find a Generic Entity by its Primary Key
      *@param primaryKey The primary key to find by.
      *@return The GenericValue corresponding to the primaryKey
@@ -105,9 +118,29 @@ public class GenericHelperDAO implements GenericHelper {
     public List<GenericValue> findAllByPrimaryKeys(List<GenericPK> primaryKeys) throws GenericEntityException {
         if (primaryKeys == null) return null;
         List<GenericValue> results = new ArrayList<>(primaryKeys.size()); // SCIPIO: switched to ArrayList
+        if (primaryKeys.isEmpty()) {
+            return results;
+        }
 
+        // SCIPIO: one IN query per entity (chunked) instead of one query per key; results are returned in the order of the keys
+        Map<ModelEntity, List<GenericPK>> entityPks = new LinkedHashMap<>();
+        for (GenericPK primaryKey: primaryKeys) {
+            List<GenericPK> pks = entityPks.get(primaryKey.getModelEntity());
+            if (pks == null) {
+                pks = new ArrayList<>();
+                entityPks.put(primaryKey.getModelEntity(), pks);
+            }
+            pks.add(primaryKey);
+        }
+        Map<GenericPK, GenericValue> found = new HashMap<>();
+        for (Map.Entry<ModelEntity, List<GenericPK>> entry : entityPks.entrySet()) {
+            List<GenericPK> pks = entry.getValue();
+            for (GenericValue value : genericDAO.selectByPrimaryKeys(pks.get(0).getDelegator(), entry.getKey(), pks)) {
+                found.put(value.getPrimaryKey(), value);
+            }
+        }
         for (GenericPK primaryKey: primaryKeys) {
-            GenericValue result = this.findByPrimaryKey(primaryKey);
+            GenericValue result = found.get(primaryKey);
 
             if (result != null) results.add(result);
         }
@@ -124,6 +157,15 @@ public class GenericHelperDAO implements GenericHelper {
         return genericDAO.delete(primaryKey);
     }
 
+    /** SCIPIO: Removes the Generic Entities corresponding to the primaryKeys, which must be of the same entity, in JDBC batches
+     *@param  primaryKeys  The primary keys of the entities to remove.
+     *@return int representing number of rows effected by this operation
+     */
+    public int removeAllByPrimaryKey(List<GenericPK> primaryKeys) throws GenericEntityException {
+        if (primaryKeys == null) return 0;
+        return genericDAO.deleteBatch(primaryKeys);
+    }
+
     /** Finds GenericValues by the conditions specified in the EntityCondition object, the the EntityCondition javadoc for more details.
      *@param modelEntity The ModelEntity of the Entity as defined in the entity XML file
      *@param whereEntityCondition The EntityCondition object that specifies how to constrain this query before any groupings are done (if this is a view entity with group-by aliases)
@@ -173,6 +215,17 @@ public class GenericHelperDAO implements GenericHelper {
         return genericDAO.update(value);
     }
 
+    /** SCIPIO: Stores all the given values, which must be of the same entity and already exist, in JDBC batches
+     *@param values GenericValue instances containing the entities
+     *@return int representing number of rows effected by this operation
+     */
+    public int storeAll(List<GenericValue> values) throws GenericEntityException {
+        if (values == null) {
+            return 0;
+        }
+        return genericDAO.updateBatch(values);
+    }
+
     /** Updates a group of values in a single pass.
      *@param modelEntity The ModelEntity of the Entity as defined in the entity XML file
      *@param fieldsToSet The fields of the named entity to set in the database
@@ -89,6 +89,12 @@ public class GenericHelperFactory {
                             throw new IllegalStateException("Error loading GenericHelper class \"" + helperClassName + "\": " + e.getMessage());
                         }
 
+                        // SCIPIO: route reads to the read replicas of the datasource, if any (not for tenant datasources,
+                        // whose connection settings are overridden)
+                        if (helper != null && !datasourceInfo.getReadReplicaList().isEmpty() && helperInfo.getTenantId().isEmpty()) {
+                            helper = new ReadReplicaHelper(helperInfo, helper, datasourceInfo);
+                        }
+
                         if (helper != null) {
                             // SCIPIO: 2018-10-16: clone cache to ensure thread-safe reads
                             //helperCache.put(helperInfo.getHelperFullName(), helper);
@@ -105,4 +111,18 @@ public class GenericHelperFactory {
         }
         return helper;
     }
+
+    /**
+     * SCIPIO: Replaces the helper of the helper name of the info, and returns the replaced one (created first if
+     * needed); used to wrap a helper, e.g. by tests.
+     */
+    public static GenericHelper replaceHelper(GenericHelperInfo helperInfo, GenericHelper helper) {
+        synchronized (GenericHelperFactory.class) {
+            GenericHelper previous = getHelper(helperInfo);
+            Map<String, GenericHelper> newHelperCache = new HashMap<>(helperCache);
+            newHelperCache.put(helperInfo.getHelperFullName(), helper);
+            helperCache = Collections.unmodifiableMap(newHelperCache);
+            return previous;
+        }
+    }
 }
@@ -61,6 +61,13 @@ public class ReadOnlyHelperDAO implements GenericHelper {
         return null;
     }
 
+    /** Read only, no creation realize on the database
+     *@return 0
+     */
+    public int createAll(List<GenericValue> values) throws GenericEntityException {
+        return 0;
+    }
+
     /** Find a Generic Entity by its Primary Key
      *@param primaryKey The primary key to find by.
      *@return The GenericValue corresponding to the primaryKey
@@ -115,6 +122,13 @@ public class ReadOnlyHelperDAO implements GenericHelper {
         return 0;
     }
 
+    /** Read only, no remove realize on the database
+     *@return 0
+     */
+    public int removeAllByPrimaryKey(List<GenericPK> primaryKeys) throws GenericEntityException {
+        return 0;
+    }
+
     /** Finds GenericValues by the conditions specified in the EntityCondition object, the the EntityCondition javadoc for more details.
      *@param modelEntity The ModelEntity of the Entity as defined in the entity XML file
      *@param whereEntityCondition The EntityCondition object that specifies how to constrain this query before any groupings are done (if this is a view entity with group-by aliases)
@@ -155,6 +169,13 @@ public class ReadOnlyHelperDAO implements GenericHelper {
         return 0;
     }
 
+    /** Read only, no store realize on the database
+     *@return 0
+     */
+    public int storeAll(List<GenericValue> values) throws GenericEntityException {
+        return 0;
+    }
+
     /** Read only, no store realize on the database
      *@return 0
      */
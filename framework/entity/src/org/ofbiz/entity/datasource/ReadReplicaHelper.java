@@ -0,0 +1,472 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.entity.datasource;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.ofbiz.base.concurrent.ExecutionPool;
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.GenericDataSourceException;
+import org.ofbiz.entity.GenericEntityException;
+import org.ofbiz.entity.GenericPK;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.condition.EntityCondition;
+import org.ofbiz.entity.config.model.Datasource;
+import org.ofbiz.entity.config.model.EntityConfig;
+import org.ofbiz.entity.config.model.ReadReplica;
+import org.ofbiz.entity.jdbc.SQLProcessor;
+import org.ofbiz.entity.model.ModelEntity;
+import org.ofbiz.entity.model.ModelRelation;
+import org.ofbiz.entity.transaction.TransactionUtil;
+import org.ofbiz.entity.util.EntityFindOptions;
+import org.ofbiz.entity.util.EntityListIterator;
+
+/**
+ * SCIPIO: Entity helper for a datasource with read replicas (<code>&lt;read-replica&gt;</code> in entityengine.xml).
+ * <p>
+ * Writes always go to the primary helper. Reads go round-robin to the healthy replicas when routing allows it (see
+ * {@link ReadReplicas}): by default, reads outside a transaction, so that reads within a transaction see its own writes.
+ * A background check tests each replica every <code>read-replica-check-interval</code> seconds; a replica that fails,
+ * lags more than its <code>max-lag-seconds</code> or throws a datasource error on a read is skipped until a later check
+ * succeeds. A read that fails on a replica is retried once on the primary. When no replica is usable, reads go to the
+ * primary.
+ * <p>
+ * Reads that would fill the entity cache are routed like any other read, but GenericDelegator does not cache what a
+ * replica returned (see {@link ReadReplicas#getReplicaReadCount()}): a row read from a lagging replica after a write
+ * cleared the cache would otherwise stay stale until the next write to the entity.
+ * <p>
+ * Created by {@link GenericHelperFactory} for datasources that define replicas; not used for tenant helpers.
+ */
+public class ReadReplicaHelper implements GenericHelper {
+
+    private static final Debug.OfbizLogger module = Debug.getOfbizLogger(java.lang.invoke.MethodHandles.lookup().lookupClass());
+
+    private static final ScheduledExecutorService checkExecutor = ExecutionPool.getScheduledExecutor(new ThreadGroup("ReadReplicaHelper"),
+            "entity-read-replica-check", 1, 0, false);
+
+    private final GenericHelperInfo helperInfo;
+    private final GenericHelper primary;
+    private final boolean routeNonTransactional;
+    private final List<Replica> replicas;
+    private final AtomicInteger nextReplica = new AtomicInteger();
+    private final AtomicLong replicaReads = new AtomicLong();
+    private final AtomicLong primaryFallbacks = new AtomicLong();
+
+    public ReadReplicaHelper(GenericHelperInfo helperInfo, GenericHelper primary, Datasource datasource) {
+        this.helperInfo = helperInfo;
+        this.primary = primary;
+        this.routeNonTransactional = "non-transactional".equals(datasource.getReadReplicaRouting());
+        List<Replica> replicas = new ArrayList<>(datasource.getReadReplicaList().size());
+        for (ReadReplica replicaConfig : datasource.getReadReplicaList()) {
+            Datasource replicaDatasource = EntityConfig.getDatasource(replicaConfig.getDatasourceName());
+            if (replicaDatasource == null || replicaConfig.getDatasourceName().equals(helperInfo.getHelperBaseName())) {
+                Debug.logError("Invalid read-replica datasource [" + replicaConfig.getDatasourceName() + "] for datasource ["
+                        + helperInfo.getHelperBaseName() + "]; ignoring", module);
+                continue;
+            }
+            GenericHelperInfo replicaHelperInfo = new GenericHelperInfo(helperInfo.getEntityGroupName(), replicaConfig.getDatasourceName());
+            // without periodic checks, replicas are used until a read fails
+            replicas.add(new Replica(replicaConfig.getDatasourceName(), replicaConfig.getMaxLagSeconds(), Replica.getTestQuery(replicaDatasource),
+                    !replicaConfig.getLagQuery().isEmpty() ? replicaConfig.getLagQuery() : Replica.getDefaultLagQuery(replicaDatasource),
+                    replicaHelperInfo, GenericHelperFactory.getHelper(replicaHelperInfo), datasource.getReadReplicaCheckInterval() <= 0));
+        }
+        this.replicas = Collections.unmodifiableList(replicas);
+        if (!replicas.isEmpty() && datasource.getReadReplicaCheckInterval() > 0) {
+            checkExecutor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    checkReplicas();
+                }
+            }, 0, datasource.getReadReplicaCheckInterval(), TimeUnit.SECONDS);
+        }
+        Debug.logInfo("Datasource [" + helperInfo.getHelperBaseName() + "] reads routed to " + replicas.size()
+                + " read replica(s) (" + datasource.getReadReplicaRouting() + ")", module);
+    }
+
+    /**
+     * Creates a helper for the given replicas, without periodic health checks (see {@link #checkReplicas()}); for
+     * custom setups and tests.
+     */
+    public ReadReplicaHelper(GenericHelperInfo helperInfo, GenericHelper primary, boolean routeNonTransactional, List<Replica> replicas) {
+        this.helperInfo = helperInfo;
+        this.primary = primary;
+        this.routeNonTransactional = routeNonTransactional;
+        this.replicas = Collections.unmodifiableList(new ArrayList<>(replicas));
+    }
+
+    public GenericHelper getPrimaryHelper() {
+        return primary;
+    }
+
+    public List<Replica> getReplicas() {
+        return replicas;
+    }
+
+    /** Returns the state of each replica (datasourceName, healthy, lagSeconds, lastError, reads, failures) and overall counts. */
+    public Map<String, Object> getReplicaStatus() {
+        List<Map<String, Object>> replicaInfoList = new ArrayList<>(replicas.size());
+        for (Replica replica : replicas) {
+            Map<String, Object> replicaInfo = new HashMap<>();
+            replicaInfo.put("datasourceName", replica.datasourceName);
+            replicaInfo.put("healthy", replica.healthy);
+            replicaInfo.put("lagSeconds", replica.lagSeconds);
+            replicaInfo.put("lastError", replica.lastError);
+            replicaInfo.put("reads", replica.reads.get());
+            replicaInfo.put("failures", replica.failures.get());
+            replicaInfoList.add(replicaInfo);
+        }
+        Map<String, Object> status = new HashMap<>();
+        status.put("replicas", replicaInfoList);
+        status.put("replicaReads", replicaReads.get());
+        status.put("primaryFallbacks", primaryFallbacks.get());
+        return status;
+    }
+
+    /** Runs the health and lag check of every replica now. */
+    public void checkReplicas() {
+        for (Replica replica : replicas) {
+            try {
+                replica.check();
+            } catch (Throwable t) {
+                replica.markFailed("Health check error: " + t.toString());
+            }
+        }
+    }
+
+    /** Returns the replica to read from, or null to read from the primary. */
+    protected Replica getReadReplica() {
+        if (replicas.isEmpty()) {
+            return null;
+        }
+        ReadReplicas.Preference preference = ReadReplicas.getPreference();
+        if (preference == ReadReplicas.Preference.PRIMARY) {
+            return null;
+        } else if (preference == ReadReplicas.Preference.DEFAULT) {
+            if (!routeNonTransactional || TransactionUtil.isTransactionInPlaceSafe()) {
+                return null;
+            }
+        }
+        int size = replicas.size();
+        int start = nextReplica.getAndIncrement() & Integer.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            Replica replica = replicas.get((start + i) % size);
+            if (replica.healthy) {
+                replicaReads.incrementAndGet();
+                replica.reads.incrementAndGet();
+                ReadReplicas.countReplicaRead();
+                return replica;
+            }
+        }
+        primaryFallbacks.incrementAndGet();
+        return null;
+    }
+
+    protected void noteReadFailure(Replica replica, GenericDataSourceException e) {
+        primaryFallbacks.incrementAndGet();
+        replica.markFailed("Read error: " + e.toString());
+        Debug.logWarning("Read from replica [" + replica.datasourceName + "] failed, reading from primary ["
+                + helperInfo.getHelperBaseName() + "]: " + e.toString(), module);
+    }
+
+    @Override
+    public String getHelperName() {
+        return primary.getHelperName();
+    }
+
+    @Override
+    public GenericValue create(GenericValue value) throws GenericEntityException {
+        return primary.create(value);
+    }
+
+    @Override
+    public int createAll(List<GenericValue> values) throws GenericEntityException {
+        return primary.createAll(values);
+    }
+
+    @Override
+    public GenericValue findByPrimaryKey(GenericPK primaryKey) throws GenericEntityException {
+        Replica replica = getReadReplica();
+        if (replica != null) {
+            try {
+                return replica.helper.findByPrimaryKey(primaryKey);
+            } catch (GenericDataSourceException e) {
+                noteReadFailure(replica, e);
+            }
+        }
+        return primary.findByPrimaryKey(primaryKey);
+    }
+
+    @Override
+    public GenericValue findByPrimaryKeyPartial(GenericPK primaryKey, Set<String> keys) throws GenericEntityException {
+        Replica replica = getReadReplica();
+        if (replica != null) {
+            try {
+                return replica.helper.findByPrimaryKeyPartial(primaryKey, keys);
+            } catch (GenericDataSourceException e) {
+                noteReadFailure(replica, e);
+            }
+        }
+        return primary.findByPrimaryKeyPartial(primaryKey, keys);
+    }
+
+    @Override
+    public List<GenericValue> findAllByPrimaryKeys(List<GenericPK> primaryKeys) throws GenericEntityException {
+        Replica replica = getReadReplica();
+        if (replica != null) {
+            try {
+                return replica.helper.findAllByPrimaryKeys(primaryKeys);
+            } catch (GenericDataSourceException e) {
+                noteReadFailure(replica, e);
+            }
+        }
+        return primary.findAllByPrimaryKeys(primaryKeys);
+    }
+
+    @Override
+    public int removeByPrimaryKey(GenericPK primaryKey) throws GenericEntityException {
+        return primary.removeByPrimaryKey(primaryKey);
+    }
+
+    @Override
+    public int removeAllByPrimaryKey(List<GenericPK> primaryKeys) throws GenericEntityException {
+        return primary.removeAllByPrimaryKey(primaryKeys);
+    }
+
+    @Override
+    public List<GenericValue> findByMultiRelation(GenericValue value, ModelRelation modelRelationOne, ModelEntity modelEntityOne,
+            ModelRelation modelRelationTwo, ModelEntity modelEntityTwo, List<String> orderBy) throws GenericEntityException {
+        Replica replica = getReadReplica();
+        if (replica != null) {
+            try {
+                return replica.helper.findByMultiRelation(value, modelRelationOne, modelEntityOne, modelRelationTwo, modelEntityTwo, orderBy);
+            } catch (GenericDataSourceException e) {
+                noteReadFailure(replica, e);
+            }
+        }
+        return primary.findByMultiRelation(value, modelRelationOne, modelEntityOne, modelRelationTwo, modelEntityTwo, orderBy);
+    }
+
+    @Override
+    public EntityListIterator findListIteratorByCondition(Delegator delegator, ModelEntity modelEntity, EntityCondition whereEntityCondition,
+            EntityCondition havingEntityCondition, Collection<String> fieldsToSelect, List<String> orderBy, EntityFindOptions findOptions)
+            throws GenericEntityException {
+        // SCIPIO: locking selects must see and lock the primary rows
+        Replica replica = (findOptions != null && (findOptions.getForUpdate() || findOptions.getSkipLocked())) ? null : getReadReplica();
+        if (replica != null) {
+            try {
+                return replica.helper.findListIteratorByCondition(delegator, modelEntity, whereEntityCondition, havingEntityCondition,
+                        fieldsToSelect, orderBy, findOptions);
+            } catch (GenericDataSourceException e) {
+                noteReadFailure(replica, e);
+            }
+        }
+        return primary.findListIteratorByCondition(delegator, modelEntity, whereEntityCondition, havingEntityCondition, fieldsToSelect, orderBy, findOptions);
+    }
+
+    @Override
+    public long findCountByCondition(Delegator delegator, ModelEntity modelEntity, EntityCondition whereEntityCondition,
+            EntityCondition havingEntityCondition, EntityFindOptions findOptions) throws GenericEntityException {
+        Replica replica = getReadReplica();
+        if (replica != null) {
+            try {
+                return replica.helper.findCountByCondition(delegator, modelEntity, whereEntityCondition, havingEntityCondition, findOptions);
+            } catch (GenericDataSourceException e) {
+                noteReadFailure(replica, e);
+            }
+        }
+        return primary.findCountByCondition(delegator, modelEntity, whereEntityCondition, havingEntityCondition, findOptions);
+    }
+
+    @Override
+    public int removeByCondition(Delegator delegator, ModelEntity modelEntity, EntityCondition condition) throws GenericEntityException {
+        return primary.removeByCondition(delegator, modelEntity, condition);
+    }
+
+    @Override
+    public int storeByCondition(Delegator delegator, ModelEntity modelEntity, Map<String, ? extends Object> fieldsToSet, EntityCondition condition) throws GenericEntityException {
+        return primary.storeByCondition(delegator, modelEntity, fieldsToSet, condition);
+    }
+
+    @Override
+    public int store(GenericValue value) throws GenericEntityException {
+        return primary.store(value);
+    }
+
+    @Override
+    public int storeAll(List<GenericValue> values) throws GenericEntityException {
+        return primary.storeAll(values);
+    }
+
+    @Override
+    public void checkDataSource(Map<String, ModelEntity> modelEntities, List<String> messages, boolean addMissing) throws GenericEntityException {
+        primary.checkDataSource(modelEntities, messages, addMissing);
+    }
+
+    public static class Replica {
+        protected final String datasourceName;
+        protected final int maxLagSeconds;
+        protected final GenericHelperInfo helperInfo;
+        protected final GenericHelper helper;
+        private final String testQuery;
+        private final String lagQuery;
+        private final AtomicLong reads = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private volatile boolean healthy;
+        private volatile long lagSeconds = -1;
+        private volatile String lastError;
+
+        /**
+         * Constructor.
+         * @param datasourceName the replica datasource name
+         * @param maxLagSeconds the max replication lag; 0 to only run the test query in checks
+         * @param testQuery the query run by checks when the lag is not checked
+         * @param lagQuery the query returning the lag in seconds, null if none
+         * @param helperInfo the replica helper info, for checks
+         * @param helper the replica helper
+         * @param healthy the initial state, before the first check
+         */
+        public Replica(String datasourceName, int maxLagSeconds, String testQuery, String lagQuery, GenericHelperInfo helperInfo,
+                GenericHelper helper, boolean healthy) {
+            this.datasourceName = datasourceName;
+            this.maxLagSeconds = maxLagSeconds;
+            this.healthy = healthy;
+            this.helperInfo = helperInfo;
+            this.helper = helper;
+            this.testQuery = testQuery;
+            this.lagQuery = lagQuery;
+        }
+
+        public String getDatasourceName() {
+            return datasourceName;
+        }
+
+        public GenericHelper getHelper() {
+            return helper;
+        }
+
+        public long getReads() {
+            return reads.get();
+        }
+
+        public boolean isHealthy() {
+            return healthy;
+        }
+
+        protected void markFailed(String error) {
+            if (healthy) {
+                Debug.logWarning("Read replica [" + datasourceName + "] disabled: " + error, module);
+            }
+            failures.incrementAndGet();
+            lastError = error;
+            healthy = false;
+        }
+
+        protected void check() throws GenericEntityException, SQLException {
+            long lag = 0;
+            boolean lagRow = true;
+            try (SQLProcessor sqlP = new SQLProcessor(null, helperInfo)) {
+                boolean checkLag = maxLagSeconds > 0 && lagQuery != null;
+                sqlP.prepareStatement(checkLag ? lagQuery : testQuery);
+                ResultSet rs = sqlP.executeQuery();
+                if (checkLag) {
+                    lagRow = rs.next();
+                    lag = lagRow ? readLag(rs) : -1;
+                }
+            }
+            updateLag(lag, lagRow);
+        }
+
+        /**
+         * Updates the state from a lag check result: unhealthy if the lag query returned no row (e.g. SHOW SLAVE STATUS
+         * on a host that is not a replica), a null lag (-1) or a lag over max-lag-seconds.
+         */
+        public void updateLag(long lag, boolean lagRow) {
+            lagSeconds = lag;
+            if (!lagRow) {
+                markFailed("Lag query returned no row; not a replica or replication not configured");
+            } else if (lag < 0) {
+                markFailed("Replication not running");
+            } else if (maxLagSeconds > 0 && lag > maxLagSeconds) {
+                markFailed("Replication lag " + lag + "s exceeds " + maxLagSeconds + "s");
+            } else {
+                if (!healthy) {
+                    Debug.logInfo("Read replica [" + datasourceName + "] enabled (lag " + lag + "s)", module);
+                }
+                lastError = null;
+                healthy = true;
+            }
+        }
+
+        /** Reads the lag in seconds from the Seconds_Behind_Master column if any (MySQL), otherwise the first column; -1 if null. */
+        private static long readLag(ResultSet rs) throws SQLException {
+            ResultSetMetaData metaData = rs.getMetaData();
+            int column = 1;
+            for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                if ("Seconds_Behind_Master".equalsIgnoreCase(metaData.getColumnLabel(i))) {
+                    column = i;
+                    break;
+                }
+            }
+            Object value = rs.getObject(column);
+            if (value == null) {
+                return -1;
+            }
+            return (long) Math.ceil(Double.parseDouble(value.toString()));
+        }
+
+        static String getTestQuery(Datasource datasource) {
+            if (datasource.getInlineJdbc() != null && !datasource.getInlineJdbc().getPoolJdbcTestStmt().isEmpty()) {
+                return datasource.getInlineJdbc().getPoolJdbcTestStmt();
+            }
+            String fieldTypeName = datasource.getFieldTypeName();
+            if ("derby".equals(fieldTypeName)) {
+                return "VALUES 1";
+            } else if ("oracle".equals(fieldTypeName)) {
+                return "SELECT 1 FROM DUAL";
+            }
+            return "SELECT 1";
+        }
+
+        static String getDefaultLagQuery(Datasource datasource) {
+            String fieldTypeName = datasource.getFieldTypeName();
+            if ("postgres".equals(fieldTypeName) || "postnew".equals(fieldTypeName)) {
+                // zero when all received WAL is replayed, so an idle primary doesn't look like lag
+                return "SELECT CASE WHEN pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0"
+                        + " ELSE EXTRACT(EPOCH FROM (now() - pg_last_xact_replay_timestamp())) END";
+            } else if ("mysql".equals(fieldTypeName) || "mariadb".equals(fieldTypeName)) {
+                return "SHOW SLAVE STATUS";
+            }
+            return null;
+        }
+    }
+}
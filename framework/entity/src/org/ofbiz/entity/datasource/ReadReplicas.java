@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.entity.datasource;
+
+/**
+ * SCIPIO: Per-thread routing of entity reads between a datasource and its read replicas
+ * (<code>&lt;read-replica&gt;</code> in entityengine.xml, see {@link ReadReplicaHelper}).
+ * <p>
+ * By default (<code>read-replica-routing="non-transactional"</code>) reads outside a transaction go to a replica and
+ * reads in a transaction go to the primary. A scope can override this for the current thread:
+ * <pre>
+ * try (ReadReplicas.Scope scope = ReadReplicas.preferReplica()) {
+ *     // catalog reads that accept replication lag, even within a transaction
+ * }
+ * try (ReadReplicas.Scope scope = ReadReplicas.primaryOnly()) {
+ *     // reads that must see the latest committed writes
+ * }
+ * </pre>
+ * Scopes nest; closing one restores the previous preference.
+ * <p>
+ * The reads sent to a replica are counted per thread ({@link #getReplicaReadCount()}), so that GenericDelegator can
+ * leave the rows read from a replica out of the entity cache.
+ */
+public final class ReadReplicas {
+
+    public enum Preference {
+        /** Route by the datasource read-replica-routing setting. */
+        DEFAULT,
+        /** Read from a healthy replica if there is one, even within a transaction. */
+        REPLICA,
+        /** Always read from the primary datasource. */
+        PRIMARY
+    }
+
+    private static final ThreadLocal<Preference> preference = new ThreadLocal<>();
+    private static final ThreadLocal<long[]> replicaReadCount = ThreadLocal.withInitial(() -> new long[1]);
+
+    private ReadReplicas() {
+    }
+
+    /** Returns the read routing preference of the current thread. */
+    public static Preference getPreference() {
+        Preference current = preference.get();
+        return (current != null) ? current : Preference.DEFAULT;
+    }
+
+    /**
+     * Returns the number of reads the current thread has sent to a read replica; a change between two calls means
+     * a read in between went to a replica.
+     */
+    public static long getReplicaReadCount() {
+        return replicaReadCount.get()[0];
+    }
+
+    /** Counts a read of the current thread sent to a read replica. */
+    static void countReplicaRead() {
+        replicaReadCount.get()[0]++;
+    }
+
+    /** Sends the reads of the current thread to a read replica until the returned scope is closed. */
+    public static Scope preferReplica() {
+        return new Scope(Preference.REPLICA);
+    }
+
+    /** Sends the reads of the current thread to the primary datasource until the returned scope is closed. */
+    public static Scope primaryOnly() {
+        return new Scope(Preference.PRIMARY);
+    }
+
+    /** A routing preference for the current thread, restored to the previous one on {@link #close()}. */
+    public static final class Scope implements AutoCloseable {
+        private final Preference previous;
+        private boolean closed = false;
+
+        private Scope(Preference newPreference) {
+            this.previous = preference.get();
+            preference.set(newPreference);
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (previous != null) {
+                preference.set(previous);
+            } else {
+                preference.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.entity.datasource;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.ofbiz.entity.model.ModelEntity;
+import org.ofbiz.entity.model.ModelField;
+
+/**
+ * SCIPIO: Cache of the SQL strings {@link GenericDAO} builds for its per-value statements (select, insert, update and
+ * delete by primary key), keyed by operation, {@link ModelEntity} instance and field list.
+ * <p>
+ * These statements only depend on the model and the datasource, as long as no primary key value is null (which
+ * produces <code>IS NULL</code> terms); callers must only use the cache in that case. Returning the same string for
+ * the same statement also lets a prepared statement pool (see <code>pool-max-open-prepared-statements</code> on
+ * <code>inline-jdbc</code>) find its statements.
+ * <p>
+ * ModelField and ModelEntity have identity equality, so a reloaded model gets new entries; the cache is simply cleared
+ * when it grows past {@link #MAX_SIZE}.
+ */
+final class SqlTemplateCache {
+
+    enum Operation {
+        SELECT_PK,
+        PARTIAL_SELECT_PK,
+        INSERT,
+        UPDATE_PK,
+        DELETE_PK
+    }
+
+    static final int MAX_SIZE = 10000;
+
+    private final ConcurrentHashMap<Key, String> templates = new ConcurrentHashMap<>();
+    private volatile boolean enabled;
+
+    SqlTemplateCache(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            templates.clear();
+        }
+    }
+
+    int size() {
+        return templates.size();
+    }
+
+    void clear() {
+        templates.clear();
+    }
+
+    /** Returns the cached SQL, or null if none or disabled. */
+    String get(Operation operation, ModelEntity modelEntity, List<ModelField> fields) {
+        if (!enabled) {
+            return null;
+        }
+        return templates.get(new Key(operation, modelEntity, fields));
+    }
+
+    /** Caches the SQL (copying the field list) and returns it. */
+    String put(Operation operation, ModelEntity modelEntity, List<ModelField> fields, String sql) {
+        if (!enabled) {
+            return sql;
+        }
+        if (templates.size() >= MAX_SIZE) {
+            templates.clear();
+        }
+        List<ModelField> fieldsCopy = (fields != null) ? Collections.unmodifiableList(new ArrayList<>(fields)) : null;
+        templates.put(new Key(operation, modelEntity, fieldsCopy), sql);
+        return sql;
+    }
+
+    private static final class Key {
+        private final Operation operation;
+        private final ModelEntity modelEntity;
+        private final List<ModelField> fields;
+        private final int hashCode;
+
+        Key(Operation operation, ModelEntity modelEntity, List<ModelField> fields) {
+            this.operation = operation;
+            this.modelEntity = modelEntity;
+            this.fields = fields;
+            int hashCode = operation.hashCode();
+            hashCode = 31 * hashCode + System.identityHashCode(modelEntity);
+            hashCode = 31 * hashCode + (fields != null ? fields.hashCode() : 0);
+            this.hashCode = hashCode;
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return operation == other.operation && modelEntity == other.modelEntity && hashCode == other.hashCode
+                    && (fields == null ? other.fields == null : fields.equals(other.fields));
+        }
+    }
+}
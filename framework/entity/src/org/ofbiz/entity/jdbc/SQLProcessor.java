@@ -368,6 +368,10 @@ public class SQLProcessor implements AutoCloseable {
         }
 
         try {
+            // SCIPIO: batch operations prepare several statements on the same processor; don't leak the previous one
+            if (_ps != null && _rs == null) {
+                _ps.close();
+            }
             _sql = sql;
             _ind = 1;
             if (specifyTypeAndConcur) {
@@ -436,6 +440,36 @@ public class SQLProcessor implements AutoCloseable {
         }
     }
 
+    /**
+     * SCIPIO: Adds the currently bound parameters of the prepared statement to its batch
+     * and resets the binding index so the next row can be set.
+     *
+     * @throws GenericDataSourceException
+     */
+    public void addBatch() throws GenericDataSourceException {
+        try {
+            _ps.addBatch();
+            _ind = 1;
+        } catch (SQLException sqle) {
+            throw new GenericDataSourceException("SQL Exception while adding batch for the following:" + _sql, sqle);
+        }
+    }
+
+    /**
+     * SCIPIO: Executes the batch of the prepared statement.
+     *
+     * @return  The update counts, one per batched row; may contain {@link Statement#SUCCESS_NO_INFO}
+     * @throws GenericDataSourceException
+     */
+    public int[] executeBatch() throws GenericDataSourceException {
+        try {
+            return _ps.executeBatch();
+        } catch (SQLException sqle) {
+            this.checkLockWaitInfo(sqle);
+            throw new GenericDataSourceException("SQL Exception while executing batch for the following:" + _sql, sqle);
+        }
+    }
+
     /**
      * Execute update based on the SQL statement given
      *
@@ -855,6 +889,12 @@ public class SQLProcessor implements AutoCloseable {
         // do not set fetch size when using the cursor connection
         if (_connection instanceof CursorConnection) return;
 
+        // SCIPIO: Integer.MIN_VALUE is the MySQL/MariaDB driver convention for row-by-row streaming, pass it through
+        if (fetchSize == Integer.MIN_VALUE) {
+            stmt.setFetchSize(fetchSize);
+            return;
+        }
+
         // check if the statement was called with a specific fetch size, if not grab the default from the datasource
         if (fetchSize < 0) {
             Datasource ds = EntityConfig.getDatasource(this.helperInfo.getHelperBaseName());
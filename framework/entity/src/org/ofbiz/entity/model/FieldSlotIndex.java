@@ -0,0 +1,63 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.entity.model;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * SCIPIO: Maps the field names of an entity to array slots (0 to size-1, in field definition order), shared by all
+ * values of the entity so each value can store its fields in a plain array.
+ * <p>
+ * Immutable; a new index is made whenever the fields of the entity change (see {@link ModelEntity#getFieldSlotIndex()}).
+ */
+@SuppressWarnings("serial")
+public final class FieldSlotIndex implements Serializable {
+
+    private final String[] names;
+    private final Map<String, Integer> slots;
+
+    FieldSlotIndex(List<ModelField> fields) {
+        this.names = new String[fields.size()];
+        this.slots = new HashMap<>((int) (fields.size() / 0.75f) + 1);
+        for (int i = 0; i < names.length; i++) {
+            String name = fields.get(i).getName();
+            names[i] = name;
+            slots.put(name, i);
+        }
+    }
+
+    /** Returns the number of slots. */
+    public int size() {
+        return names.length;
+    }
+
+    /** Returns the slot of the field, or -1 if the entity has no such field. */
+    public int getSlot(Object fieldName) {
+        Integer slot = slots.get(fieldName);
+        return (slot != null) ? slot : -1;
+    }
+
+    /** Returns the field name of the slot. */
+    public String getName(int slot) {
+        return names[slot];
+    }
+}
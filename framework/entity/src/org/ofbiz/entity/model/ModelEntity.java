@@ -133,6 +133,9 @@ public class ModelEntity implements Comparable<ModelEntity>, Serializable {
         /** A List of the Field objects for the Entity, one for each NON Primary Key */
         private final ArrayList<ModelField> nopks;
 
+        /** SCIPIO: The field slots for the compact field storage of values */
+        private final FieldSlotIndex slotIndex;
+
         protected Fields(ArrayList<ModelField> fieldsList, Map<String, ModelField> fieldsMap, ArrayList<String> pkFieldNames,
                 ArrayList<ModelField> pks, ArrayList<ModelField> nopks) {
             this.fieldsList = fieldsList;
@@ -140,6 +143,7 @@ public class ModelEntity implements Comparable<ModelEntity>, Serializable {
             this.pkFieldNames = pkFieldNames;
             this.pks = pks;
             this.nopks = nopks;
+            this.slotIndex = new FieldSlotIndex(fieldsList);
         }
 
         /**
@@ -162,6 +166,7 @@ public class ModelEntity implements Comparable<ModelEntity>, Serializable {
             pks = new ArrayList<>();
             pkFieldNames = new ArrayList<>();
             nopks = new ArrayList<>();
+            slotIndex = new FieldSlotIndex(fieldsList);
         }
     }
 
@@ -216,6 +221,9 @@ public class ModelEntity implements Comparable<ModelEntity>, Serializable {
 
     protected boolean neverCheck = false;
 
+    /** SCIPIO: An indicator that writes of this entity may be queued and written in the background, see EntityWriteBehind */
+    protected boolean writeBehind = false;
+
     protected boolean autoClearCache = true;
 
     /** The location of this entity's definition */
@@ -373,6 +381,7 @@ public class ModelEntity implements Comparable<ModelEntity>, Serializable {
         this.noAutoStamp = UtilXml.checkBoolean(entityElement.getAttribute("no-auto-stamp"), false);
         this.neverCache = UtilXml.checkBoolean(entityElement.getAttribute("never-cache"), false);
         this.neverCheck = UtilXml.checkBoolean(entityElement.getAttribute("never-check"), false);
+        this.writeBehind = UtilXml.checkBoolean(entityElement.getAttribute("write-behind"), false); // SCIPIO
         this.autoClearCache = UtilXml.checkBoolean(entityElement.getAttribute("auto-clear-cache"), true);
 
         String sequenceBankSizeStr = UtilXml.checkEmpty(entityElement.getAttribute("sequence-bank-size"));
@@ -462,6 +471,10 @@ public class ModelEntity implements Comparable<ModelEntity>, Serializable {
             this.neverCache = UtilXml.checkBoolean(extendEntityElement.getAttribute("never-cache"), false);
         }
 
+        if (extendEntityElement.hasAttribute("write-behind")) { // SCIPIO
+            this.writeBehind = UtilXml.checkBoolean(extendEntityElement.getAttribute("write-behind"), false);
+        }
+
         if (extendEntityElement.hasAttribute("sequence-bank-size")) {
             String sequenceBankSizeStr = UtilXml.checkEmpty(extendEntityElement.getAttribute("sequence-bank-size"));
             if (UtilValidate.isNotEmpty(sequenceBankSizeStr)) {
@@ -610,6 +623,20 @@ public class ModelEntity implements Comparable<ModelEntity>, Serializable {
         this.neverCache = neverCache;
     }
 
+    /** SCIPIO: Returns the field name to slot index used by values of this entity to store their fields in an array;
+     * a new instance whenever the fields change.
+     */
+    public FieldSlotIndex getFieldSlotIndex() {
+        return this.fields.slotIndex;
+    }
+
+    /** SCIPIO: An indicator that writes of this entity may be queued and written in the background
+     * by {@link org.ofbiz.entity.util.EntityWriteBehind} (non-critical data such as visits and hits).
+     */
+    public boolean getWriteBehind() {
+        return this.writeBehind;
+    }
+
     /**
      * An indicator to specific if this entity should ignore automatic DB checks.
      * This should be set when the entity is mapped to a database view to prevent
@@ -718,7 +745,9 @@ public class ModelEntity implements Comparable<ModelEntity>, Serializable {
     }
 
     public List<ModelField> getPkFieldsUnmodifiable() {
-        return Collections.unmodifiableList(getPkFields());
+        // SCIPIO: Extra ArrayList copy is useless, the fields member is copy-on-write
+        //return Collections.unmodifiableList(getPkFields());
+        return Collections.unmodifiableList(this.fields.pks);
     }
 
     public String getFirstPkFieldName() {
@@ -746,6 +775,11 @@ public class ModelEntity implements Comparable<ModelEntity>, Serializable {
         //}
     }
 
+    /** SCIPIO: Returns an unmodifiable view of the non-pk fields (no copy). */
+    public List<ModelField> getNopksUnmodifiable() {
+        return Collections.unmodifiableList(this.fields.nopks);
+    }
+
     public int getFieldsSize() {
         //synchronized (fieldsLock) { // SCIPIO: 2018-09-29: Removed detrimental sync block for getters
         return this.fields.fieldsList.size(); // SCIPIO: 2018-09-29: fields member
@@ -1702,6 +1736,10 @@ public class ModelEntity implements Comparable<ModelEntity>, Serializable {
             root.setAttribute("never-check", "true");
         }
 
+        if (this.getWriteBehind()) {
+            root.setAttribute("write-behind", "true");
+        }
+
         if (!this.getAutoClearCache()) {
             root.setAttribute("auto-clear-cache", "false");
         }
@@ -18,20 +18,26 @@
  *******************************************************************************/
 package org.ofbiz.entity.test;
 
+import java.io.File;
+import java.lang.management.ManagementFactory;
 import java.math.BigDecimal;
 import java.sql.Blob;
 import java.sql.Date;
 import java.sql.Time;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.sql.rowset.serial.SerialBlob;
@@ -43,16 +49,20 @@ import org.ofbiz.base.util.Observer;
 import org.ofbiz.base.util.UtilDateTime;
 import org.ofbiz.base.util.UtilMisc;
 import org.ofbiz.base.util.UtilXml;
+import org.ofbiz.base.util.collections.KeysetPagedList;
+import org.ofbiz.base.util.cache.UtilCache;
 import org.ofbiz.entity.Delegator;
 import org.ofbiz.entity.DelegatorFactory;
 import org.ofbiz.entity.GenericEntity;
 import org.ofbiz.entity.GenericEntityException;
 import org.ofbiz.entity.GenericPK;
 import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.cache.EntityListCache;
 import org.ofbiz.entity.condition.EntityCondition;
 import org.ofbiz.entity.condition.EntityOperator;
 import org.ofbiz.entity.config.model.Datasource;
 import org.ofbiz.entity.config.model.EntityConfig;
+import org.ofbiz.entity.datasource.GenericDAO;
 import org.ofbiz.entity.model.ModelEntity;
 import org.ofbiz.entity.model.ModelField;
 import org.ofbiz.entity.testtools.EntityTestCase;
@@ -61,8 +71,12 @@ import org.ofbiz.entity.transaction.TransactionUtil;
 import org.ofbiz.entity.util.EntityListIterator;
 import org.ofbiz.entity.util.EntityQuery;
 import org.ofbiz.entity.util.EntitySaxReader;
+import org.ofbiz.entity.util.EntityWriteBehind;
+import org.ofbiz.entity.util.EntityXmlExporter;
 import org.ofbiz.entity.util.SequenceUtil;
 
+import com.sun.management.ThreadMXBean;
+
 public class EntityTestSuite extends EntityTestCase {
 
     private static final Debug.OfbizLogger module = Debug.getOfbizLogger(java.lang.invoke.MethodHandles.lookup().lookupClass());
@@ -307,6 +321,42 @@ public class EntityTestSuite extends EntityTestCase {
         assertEquals("View retrieved from cache has the correct member description", "New Testing Subtype #Cache-3", testValue.getString("subtypeDescription"));
     }
 
+    /*
+     * Tests finding values by a number of primary keys at once, with cache hits, misses and a key with no value
+     */
+    public void testFindAllByPrimaryKeys() throws Exception {
+        delegator.removeByCondition("TestingType", EntityCondition.makeCondition("testingTypeId", EntityOperator.LIKE, "TEST-PKS-%"));
+        try {
+            List<GenericPK> primaryKeys = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                GenericValue testingType = delegator.create("TestingType", "testingTypeId", "TEST-PKS-" + i, "description", "Testing Type #PKS-" + i);
+                primaryKeys.add(testingType.getPrimaryKey());
+                delegator.clearCacheLine(testingType.getPrimaryKey());
+            }
+            // a few values already cached
+            for (int i = 0; i < 5; i++) {
+                delegator.findOne("TestingType", true, "testingTypeId", "TEST-PKS-" + i);
+            }
+            GenericPK missingKey = delegator.makePK("TestingType", UtilMisc.toMap("testingTypeId", "TEST-PKS-MISSING"));
+            primaryKeys.add(10, missingKey);
+            Map<GenericPK, GenericValue> values = delegator.findAllByPrimaryKeys(primaryKeys, true);
+            assertEquals("All existing values found", 20, values.size());
+            assertFalse("No value for the missing key", values.containsKey(missingKey));
+            int i = 0;
+            for (Map.Entry<GenericPK, GenericValue> entry : values.entrySet()) {
+                assertEquals("Values in key order", "TEST-PKS-" + i, entry.getKey().getString("testingTypeId"));
+                assertEquals("Value has the correct description", "Testing Type #PKS-" + i, entry.getValue().getString("description"));
+                assertNotNull("Value is in the primary key cache", delegator.getFromPrimaryKeyCache(entry.getKey()));
+                i++;
+            }
+            Map<Object, GenericValue> valuesById = EntityQuery.use(delegator).from("TestingType").cache(true)
+                    .queryAllByPrimaryKeyValues(UtilMisc.toList("TEST-PKS-3", "TEST-PKS-MISSING", "TEST-PKS-17"));
+            assertEquals("Values found by primary key field value", UtilMisc.toList("TEST-PKS-3", "TEST-PKS-17"), new ArrayList<>(valuesById.keySet()));
+        } finally {
+            delegator.removeByCondition("TestingType", EntityCondition.makeCondition("testingTypeId", EntityOperator.LIKE, "TEST-PKS-%"));
+        }
+    }
+
     /*
      * Tests XML serialization by serializing/deserializing a GenericValue
      */
@@ -734,6 +784,202 @@ public class EntityTestSuite extends EntityTestCase {
         }
     }
 
+    /*
+     * SCIPIO: Compares findOne without the entity cache with the GenericDAO SQL template cache disabled and enabled,
+     * logging time and (on HotSpot) allocated bytes per call; stands in for a micro-benchmark.
+     */
+    public void testFindOneSqlTemplateCache() throws Exception {
+        GenericDAO dao = GenericDAO.getGenericDAO(delegator.getGroupHelperInfo(delegator.getEntityGroupName("TestingType")));
+        boolean wasEnabled = dao.isSqlTemplateCacheEnabled();
+        delegator.removeByAnd("TestingType", "testingTypeId", "TEST-SQL-TEMPLATE");
+        delegator.create("TestingType", "testingTypeId", "TEST-SQL-TEMPLATE", "description", "sql template");
+        try {
+            int iterations = (int) TEST_COUNT;
+            dao.setSqlTemplateCacheEnabled(false);
+            runFindOneBenchmark("without SQL template cache", iterations);
+            assertEquals("No SQL templates cached when disabled", 0, dao.getSqlTemplateCacheSize());
+            dao.setSqlTemplateCacheEnabled(true);
+            runFindOneBenchmark("with SQL template cache", iterations);
+            assertTrue("SQL template cached for findOne", dao.getSqlTemplateCacheSize() > 0);
+        } finally {
+            dao.setSqlTemplateCacheEnabled(wasEnabled);
+            delegator.removeByAnd("TestingType", "testingTypeId", "TEST-SQL-TEMPLATE");
+        }
+    }
+
+    private void runFindOneBenchmark(String label, int iterations) throws GenericEntityException {
+        java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        com.sun.management.ThreadMXBean allocBean = (threadBean instanceof com.sun.management.ThreadMXBean) ? (com.sun.management.ThreadMXBean) threadBean : null;
+        long threadId = Thread.currentThread().getId();
+        for (int i = 0; i < iterations / 10; i++) { // warm-up
+            delegator.findOne("TestingType", false, "testingTypeId", "TEST-SQL-TEMPLATE");
+        }
+        long startBytes = (allocBean != null) ? allocBean.getThreadAllocatedBytes(threadId) : 0;
+        long startTime = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            GenericValue value = delegator.findOne("TestingType", false, "testingTypeId", "TEST-SQL-TEMPLATE");
+            assertEquals("findOne description", "sql template", value.getString("description"));
+        }
+        long elapsed = System.nanoTime() - startTime;
+        String bytesMsg = (allocBean != null) ? ", " + ((allocBean.getThreadAllocatedBytes(threadId) - startBytes) / iterations) + " bytes/op" : "";
+        Debug.logInfo("findOne " + label + ": " + (elapsed / iterations) + " ns/op" + bytesMsg, module);
+    }
+
+    /*
+     * SCIPIO: Tests the Map contract of the compact field storage of values and logs its memory footprint next to
+     * the HashMap per value it replaces; the footprint depends on the JVM, so it is not asserted.
+     */
+    public void testCompactFieldStorage() throws Exception {
+        GenericValue value = delegator.makeValue("Testing", "testingId", "COMPACT-1", "testingTypeId", "COMPACT", "description", "compact");
+        value.set("comments", null);
+        assertTrue("Field set to null is present", value.containsKey("comments"));
+        assertFalse("Field never set is absent", value.containsKey("testingName"));
+        assertEquals("Field count", 4, value.size());
+        Map<String, Object> hashCopy = new HashMap<>(value);
+        assertEquals("Compact fields equal a HashMap of the same fields", hashCopy, value.getAllFields());
+        assertEquals("Compact fields hash like a HashMap of the same fields", hashCopy.hashCode(), value.getAllFields().hashCode());
+        GenericValue copy = GenericValue.create(value);
+        assertEquals("Copied value equals original", value, copy);
+        assertEquals("Copied value hashes like original", value.hashCode(), copy.hashCode());
+        copy.remove("comments");
+        assertFalse("Removed field is absent", copy.containsKey("comments"));
+        assertTrue("Original not affected by copy", value.containsKey("comments"));
+        copy.setImmutable();
+        try {
+            copy.remove("description");
+            fail("Immutable value fields modified");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+
+        // footprint: values of typical entities with all fields set, as when read from the database
+        List<GenericValue> templates = new ArrayList<>();
+        for (String entityName : UtilMisc.toList("Testing", "TestingType", "TestingNode", "TestFieldType")) {
+            GenericValue template = delegator.makeValue(entityName);
+            for (ModelField field : template.getModelEntity().getFieldsUnmodifiable()) {
+                template.set(field.getName(), null);
+            }
+            templates.add(template);
+        }
+        int count = 10000;
+        ThreadMXBean allocBean = ManagementFactory.getPlatformMXBean(ThreadMXBean.class);
+        if (allocBean == null || !allocBean.isThreadAllocatedMemorySupported()) {
+            return;
+        }
+        long threadId = Thread.currentThread().getId();
+        for (GenericValue template : templates) {
+            List<Object> retained = new ArrayList<>(count);
+            long startBytes = allocBean.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < count; i++) {
+                retained.add(GenericValue.create(template));
+            }
+            long valueBytes = (allocBean.getThreadAllocatedBytes(threadId) - startBytes) / count;
+            retained.clear();
+            startBytes = allocBean.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < count; i++) {
+                retained.add(new HashMap<>(template));
+            }
+            long hashMapBytes = (allocBean.getThreadAllocatedBytes(threadId) - startBytes) / count;
+            Debug.logInfo("Value of " + template.getEntityName() + " (" + template.size() + " fields): " + valueBytes
+                    + " bytes/value with compact fields, including the value object; the HashMap that held its fields alone: "
+                    + hashMapBytes + " bytes", module);
+        }
+    }
+
+    /*
+     * This test will store a mix of new and existing values at once, exercising the batched insert and update paths of storeAll
+     */
+    public void testStoreAllMixedCreateAndUpdate() throws Exception {
+        try {
+            List<GenericValue> newValues = new ArrayList<>();
+            for (int i = 0; i < TEST_COUNT / 2; i++) {
+                newValues.add(delegator.makeValue("Testing", "testingId", getTestId("T5-", i), "description", "created"));
+            }
+            delegator.createAll(newValues);
+
+            List<GenericValue> mixedValues = new ArrayList<>();
+            for (int i = 0; i < TEST_COUNT; i++) {
+                // the first half exists: every other one gets a changed description, the rest are unchanged
+                String description = (i < TEST_COUNT / 2 && i % 2 == 1) ? "created" : "stored";
+                mixedValues.add(delegator.makeValue("Testing", "testingId", getTestId("T5-", i), "description", description));
+            }
+            int numberChanged = delegator.storeAll(mixedValues);
+            assertEquals("storeAll changed rows", TEST_COUNT - TEST_COUNT / 4, numberChanged);
+
+            long storedCount = EntityQuery.use(delegator).from("Testing")
+                    .where(EntityCondition.makeCondition("testingId", EntityOperator.LIKE, "T5-%"), EntityCondition.makeCondition("description", "stored"))
+                    .queryCount();
+            assertEquals("Values with the stored description", TEST_COUNT - TEST_COUNT / 4, storedCount);
+        } finally {
+            List<GenericValue> createdValues = EntityQuery.use(delegator)
+                                                          .from("Testing")
+                                                          .where(EntityCondition.makeCondition("testingId", EntityOperator.LIKE, "T5-%"))
+                                                          .queryList();
+            delegator.removeAll(createdValues);
+        }
+        assertEquals("No more T5 Testing values", 0, EntityQuery.use(delegator).from("Testing")
+                .where(EntityCondition.makeCondition("testingId", EntityOperator.LIKE, "T5-%")).queryCount());
+    }
+
+    /*
+     * Tests that the indexed entity condition cache invalidation removes the same conditions as the full scan, and logs their times
+     */
+    public void testConditionCacheIndexedInvalidation() throws Exception {
+        EntityListCache listCache = new EntityListCache(delegator.getDelegatorName());
+        int numberOfConditions = (int) TEST_COUNT * 10;
+        int numberOfStores = (int) TEST_COUNT;
+        try {
+            listCache.setIndexEnabled(false);
+            fillConditionCache(listCache, numberOfConditions);
+            long startTime = System.currentTimeMillis();
+            storeConditionCacheValues(listCache, numberOfConditions, numberOfStores);
+            long totalTimeScan = System.currentTimeMillis() - startTime;
+            Set<EntityCondition> scanRemainingKeys = new HashSet<>(UtilCache.<EntityCondition, Object>findCache(listCache.getCacheName("Testing")).getCacheLineKeys());
+
+            listCache.setIndexEnabled(true);
+            fillConditionCache(listCache, numberOfConditions);
+            startTime = System.currentTimeMillis();
+            storeConditionCacheValues(listCache, numberOfConditions, numberOfStores);
+            long totalTimeIndexed = System.currentTimeMillis() - startTime;
+            Set<EntityCondition> indexedRemainingKeys = new HashSet<>(UtilCache.<EntityCondition, Object>findCache(listCache.getCacheName("Testing")).getCacheLineKeys());
+
+            Debug.logInfo("Invalidated " + numberOfConditions + " cached conditions for " + numberOfStores + " stores in " + totalTimeScan
+                    + " ms (scan) and " + totalTimeIndexed + " ms (indexed)", module);
+            assertEquals("Indexed invalidation left the same conditions as the scan", scanRemainingKeys, indexedRemainingKeys);
+            assertEquals("Conditions left after invalidation", numberOfConditions + 1 - numberOfStores, indexedRemainingKeys.size());
+        } finally {
+            listCache.remove("Testing");
+        }
+    }
+
+    private void fillConditionCache(EntityListCache listCache, int numberOfConditions) {
+        listCache.remove("Testing");
+        List<GenericValue> emptyList = new ArrayList<>();
+        for (int i = 0; i < numberOfConditions; i++) {
+            EntityCondition condition;
+            if (i % 3 == 0) {
+                condition = EntityCondition.makeCondition("testingTypeId", getTestId("T6-TYPE-", i));
+            } else if (i % 3 == 1) {
+                condition = EntityCondition.makeCondition(EntityCondition.makeCondition("testingTypeId", getTestId("T6-TYPE-", i)),
+                        EntityCondition.makeCondition("testingSize", EntityOperator.GREATER_THAN, 10L));
+            } else {
+                condition = EntityCondition.makeCondition("testingTypeId", EntityOperator.IN, UtilMisc.toList(getTestId("T6-TYPE-", i), "T6-NONE"));
+            }
+            listCache.put("Testing", condition, null, emptyList);
+        }
+        // not indexable, always tested
+        listCache.put("Testing", EntityCondition.makeCondition("testingTypeId", EntityOperator.LIKE, "T6-NONE-%"), null, emptyList);
+    }
+
+    private void storeConditionCacheValues(EntityListCache listCache, int numberOfConditions, int numberOfStores) {
+        for (int i = 0; i < numberOfStores; i++) {
+            String testingTypeId = getTestId("T6-TYPE-", (i * 7) % numberOfConditions);
+            GenericValue oldValue = delegator.makeValue("Testing", "testingId", getTestId("T6-", i), "testingTypeId", testingTypeId, "testingSize", 20L);
+            GenericValue newValue = delegator.makeValue("Testing", "testingId", getTestId("T6-", i), "testingTypeId", testingTypeId, "testingSize", 30L);
+            listCache.storeHook(oldValue, newValue);
+        }
+    }
+
     /*
      * This test will use the large number of unique items from above and test the EntityListIterator looping through the list
      */
@@ -785,6 +1031,87 @@ public class EntityTestSuite extends EntityTestCase {
         }
     }
 
+    /*
+     * SCIPIO: Tests keyset pagination over rows with duplicate order-by values, which must be tie-broken by the
+     * primary key so that the pages have no duplicates or gaps.
+     */
+    public void testKeysetPagedList() throws Exception {
+        delegator.removeByCondition("Testing", EntityCondition.makeCondition("testingId", EntityOperator.LIKE, "T7-%"));
+        try {
+            List<GenericValue> newValues = new LinkedList<>();
+            for (int i = 0; i < TEST_COUNT; i++) {
+                newValues.add(delegator.makeValue("Testing", "testingId", getTestId("T7-", i), "testingSize", (long) (i % 10)));
+            }
+            delegator.storeAll(newValues);
+            EntityCondition condition = EntityCondition.makeCondition("testingId", EntityOperator.LIKE, "T7-%");
+            List<String> expectedIds = EntityQuery.use(delegator).from("Testing").where(condition)
+                    .orderBy("-testingSize", "testingId").getFieldList("testingId");
+
+            int viewSize = 7;
+            List<String> pagedIds = new ArrayList<>();
+            Set<String> seenIds = new HashSet<>();
+            String cursor = null;
+            int pages = 0;
+            do {
+                KeysetPagedList<GenericValue> page = EntityQuery.use(delegator).from("Testing").where(condition)
+                        .orderBy("-testingSize").queryKeysetPagedList(cursor, viewSize, pages == 0);
+                if (pages == 0) {
+                    assertEquals("Keyset first page counts the full list", TEST_COUNT, page.getSize());
+                }
+                assertEquals("Keyset page start index", pagedIds.size() + 1, page.getStartIndex());
+                assertEquals("Keyset page view index", pages, page.getViewIndex());
+                assertTrue("Keyset page is not larger than the view size", page.getData().size() <= viewSize);
+                for (GenericValue value : page.getData()) {
+                    assertTrue("Keyset pages contain no duplicates: " + value.getString("testingId"), seenIds.add(value.getString("testingId")));
+                    pagedIds.add(value.getString("testingId"));
+                }
+                cursor = page.getNextCursor();
+                pages++;
+            } while (cursor != null);
+            assertEquals("Keyset pages return all rows in order", expectedIds, pagedIds);
+            assertEquals("Keyset page count", (TEST_COUNT + viewSize - 1) / viewSize, pages);
+
+            try {
+                EntityQuery.use(delegator).from("Testing").where(condition).orderBy("testingSize").queryKeysetPagedList("bogus", viewSize);
+                fail("Keyset pagination accepted an invalid cursor");
+            } catch (GenericEntityException e) {
+                // expected
+            }
+        } finally {
+            delegator.removeByCondition("Testing", EntityCondition.makeCondition("testingId", EntityOperator.LIKE, "T7-%"));
+        }
+    }
+
+    /*
+     * SCIPIO: Tests that queued write-behind creates and stores are all written, in order, by a flush.
+     */
+    public void testEntityWriteBehind() throws Exception {
+        delegator.removeAll("TestingWriteBehind");
+        try {
+            assertTrue("TestingWriteBehind is write-behind", EntityWriteBehind.isWriteBehind(delegator.makeValue("TestingWriteBehind")));
+            assertFalse("Testing is not write-behind", EntityWriteBehind.isWriteBehind(delegator.makeValue("Testing")));
+            int count = 100;
+            for (int i = 0; i < count; i++) {
+                EntityWriteBehind.create(delegator.makeValue("TestingWriteBehind", "testingWriteBehindId", getTestId("WB-", i), "description", "created"));
+            }
+            // a store right after the create of the same row must win
+            GenericValue updated = delegator.makeValue("TestingWriteBehind", "testingWriteBehindId", getTestId("WB-", 0), "description", "created");
+            updated.set("description", "updated");
+            EntityWriteBehind.store(updated);
+            // until written, a queued row is visible through getQueued
+            GenericPK pk = delegator.makePK("TestingWriteBehind", "testingWriteBehindId", getTestId("WB-", 0));
+            GenericValue queued = EntityWriteBehind.getQueued(pk);
+            GenericValue visible = (queued != null) ? queued : EntityQuery.use(delegator).from("TestingWriteBehind").where(pk).queryOne();
+            assertNotNull("Write-behind row visible in the queue or the database", visible);
+            assertTrue("Write-behind queue flushed", EntityWriteBehind.flush(30, TimeUnit.SECONDS));
+            assertEquals("All write-behind creates written", count, EntityQuery.use(delegator).from("TestingWriteBehind").queryCount());
+            GenericValue value = EntityQuery.use(delegator).from("TestingWriteBehind").where("testingWriteBehindId", getTestId("WB-", 0)).queryOne();
+            assertEquals("Write-behind store after create written", "updated", value.getString("description"));
+        } finally {
+            delegator.removeAll("TestingWriteBehind");
+        }
+    }
+
     /*
      * This test will verify transaction rollbacks using TransactionUtil.
      */
@@ -1037,6 +1364,34 @@ public class EntityTestSuite extends EntityTestCase {
         }
     }*/
 
+    /*
+     * SCIPIO: Tests a gzipped streaming export with EntityXmlExporter and its re-import with EntitySaxReader
+     */
+    public void testEntityXmlExportImportGzip() throws Exception {
+        EntityCondition cond = EntityCondition.makeCondition("testingTypeId", EntityOperator.LIKE, "TEST-XML-EXPORT-%");
+        delegator.removeByCondition("TestingType", cond);
+        List<GenericValue> newValues = new LinkedList<GenericValue>();
+        for (int i = 0; i < TEST_COUNT; i++) {
+            newValues.add(delegator.makeValue("TestingType", "testingTypeId", getTestId("TEST-XML-EXPORT-", i), "description", "export <&> " + i));
+        }
+        delegator.storeAll(newValues);
+
+        File file = File.createTempFile("EntityXmlExporter", ".xml.gz");
+        try {
+            EntityXmlExporter exporter = new EntityXmlExporter(delegator);
+            assertEquals("Values exported", TEST_COUNT, exporter.exportEntity("TestingType", cond, file));
+            delegator.removeByCondition("TestingType", cond);
+            long numberLoaded = new EntitySaxReader(delegator).parse(file.toURI().toURL());
+            assertEquals("Values imported", TEST_COUNT, numberLoaded);
+            GenericValue value = EntityQuery.use(delegator).from("TestingType").where("testingTypeId", getTestId("TEST-XML-EXPORT-", 0)).queryOne();
+            assertNotNull("Imported value", value);
+            assertEquals("Imported description", "export <&> 0", value.getString("description"));
+        } finally {
+            file.delete();
+            delegator.removeByCondition("TestingType", cond);
+        }
+    }
+
     /*
      * Tests EntitySaxReader, verification loading data with tag create, create-update, create-replace, delete
      */
@@ -1187,6 +1542,25 @@ public class EntityTestSuite extends EntityTestCase {
         assertEquals(10020, seqId.longValue());
     }
 
+    public void testSequenceValueItemAdaptiveBankSize() {
+        SequenceUtil sequencer = new SequenceUtil(delegator.getGroupHelperInfo(delegator.getEntityGroupName("SequenceValueItem")),
+                                                  delegator.getModelEntity("SequenceValueItem"),
+                                                  "seqName", "seqId");
+        UUID id = UUID.randomUUID();
+        String sequenceName = "BogusSequence" + id.toString();
+        long lastSeqId = 0;
+        for (int i = 0; i < TEST_COUNT; i++) {
+            Long seqId = sequencer.getNextSeqId(sequenceName, 1, null);
+            assertNotNull("Null sequence id returned", seqId);
+            assertTrue("Sequence ids are increasing", seqId.longValue() > lastSeqId);
+            lastSeqId = seqId.longValue();
+        }
+        Map<String, Object> bankStats = sequencer.getBankStats().get(sequenceName);
+        Debug.logInfo("testSequenceValueItemAdaptiveBankSize bank stats: " + bankStats, module);
+        assertTrue("Bank size grew for a quickly used sequence", ((Long) bankStats.get("bankSize")) > 10);
+        assertTrue("Fewer banks fetched than with the default bank size", ((Long) bankStats.get("fetchCount")) < TEST_COUNT / 10);
+    }
+
     public void testSequenceValueItemWithConcurrentThreads() {
         final SequenceUtil sequencer = new SequenceUtil(delegator.getGroupHelperInfo(delegator.getEntityGroupName("SequenceValueItem")),
                                                   delegator.getModelEntity("SequenceValueItem"),
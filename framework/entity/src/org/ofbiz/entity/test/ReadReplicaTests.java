@@ -0,0 +1,203 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.entity.test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.transaction.Transaction;
+
+import org.ofbiz.entity.GenericDataSourceException;
+import org.ofbiz.entity.GenericEntityException;
+import org.ofbiz.entity.GenericPK;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.datasource.GenericHelper;
+import org.ofbiz.entity.datasource.GenericHelperFactory;
+import org.ofbiz.entity.datasource.GenericHelperInfo;
+import org.ofbiz.entity.datasource.ReadReplicaHelper;
+import org.ofbiz.entity.datasource.ReadReplicas;
+import org.ofbiz.entity.testtools.EntityTestCase;
+import org.ofbiz.entity.transaction.TransactionUtil;
+import org.ofbiz.entity.util.EntityQuery;
+
+/**
+ * SCIPIO: Tests of {@link ReadReplicaHelper} read routing, using a replica that reads the primary tables but returns
+ * TestingType records with a "stale" description, as a lagging replica would.
+ */
+public class ReadReplicaTests extends EntityTestCase {
+
+    private static final String PRIMARY_DESCRIPTION = "Primary record";
+    private static final String STALE_DESCRIPTION = "Stale replica record";
+
+    private GenericHelperInfo helperInfo;
+    private GenericHelper primaryHelper;
+
+    public ReadReplicaTests(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        helperInfo = delegator.getGroupHelperInfo(delegator.getEntityGroupName("TestingType"));
+        primaryHelper = GenericHelperFactory.getHelper(helperInfo);
+        delegator.createOrStore(delegator.makeValue("TestingType", "testingTypeId", "replica-1", "description", PRIMARY_DESCRIPTION));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        delegator.removeByAnd("TestingType", "testingTypeId", "replica-1");
+    }
+
+    /*
+     * Reads outside a transaction go to the replica, reads within a transaction or a primaryOnly scope to the primary,
+     * and reads in a preferReplica scope to the replica even within a transaction.
+     */
+    public void testReadRouting() throws Exception {
+        AtomicInteger replicaReads = new AtomicInteger();
+        ReadReplicaHelper helper = makeHelper(true, makeReplicaHelper(replicaReads, false));
+        GenericPK primaryKey = delegator.makePK("TestingType", "testingTypeId", "replica-1");
+
+        Transaction parentTx = TransactionUtil.suspend();
+        try {
+            long threadReplicaReads = ReadReplicas.getReplicaReadCount();
+            assertEquals("Read outside a transaction goes to the replica", STALE_DESCRIPTION, helper.findByPrimaryKey(primaryKey).getString("description"));
+            assertEquals("Thread replica read count", threadReplicaReads + 1, ReadReplicas.getReplicaReadCount());
+            try (ReadReplicas.Scope scope = ReadReplicas.primaryOnly()) {
+                assertEquals("Read in a primaryOnly scope goes to the primary", PRIMARY_DESCRIPTION, helper.findByPrimaryKey(primaryKey).getString("description"));
+            }
+            assertEquals("Thread replica read count", threadReplicaReads + 1, ReadReplicas.getReplicaReadCount());
+            boolean beganTransaction = TransactionUtil.begin();
+            try {
+                assertEquals("Read within a transaction goes to the primary", PRIMARY_DESCRIPTION, helper.findByPrimaryKey(primaryKey).getString("description"));
+                try (ReadReplicas.Scope scope = ReadReplicas.preferReplica()) {
+                    assertEquals("Read in a preferReplica scope goes to the replica", STALE_DESCRIPTION, helper.findByPrimaryKey(primaryKey).getString("description"));
+                }
+            } finally {
+                TransactionUtil.commit(beganTransaction);
+            }
+            assertEquals("Replica reads", 2, replicaReads.get());
+
+            ReadReplicaHelper explicitHelper = makeHelper(false, makeReplicaHelper(replicaReads, false));
+            assertEquals("Read outside a transaction goes to the primary with explicit routing", PRIMARY_DESCRIPTION,
+                    explicitHelper.findByPrimaryKey(primaryKey).getString("description"));
+            assertEquals("Replica reads", 2, replicaReads.get());
+        } finally {
+            TransactionUtil.resume(parentTx);
+        }
+    }
+
+    /*
+     * A read failing on the replica is answered by the primary, and the replica is skipped until it is checked again.
+     */
+    public void testReplicaFailureFallback() throws Exception {
+        AtomicInteger replicaReads = new AtomicInteger();
+        ReadReplicaHelper helper = makeHelper(true, makeReplicaHelper(replicaReads, true));
+        GenericPK primaryKey = delegator.makePK("TestingType", "testingTypeId", "replica-1");
+
+        try (ReadReplicas.Scope scope = ReadReplicas.preferReplica()) {
+            assertEquals("Failed replica read is read from the primary", PRIMARY_DESCRIPTION, helper.findByPrimaryKey(primaryKey).getString("description"));
+            assertFalse("Failed replica is disabled", helper.getReplicas().get(0).isHealthy());
+            assertEquals("Failed replica read", 1, replicaReads.get());
+
+            assertEquals("Read goes to the primary while the replica is disabled", PRIMARY_DESCRIPTION, helper.findByPrimaryKey(primaryKey).getString("description"));
+            assertEquals("Disabled replica is not read", 1, replicaReads.get());
+        }
+        assertEquals("Primary fallbacks", 2L, helper.getReplicaStatus().get("primaryFallbacks"));
+    }
+
+    /*
+     * A lag query returning no row (e.g. SHOW SLAVE STATUS on a host that is not a replica) disables the replica;
+     * a lag within max-lag-seconds enables it.
+     */
+    public void testReplicaLagCheck() throws Exception {
+        ReadReplicaHelper.Replica replica = new ReadReplicaHelper.Replica("replica", 30, null, null, helperInfo, primaryHelper, true);
+        replica.updateLag(-1, false);
+        assertFalse("Replica with no lag row is disabled", replica.isHealthy());
+        replica.updateLag(5, true);
+        assertTrue("Replica within max lag is enabled", replica.isHealthy());
+        replica.updateLag(60, true);
+        assertFalse("Replica over max lag is disabled", replica.isHealthy());
+        replica.updateLag(-1, true);
+        assertFalse("Replica with null lag is disabled", replica.isHealthy());
+    }
+
+    /*
+     * Reads that fill the entity cache go to the primary even in a preferReplica scope, so that a lagging replica row
+     * never stays cached; uncached reads of the same record go to the replica.
+     */
+    public void testCachedReadsUsePrimary() throws Exception {
+        AtomicInteger replicaReads = new AtomicInteger();
+        // explicit routing, so that other threads keep reading the primary while the helper is replaced
+        GenericHelper previousHelper = GenericHelperFactory.replaceHelper(helperInfo, makeHelper(false, makeReplicaHelper(replicaReads, false)));
+        try (ReadReplicas.Scope scope = ReadReplicas.preferReplica()) {
+            delegator.clearCacheLine("TestingType", "testingTypeId", "replica-1");
+            GenericValue uncached = EntityQuery.use(delegator).from("TestingType").where("testingTypeId", "replica-1").cache(false).queryOne();
+            assertEquals("Uncached read goes to the replica", STALE_DESCRIPTION, uncached.getString("description"));
+            int uncachedReplicaReads = replicaReads.get();
+
+            GenericValue cached = EntityQuery.use(delegator).from("TestingType").where("testingTypeId", "replica-1").cache(true).queryOne();
+            assertEquals("Cached read goes to the primary", PRIMARY_DESCRIPTION, cached.getString("description"));
+            cached = EntityQuery.use(delegator).from("TestingType").where("testingTypeId", "replica-1").cache(true).queryOne();
+            assertEquals("Cached record is the primary one", PRIMARY_DESCRIPTION, cached.getString("description"));
+            EntityQuery.use(delegator).from("TestingType").where("description", PRIMARY_DESCRIPTION).cache(true).queryList();
+            delegator.findAllByPrimaryKeys(Collections.singletonList(delegator.makePK("TestingType", "testingTypeId", "replica-1")), true);
+            assertEquals("Cache-filling reads do not read the replica", uncachedReplicaReads, replicaReads.get());
+        } finally {
+            GenericHelperFactory.replaceHelper(helperInfo, previousHelper);
+            delegator.clearCacheLine("TestingType", "testingTypeId", "replica-1");
+        }
+    }
+
+    private ReadReplicaHelper makeHelper(boolean routeNonTransactional, GenericHelper replicaHelper) {
+        ReadReplicaHelper.Replica replica = new ReadReplicaHelper.Replica("test-replica", 0, null, null, helperInfo, replicaHelper, true);
+        return new ReadReplicaHelper(helperInfo, primaryHelper, routeNonTransactional, Collections.singletonList(replica));
+    }
+
+    /**
+     * Returns a replica helper reading from the primary helper and counting its reads; the test records it returns
+     * have a stale description, and all its reads fail if <code>fail</code> is true.
+     */
+    private GenericHelper makeReplicaHelper(final AtomicInteger replicaReads, final boolean fail) {
+        return (GenericHelper) Proxy.newProxyInstance(GenericHelper.class.getClassLoader(), new Class<?>[] { GenericHelper.class }, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().startsWith("find")) {
+                    replicaReads.incrementAndGet();
+                    if (fail) {
+                        throw new GenericDataSourceException("Test replica unavailable");
+                    }
+                }
+                Object result;
+                try {
+                    result = method.invoke(primaryHelper, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+                if (result instanceof GenericValue && "replica-1".equals(((GenericValue) result).get("testingTypeId"))) {
+                    ((GenericValue) result).set("description", STALE_DESCRIPTION);
+                }
+                return result;
+            }
+        });
+    }
+}
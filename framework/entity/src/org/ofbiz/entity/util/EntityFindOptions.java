@@ -54,6 +54,12 @@ public class EntityFindOptions implements java.io.Serializable {
     /** OFFSET option */
     protected int offset = -1;
 
+    /** SCIPIO: FOR UPDATE option */
+    protected boolean forUpdate = false;
+
+    /** SCIPIO: SKIP LOCKED option (with FOR UPDATE) */
+    protected boolean skipLocked = false;
+
     /** Default constructor. Defaults are as follows:
      *      specifyTypeAndConcur = true
      *      resultSetType = TYPE_FORWARD_ONLY
@@ -172,4 +178,31 @@ public class EntityFindOptions implements java.io.Serializable {
     public void setOffset(int offset) {
         this.offset = offset;
     }
+
+    /** SCIPIO: Get the FOR UPDATE option. */
+    public boolean getForUpdate() {
+        return forUpdate;
+    }
+
+    /**
+     * SCIPIO: Specifies whether the selected rows are locked with a <code>FOR UPDATE</code> clause; only meaningful
+     * within a transaction. Such selects always go to the primary datasource, never to a read replica.
+     */
+    public void setForUpdate(boolean forUpdate) {
+        this.forUpdate = forUpdate;
+    }
+
+    /** SCIPIO: Get the SKIP LOCKED option. */
+    public boolean getSkipLocked() {
+        return skipLocked;
+    }
+
+    /**
+     * SCIPIO: Specifies whether rows locked by other transactions are skipped (<code>FOR UPDATE SKIP LOCKED</code>)
+     * instead of waited for. Implies FOR UPDATE; ignored (plain FOR UPDATE) if the datasource does not have the
+     * <code>skip-locked</code> attribute set.
+     */
+    public void setSkipLocked(boolean skipLocked) {
+        this.skipLocked = skipLocked;
+    }
 }
@@ -0,0 +1,253 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.entity.util;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.ofbiz.base.util.UtilIO;
+import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.GenericEntityException;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.condition.EntityComparisonOperator;
+import org.ofbiz.entity.condition.EntityCondition;
+import org.ofbiz.entity.condition.EntityFieldValue;
+import org.ofbiz.entity.condition.EntityOperator;
+import org.ofbiz.entity.condition.OrderByItem;
+import org.ofbiz.entity.model.ModelEntity;
+
+/**
+ * SCIPIO: Keyset (seek) pagination support for {@link EntityQuery#queryKeysetPagedList}.
+ * <p>
+ * A page after a cursor is selected with a seek condition on the order-by fields of the last row of the previous
+ * page, so the database can start at that point in an index instead of reading and discarding all previous rows.
+ * The order-by is completed with the primary key fields so that it is a total order. For portability the condition is
+ * the expanded form <code>a &gt; ? OR (a = ? AND b &gt; ?) ...</code> rather than a row value comparison, which
+ * also supports mixed ascending/descending fields, prefixed by <code>a &gt;= ?</code> to bound index range scans.
+ * <p>
+ * Only plain field order-by items are supported (no UPPER/LOWER), and the order-by field values must not be null.
+ * Cursors are opaque, URL-safe tokens bound to the entity and order-by they were created with.
+ */
+public final class EntityKeyset {
+
+    private static final String CURSOR_VERSION = "1";
+
+    private final ModelEntity modelEntity;
+    private final List<String> fieldNames;
+    private final List<Boolean> descending;
+    private final List<String> orderBy;
+    private final String signature;
+
+    private EntityKeyset(ModelEntity modelEntity, List<String> fieldNames, List<Boolean> descending) {
+        this.modelEntity = modelEntity;
+        this.fieldNames = Collections.unmodifiableList(fieldNames);
+        this.descending = Collections.unmodifiableList(descending);
+        List<String> orderBy = new ArrayList<>(fieldNames.size());
+        for (int i = 0; i < fieldNames.size(); i++) {
+            orderBy.add(descending.get(i) ? "-" + fieldNames.get(i) : fieldNames.get(i));
+        }
+        this.orderBy = Collections.unmodifiableList(orderBy);
+        this.signature = Integer.toHexString((modelEntity.getEntityName() + orderBy.toString()).hashCode());
+    }
+
+    /**
+     * Makes the keyset for the entity and order-by, completed with the primary key fields not already in it.
+     * @throws GenericEntityException if an order-by item is not a plain field of the entity
+     */
+    public static EntityKeyset make(ModelEntity modelEntity, List<String> orderBy) throws GenericEntityException {
+        List<String> fieldNames = new ArrayList<>();
+        List<Boolean> descending = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        if (orderBy != null) {
+            for (String orderByString : orderBy) {
+                OrderByItem item = OrderByItem.parse(orderByString);
+                if (!(item.getValue() instanceof EntityFieldValue)) {
+                    throw new GenericEntityException("Keyset pagination only supports plain field order-by items, not [" + orderByString + "]");
+                }
+                String fieldName = ((EntityFieldValue) item.getValue()).getFieldName();
+                if (!modelEntity.isField(fieldName)) {
+                    throw new GenericEntityException("Order-by field [" + fieldName + "] is not a field of entity [" + modelEntity.getEntityName() + "]");
+                }
+                if (seen.add(fieldName)) {
+                    fieldNames.add(fieldName);
+                    descending.add(item.getDescending());
+                }
+            }
+        }
+        for (String pkFieldName : modelEntity.getPkFieldNames()) {
+            if (seen.add(pkFieldName)) {
+                fieldNames.add(pkFieldName);
+                descending.add(Boolean.FALSE);
+            }
+        }
+        if (fieldNames.isEmpty()) {
+            throw new GenericEntityException("Keyset pagination requires an order-by or primary key for entity [" + modelEntity.getEntityName() + "]");
+        }
+        return new EntityKeyset(modelEntity, fieldNames, descending);
+    }
+
+    /** Returns the complete order-by, as order-by strings. */
+    public List<String> getOrderBy() {
+        return orderBy;
+    }
+
+    /** Returns the fields of the complete order-by. */
+    public List<String> getFieldNames() {
+        return fieldNames;
+    }
+
+    /** Returns the fields to select: the given fields plus the keyset fields, or null (all fields) if null. */
+    public Set<String> getFieldsToSelect(Collection<String> fieldsToSelect) {
+        if (fieldsToSelect == null) {
+            return null;
+        }
+        Set<String> fields = new LinkedHashSet<>(fieldsToSelect);
+        fields.addAll(fieldNames);
+        return fields;
+    }
+
+    /** Returns the condition selecting the rows after the cursor position. */
+    public EntityCondition makeSeekCondition(Cursor cursor) {
+        List<Object> values = cursor.getValues();
+        List<EntityCondition> alternatives = new ArrayList<>(fieldNames.size());
+        for (int i = 0; i < fieldNames.size(); i++) {
+            List<EntityCondition> terms = new ArrayList<>(i + 1);
+            for (int j = 0; j < i; j++) {
+                terms.add(EntityCondition.makeCondition(fieldNames.get(j), EntityOperator.EQUALS, values.get(j)));
+            }
+            EntityComparisonOperator<?, ?> operator = descending.get(i) ? EntityOperator.LESS_THAN : EntityOperator.GREATER_THAN;
+            terms.add(EntityCondition.makeCondition(fieldNames.get(i), operator, values.get(i)));
+            alternatives.add(terms.size() == 1 ? terms.get(0) : EntityCondition.makeCondition(terms, EntityOperator.AND));
+        }
+        EntityCondition seek = (alternatives.size() == 1) ? alternatives.get(0) : EntityCondition.makeCondition(alternatives, EntityOperator.OR);
+        if (alternatives.size() == 1) {
+            return seek;
+        }
+        // redundant bound on the first field, which lets the database use an index range scan
+        EntityComparisonOperator<?, ?> leadingOperator = descending.get(0) ? EntityOperator.LESS_THAN_EQUAL_TO : EntityOperator.GREATER_THAN_EQUAL_TO;
+        EntityCondition leading = EntityCondition.makeCondition(fieldNames.get(0), leadingOperator, values.get(0));
+        return EntityCondition.makeCondition(leading, EntityOperator.AND, seek);
+    }
+
+    /**
+     * Makes the cursor token for the position after the given value, which is the row at the given 1-based index.
+     * @throws GenericEntityException if a keyset field of the value is null
+     */
+    public String makeCursor(GenericValue value, int rowIndex) throws GenericEntityException {
+        StringBuilder sb = new StringBuilder();
+        appendPart(sb, CURSOR_VERSION);
+        appendPart(sb, signature);
+        appendPart(sb, Integer.toString(rowIndex));
+        for (String fieldName : fieldNames) {
+            Object fieldValue = value.get(fieldName);
+            if (fieldValue == null) {
+                throw new GenericEntityException("Keyset pagination requires non-null order-by values; field [" + fieldName
+                        + "] of entity [" + modelEntity.getEntityName() + "] is null");
+            }
+            appendPart(sb, (fieldValue instanceof BigDecimal) ? ((BigDecimal) fieldValue).toPlainString() : fieldValue.toString());
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(sb.toString().getBytes(UtilIO.getUtf8()));
+    }
+
+    /**
+     * Parses a cursor token made by {@link #makeCursor} for this keyset; returns null if the token is empty.
+     * @throws GenericEntityException if the token is invalid or was made for another entity or order-by
+     */
+    public Cursor parseCursor(Delegator delegator, String token) throws GenericEntityException {
+        if (token == null || token.isEmpty()) {
+            return null;
+        }
+        List<String> parts;
+        try {
+            parts = parseParts(new String(Base64.getUrlDecoder().decode(token), UtilIO.getUtf8()));
+        } catch (IllegalArgumentException e) {
+            throw new GenericEntityException("Invalid pagination cursor", e);
+        }
+        if (parts.size() != 3 + fieldNames.size() || !CURSOR_VERSION.equals(parts.get(0)) || !signature.equals(parts.get(1))) {
+            throw new GenericEntityException("Invalid pagination cursor for entity [" + modelEntity.getEntityName() + "] and order-by " + orderBy);
+        }
+        int rowIndex;
+        try {
+            rowIndex = Integer.parseInt(parts.get(2));
+        } catch (NumberFormatException e) {
+            throw new GenericEntityException("Invalid pagination cursor", e);
+        }
+        // convert the values back to the field types
+        GenericValue converter = delegator.makeValue(modelEntity.getEntityName());
+        List<Object> values = new ArrayList<>(fieldNames.size());
+        for (int i = 0; i < fieldNames.size(); i++) {
+            String fieldName = fieldNames.get(i);
+            try {
+                converter.setString(fieldName, parts.get(3 + i));
+            } catch (IllegalArgumentException e) {
+                throw new GenericEntityException("Invalid pagination cursor value for field [" + fieldName + "]", e);
+            }
+            values.add(converter.get(fieldName));
+        }
+        return new Cursor(rowIndex, values);
+    }
+
+    private static void appendPart(StringBuilder sb, String part) {
+        sb.append(part.length()).append(':').append(part);
+    }
+
+    private static List<String> parseParts(String text) {
+        List<String> parts = new ArrayList<>();
+        int pos = 0;
+        while (pos < text.length()) {
+            int sep = text.indexOf(':', pos);
+            if (sep < 0) {
+                throw new IllegalArgumentException("Invalid cursor");
+            }
+            int length = Integer.parseInt(text.substring(pos, sep));
+            if (length < 0 || sep + 1 + length > text.length()) {
+                throw new IllegalArgumentException("Invalid cursor");
+            }
+            parts.add(text.substring(sep + 1, sep + 1 + length));
+            pos = sep + 1 + length;
+        }
+        return parts;
+    }
+
+    /** A parsed cursor: the keyset field values of the last row of a page and its 1-based row index. */
+    public static final class Cursor {
+        private final int rowIndex;
+        private final List<Object> values;
+
+        Cursor(int rowIndex, List<Object> values) {
+            this.rowIndex = rowIndex;
+            this.values = Collections.unmodifiableList(values);
+        }
+
+        public int getRowIndex() {
+            return rowIndex;
+        }
+
+        public List<Object> getValues() {
+            return values;
+        }
+    }
+}
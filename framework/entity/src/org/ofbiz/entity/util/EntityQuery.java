@@ -21,8 +21,10 @@ package org.ofbiz.entity.util;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -32,6 +34,7 @@ import org.ofbiz.base.util.Debug;
 import org.ofbiz.base.util.UtilGenerics;
 import org.ofbiz.base.util.UtilMisc;
 import org.ofbiz.base.util.UtilValidate;
+import org.ofbiz.base.util.collections.KeysetPagedList;
 import org.ofbiz.base.util.collections.PagedList;
 import org.ofbiz.entity.Delegator;
 import org.ofbiz.entity.EntityFieldNotFoundException;
@@ -73,6 +76,8 @@ public class EntityQuery {
     private List<String> filterByFieldNames = null;
     private boolean searchPkOnly = false;
     private Map<String, Object> fieldMap = null;
+    private boolean forUpdate = false; // SCIPIO
+    private boolean skipLocked = false; // SCIPIO
 
 
 
@@ -306,6 +311,27 @@ public class EntityQuery {
         return this;
     }
 
+    /** SCIPIO: Specifies whether the selected rows are locked until the end of the current transaction (SELECT ... FOR UPDATE).
+     *
+     * @param forUpdate - boolean indicating whether to lock the selected rows
+     * @return this EntityQuery object, to enable chaining
+     */
+    public EntityQuery forUpdate(boolean forUpdate) {
+        this.forUpdate = forUpdate;
+        return this;
+    }
+
+    /** SCIPIO: Specifies whether the selected rows are locked, skipping rows locked by other transactions
+     * (SELECT ... FOR UPDATE SKIP LOCKED); where the datasource does not support it, this is a plain FOR UPDATE.
+     *
+     * @param skipLocked - boolean indicating whether to lock the selected rows and skip locked rows
+     * @return this EntityQuery object, to enable chaining
+     */
+    public EntityQuery skipLocked(boolean skipLocked) {
+        this.skipLocked = skipLocked;
+        return this;
+    }
+
     /** Specifies whether results should be read from the cache (or written to the cache if the results have not yet been cached)
      *
      * @return this EntityQuery object, to enable chaining
@@ -567,6 +593,46 @@ public class EntityQuery {
         return result;
     }
 
+    /** SCIPIO: Finds the values for the given primary keys at once, using the primary key cache if {@link #cache()} is set;
+     * see {@link Delegator#findAllByPrimaryKeys(Collection, boolean)}. Only the cache option applies; the keys may be
+     * of any entity.
+     *
+     * @return the values found by primary key, in key order; keys with no value are not in the map
+     */
+    public Map<GenericPK, GenericValue> queryAllByPrimaryKeys(Collection<GenericPK> primaryKeys) throws GenericEntityException {
+        return delegator.findAllByPrimaryKeys(primaryKeys, useCache);
+    }
+
+    /** SCIPIO: Finds the values of the {@link #from(String)} entity, which must have a single primary key field,
+     * for the given primary key field values at once, using the primary key cache if {@link #cache()} is set;
+     * see {@link Delegator#findAllByPrimaryKeys(Collection, boolean)}. Only the cache option applies.
+     * Null and duplicate values are skipped.
+     *
+     * @return the values found by primary key field value, in the order of the passed values; values with no record are not in the map
+     */
+    public Map<Object, GenericValue> queryAllByPrimaryKeyValues(Collection<?> pkValues) throws GenericEntityException {
+        ModelEntity modelEntity = delegator.getModelEntity(entityName);
+        if (modelEntity.getPksSize() != 1) {
+            throw new IllegalArgumentException("Entity [" + entityName + "] does not have a single primary key field");
+        }
+        String pkFieldName = modelEntity.getFirstPkFieldName();
+        Map<Object, GenericPK> primaryKeys = new LinkedHashMap<>();
+        for (Object pkValue : pkValues) {
+            if (pkValue != null && !primaryKeys.containsKey(pkValue)) {
+                primaryKeys.put(pkValue, delegator.makePK(entityName, UtilMisc.toMap(pkFieldName, pkValue)));
+            }
+        }
+        Map<GenericPK, GenericValue> values = delegator.findAllByPrimaryKeys(primaryKeys.values(), useCache);
+        Map<Object, GenericValue> results = new LinkedHashMap<>();
+        for (Map.Entry<Object, GenericPK> entry : primaryKeys.entrySet()) {
+            GenericValue value = values.get(entry.getValue());
+            if (value != null) {
+                results.put(entry.getKey(), value);
+            }
+        }
+        return results;
+    }
+
     /** Executes the EntityQuery and returns the result count
      *
      * If the query generates more than a single result then an exception is thrown
@@ -621,6 +687,8 @@ public class EntityQuery {
         if (distinct != null) {
             findOptions.setDistinct(distinct);
         }
+        findOptions.setForUpdate(forUpdate);
+        findOptions.setSkipLocked(skipLocked);
         return findOptions;
     }
 
@@ -748,6 +816,67 @@ public class EntityQuery {
         }
     }
 
+    /**
+     * SCIPIO: Query a page by keyset (seek) pagination: instead of skipping <code>viewIndex * viewSize</code> rows,
+     * selects the rows after the cursor of the previous page, so the cost of a page does not grow with its position.
+     * The full list size is not counted (-1).
+     * @param cursor the next cursor of the previous page ({@link KeysetPagedList#getNextCursor()}), or null for the first page
+     * @param viewSize
+     * @return KeysetPagedList object with a subset of data items and the cursor to the next page
+     * @throws GenericEntityException if the cursor is invalid or the query is not supported by keyset pagination
+     * @see EntityKeyset
+     */
+    public KeysetPagedList<GenericValue> queryKeysetPagedList(String cursor, int viewSize) throws GenericEntityException {
+        return queryKeysetPagedList(cursor, viewSize, false);
+    }
+
+    /**
+     * SCIPIO: Query a page by keyset (seek) pagination, optionally counting the full list size.
+     * @param cursor the next cursor of the previous page ({@link KeysetPagedList#getNextCursor()}), or null for the first page
+     * @param viewSize
+     * @param countTotal if true, also count the full list size with an extra query, otherwise the size is -1
+     * @return KeysetPagedList object with a subset of data items and the cursor to the next page
+     * @throws GenericEntityException if the cursor is invalid or the query is not supported by keyset pagination
+     * @see EntityKeyset
+     */
+    public KeysetPagedList<GenericValue> queryKeysetPagedList(String cursor, int viewSize, boolean countTotal) throws GenericEntityException {
+        if (dynamicViewEntity != null) {
+            throw new GenericEntityException("Keyset pagination is not supported for dynamic view entities");
+        }
+        if (viewSize <= 0) {
+            throw new IllegalArgumentException("viewSize must be greater than 0");
+        }
+        if (useCache) {
+            Debug.logWarning("Call to queryKeysetPagedList() with cache, ignoring cache", module);
+        }
+        EntityKeyset keyset = EntityKeyset.make(delegator.getModelEntity(entityName), orderBy);
+        EntityKeyset.Cursor position = keyset.parseCursor(delegator, cursor);
+        EntityCondition whereCondition = makeWhereCondition(false);
+        if (position != null) {
+            EntityCondition seekCondition = keyset.makeSeekCondition(position);
+            whereCondition = (whereCondition != null) ? EntityCondition.makeCondition(whereCondition, seekCondition) : seekCondition;
+        }
+        // fetch one extra row to know if there is a next page
+        EntityFindOptions findOptions = makeEntityFindOptions();
+        findOptions.setMaxRows(viewSize + 1);
+        findOptions.setLimit(viewSize + 1);
+        findOptions.setOffset(0);
+        List<GenericValue> data;
+        try (EntityListIterator it = delegator.find(entityName, whereCondition, havingEntityCondition,
+                keyset.getFieldsToSelect(fieldsToSelect), keyset.getOrderBy(), findOptions)) {
+            data = it.getCompleteList();
+        }
+        String nextCursor = null;
+        int startIndex = (position != null) ? position.getRowIndex() + 1 : 1;
+        if (data.size() > viewSize) {
+            data = new ArrayList<>(data.subList(0, viewSize));
+            nextCursor = keyset.makeCursor(data.get(viewSize - 1), startIndex + viewSize - 1);
+        }
+        int endIndex = startIndex + data.size() - 1;
+        int size = countTotal ? (int) queryCount() : -1;
+        return new KeysetPagedList<>(startIndex, endIndex, size, (startIndex - 1) / viewSize, viewSize, data, cursor, nextCursor);
+    }
+
     /** SCIPIO: Executes the EntityQuery and returns a list of results; returns null if GenericEntityException.
      * NOTE: Unchecked exceptions representing programming errors may still be thrown.
      *
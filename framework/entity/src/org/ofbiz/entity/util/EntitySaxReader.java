@@ -33,6 +33,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.zip.GZIPInputStream;
 
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
@@ -401,6 +402,9 @@ public class EntitySaxReader extends DefaultHandler {
         long numberRead = 0;
         try {
             is = location.openStream();
+            if (location.getPath().endsWith(".gz")) { // SCIPIO: gzipped exports (see EntityXmlExporter)
+                is = new GZIPInputStream(is, 65536);
+            }
             numberRead = this.parse(is, location.toString());
         } finally {
             if (is != null) {
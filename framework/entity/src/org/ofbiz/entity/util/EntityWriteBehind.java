@@ -0,0 +1,374 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.entity.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilProperties;
+import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.GenericEntity;
+import org.ofbiz.entity.GenericEntityException;
+import org.ofbiz.entity.GenericPK;
+import org.ofbiz.entity.GenericValue;
+
+/**
+ * SCIPIO: Write-behind queue for non-critical entities, those with <code>write-behind="true"</code> in the entity
+ * model (visit and hit tracking, login history).
+ * <p>
+ * {@link #create} and {@link #store} put a copy of the value in a bounded queue and return immediately; a background
+ * thread writes the queued values with {@link Delegator#createAll} and {@link Delegator#storeAll} in batches, in the
+ * order they were queued. When the queue is full, the caller waits up to <code>entity.writeBehind.queueWaitMillis</code>
+ * for space, so that a child row is normally not written before its queued parent; if the queue stays full (for
+ * example because the database is stuck), the value is written synchronously rather than blocking the request. For
+ * other entities, when the queue is disabled, or after {@link #shutdown()}, the value is also written synchronously,
+ * so nothing is dropped.
+ * <p>
+ * Queued writes are not part of the caller's transaction and are not visible to delegator reads until flushed, so
+ * this must only be used where that is acceptable; {@link #getQueued} returns a value still waiting in the queue.
+ * Primary keys must be set before queuing (see {@link #createSetNextSeqId}).
+ * <p>
+ * Settings are in <code>entity.properties</code> (<code>entity.writeBehind.*</code>).
+ */
+public final class EntityWriteBehind {
+
+    private static final Debug.OfbizLogger module = Debug.getOfbizLogger(java.lang.invoke.MethodHandles.lookup().lookupClass());
+
+    private static final boolean ENABLED = UtilProperties.getPropertyAsBoolean("entity", "entity.writeBehind.enabled", true);
+    private static final int QUEUE_CAPACITY = UtilProperties.getPropertyAsInteger("entity", "entity.writeBehind.queueCapacity", 10000);
+    private static final long QUEUE_WAIT_MILLIS = UtilProperties.getPropertyAsInteger("entity", "entity.writeBehind.queueWaitMillis", 1000);
+    private static final int BATCH_SIZE = UtilProperties.getPropertyAsInteger("entity", "entity.writeBehind.batchSize", 500);
+    private static final long LINGER_MILLIS = UtilProperties.getPropertyAsInteger("entity", "entity.writeBehind.lingerMillis", 200);
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = UtilProperties.getPropertyAsInteger("entity", "entity.writeBehind.shutdownTimeoutMillis", 30000);
+
+    private static final EntityWriteBehind INSTANCE = new EntityWriteBehind();
+
+    private enum Operation { CREATE, STORE, FLUSH }
+
+    private static final class Write {
+        final Operation operation;
+        final GenericValue value;
+        final CountDownLatch latch;
+
+        Write(Operation operation, GenericValue value, CountDownLatch latch) {
+            this.operation = operation;
+            this.value = value;
+            this.latch = latch;
+        }
+    }
+
+    private final BlockingQueue<Write> queue = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+    /** Latest queued, not yet written value of each primary key, for {@link #getQueued}. */
+    private final ConcurrentMap<GenericPK, GenericValue> pending = new ConcurrentHashMap<>();
+    private final AtomicLong queuedCount = new AtomicLong();
+    private final AtomicLong writtenCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong blockedCount = new AtomicLong();
+    private final AtomicLong batchCount = new AtomicLong();
+    private volatile Thread writer;
+    private volatile boolean shutdown = false;
+
+    private EntityWriteBehind() {
+    }
+
+    /** Returns true if writes of the value are queued (its entity is write-behind and the queue is enabled). */
+    public static boolean isWriteBehind(GenericValue value) {
+        return ENABLED && !INSTANCE.shutdown && value.getModelEntity().getWriteBehind();
+    }
+
+    /** Creates the value, queued if its entity is write-behind; returns the value. */
+    public static GenericValue create(GenericValue value) throws GenericEntityException {
+        if (!INSTANCE.enqueue(Operation.CREATE, value)) {
+            value.create();
+        }
+        return value;
+    }
+
+    /**
+     * Sets the next sequenced id of the value and creates it, queued if its entity is write-behind; returns the value.
+     * Unlike {@link Delegator#createSetNextSeqId}, a queued create is not retried on a duplicate key.
+     */
+    public static GenericValue createSetNextSeqId(GenericValue value) throws GenericEntityException {
+        if (!isWriteBehind(value)) {
+            return value.getDelegator().createSetNextSeqId(value);
+        }
+        value.setNextSeqId();
+        return create(value);
+    }
+
+    /** Stores (updates, or creates if missing) the value, queued if its entity is write-behind. */
+    public static void store(GenericValue value) throws GenericEntityException {
+        if (!INSTANCE.enqueue(Operation.STORE, value)) {
+            value.getDelegator().createOrStore(value);
+        }
+    }
+
+    /**
+     * Returns a copy of the latest queued value with the given primary key that has not been written yet, or null.
+     * Callers that read a write-behind entity shortly after creating it (e.g. the Visitor of a cookie) must check
+     * this before the database.
+     */
+    public static GenericValue getQueued(GenericPK pk) {
+        GenericValue value = INSTANCE.pending.get(pk);
+        if (value == null || !sameDelegator(value, pk)) {
+            return null;
+        }
+        GenericValue copy = (GenericValue) value.clone();
+        copy.setDelegator(value.getDelegator());
+        return copy;
+    }
+
+    /** Waits until the writes queued before this call have been written, or the timeout elapses; returns true if flushed. */
+    public static boolean flush(long timeout, TimeUnit unit) throws InterruptedException {
+        Thread currentWriter = INSTANCE.writer;
+        if (currentWriter == null || !currentWriter.isAlive()) {
+            return INSTANCE.queue.isEmpty();
+        }
+        CountDownLatch latch = new CountDownLatch(1);
+        if (!INSTANCE.queue.offer(new Write(Operation.FLUSH, null, latch), timeout, unit)) {
+            return false;
+        }
+        return latch.await(timeout, unit);
+    }
+
+    /**
+     * Stops queuing and writes the queued values, waiting up to <code>entity.writeBehind.shutdownTimeoutMillis</code>.
+     * Writes after this are synchronous. Called when the delegator container stops.
+     */
+    public static void shutdown() {
+        INSTANCE.shutdown = true;
+        Thread currentWriter = INSTANCE.writer;
+        if (currentWriter == null) {
+            return;
+        }
+        try {
+            currentWriter.join(SHUTDOWN_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!INSTANCE.queue.isEmpty()) {
+            Debug.logWarning("Entity write-behind queue not empty after shutdown timeout; " + INSTANCE.queue.size() + " writes lost", module);
+        } else {
+            Debug.logInfo("Entity write-behind queue flushed: " + getStats(), module);
+        }
+    }
+
+    /** Returns the counts of queued, written, failed and blocked (queue full) writes, and the current queue size. */
+    public static Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("queued", INSTANCE.queuedCount.get());
+        stats.put("written", INSTANCE.writtenCount.get());
+        stats.put("failed", INSTANCE.failedCount.get());
+        stats.put("blocked", INSTANCE.blockedCount.get());
+        stats.put("batches", INSTANCE.batchCount.get());
+        stats.put("queueSize", INSTANCE.queue.size());
+        return stats;
+    }
+
+    private boolean enqueue(Operation operation, GenericValue value) {
+        if (!isWriteBehind(value)) {
+            return false;
+        }
+        if (!value.containsPrimaryKey()) {
+            throw new IllegalArgumentException("Cannot queue a write of entity [" + value.getEntityName() + "] without a complete primary key");
+        }
+        // copy, because callers commonly keep modifying the value (e.g. the session Visit)
+        GenericValue copy = (GenericValue) value.clone();
+        copy.setDelegator(value.getDelegator());
+        GenericPK pk = copy.getPrimaryKey();
+        // registered before queuing, so the value is visible from the moment the caller returns
+        pending.put(pk, copy);
+        ensureWriter();
+        Write write = new Write(operation, copy, null);
+        if (!queue.offer(write)) {
+            // wait for space before writing synchronously: a synchronous write could reach the database before
+            // its queued parent (e.g. a ServerHit before its Visit) and fail the foreign key
+            blockedCount.incrementAndGet();
+            boolean queued;
+            try {
+                queued = queue.offer(write, QUEUE_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                queued = false;
+            }
+            if (!queued) {
+                pending.remove(pk, copy);
+                Debug.logWarning("Entity write-behind queue still full after " + QUEUE_WAIT_MILLIS + " ms (or interrupted); writing ["
+                        + value.getEntityName() + "] synchronously", module);
+                return false;
+            }
+        }
+        queuedCount.incrementAndGet();
+        return true;
+    }
+
+    private void ensureWriter() {
+        if (writer == null) {
+            synchronized (this) {
+                if (writer == null) {
+                    Thread thread = new Thread(this::run, "entity-write-behind");
+                    thread.setDaemon(true);
+                    thread.start();
+                    writer = thread;
+                }
+            }
+        }
+    }
+
+    private void run() {
+        List<Write> batch = new ArrayList<>(BATCH_SIZE);
+        while (!shutdown || !queue.isEmpty()) {
+            try {
+                Write first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, BATCH_SIZE - 1);
+                if (batch.size() < BATCH_SIZE && LINGER_MILLIS > 0 && !shutdown && first.operation != Operation.FLUSH) {
+                    // give concurrent requests a moment to add to the batch
+                    Thread.sleep(LINGER_MILLIS);
+                    queue.drainTo(batch, BATCH_SIZE - batch.size());
+                }
+            } catch (InterruptedException e) {
+                if (!shutdown) {
+                    Debug.logWarning("Entity write-behind writer interrupted", module);
+                }
+                queue.drainTo(batch);
+            }
+            try {
+                writeBatch(batch);
+            } catch (Throwable t) {
+                Debug.logError(t, "Entity write-behind: unexpected error writing batch", module);
+            } finally {
+                // written or failed, either way no longer queued (a later write of the same row keeps its own entry)
+                for (Write write : batch) {
+                    if (write.value != null) {
+                        pending.remove(write.value.getPrimaryKey(), write.value);
+                    }
+                }
+                batch.clear();
+            }
+        }
+    }
+
+    private void writeBatch(List<Write> batch) {
+        List<Write> run = new ArrayList<>();
+        // values of the current run by primary key, for coalescing
+        Map<GenericPK, GenericValue> runValues = new HashMap<>();
+        for (Write write : batch) {
+            if (write.operation == Operation.FLUSH) {
+                writeRun(run);
+                run.clear();
+                runValues.clear();
+                write.latch.countDown();
+                continue;
+            }
+            // coalesce a store into an earlier, not yet written create or store of the same row
+            GenericPK pk = write.value.getPrimaryKey();
+            GenericValue earlier = runValues.get(pk);
+            if (write.operation == Operation.STORE && earlier != null && sameDelegator(earlier, write.value)) {
+                earlier.setNonPKFields(write.value, true);
+                continue;
+            }
+            if (!run.isEmpty() && (run.get(0).operation != write.operation || !sameDelegator(run.get(0).value, write.value))) {
+                writeRun(run);
+                run.clear();
+                runValues.clear();
+            }
+            run.add(write);
+            runValues.put(pk, write.value);
+        }
+        writeRun(run);
+    }
+
+    private void writeRun(List<Write> run) {
+        if (run.isEmpty()) {
+            return;
+        }
+        List<GenericValue> values = new ArrayList<>(run.size());
+        for (Write write : run) {
+            values.add(write.value);
+        }
+        Delegator delegator = values.get(0).getDelegator();
+        Operation operation = run.get(0).operation;
+        boolean suppressLog = !Debug.verboseOn();
+        if (suppressLog) {
+            Debug.setThreadLevelDisableWarningError();
+        }
+        try {
+            if (operation == Operation.CREATE) {
+                delegator.createAll(values);
+            } else {
+                delegator.storeAll(values);
+            }
+            writtenCount.addAndGet(values.size());
+            batchCount.incrementAndGet();
+            return;
+        } catch (GenericEntityException e) {
+            // fall through to write one at a time, so one bad row (e.g. duplicate key) does not lose the batch
+        } finally {
+            if (suppressLog) {
+                Debug.restoreThreadLevelAllow();
+            }
+        }
+        int failed = 0;
+        GenericEntityException lastError = null;
+        for (GenericValue value : values) {
+            if (suppressLog) {
+                Debug.setThreadLevelDisableWarningError();
+            }
+            try {
+                if (operation == Operation.CREATE) {
+                    delegator.create(value);
+                } else {
+                    delegator.createOrStore(value);
+                }
+                writtenCount.incrementAndGet();
+            } catch (GenericEntityException e) {
+                failed++;
+                lastError = e;
+            } finally {
+                if (suppressLog) {
+                    Debug.restoreThreadLevelAllow();
+                }
+            }
+        }
+        if (failed > 0) {
+            failedCount.addAndGet(failed);
+            Debug.logWarning("Entity write-behind: could not write " + failed + " of " + values.size() + " ["
+                    + values.get(0).getEntityName() + "] values; last error: " + lastError, module);
+        }
+    }
+
+    private static boolean sameDelegator(GenericEntity first, GenericEntity second) {
+        return first.getDelegator().getDelegatorName().equals(second.getDelegator().getDelegatorName());
+    }
+}
@@ -0,0 +1,321 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.entity.util;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+import org.ofbiz.base.concurrent.ExecutionPool;
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilIO;
+import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.GenericEntityException;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.condition.EntityCondition;
+import org.ofbiz.entity.config.model.Datasource;
+import org.ofbiz.entity.config.model.EntityConfig;
+import org.ofbiz.entity.model.ModelEntity;
+import org.ofbiz.entity.model.ModelViewEntity;
+import org.ofbiz.entity.transaction.GenericTransactionException;
+import org.ofbiz.entity.transaction.TransactionUtil;
+
+/**
+ * SCIPIO: Streams entity values to entity-engine-xml files in bounded memory.
+ * <p>
+ * Each entity is read through a forward-only, read-only cursor in a single transaction (no intermediate commits,
+ * which would close the cursor on most databases), with a fetch size suited to the datasource: MySQL and MariaDB
+ * drivers otherwise read the whole result into memory, and PostgreSQL only uses a cursor with a fetch size inside a
+ * transaction. Values are written one at a time through a single buffered writer per file, optionally gzipped.
+ * {@link #exportEntities} can export several entities in parallel, one file and transaction per entity.
+ * <p>
+ * Not thread-safe to configure; the export methods can be called concurrently once configured.
+ */
+public class EntityXmlExporter {
+
+    private static final Debug.OfbizLogger module = Debug.getOfbizLogger(java.lang.invoke.MethodHandles.lookup().lookupClass());
+
+    /** Fetch size for databases that stream with a positive fetch size. */
+    public static final int DEFAULT_FETCH_SIZE = 1000;
+    /** Fetch size that makes the MySQL/MariaDB drivers stream rows instead of reading the whole result. */
+    public static final int MYSQL_STREAMING_FETCH_SIZE = Integer.MIN_VALUE;
+
+    private static final ThreadGroup EXPORT_THREAD_GROUP = new ThreadGroup("EntityXmlExporter");
+
+    private final Delegator delegator;
+    private int fetchSize = 0;
+    private int transactionTimeout = 7200;
+    private boolean gzip = false;
+
+    public EntityXmlExporter(Delegator delegator) {
+        this.delegator = delegator;
+    }
+
+    /** Sets the result fetch size; 0 (default) for the streaming fetch size of the entity datasource, see {@link #getStreamingFetchSize}. */
+    public EntityXmlExporter setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+        return this;
+    }
+
+    /** Sets the timeout in seconds of the transaction each entity is read in (default 7200). */
+    public EntityXmlExporter setTransactionTimeout(int transactionTimeout) {
+        this.transactionTimeout = transactionTimeout;
+        return this;
+    }
+
+    /** Sets whether the files written by {@link #exportEntities} are gzipped (<code>.xml.gz</code>). */
+    public EntityXmlExporter setGzip(boolean gzip) {
+        this.gzip = gzip;
+        return this;
+    }
+
+    /**
+     * Returns the fetch size that streams the entity's rows for its datasource: the datasource
+     * <code>result-fetch-size</code> if it is larger than {@link #DEFAULT_FETCH_SIZE}, {@link #MYSQL_STREAMING_FETCH_SIZE}
+     * for MySQL/MariaDB, and {@link #DEFAULT_FETCH_SIZE} otherwise.
+     */
+    public static int getStreamingFetchSize(Delegator delegator, String entityName) {
+        Datasource datasource = EntityConfig.getDatasource(delegator.getEntityHelperName(entityName));
+        if (datasource == null) {
+            return DEFAULT_FETCH_SIZE;
+        }
+        String fieldTypeName = datasource.getFieldTypeName();
+        if ("mysql".equals(fieldTypeName) || "mariadb".equals(fieldTypeName)) {
+            return MYSQL_STREAMING_FETCH_SIZE;
+        }
+        return Math.max(datasource.getResultFetchSize(), DEFAULT_FETCH_SIZE);
+    }
+
+    /**
+     * Writes the values of the entity matching the condition (null for all) to the writer, in primary key order,
+     * as entity-engine-xml elements without the document element.
+     * @return the number of values written
+     */
+    public long writeEntity(String entityName, EntityCondition condition, PrintWriter writer) throws GenericEntityException {
+        return exportEntity(entityName, condition, null, writer);
+    }
+
+    /**
+     * Writes the values of the entity matching the condition (null for all) to an entity-engine-xml file, in primary
+     * key order; the file is gzipped if its name ends with <code>.gz</code>. No file is created if there are no values.
+     * @return the number of values written
+     */
+    public long exportEntity(String entityName, EntityCondition condition, File file) throws GenericEntityException, IOException {
+        try {
+            return exportEntity(entityName, condition, file, null);
+        } catch (ExportIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Exports each entity (view entities are skipped) to its own file in the directory, named
+     * <code>[EntityName].xml</code> (or <code>.xml.gz</code>), using up to <code>threads</code> entities at once.
+     * Errors are reported per entity and don't stop the other entities.
+     * @return the result per entity, in the order of the passed entity names
+     */
+    public List<ExportResult> exportEntities(Collection<String> entityNames, EntityCondition condition, File outdir, int threads) {
+        List<ExportResult> results = new ArrayList<>(entityNames.size());
+        if (threads <= 1) {
+            for (String entityName : entityNames) {
+                results.add(exportEntityResult(entityName, condition, outdir));
+            }
+            return results;
+        }
+        ExecutorService executor = ExecutionPool.getScheduledExecutor(EXPORT_THREAD_GROUP, "entity-xml-export", threads, 0, false);
+        try {
+            List<Future<ExportResult>> futures = new ArrayList<>(entityNames.size());
+            for (final String entityName : entityNames) {
+                futures.add(executor.submit(new Callable<ExportResult>() {
+                    @Override
+                    public ExportResult call() {
+                        return exportEntityResult(entityName, condition, outdir);
+                    }
+                }));
+            }
+            for (Future<ExportResult> future : futures) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    Debug.logError(e.getCause(), "Error exporting entity", module);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return results;
+    }
+
+    private ExportResult exportEntityResult(String entityName, EntityCondition condition, File outdir) {
+        ModelEntity modelEntity = delegator.getModelEntity(entityName);
+        if (modelEntity == null || modelEntity instanceof ModelViewEntity) {
+            return new ExportResult(entityName, null, -1, null);
+        }
+        File file = new File(outdir, entityName + (gzip ? ".xml.gz" : ".xml"));
+        try {
+            long numberWritten = exportEntity(entityName, condition, file);
+            return new ExportResult(entityName, numberWritten > 0 ? file : null, numberWritten, null);
+        } catch (GenericEntityException | IOException | RuntimeException e) {
+            Debug.logError(e, "Error exporting entity [" + entityName + "] to " + file, module);
+            return new ExportResult(entityName, null, 0, e);
+        }
+    }
+
+    /** Streams the values to the writer, or if null, to the file (created on the first value). */
+    private long exportEntity(String entityName, EntityCondition condition, File file, PrintWriter writer) throws GenericEntityException {
+        ModelEntity modelEntity = delegator.getModelEntity(entityName);
+        EntityFindOptions findOptions = new EntityFindOptions(true, EntityFindOptions.TYPE_FORWARD_ONLY, EntityFindOptions.CONCUR_READ_ONLY, false);
+        findOptions.setFetchSize(fetchSize != 0 ? fetchSize : getStreamingFetchSize(delegator, entityName));
+
+        long numberWritten = 0;
+        boolean beganTransaction = false;
+        PrintWriter fileWriter = null;
+        try {
+            beganTransaction = TransactionUtil.begin(transactionTimeout);
+            try (EntityListIterator values = delegator.find(entityName, condition, null, null, modelEntity.getPkFieldNames(), findOptions)) {
+                GenericValue value;
+                while ((value = values.next()) != null) {
+                    if (writer == null) {
+                        fileWriter = openFile(file);
+                        writer = fileWriter;
+                    }
+                    value.writeXmlText(writer, "");
+                    numberWritten++;
+                    if (numberWritten % 100000 == 0) {
+                        if (writer.checkError()) {
+                            throw new ExportIOException(new IOException("Error writing entity [" + entityName + "] values"));
+                        }
+                        Debug.logInfo("Records written [" + entityName + "]: " + numberWritten, module);
+                    }
+                }
+            }
+            if (fileWriter != null) {
+                fileWriter.println("</entity-engine-xml>");
+                fileWriter.close();
+                fileWriter = null;
+                if (writer.checkError()) {
+                    throw new ExportIOException(new IOException("Error writing entity [" + entityName + "] values to " + file));
+                }
+            }
+            TransactionUtil.commit(beganTransaction);
+        } catch (GenericEntityException | RuntimeException e) {
+            String errMsg = "Error exporting entity [" + entityName + "]";
+            try {
+                TransactionUtil.rollback(beganTransaction, errMsg, e);
+            } catch (GenericTransactionException gte) {
+                Debug.logError(gte, "Unable to rollback transaction", module);
+            }
+            throw e;
+        } finally {
+            if (fileWriter != null) {
+                fileWriter.close();
+            }
+        }
+        return numberWritten;
+    }
+
+    private PrintWriter openFile(File file) {
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(file);
+            if (file.getName().endsWith(".gz")) {
+                out = new GZIPOutputStream(out, 65536);
+            }
+            PrintWriter writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(out, UtilIO.getUtf8()), 65536));
+            writer.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+            writer.println("<entity-engine-xml>");
+            return writer;
+        } catch (IOException e) {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e2) {
+                    Debug.logWarning(e2, "Error closing " + file, module);
+                }
+            }
+            throw new ExportIOException(e);
+        }
+    }
+
+    /** Wraps an IOException through the transaction handling, which only lets GenericEntityException and runtime exceptions through. */
+    @SuppressWarnings("serial")
+    private static final class ExportIOException extends RuntimeException {
+        ExportIOException(IOException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized IOException getCause() {
+            return (IOException) super.getCause();
+        }
+    }
+
+    /** The outcome of exporting one entity. */
+    public static final class ExportResult {
+        private final String entityName;
+        private final File file;
+        private final long numberWritten;
+        private final Exception error;
+
+        ExportResult(String entityName, File file, long numberWritten, Exception error) {
+            this.entityName = entityName;
+            this.file = file;
+            this.numberWritten = numberWritten;
+            this.error = error;
+        }
+
+        public String getEntityName() {
+            return entityName;
+        }
+
+        /** Returns the file written, or null if none (no values, view entity or error). */
+        public File getFile() {
+            return file;
+        }
+
+        /** Returns the number of values written, or -1 if the entity was skipped as a view entity. */
+        public long getNumberWritten() {
+            return numberWritten;
+        }
+
+        /** Returns the error that stopped the export of the entity, or null. */
+        public Exception getError() {
+            return error;
+        }
+
+        public boolean isSkipped() {
+            return numberWritten < 0;
+        }
+    }
+}
@@ -22,11 +22,21 @@ import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.transaction.Transaction;
 
+import org.ofbiz.base.concurrent.ExecutionPool;
 import org.ofbiz.base.util.Debug;
 import org.ofbiz.entity.GenericEntityException;
 import org.ofbiz.entity.datasource.GenericHelperInfo;
@@ -38,11 +48,21 @@ import org.ofbiz.entity.transaction.TransactionUtil;
 
 /**
  * Sequence Utility to get unique sequences from named sequence banks
+ * <p>
+ * SCIPIO: Each bank hands out ids from its current segment with an atomic counter (no lock on the fast path) and
+ * fetches the next segment in the background when the current one runs low, so callers normally never wait on the
+ * <code>SequenceValueItem</code> row lock. The bank size grows (up to {@link SequenceBank#maxBankSize}) for
+ * sequences whose banks are used up quickly and shrinks back to the configured size when they are not;
+ * see {@link #getBankStats()} for the refresh wait times.
  */
 public class SequenceUtil {
 
     private static final Debug.OfbizLogger module = Debug.getOfbizLogger(java.lang.invoke.MethodHandles.lookup().lookupClass());
 
+    private static final ThreadGroup SEQUENCE_THREAD_GROUP = new ThreadGroup("SequenceUtil");
+    /** SCIPIO: Runs the bank prefetches, outside of any caller transaction. */
+    private static final ExecutorService prefetchExecutor = ExecutionPool.getScheduledExecutor(SEQUENCE_THREAD_GROUP, "sequence-prefetch", 2, 60, false);
+
     private final ConcurrentMap<String, SequenceBank> sequences = new ConcurrentHashMap<String, SequenceBank>();
     private final GenericHelperInfo helperInfo;
     private final String tableName;
@@ -86,6 +106,19 @@ public class SequenceUtil {
         bank.refresh(staggerMax);
     }
 
+    /**
+     * SCIPIO: Returns a snapshot of the bank statistics by sequence name: current bank size, number of banks
+     * fetched (and how many of those in the background), and the number of and total/max time spent by callers
+     * waiting on a bank refresh.
+     */
+    public Map<String, Map<String, Object>> getBankStats() {
+        Map<String, Map<String, Object>> stats = new LinkedHashMap<>();
+        for (SequenceBank bank : sequences.values()) {
+            stats.put(bank.seqName, bank.getStats());
+        }
+        return stats;
+    }
+
     private SequenceBank getBank(String seqName, ModelEntity seqModelEntity) {
         SequenceBank bank = sequences.get(seqName);
 
@@ -103,23 +136,53 @@ public class SequenceUtil {
         return bank;
     }
 
+    /**
+     * SCIPIO: A range of sequenced ids reserved in the database, [startSeqId, maxSeqId), handed out by an atomic counter.
+     */
+    private static final class Segment {
+        private static final Segment EMPTY = new Segment(0, 0);
+
+        private final long maxSeqId;
+        private final long prefetchSeqId;
+        private final AtomicLong curSeqId;
+        private volatile long activatedNanos;
+
+        private Segment(long startSeqId, long bankSize) {
+            this.maxSeqId = startSeqId + bankSize;
+            // start fetching the next bank once a quarter of this one remains
+            this.prefetchSeqId = this.maxSeqId - Math.max(1, bankSize / 4);
+            this.curSeqId = new AtomicLong(startSeqId);
+        }
+    }
+
     private class SequenceBank {
         public static final long defaultBankSize = 10;
         public static final long maxBankSize = 5000;
         public static final long startSeqId = 10000;
+        /** SCIPIO: A bank used up faster than this doubles the bank size. */
+        public static final long growBankNanos = 1000L * 1000L * 1000L;
+        /** SCIPIO: A bank lasting longer than this halves the bank size, down to the configured size. */
+        public static final long shrinkBankNanos = 60L * 1000L * 1000L * 1000L;
 
         private final String seqName;
-        private final long bankSize;
+        private final long minBankSize;
         private final String updateForLockStatement;
         private final String selectSequenceStatement;
 
-        private long curSeqId;
-        private long maxSeqId;
+        private volatile long bankSize;
+        private volatile Segment current = Segment.EMPTY;
+        private final AtomicReference<Future<Segment>> prefetch = new AtomicReference<>();
+        private final Object refreshLock = new Object();
+
+        private final AtomicLong fetchCount = new AtomicLong();
+        private final AtomicLong prefetchCount = new AtomicLong();
+        private final AtomicLong waitCount = new AtomicLong();
+        private final AtomicLong waitNanos = new AtomicLong();
+        private final AtomicLong maxWaitNanos = new AtomicLong();
 
         private SequenceBank(String seqName, long bankSize) {
             this.seqName = seqName;
-            curSeqId = 0;
-            maxSeqId = 0;
+            this.minBankSize = bankSize;
             this.bankSize = bankSize;
             updateForLockStatement = "UPDATE " + SequenceUtil.this.tableName + " SET " + SequenceUtil.this.idColName + "=" + SequenceUtil.this.idColName + " WHERE " + SequenceUtil.this.nameColName + "='" + this.seqName + "'";
             selectSequenceStatement = "SELECT " + SequenceUtil.this.idColName + " FROM " + SequenceUtil.this.tableName + " WHERE " + SequenceUtil.this.nameColName + "='" + this.seqName + "'";
@@ -131,54 +194,170 @@ public class SequenceUtil {
                 stagger = (long)Math.ceil(Math.random() * staggerMax);
                 if (stagger == 0) stagger = 1;
             }
-            synchronized (this) {
-                if ((curSeqId + stagger) <= maxSeqId) {
-                    long retSeqId = curSeqId;
-                    curSeqId += stagger;
+            Segment segment = current;
+            while (true) {
+                long retSeqId = segment.curSeqId.getAndAdd(stagger);
+                if ((retSeqId + stagger) <= segment.maxSeqId) {
+                    if ((retSeqId + stagger) > segment.prefetchSeqId && stagger == 1) {
+                        schedulePrefetch(segment);
+                    }
                     return retSeqId;
+                }
+                Segment nextSegment = nextSegment(segment, stagger);
+                if (nextSegment == null) {
+                    Debug.logError("Fill bank failed, returning null", module);
+                    return null;
+                }
+                segment = nextSegment;
+            }
+        }
+
+        private void refresh(long staggerMax) {
+            synchronized (refreshLock) {
+                Segment segment = takePrefetched(staggerMax);
+                if (segment == null) {
+                    segment = fetchSegment(getFetchBankSize(staggerMax));
+                }
+                if (segment != null) {
+                    segment.activatedNanos = System.nanoTime();
+                    current = segment;
                 } else {
-                    fillBank(stagger);
-                    if ((curSeqId + stagger) <= maxSeqId) {
-                        long retSeqId = curSeqId;
-                        curSeqId += stagger;
-                        return retSeqId;
-                    } else {
-                        Debug.logError("Fill bank failed, returning null", module);
+                    current = Segment.EMPTY;
+                }
+            }
+        }
+
+        /**
+         * Replaces the exhausted segment with the prefetched one, or fetches one if there is none yet;
+         * returns the new current segment, or null if none could be fetched.
+         */
+        private Segment nextSegment(Segment exhausted, long stagger) {
+            long waitStart = System.nanoTime();
+            try {
+                synchronized (refreshLock) {
+                    Segment segment = current;
+                    if (segment != exhausted) {
+                        // another thread already refreshed the bank
+                        return segment;
+                    }
+                    segment = takePrefetched(stagger);
+                    if (segment == null) {
+                        segment = fetchSegment(getFetchBankSize(stagger));
+                    }
+                    if (segment == null) {
+                        current = Segment.EMPTY;
                         return null;
                     }
+                    long now = System.nanoTime();
+                    if (stagger == 1 && exhausted != Segment.EMPTY) {
+                        adaptBankSize(now - exhausted.activatedNanos);
+                    }
+                    segment.activatedNanos = now;
+                    current = segment;
+                    return segment;
                 }
+            } finally {
+                noteWait(waitStart);
             }
         }
 
-        private synchronized void refresh(long staggerMax) {
-            this.curSeqId = this.maxSeqId;
-            this.fillBank(staggerMax);
+        /** Waits for and returns the prefetched segment, if any and if large enough for the stagger. */
+        private Segment takePrefetched(long stagger) {
+            Future<Segment> future = prefetch.getAndSet(null);
+            if (future == null) {
+                return null;
+            }
+            Segment segment;
+            try {
+                segment = future.get();
+            } catch (ExecutionException e) {
+                Debug.logError(e, "Error prefetching bank of sequenced IDs for [" + this.seqName + "]", module);
+                return null;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            if (segment == null || (segment.maxSeqId - segment.curSeqId.get()) < stagger) {
+                return null;
+            }
+            return segment;
         }
 
-        /*
-           The algorithm to get the new sequence id in a thread safe way is the following:
-           1 - run an update with no changes to get a lock on the record
-               1bis - if no record is found, try to create and update it to get the lock
-           2 - select the record (now locked) to get the curSeqId
-           3 - increment the sequence
-           The three steps are executed in one dedicated database transaction.
-         */
-        private void fillBank(long stagger) {
-            // no need to get a new bank, SeqIds available
-            if ((curSeqId + stagger) <= maxSeqId) {
+        private void schedulePrefetch(Segment segment) {
+            if (prefetch.get() != null || segment != current) {
                 return;
             }
+            final long fetchBankSize = this.bankSize;
+            FutureTask<Segment> task = new FutureTask<>(() -> {
+                Segment prefetched = fetchSegment(fetchBankSize);
+                if (prefetched != null) {
+                    prefetchCount.incrementAndGet();
+                }
+                return prefetched;
+            });
+            if (prefetch.compareAndSet(null, task)) {
+                try {
+                    prefetchExecutor.execute(task);
+                } catch (RuntimeException e) {
+                    // executor shut down or saturated: the bank will be fetched when needed
+                    prefetch.compareAndSet(task, null);
+                    Debug.logWarning("Could not schedule bank prefetch for sequence [" + this.seqName + "]: " + e.toString(), module);
+                }
+            }
+        }
 
-            long bankSize = this.bankSize;
+        private long getFetchBankSize(long stagger) {
+            long fetchBankSize = this.bankSize;
             if (stagger > 1) {
                 // NOTE: could use staggerMax for this, but if that is done it would be easier to guess a valid next id without a brute force attack
-                bankSize = stagger * defaultBankSize;
+                fetchBankSize = stagger * defaultBankSize;
             }
+            if (fetchBankSize > maxBankSize) {
+                fetchBankSize = maxBankSize;
+            }
+            return fetchBankSize;
+        }
 
-            if (bankSize > maxBankSize) {
-                bankSize = maxBankSize;
+        private void adaptBankSize(long usedNanos) {
+            long bankSize = this.bankSize;
+            if (usedNanos < growBankNanos && bankSize < maxBankSize) {
+                this.bankSize = Math.min(bankSize * 2, maxBankSize);
+            } else if (usedNanos > shrinkBankNanos && bankSize > minBankSize) {
+                this.bankSize = Math.max(bankSize / 2, minBankSize);
             }
+        }
 
+        private void noteWait(long waitStart) {
+            long waited = System.nanoTime() - waitStart;
+            waitCount.incrementAndGet();
+            waitNanos.addAndGet(waited);
+            long max = maxWaitNanos.get();
+            while (waited > max && !maxWaitNanos.compareAndSet(max, waited)) {
+                max = maxWaitNanos.get();
+            }
+        }
+
+        private Map<String, Object> getStats() {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("bankSize", bankSize);
+            stats.put("fetchCount", fetchCount.get());
+            stats.put("prefetchCount", prefetchCount.get());
+            stats.put("waitCount", waitCount.get());
+            stats.put("waitTimeMs", TimeUnit.NANOSECONDS.toMillis(waitNanos.get()));
+            stats.put("maxWaitTimeMs", TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get()));
+            return stats;
+        }
+
+        /*
+           The algorithm to get the new sequence id in a thread safe way is the following:
+           1 - run an update with no changes to get a lock on the record
+               1bis - if no record is found, try to create and update it to get the lock
+           2 - select the record (now locked) to get the curSeqId
+           3 - increment the sequence
+           The three steps are executed in one dedicated database transaction.
+         */
+        private Segment fetchSegment(long bankSize) {
+            long curSeqId = 0;
             Transaction suspendedTransaction = null;
             try {
                 if (TransactionUtil.isTransactionInPlace()) { // SCIPIO: 2018-09-04: added check to eliminate useless warnings
@@ -260,9 +439,7 @@ public class SequenceUtil {
                         }
                     }
                 } catch (SQLException | GenericEntityException  e) {
-                    // reset the sequence fields and return (note: it would be better to throw an exception)
-                    curSeqId = 0;
-                    maxSeqId = 0;
+                    // return no segment (note: it would be better to throw an exception)
                     String errMsg = "General error in getting a sequenced ID";
                     Debug.logError(e, errMsg, module);
                     try {
@@ -270,30 +447,27 @@ public class SequenceUtil {
                     } catch (GenericTransactionException gte2) {
                         Debug.logError(gte2, "Unable to rollback transaction", module);
                     }
-                    return;
+                    return null;
                 }
             } catch (GenericTransactionException e) {
                 Debug.logError(e, "System Error suspending transaction in sequence util", module);
-                // reset the sequence fields and return (note: it would be better to throw an exception)
-                curSeqId = 0;
-                maxSeqId = 0;
-                return;
+                // return no segment (note: it would be better to throw an exception)
+                return null;
             } finally {
                 if (suspendedTransaction != null) {
                     try {
                         TransactionUtil.resume(suspendedTransaction);
                     } catch (GenericTransactionException e) {
                         Debug.logError(e, "Error resuming suspended transaction in sequence util", module);
-                        // reset the sequence fields and return (note: it would be better to throw an exception)
-                        curSeqId = 0;
-                        maxSeqId = 0;
-                        return;
+                        // return no segment (note: it would be better to throw an exception)
+                        return null;
                     }
                 }
             }
 
-            maxSeqId = curSeqId + bankSize;
-            if (Debug.infoOn()) Debug.logInfo("Got bank of sequenced IDs for [" + this.seqName + "]; curSeqId=" + curSeqId + ", maxSeqId=" + maxSeqId + ", bankSize=" + bankSize, module);
+            fetchCount.incrementAndGet();
+            if (Debug.infoOn()) Debug.logInfo("Got bank of sequenced IDs for [" + this.seqName + "]; curSeqId=" + curSeqId + ", maxSeqId=" + (curSeqId + bankSize) + ", bankSize=" + bankSize, module);
+            return new Segment(curSeqId, bankSize);
         }
     }
 }
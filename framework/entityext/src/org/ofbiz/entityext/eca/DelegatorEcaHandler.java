@@ -96,6 +96,21 @@ public class DelegatorEcaHandler implements EntityEcaHandler<EntityEcaRule> {
             return;
         }
 
+        // SCIPIO: use the rules pre-indexed by event and operation when available
+        if (eventMap instanceof EntityEcaEventMap) {
+            EntityEcaRule[] rules = ((EntityEcaEventMap) eventMap).getRules(event, currentOperation);
+            if (rules.length == 0) {
+                return;
+            }
+            if (Debug.verboseOn()) Debug.logVerbose("Running ECA (" + event + ").", module);
+            DispatchContext dctx = this.getDispatchContext();
+            Set<String> actionsRun = new TreeSet<String>();
+            for (EntityEcaRule eca: rules) {
+                eca.eval(currentOperation, dctx, value, isError, actionsRun);
+            }
+            return;
+        }
+
         List<EntityEcaRule> rules = eventMap.get(event);
         //Debug.logInfo("Handler.evalRules for entity " + value.getEntityName() + ", event " + event + ", num rules=" + (rules == null ? 0 : rules.size()), module);
 
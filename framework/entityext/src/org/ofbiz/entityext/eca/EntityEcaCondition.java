@@ -23,6 +23,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
+import org.ofbiz.base.util.CompiledComparison;
 import org.ofbiz.base.util.Debug;
 import org.ofbiz.base.util.ObjectType;
 import org.ofbiz.base.util.UtilMisc;
@@ -51,6 +52,8 @@ public final class EntityEcaCondition implements java.io.Serializable {
     protected boolean constant = false;
     protected boolean isService = false;
     protected String conditionService = null;
+    /** SCIPIO: The comparison compiled at load time, or null if it is not compilable; see {@link CompiledComparison}. */
+    protected transient CompiledComparison compiledComparison = null;
 
     public EntityEcaCondition(Element condition, boolean constant, boolean isService) {
         if (isService) {
@@ -67,6 +70,7 @@ public final class EntityEcaCondition implements java.io.Serializable {
         this.operator = condition.getAttribute("operator");
         this.compareType = condition.getAttribute("type");
         this.format = condition.getAttribute("format");
+        this.compiledComparison = CompiledComparison.compile(operator, compareType, format, constant, rhsValueName);
         }
     }
 
@@ -108,6 +112,14 @@ public final class EntityEcaCondition implements java.io.Serializable {
 
         if (Debug.verboseOn()) Debug.logVerbose("Comparing : " + lhsValue + " " + operator + " " + rhsValue, module);
 
+        // SCIPIO: try the compiled comparison first; it covers the common String/number cases without doRealCompare
+        if (compiledComparison != null) {
+            Boolean cond = compiledComparison.compare(lhsValue, rhsValue);
+            if (cond != null) {
+                return cond;
+            }
+        }
+
         // evaluate the condition & invoke the action(s)
         List<Object> messages = new LinkedList<Object>();
         Boolean cond = ObjectType.doRealCompare(lhsValue, rhsValue, operator, compareType, format, messages, null, dctx.getClassLoader(), constant);
@@ -185,6 +197,11 @@ public final class EntityEcaCondition implements java.io.Serializable {
         }
     }
 
+    /** SCIPIO: Returns true for a condition-service. */
+    public boolean isService() {
+        return isService;
+    }
+
     protected List<String> getFieldNames() {
         List<String> fieldNameList = new ArrayList<String>();
         if( UtilValidate.isNotEmpty(lhsValueName) ) {
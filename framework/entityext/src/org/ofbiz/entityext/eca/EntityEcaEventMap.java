@@ -0,0 +1,113 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.entityext.eca;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.ofbiz.entity.eca.EntityEcaHandler;
+
+/**
+ * SCIPIO: Read-only event map of one entity (event name to rules) that also indexes the rules by operation,
+ * built once when the entity ECA definitions are loaded.
+ * <p>
+ * {@link #getRules(String, String)} returns the rules of an event that apply to an operation as a ready array,
+ * so {@link DelegatorEcaHandler#evalRules} no longer walks every rule of the event and string-matches its operation.
+ */
+public final class EntityEcaEventMap extends AbstractMap<String, List<EntityEcaRule>> {
+
+    private static final String[] OPERATIONS = new String[] {
+            EntityEcaHandler.OP_CREATE, EntityEcaHandler.OP_STORE, EntityEcaHandler.OP_REMOVE, EntityEcaHandler.OP_FIND };
+    private static final EntityEcaRule[] NO_RULES = new EntityEcaRule[0];
+
+    private final Map<String, List<EntityEcaRule>> eventMap;
+    /** Rules per event, indexed by the position of the operation in {@link #OPERATIONS}. */
+    private final Map<String, EntityEcaRule[][]> operationRules;
+
+    public EntityEcaEventMap(Map<String, List<EntityEcaRule>> eventMap) {
+        Map<String, List<EntityEcaRule>> events = new HashMap<>();
+        Map<String, EntityEcaRule[][]> operationRules = new HashMap<>();
+        for (Map.Entry<String, List<EntityEcaRule>> entry : eventMap.entrySet()) {
+            List<EntityEcaRule> rules = Collections.unmodifiableList(new ArrayList<>(entry.getValue()));
+            events.put(entry.getKey(), rules);
+            EntityEcaRule[][] rulesByOperation = new EntityEcaRule[OPERATIONS.length][];
+            for (int i = 0; i < OPERATIONS.length; i++) {
+                List<EntityEcaRule> operationRuleList = new ArrayList<>(rules.size());
+                for (EntityEcaRule rule : rules) {
+                    // same test as EntityEcaRule.eval
+                    if ("any".equals(rule.getOperationName()) || rule.getOperationName().indexOf(OPERATIONS[i]) != -1) {
+                        operationRuleList.add(rule);
+                    }
+                }
+                rulesByOperation[i] = operationRuleList.isEmpty() ? NO_RULES : operationRuleList.toArray(new EntityEcaRule[operationRuleList.size()]);
+            }
+            operationRules.put(entry.getKey(), rulesByOperation);
+        }
+        this.eventMap = Collections.unmodifiableMap(events);
+        this.operationRules = operationRules;
+    }
+
+    /**
+     * Returns the rules of the event that apply to the operation, in definition order; never null.
+     * For an operation other than create, store, remove or find, returns all the rules of the event.
+     */
+    public EntityEcaRule[] getRules(String event, String operation) {
+        EntityEcaRule[][] rulesByOperation = operationRules.get(event);
+        if (rulesByOperation == null) {
+            return NO_RULES;
+        }
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            if (OPERATIONS[i].equals(operation)) {
+                return rulesByOperation[i];
+            }
+        }
+        List<EntityEcaRule> rules = eventMap.get(event);
+        return rules.toArray(new EntityEcaRule[rules.size()]);
+    }
+
+    @Override
+    public List<EntityEcaRule> get(Object key) {
+        return eventMap.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return eventMap.containsKey(key);
+    }
+
+    @Override
+    public int size() {
+        return eventMap.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return eventMap.isEmpty();
+    }
+
+    @Override
+    public Set<Map.Entry<String, List<EntityEcaRule>>> entrySet() {
+        return eventMap.entrySet();
+    }
+}
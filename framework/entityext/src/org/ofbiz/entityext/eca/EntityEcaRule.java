@@ -52,6 +52,8 @@ public final class EntityEcaRule implements java.io.Serializable {
     private final List<Object> actionsAndSets;
     private boolean enabled = true;
     private final List<String> conditionFieldNames  = new ArrayList<String>();
+    /** SCIPIO: True if a condition-service needs the context before the actions run. */
+    private final boolean hasServiceCondition;
 
     public EntityEcaRule(Element eca) {
         this.entityName = eca.getAttribute("entity");
@@ -82,6 +84,11 @@ public final class EntityEcaRule implements java.io.Serializable {
             }
         }
         conditions.trimToSize();
+        boolean hasServiceCondition = false;
+        for (EntityEcaCondition ecaCond : conditions) {
+            hasServiceCondition |= ecaCond.isService();
+        }
+        this.hasServiceCondition = hasServiceCondition;
         this.conditions = Collections.unmodifiableList(conditions);
         actionsAndSets.trimToSize();
         this.actionsAndSets = Collections.unmodifiableList(actionsAndSets);
@@ -130,14 +137,17 @@ public final class EntityEcaRule implements java.io.Serializable {
             return;
         }
         // Are fields tested in a condition missing? If so, we need to load them
-        List<String> fieldsToLoad = new ArrayList<String>();
+        List<String> fieldsToLoad = null; // SCIPIO: only allocated if a field is missing
         for( String conditionFieldName : conditionFieldNames) {
             if( value.get(conditionFieldName) == null) {
+                if (fieldsToLoad == null) {
+                    fieldsToLoad = new ArrayList<String>();
+                }
                 fieldsToLoad.add(conditionFieldName);
             }
         }
 
-        if(!fieldsToLoad.isEmpty()) {
+        if(fieldsToLoad != null) {
             Delegator delegator = dctx.getDelegator();
             GenericValue oldValue = EntityQuery.use(delegator).from(entityName).where(value.getPrimaryKey()).queryOne();
             if(UtilValidate.isNotEmpty(oldValue)) {
@@ -147,8 +157,8 @@ public final class EntityEcaRule implements java.io.Serializable {
             }
         }
 
-        Map<String, Object> context = new HashMap<String, Object>();
-        context.putAll(value);
+        // SCIPIO: the context copy is only needed by condition-services and actions, so skip it while plain conditions fail
+        Map<String, Object> context = hasServiceCondition ? new HashMap<String, Object>(value) : null;
 
         boolean allCondTrue = true;
         for (EntityEcaCondition ec: conditions) {
@@ -159,6 +169,9 @@ public final class EntityEcaRule implements java.io.Serializable {
         }
 
         if (allCondTrue) {
+            if (context == null) {
+                context = new HashMap<String, Object>(value);
+            }
             for (Object actionOrSet: actionsAndSets) {
                 if (actionOrSet instanceof EntityEcaAction) {
                     EntityEcaAction ea = (EntityEcaAction) actionOrSet;
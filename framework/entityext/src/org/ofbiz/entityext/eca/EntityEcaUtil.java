@@ -129,6 +129,11 @@ public final class EntityEcaUtil {
                 rules.add(rule);
             }
         }
+
+        // SCIPIO: freeze each entity's rules into an event map indexed by operation
+        for (Map.Entry<String, Map<String, List<EntityEcaRule>>> entry : ecaCache.entrySet()) {
+            entry.setValue(new EntityEcaEventMap(entry.getValue()));
+        }
     }
 
     private static List<EntityEcaRule> getEcaDefinitions(ResourceHandler handler) {
@@ -18,6 +18,7 @@
  *******************************************************************************/
 package org.ofbiz.service;
 
+import java.util.List;
 import java.util.Map;
 
 import org.ofbiz.base.util.Debug;
@@ -110,6 +111,17 @@ public class GenericDispatcherFactory implements LocalDispatcherFactory {
             return runSync(serviceName, ServiceUtil.makeContext(context), transactionTimeout, requireNewTransaction);
         }
 
+        @Override
+        public ServiceBatchResult runSyncBatch(String serviceName, List<? extends Map<String, ? extends Object>> contexts, int commitSize, int transactionTimeout) throws GenericServiceException {
+            ModelService service = ctx.getModelService(serviceName);
+            if (transactionTimeout != -1) {
+                // clone the model service for updates
+                service = new ModelService(service);
+                service.transactionTimeout = transactionTimeout;
+            }
+            return dispatcher.runSyncBatch(this.name, service, contexts, commitSize);
+        }
+
         @Override
         public void runSyncIgnore(String serviceName, Map<String, ? extends Object> context) throws GenericServiceException {
             ModelService service = ctx.getModelService(serviceName);
@@ -18,6 +18,7 @@
  *******************************************************************************/
 package org.ofbiz.service;
 
+import java.util.List;
 import java.util.Map;
 
 import org.ofbiz.entity.Delegator;
@@ -104,6 +105,38 @@ public interface LocalDispatcher {
         return runSync(serviceName, context, -1, true);
     }
 
+    /**
+     * SCIPIO: Run the service synchronously once per item context, resolving the service once, and return the per-item
+     * results and errors. Services that join the caller transaction run in transactions of <code>commitSize</code>
+     * items (0: all in one); a group with a failed item is rolled back and its items rerun one by one.
+     * See {@link ServiceDispatcher#runSyncBatch(String, ModelService, List, int)}.
+     * @param serviceName Name of the service to run.
+     * @param contexts the item contexts.
+     * @param commitSize the number of items per transaction; 0 for all, 1 for one transaction per item.
+     * @param transactionTimeout the overriding timeout for each transaction, or -1 for the service default.
+     * @return the per-item results and errors.
+     * @throws GenericServiceException if the service cannot be resolved or a transaction cannot be managed; item errors
+     *             are returned in the result instead
+     */
+    ServiceBatchResult runSyncBatch(String serviceName, List<? extends Map<String, ? extends Object>> contexts, int commitSize, int transactionTimeout) throws GenericServiceException;
+
+    /**
+     * SCIPIO: Run the service synchronously once per item context, in transactions of <code>commitSize</code> items.
+     * @see #runSyncBatch(String, List, int, int)
+     */
+    default ServiceBatchResult runSyncBatch(String serviceName, List<? extends Map<String, ? extends Object>> contexts, int commitSize) throws GenericServiceException {
+        return runSyncBatch(serviceName, contexts, commitSize, -1);
+    }
+
+    /**
+     * SCIPIO: Run the service synchronously once per item context, in transactions of the default size
+     * (service.properties <code>runSyncBatch.commitSize</code>).
+     * @see #runSyncBatch(String, List, int, int)
+     */
+    default ServiceBatchResult runSyncBatch(String serviceName, List<? extends Map<String, ? extends Object>> contexts) throws GenericServiceException {
+        return runSyncBatch(serviceName, contexts, ServiceDispatcher.getDefaultBatchCommitSize(), -1);
+    }
+
     /**
      * Run the service synchronously and IGNORE the result.
      * @param serviceName Name of the service to run.
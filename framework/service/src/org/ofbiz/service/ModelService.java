@@ -195,6 +195,9 @@ public class ModelService extends AbstractMap<String, Object> implements Seriali
     /** Sets the max number of times this service will retry when failed (persisted async only) */
     public int maxRetry = -1;
 
+    /** SCIPIO: Job queue priority when run async (see {@link org.ofbiz.service.job.JobPriority}) */
+    public int priority = org.ofbiz.service.job.JobPriority.NORMAL;
+
     /** Permission service name */
     public String permissionServiceName;
 
@@ -289,6 +292,8 @@ public class ModelService extends AbstractMap<String, Object> implements Seriali
     LogLevel ecaLogLevel = LogLevel.NORMAL;
     
     private transient List<ModelParam> typeConvertParamList; // SCIPIO
+    private transient volatile ModelServiceValidator inValidator; // SCIPIO
+    private transient volatile ModelServiceValidator outValidator; // SCIPIO
 
     public ModelService() {}
 
@@ -318,6 +323,7 @@ public class ModelService extends AbstractMap<String, Object> implements Seriali
         }
         this.transactionTimeout = model.transactionTimeout;
         this.maxRetry = model.maxRetry;
+        this.priority = model.priority;
         this.permissionServiceName = model.permissionServiceName;
         this.permissionMainAction = model.permissionMainAction;
         this.permissionResourceDesc = model.permissionResourceDesc;
@@ -487,6 +493,7 @@ public class ModelService extends AbstractMap<String, Object> implements Seriali
         if (param != null) {
             contextInfo.put(param.name, param);
             contextParamList.add(param);
+            clearValidators(); // SCIPIO
         }
     }
 
@@ -596,6 +603,22 @@ public class ModelService extends AbstractMap<String, Object> implements Seriali
      * @param locale the actual locale to use
      */
     public void validate(Map<String, Object> context, String mode, Locale locale) throws ServiceValidationException {
+        // SCIPIO: check with the compiled parameters first; the full validation only runs to report errors
+        ModelServiceValidator validator = getValidator(mode);
+        if (validator != null && context != null && validator.isValid(context)) {
+            return;
+        }
+        validateFull(context, mode, locale);
+    }
+
+    /**
+     * SCIPIO: Validates a Map against the IN or OUT parameter information, without the compiled parameters of
+     * {@link #getValidator(String)}; this is what {@link #validate(Map, String, Locale)} runs when they find an error.
+     * @param context the context
+     * @param mode Test either mode IN or mode OUT
+     * @param locale the actual locale to use
+     */
+    public void validateFull(Map<String, Object> context, String mode, Locale locale) throws ServiceValidationException {
         Map<String, String> requiredInfo = new HashMap<>();
         Map<String, String> optionalInfo = new HashMap<>();
 
@@ -987,6 +1010,42 @@ public class ModelService extends AbstractMap<String, Object> implements Seriali
             timeZone = getTimeZone(source, locale, errorMessages); // SCIPIO: Refactored
         }
 
+        // SCIPIO: with the compiled parameters, values that already have the parameter type are not converted
+        ModelServiceValidator validator = getValidator(mode);
+        if (validator != null && validator.isCompiled()) {
+            for (ModelServiceValidator.CompiledParam compiledParam : validator.getParams()) {
+                ModelParam param = compiledParam.param;
+                String key = param.name;
+                if (UtilValidate.isNotEmpty(param.stringMapPrefix) && !source.containsKey(key)) {
+                    Map<String, Object> paramMap = this.makePrefixMap(source, param);
+                    if (UtilValidate.isNotEmpty(paramMap)) {
+                        target.put(key, paramMap);
+                    }
+                } else if (UtilValidate.isNotEmpty(param.stringListSuffix) && !source.containsKey(key)) {
+                    List<Object> paramList = this.makeSuffixList(source, param);
+                    if (UtilValidate.isNotEmpty(paramList)) {
+                        target.put(key, paramList);
+                    }
+                } else if (source.containsKey(key) && (includeInternal || !param.internal)) {
+                    Object value = source.get(key);
+                    if (!compiledParam.isConverted(value)) {
+                        try {
+                            // no need to fail on type conversion; the validator will catch this
+                            value = ObjectType.simpleTypeConvert(value, param.type, null, timeZone, locale, false);
+                        } catch (GeneralException e) {
+                            String errMsg = "Type conversion of field [" + key + "] to type [" + param.type + "] failed for value \"" + value + "\": " + e.toString();
+                            Debug.logWarning("[ModelService.makeValid] : " + errMsg, module);
+                            if (errorMessages != null) {
+                                errorMessages.add(errMsg);
+                            }
+                        }
+                    }
+                    target.put(key, value);
+                }
+            }
+            return target;
+        }
+
         for (ModelParam param: contextParamList) {
             if (param.mode.equals(IN_OUT_PARAM) || param.mode.equals(mode)) {
                 String key = param.name;
@@ -1154,18 +1213,27 @@ public class ModelService extends AbstractMap<String, Object> implements Seriali
      * @return result of permission service invocation
      */
     public Map<String, Object> evalPermission(DispatchContext dctx, Map<String, ? extends Object> context) {
+        return evalPermission(dctx, context, null);
+    }
+
+    /**
+     * SCIPIO: Evaluates the permission service, given its model if already resolved (e.g. once for a batch of calls);
+     * if null, it is looked up.
+     */
+    public Map<String, Object> evalPermission(DispatchContext dctx, Map<String, ? extends Object> context, ModelService permission) {
         if (UtilValidate.isNotEmpty(this.permissionServiceName)) {
-            ModelService thisService;
-            ModelService permission;
-            try {
-                thisService = dctx.getModelService(this.name);
-                permission = dctx.getModelService(this.permissionServiceName);
-            } catch (GenericServiceException e) {
-                Debug.logError(e, "Failed to get ModelService: " + e.toString(), module);
-                Map<String, Object> result = ServiceUtil.returnSuccess();
-                result.put("hasPermission", Boolean.FALSE);
-                result.put("failMessage", e.getMessage());
-                return result;
+            ModelService thisService = this;
+            if (permission == null) {
+                try {
+                    thisService = dctx.getModelService(this.name);
+                    permission = dctx.getModelService(this.permissionServiceName);
+                } catch (GenericServiceException e) {
+                    Debug.logError(e, "Failed to get ModelService: " + e.toString(), module);
+                    Map<String, Object> result = ServiceUtil.returnSuccess();
+                    result.put("hasPermission", Boolean.FALSE);
+                    result.put("failMessage", e.getMessage());
+                    return result;
+                }
             }
             Map<String, Object> ctx = permission.makeValid(context, IN_PARAM);
             if (UtilValidate.isNotEmpty(this.permissionMainAction)) {
@@ -1396,6 +1464,7 @@ public class ModelService extends AbstractMap<String, Object> implements Seriali
 
             // set the flag so we don't do this again
             this.inheritedParameters = true;
+            clearValidators(); // SCIPIO: parameters may have changed mode or optional
         }
     }
 
@@ -2357,6 +2426,36 @@ public class ModelService extends AbstractMap<String, Object> implements Seriali
         return paramList;
     }
 
+    /**
+     * SCIPIO: Returns the compiled parameters of the IN or OUT mode, built on first use, or null for other modes.
+     */
+    public ModelServiceValidator getValidator(String mode) {
+        if (IN_PARAM.equals(mode)) {
+            ModelServiceValidator validator = inValidator;
+            if (validator == null) {
+                validator = new ModelServiceValidator(this, IN_PARAM);
+                inValidator = validator;
+            }
+            return validator;
+        } else if (OUT_PARAM.equals(mode)) {
+            ModelServiceValidator validator = outValidator;
+            if (validator == null) {
+                validator = new ModelServiceValidator(this, OUT_PARAM);
+                outValidator = validator;
+            }
+            return validator;
+        }
+        return null;
+    }
+
+    /**
+     * SCIPIO: Discards the compiled parameters; must be called after changing the parameters of this service.
+     */
+    public void clearValidators() {
+        inValidator = null;
+        outValidator = null;
+    }
+
     /**
      * SCIPIO: Returns true if the given field name is in {@link #SYS_RESPONSE_FIELDS}.
      */
@@ -252,6 +252,16 @@ public class ModelServiceReader implements Serializable {
         }
         service.maxRetry = maxRetry;
 
+        // SCIPIO: set the job queue priority
+        String priorityStr = UtilXml.checkEmpty(serviceElement.getAttribute("priority"));
+        if (UtilValidate.isNotEmpty(priorityStr)) {
+            try {
+                service.priority = Integer.parseInt(priorityStr);
+            } catch (NumberFormatException e) {
+                Debug.logWarning(e, "Setting priority to " + service.priority + " (default)", module);
+            }
+        }
+
         // get the timeout and convert to int
         String timeoutStr = UtilXml.checkEmpty(serviceElement.getAttribute("transaction-timeout"), serviceElement.getAttribute("transaction-timout"));
         int timeout = 0;
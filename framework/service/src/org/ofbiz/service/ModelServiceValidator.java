@@ -0,0 +1,253 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.service;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.GeneralException;
+import org.ofbiz.base.util.ObjectType;
+import org.ofbiz.base.util.UtilCodec;
+import org.ofbiz.base.util.UtilValidate;
+import org.w3c.dom.Node;
+
+/**
+ * SCIPIO: The parameters of one mode (IN or OUT) of a {@link ModelService}, compiled for
+ * {@link ModelService#validate(Map, String, java.util.Locale)} and {@link ModelService#makeValid}: the parameter types
+ * are resolved to classes and the parameter validator methods looked up once, instead of on every call.
+ * <p>
+ * {@link #isValid(Map)} checks a context in a single pass over the parameters, without allocating (except to check
+ * non-empty String parameters for HTML); when it finds any problem, the service runs the full validation, which
+ * reports the same errors as before. Built on first use and discarded when the service parameters change.
+ */
+public final class ModelServiceValidator {
+
+    private static final Debug.OfbizLogger module = Debug.getOfbizLogger(java.lang.invoke.MethodHandles.lookup().lookupClass());
+
+    private final String mode;
+    private final CompiledParam[] params;
+
+    ModelServiceValidator(ModelService model, String mode) {
+        this.mode = mode;
+        Map<String, ModelParam> modeParams = new LinkedHashMap<>();
+        boolean duplicates = false;
+        for (ModelParam param : model.contextParamList) {
+            if (ModelService.IN_OUT_PARAM.equals(param.mode) || mode.equals(param.mode)) {
+                duplicates |= (modeParams.put(param.name, param) != null);
+            }
+        }
+        if (duplicates) {
+            // the full validation and makeValid handle parameters listed twice in their own ways; leave it to them
+            Debug.logWarning("Service [" + model.name + "] has duplicate " + mode + " parameters; using full validation", module);
+            this.params = null;
+        } else {
+            this.params = new CompiledParam[modeParams.size()];
+            int i = 0;
+            for (ModelParam param : modeParams.values()) {
+                this.params[i++] = new CompiledParam(param, mode);
+            }
+        }
+    }
+
+    public String getMode() {
+        return mode;
+    }
+
+    /** Returns false if the parameters could not be compiled; the full validation and makeValid must be used. */
+    public boolean isCompiled() {
+        return params != null;
+    }
+
+    /**
+     * Returns true if the context passes validation: all required parameters are present and not null, there are no
+     * unknown parameters, all values are of the parameter types and pass the parameter validators, and (IN mode)
+     * String values contain no HTML unless allowed. Returns false if anything fails or cannot be decided here.
+     */
+    public boolean isValid(Map<String, ?> context) {
+        if (params == null) {
+            return false;
+        }
+        int found = 0;
+        List<String> htmlErrors = null;
+        for (CompiledParam param : params) {
+            Object value = context.get(param.name);
+            if (value == null) {
+                if (param.required) {
+                    return false;
+                } else if (!context.containsKey(param.name)) {
+                    continue;
+                }
+            }
+            found++;
+            if (!param.isValidType(value)) {
+                return false;
+            }
+            if (param.checkHtml && value != null) {
+                if (!(value instanceof String)) {
+                    return false;
+                }
+                String stringValue = (String) value;
+                if (!stringValue.isEmpty()) {
+                    if (htmlErrors == null) {
+                        htmlErrors = new ArrayList<>();
+                    }
+                    UtilCodec.checkStringForHtmlStrictNone(param.name, stringValue, htmlErrors);
+                    if (!htmlErrors.isEmpty()) {
+                        return false;
+                    }
+                }
+            }
+        }
+        // any other key is an unknown parameter
+        return found == context.size();
+    }
+
+    CompiledParam[] getParams() {
+        return params;
+    }
+
+    static final class CompiledParam {
+        final ModelParam param;
+        final String name;
+        final boolean required;
+        /** The class of the parameter type, for the type check; null if it cannot be loaded. */
+        final Class<?> typeClass;
+        /** True if the values are checked against the type: there are no validators, or one has no method. */
+        final boolean typeCheck;
+        /** The parameter validators with a method; null if none. */
+        final CompiledValidator[] validators;
+        /** False if a validator class or method cannot be loaded. */
+        final boolean validatorsResolved;
+        final boolean checkHtml;
+        /** The class simpleTypeConvert converts to; values of exactly this class are left as is. Null if unknown. */
+        final Class<?> convertClass;
+
+        CompiledParam(ModelParam param, String mode) {
+            this.param = param;
+            this.name = param.name;
+            this.required = !param.optional;
+
+            Class<?> typeClass = null;
+            try {
+                typeClass = ObjectType.loadInfoClass(param.type, null);
+            } catch (IllegalArgumentException e) {
+                // reported by the full validation
+            }
+            this.typeClass = typeClass;
+
+            boolean typeCheck = UtilValidate.isEmpty(param.validators);
+            List<CompiledValidator> validators = new ArrayList<>();
+            boolean validatorsResolved = true;
+            if (param.validators != null) {
+                for (ModelParam.ModelParamValidator validator : param.validators) {
+                    if (UtilValidate.isNotEmpty(validator.getMethodName())) {
+                        CompiledValidator compiled = CompiledValidator.compile(validator);
+                        if (compiled != null) {
+                            validators.add(compiled);
+                        } else {
+                            validatorsResolved = false;
+                        }
+                    } else {
+                        typeCheck = true;
+                    }
+                }
+            }
+            this.typeCheck = typeCheck;
+            this.validators = validators.isEmpty() ? null : validators.toArray(new CompiledValidator[0]);
+            this.validatorsResolved = validatorsResolved;
+
+            this.checkHtml = ModelService.IN_PARAM.equals(mode) && ("String".equals(param.type) || "java.lang.String".equals(param.type))
+                    && !"any".equals(param.allowHtml);
+
+            Class<?> convertClass = null;
+            String convertType = param.type;
+            if (UtilValidate.isNotEmpty(convertType) && !"PlainString".equals(convertType)) {
+                int genericsStart = convertType.indexOf("<");
+                if (genericsStart != -1) {
+                    convertType = convertType.substring(0, genericsStart);
+                }
+                convertClass = ObjectType.loadClassOrNull(convertType);
+                if (convertClass != null && Node.class.isAssignableFrom(convertClass)) {
+                    // simpleTypeConvert turns nodes into their text
+                    convertClass = null;
+                }
+            }
+            this.convertClass = convertClass;
+        }
+
+        boolean isValidType(Object value) {
+            if (typeCheck && (typeClass == null || !ObjectType.instanceOf(value, typeClass))) {
+                return false;
+            }
+            if (validators != null) {
+                for (CompiledValidator validator : validators) {
+                    if (!validator.isValid(value)) {
+                        return false;
+                    }
+                }
+            }
+            return validatorsResolved;
+        }
+
+        /** Returns true if makeValid can keep the value as is, without calling simpleTypeConvert. */
+        boolean isConverted(Object value) {
+            return value == null || (convertClass != null && value.getClass() == convertClass);
+        }
+    }
+
+    /** A parameter validator method, as called by {@link ModelService#typeValidate}. */
+    static final class CompiledValidator {
+        final Method method;
+        final boolean objectParam;
+
+        private CompiledValidator(Method method, boolean objectParam) {
+            this.method = method;
+            this.objectParam = objectParam;
+        }
+
+        static CompiledValidator compile(ModelParam.ModelParamValidator validator) {
+            Class<?> validatorClass = ObjectType.loadClassOrNull(validator.getClassName());
+            if (validatorClass == null) {
+                return null;
+            }
+            try {
+                return new CompiledValidator(validatorClass.getMethod(validator.getMethodName(), Object.class), true);
+            } catch (NoSuchMethodException e) {
+                try {
+                    return new CompiledValidator(validatorClass.getMethod(validator.getMethodName(), String.class), false);
+                } catch (NoSuchMethodException e2) {
+                    return null;
+                }
+            }
+        }
+
+        boolean isValid(Object value) {
+            try {
+                Object param = objectParam ? value : ObjectType.simpleTypeConvert(value, "String", null, null);
+                return Boolean.TRUE.equals(method.invoke(null, param));
+            } catch (GeneralException | ReflectiveOperationException | RuntimeException e) {
+                return false;
+            }
+        }
+    }
+}
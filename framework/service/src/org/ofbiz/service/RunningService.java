@@ -27,6 +27,7 @@ public class RunningService {
     protected ModelService model;
     protected String name;
     protected int mode;
+    protected String traceId; // SCIPIO
 
     protected Timestamp startStamp;
     protected Timestamp endStamp;
@@ -41,6 +42,7 @@ public class RunningService {
         this.name = localName;
         this.model = model;
         this.mode = mode;
+        this.traceId = ServiceTrace.getCurrentTraceId();
     }
 
     public ModelService getModelService() {
@@ -55,6 +57,13 @@ public class RunningService {
         return mode;
     }
 
+    /**
+     * SCIPIO: Returns the {@link ServiceTrace} ID the service was called in.
+     */
+    public String getTraceId() {
+        return traceId;
+    }
+
     public Timestamp getStartStamp() {
         return (Timestamp) this.startStamp.clone();
     }
@@ -0,0 +1,137 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * SCIPIO: The per-item results of {@link LocalDispatcher#runSyncBatch}, in the order of the item contexts.
+ * <p>
+ * An item that threw an exception has no result map, only the exception; an item whose service returned an error or
+ * failure has its result map with the error messages, as from runSync.
+ */
+public class ServiceBatchResult {
+
+    private final Map<String, Object>[] results;
+    private final GenericServiceException[] exceptions;
+    private int transactionGroups;
+    private int retriedGroups;
+
+    @SuppressWarnings("unchecked")
+    ServiceBatchResult(int size) {
+        this.results = new Map[size];
+        this.exceptions = new GenericServiceException[size];
+    }
+
+    void setResult(int index, Map<String, Object> result) {
+        results[index] = result;
+        exceptions[index] = null;
+    }
+
+    void setException(int index, GenericServiceException exception) {
+        results[index] = null;
+        exceptions[index] = exception;
+    }
+
+    void addTransactionGroup(boolean retried) {
+        transactionGroups++;
+        if (retried) {
+            retriedGroups++;
+        }
+    }
+
+    /** Returns the number of items. */
+    public int size() {
+        return results.length;
+    }
+
+    /** Returns the result of the item, or null if the service threw an exception. */
+    public Map<String, Object> getResult(int index) {
+        return results[index];
+    }
+
+    /** Returns the item results, with null for items whose service threw an exception. */
+    public List<Map<String, Object>> getResults() {
+        return Collections.unmodifiableList(Arrays.asList(results));
+    }
+
+    /** Returns the exception thrown by the service of the item, or null. */
+    public GenericServiceException getException(int index) {
+        return exceptions[index];
+    }
+
+    /** Returns true if the service of the item threw an exception or returned an error. */
+    public boolean isError(int index) {
+        return exceptions[index] != null || ServiceUtil.isError(results[index]);
+    }
+
+    /** Returns true if the service of the item returned a failure. */
+    public boolean isFailure(int index) {
+        return results[index] != null && ServiceUtil.isFailure(results[index]);
+    }
+
+    /** Returns the error message of the item: the exception message, or the error/failure messages of the result. */
+    public String getErrorMessage(int index) {
+        if (exceptions[index] != null) {
+            return exceptions[index].getMessage();
+        }
+        return ServiceUtil.getErrorMessage(results[index]);
+    }
+
+    /** Returns the indexes of the items that threw an exception or returned an error or failure. */
+    public List<Integer> getErrorIndexes() {
+        List<Integer> indexes = new ArrayList<>();
+        for (int i = 0; i < results.length; i++) {
+            if (isError(i) || isFailure(i)) {
+                indexes.add(i);
+            }
+        }
+        return indexes;
+    }
+
+    /** Returns true if any item threw an exception or returned an error or failure. */
+    public boolean hasErrors() {
+        for (int i = 0; i < results.length; i++) {
+            if (isError(i) || isFailure(i)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Returns the number of transactions the items were grouped in; 0 if each item ran as its own service call. */
+    public int getTransactionGroups() {
+        return transactionGroups;
+    }
+
+    /** Returns the number of transaction groups that were rolled back because of an item error and rerun item by item. */
+    public int getRetriedGroups() {
+        return retriedGroups;
+    }
+
+    @Override
+    public String toString() {
+        return "ServiceBatchResult[size=" + results.length + ", errors=" + getErrorIndexes().size() + ", transactionGroups="
+                + transactionGroups + ", retriedGroups=" + retriedGroups + "]";
+    }
+}
@@ -79,6 +79,7 @@ public class ServiceDispatcher {
     private static boolean enableSvcs = true;
 
     private static boolean autoMakeValidForServicesWithPermService = UtilProperties.getPropertyAsBoolean("service", "autoMakeValidForServicesWithPermService", true);
+    private static final int defaultBatchCommitSize = UtilProperties.getPropertyAsInteger("service", "runSyncBatch.commitSize", 100); // SCIPIO
 
     protected Delegator delegator = null;
     protected GenericEngineFactory factory = null;
@@ -261,6 +262,127 @@ public class ServiceDispatcher {
         runSync(localName, service, context, false);
     }
 
+    /**
+     * SCIPIO: Returns the default number of items per transaction of {@link LocalDispatcher#runSyncBatch(String, List)}.
+     */
+    public static int getDefaultBatchCommitSize() {
+        return defaultBatchCommitSize;
+    }
+
+    /**
+     * SCIPIO: Runs the service synchronously once per item context, with the service model, ECA rules and permission
+     * service resolved once for the batch.
+     * <p>
+     * If the service joins the caller transaction (use-transaction without require-new-transaction), the items run in
+     * transactions of <code>commitSize</code> items (0: all in one transaction; 1: each item in its own, as runSync),
+     * suspending any caller transaction. When an item of a group throws or returns an error, the whole group is rolled
+     * back and its items rerun one by one, each in its own transaction, so one bad item cannot undo the others; their
+     * non-transactional side effects may then happen twice. Services that require a new transaction or use none always
+     * run item by item.
+     * @param localName Name of the context to use.
+     * @param modelService Service model object.
+     * @param contexts the item contexts
+     * @param commitSize the number of items per transaction; 0 for all
+     * @return the per-item results and errors
+     * @throws GenericServiceException if the service cannot be resolved or a transaction cannot be managed
+     */
+    public ServiceBatchResult runSyncBatch(String localName, ModelService modelService, List<? extends Map<String, ? extends Object>> contexts,
+            int commitSize) throws GenericServiceException {
+        ServiceBatchResult batchResult = new ServiceBatchResult(contexts.size());
+        if (contexts.isEmpty()) {
+            return batchResult;
+        }
+        // resolve once for all items, so a broken engine definition fails the batch rather than every item
+        ResolvedService resolved = resolveService(localName, modelService);
+
+        boolean group = (commitSize != 1) && modelService.useTransaction && !modelService.requireNewTransaction;
+        if (!group) {
+            for (int i = 0; i < contexts.size(); i++) {
+                runSyncBatchItem(localName, modelService, resolved, contexts, i, batchResult);
+            }
+            return batchResult;
+        }
+
+        int groupSize = (commitSize > 0) ? commitSize : contexts.size();
+        Transaction parentTransaction = null;
+        try {
+            if (TransactionUtil.isTransactionInPlace()) {
+                parentTransaction = TransactionUtil.suspend();
+            }
+            for (int start = 0; start < contexts.size(); start += groupSize) {
+                runSyncBatchGroup(localName, modelService, resolved, contexts, start, Math.min(start + groupSize, contexts.size()), batchResult);
+            }
+        } catch (GenericTransactionException e) {
+            throw new GenericServiceException("Transaction error in batch of service [" + modelService.name + "]", e);
+        } finally {
+            if (parentTransaction != null) {
+                try {
+                    TransactionUtil.resume(parentTransaction);
+                } catch (GenericTransactionException e) {
+                    Debug.logError(e, "Could not resume parent transaction after batch of service [" + modelService.name + "]", module);
+                }
+            }
+        }
+        return batchResult;
+    }
+
+    /** SCIPIO: Runs the items from start (inclusive) to end (exclusive) in one transaction; see {@link #runSyncBatch}. */
+    private void runSyncBatchGroup(String localName, ModelService modelService, ResolvedService resolved,
+            List<? extends Map<String, ? extends Object>> contexts, int start, int end, ServiceBatchResult batchResult) throws GenericTransactionException {
+        boolean beganTrans = TransactionUtil.begin(modelService.transactionTimeout);
+        boolean failed = false;
+        try {
+            for (int i = start; i < end && !failed; i++) {
+                failed = !runSyncBatchItem(localName, modelService, resolved, contexts, i, batchResult)
+                        || (beganTrans && TransactionUtil.getStatus() == javax.transaction.Status.STATUS_MARKED_ROLLBACK);
+            }
+        } catch (RuntimeException | Error e) {
+            TransactionUtil.rollback(beganTrans, "Batch of service [" + modelService.name + "] failed", e);
+            throw e;
+        }
+        if (!beganTrans) {
+            // no transaction manager, or unable to begin; the items ran in their own transactions anyway
+            for (int i = start; i < end; i++) {
+                if (batchResult.getResult(i) == null && batchResult.getException(i) == null) {
+                    runSyncBatchItem(localName, modelService, resolved, contexts, i, batchResult);
+                }
+            }
+            return;
+        }
+        if (!failed) {
+            try {
+                TransactionUtil.commit(beganTrans);
+                batchResult.addTransactionGroup(false);
+                return;
+            } catch (GenericTransactionException e) {
+                Debug.logWarning(e, "Commit of batch items " + start + "-" + (end - 1) + " of service [" + modelService.name
+                        + "] failed; running them one by one", module);
+            }
+        } else {
+            Debug.logWarning("Batch item of service [" + modelService.name + "] failed; rolling back items " + start + "-" + (end - 1)
+                    + " and running them one by one", module);
+            TransactionUtil.rollback(beganTrans, "Batch item of service [" + modelService.name + "] failed", null);
+        }
+        batchResult.addTransactionGroup(true);
+        for (int i = start; i < end; i++) {
+            runSyncBatchItem(localName, modelService, resolved, contexts, i, batchResult);
+        }
+    }
+
+    /** SCIPIO: Runs one batch item, storing its result; returns false if it threw or returned an error. */
+    private boolean runSyncBatchItem(String localName, ModelService modelService, ResolvedService resolved,
+            List<? extends Map<String, ? extends Object>> contexts, int index, ServiceBatchResult batchResult) {
+        Map<String, Object> result;
+        try {
+            result = runSyncTraced(localName, modelService, contexts.get(index), true, resolved);
+        } catch (GenericServiceException e) {
+            batchResult.setException(index, e);
+            return false;
+        }
+        batchResult.setResult(index, result);
+        return !ServiceUtil.isError(result);
+    }
+
     /**
      * Run the service synchronously and return the result.
      * @param localName Name of the context to use.
@@ -273,6 +395,62 @@ public class ServiceDispatcher {
      * @throws GenericServiceException
      */
     public Map<String, Object> runSync(String localName, ModelService modelService, Map<String, ? extends Object> params, boolean validateOut) throws ServiceAuthException, ServiceValidationException, GenericServiceException {
+        return runSyncTraced(localName, modelService, params, validateOut, null);
+    }
+
+    /**
+     * SCIPIO: The ECA rules, engine and permission service of a service: the lookups of a sync call that do not depend
+     * on the context. {@link #runSyncBatch} resolves them once for all of its items.
+     */
+    protected static final class ResolvedService {
+        private final Map<String, List<ServiceEcaRule>> eventMap;
+        private final GenericEngine engine;
+        private final ModelService permissionService;
+
+        protected ResolvedService(Map<String, List<ServiceEcaRule>> eventMap, GenericEngine engine, ModelService permissionService) {
+            this.eventMap = eventMap;
+            this.engine = engine;
+            this.permissionService = permissionService;
+        }
+    }
+
+    /**
+     * SCIPIO: Resolves the ECA rules, engine and permission service of the service; see {@link ResolvedService}. A
+     * permission service that cannot be found is left null, for the permission check to report it.
+     */
+    protected ResolvedService resolveService(String localName, ModelService modelService) throws GenericServiceException {
+        ModelService permissionService = null;
+        if (UtilValidate.isNotEmpty(modelService.permissionServiceName)) {
+            try {
+                permissionService = getLocalContext(localName).getModelService(modelService.permissionServiceName);
+            } catch (GenericServiceException e) {
+                Debug.logError(e, "Failed to get permission service [" + modelService.permissionServiceName + "] of service [" + modelService.name + "]", module);
+            }
+        }
+        return new ResolvedService(ServiceEcaUtil.getServiceEventMap(modelService.name), getGenericEngine(modelService.engineName), permissionService);
+    }
+
+    /** SCIPIO: Runs the service synchronously; <code>resolved</code>, if not null, replaces the lookups of the call. */
+    private Map<String, Object> runSyncTraced(String localName, ModelService modelService, Map<String, ? extends Object> params, boolean validateOut,
+            ResolvedService resolved) throws ServiceAuthException, ServiceValidationException, GenericServiceException {
+        // SCIPIO: join or start the service trace, and record the call in the service latency histograms
+        ServiceTrace trace = ServiceTrace.enter(null);
+        ServiceMetrics.CallTimer callTimer = ServiceMetrics.startCall();
+        boolean isError = true;
+        try {
+            Map<String, Object> result = runSync(localName, modelService, params, validateOut, callTimer, resolved);
+            isError = ServiceUtil.isError(result);
+            return result;
+        } finally {
+            if (callTimer != null) {
+                callTimer.finish(modelService.name, isError);
+            }
+            trace.exit();
+        }
+    }
+
+    private Map<String, Object> runSync(String localName, ModelService modelService, Map<String, ? extends Object> params, boolean validateOut,
+                                        ServiceMetrics.CallTimer callTimer, ResolvedService resolved) throws ServiceAuthException, ServiceValidationException, GenericServiceException {
         long serviceStartTime = System.currentTimeMillis();
         Map<String, Object> result = new HashMap<>();
         ServiceSemaphore lock = null;
@@ -308,8 +486,12 @@ public class ServiceDispatcher {
             rs = this.logService(localName, modelService, GenericEngine.SYNC_MODE);
 
             // get eventMap once for all calls for speed, don't do event calls if it is null
-            eventMap = ServiceEcaUtil.getServiceEventMap(modelService.name);
-            engine = this.getGenericEngine(modelService.engineName);
+            // SCIPIO: along with the engine and permission service, unless already resolved for a batch
+            if (resolved == null) {
+                resolved = resolveService(localName, modelService);
+            }
+            eventMap = resolved.eventMap;
+            engine = resolved.engine;
 
             modelService.informIfDeprecated();
 
@@ -362,22 +544,22 @@ public class ServiceDispatcher {
 
                     // setup global transaction ECA listeners to execute later
                     if (eventMap != null) {
-                        ServiceEcaUtil.evalRules(modelService.name, eventMap, "global-rollback", ctx, context, result, isError, isFailure);
+                        evalRules(callTimer, modelService.name, eventMap, "global-rollback", ctx, context, result, isError, isFailure);
                     }
                     if (eventMap != null) {
-                        ServiceEcaUtil.evalRules(modelService.name, eventMap, "global-commit", ctx, context, result, isError, isFailure);
+                        evalRules(callTimer, modelService.name, eventMap, "global-commit", ctx, context, result, isError, isFailure);
                     }
 
                     // pre-auth ECA
                     if (eventMap != null) {
-                        ServiceEcaUtil.evalRules(modelService.name, eventMap, "auth", ctx, context, result, isError, isFailure);
+                        evalRules(callTimer, modelService.name, eventMap, "auth", ctx, context, result, isError, isFailure);
                     }
 
                     // check for pre-auth failure/errors
                     isFailure = ServiceUtil.isFailure(result);
                     isError = ServiceUtil.isError(result);
 
-                    context = checkAuth(localName, context, modelService, locale); // SCIPIO: locale
+                    context = checkAuth(localName, context, modelService, locale, resolved.permissionService); // SCIPIO: locale, permission service
                     GenericValue userLogin = (GenericValue) context.get("userLogin");
 
                     if (modelService.auth && userLogin == null) {
@@ -391,7 +573,7 @@ public class ServiceDispatcher {
 
                     // pre-validate ECA
                     if (eventMap != null) {
-                        ServiceEcaUtil.evalRules(modelService.name, eventMap, "in-validate", ctx, context, result, isError, isFailure);
+                        evalRules(callTimer, modelService.name, eventMap, "in-validate", ctx, context, result, isError, isFailure);
                     }
 
                     // check for pre-validate failure/errors
@@ -400,17 +582,22 @@ public class ServiceDispatcher {
 
                     // validate the context
                     if (modelService.validate && !isError && !isFailure) {
+                        long validateStart = System.nanoTime();
                         try {
                             modelService.validate(context, ModelService.IN_PARAM, locale);
                         } catch (ServiceValidationException e) {
                             Debug.logError(e, "Incoming context (in runSync : " + modelService.name + ") does not match expected requirements", module);
                             throw e;
+                        } finally {
+                            if (callTimer != null) {
+                                callTimer.addValidate(validateStart);
+                            }
                         }
                     }
 
                     // pre-invoke ECA
                     if (eventMap != null) {
-                        ServiceEcaUtil.evalRules(modelService.name, eventMap, "invoke", ctx, context, result, isError, isFailure);
+                        evalRules(callTimer, modelService.name, eventMap, "invoke", ctx, context, result, isError, isFailure);
                     }
 
                     // check for pre-invoke failure/errors
@@ -420,7 +607,14 @@ public class ServiceDispatcher {
                     // ===== invoke the service =====
                     if (!isError && !isFailure) {
                         Map<String, Object> invokeResult = null;
-                        invokeResult = engine.runSync(localName, modelService, context);
+                        long engineStart = System.nanoTime();
+                        try {
+                            invokeResult = engine.runSync(localName, modelService, context);
+                        } finally {
+                            if (callTimer != null) {
+                                callTimer.addEngine(engineStart);
+                            }
+                        }
                         engine.sendCallbacks(modelService, context, invokeResult, GenericEngine.SYNC_MODE);
                         if (invokeResult != null) {
                             result.putAll(invokeResult);
@@ -507,18 +701,23 @@ public class ServiceDispatcher {
                 if (modelService.validate && validateOut) {
                     // pre-out-validate ECA
                     if (eventMap != null) {
-                        ServiceEcaUtil.evalRules(modelService.name, eventMap, "out-validate", ctx, ecaContext, result, isError, isFailure);
+                        evalRules(callTimer, modelService.name, eventMap, "out-validate", ctx, ecaContext, result, isError, isFailure);
                     }
+                    long validateStart = System.nanoTime();
                     try {
                         modelService.validate(result, ModelService.OUT_PARAM, locale);
                     } catch (ServiceValidationException e) {
                         throw new GenericServiceException("Outgoing result (in runSync : " + modelService.name + ") does not match expected requirements", e);
+                    } finally {
+                        if (callTimer != null) {
+                            callTimer.addValidate(validateStart);
+                        }
                     }
                 }
 
                 // pre-commit ECA
                 if (eventMap != null) {
-                    ServiceEcaUtil.evalRules(modelService.name, eventMap, "commit", ctx, ecaContext, result, isError, isFailure);
+                    evalRules(callTimer, modelService.name, eventMap, "commit", ctx, ecaContext, result, isError, isFailure);
                 }
 
                 // check for pre-commit failure/errors
@@ -527,7 +726,7 @@ public class ServiceDispatcher {
 
                 // global-commit-post-run ECA, like global-commit but gets the context after the service is run
                 if (eventMap != null) {
-                    ServiceEcaUtil.evalRules(modelService.name, eventMap, "global-commit-post-run", ctx, ecaContext, result, isError, isFailure);
+                    evalRules(callTimer, modelService.name, eventMap, "global-commit-post-run", ctx, ecaContext, result, isError, isFailure);
                 }
 
                 // check for failure and log on info level; this is used for debugging
@@ -569,6 +768,7 @@ public class ServiceDispatcher {
                     }
                 } else {
                     // commit the transaction
+                    long commitStart = System.nanoTime();
                     try {
                         TransactionUtil.commit(beganTrans);
                     } catch (GenericTransactionException e) {
@@ -579,6 +779,10 @@ public class ServiceDispatcher {
                             errMsg = errMsg + ": " + e.getMessage();
                         }
                         throw new GenericServiceException(errMsg);
+                    } finally {
+                        if (callTimer != null) {
+                            callTimer.addCommit(commitStart);
+                        }
                     }
                 }
 
@@ -614,7 +818,7 @@ public class ServiceDispatcher {
 
         // pre-return ECA
         if (eventMap != null) {
-            ServiceEcaUtil.evalRules(modelService.name, eventMap, "return", ctx, ecaContext, result, isError, isFailure);
+            evalRules(callTimer, modelService.name, eventMap, "return", ctx, ecaContext, result, isError, isFailure);
         }
 
         rs.setEndStamp();
@@ -630,7 +834,8 @@ public class ServiceDispatcher {
         } else if (Debug.infoOn() && timeToRun > showSlowServiceThreshold) {
             // SCIPIO: We can't just logTiming here, or the message may be hidden by an implicit Debug.timingOn() while being fairly important
             //Debug.logTiming("Slow sync service execution detected: service [" + localName + "/" + modelService.name + "] finished in [" + timeToRun + "] milliseconds", module);
-            final String msg = "Slow sync service execution detected: service [" + localName + "/" + modelService.name + "] finished in [" + timeToRun + "] milliseconds";
+            final String msg = "Slow sync service execution detected: service [" + localName + "/" + modelService.name + "] finished in [" + timeToRun + "] milliseconds"
+                    + " (trace: " + ServiceTrace.getCurrentTraceId() + ")"; // SCIPIO: trace ID
             if (Debug.timingOn()) {
                 Debug.logTiming(msg, module);
             } else {
@@ -651,6 +856,21 @@ public class ServiceDispatcher {
         return result;
     }
 
+    /**
+     * SCIPIO: Evaluates the service ECA rules of the event, adding the time taken to the ECA time of the call.
+     */
+    private static void evalRules(ServiceMetrics.CallTimer callTimer, String serviceName, Map<String, List<ServiceEcaRule>> eventMap, String event,
+                                  DispatchContext dctx, Map<String, Object> context, Map<String, Object> result, boolean isError, boolean isFailure) throws GenericServiceException {
+        long ecaStart = System.nanoTime();
+        try {
+            ServiceEcaUtil.evalRules(serviceName, eventMap, event, dctx, context, result, isError, isFailure);
+        } finally {
+            if (callTimer != null) {
+                callTimer.addEca(ecaStart);
+            }
+        }
+    }
+
     /**
      * Run the service asynchronously, passing an instance of GenericRequester that will receive the result.
      * @param localName Name of the context to use.
@@ -663,6 +883,7 @@ public class ServiceDispatcher {
      * @throws GenericServiceException
      */
     public void runAsync(String localName, ModelService service, Map<String, ? extends Object> params, GenericRequester requester, boolean persist) throws ServiceAuthException, ServiceValidationException, GenericServiceException {
+        long dispatchStart = System.nanoTime(); // SCIPIO: for the service async dispatch histogram
         if (Debug.timingOn()) {
             UtilTimer.timerLog(localName + " / " + service.name, "ASync service started...", module);
         }
@@ -730,7 +951,7 @@ public class ServiceDispatcher {
                     ServiceEcaUtil.evalRules(service.name, eventMap, "auth", ctx, context, result, isError, isFailure);
                 }
 
-                context = checkAuth(localName, context, service, locale); // SCIPIO: locale
+                context = checkAuth(localName, context, service, locale, null); // SCIPIO: locale
                 Object userLogin = context.get("userLogin");
 
                 if (service.auth && userLogin == null) {
@@ -812,6 +1033,7 @@ public class ServiceDispatcher {
                     throw new GenericServiceException("Resume transaction exception: " + ise.getMessage() + "; See logs for more detail");
                 }
             }
+            ServiceMetrics.recordAsyncDispatch(service.name, dispatchStart);
         }
     }
 
@@ -905,7 +1127,8 @@ public class ServiceDispatcher {
     }
 
     // checks if parameters were passed for authentication
-    private Map<String, Object> checkAuth(String localName, Map<String, Object> context, ModelService origService, Locale locale) throws ServiceAuthException, GenericServiceException { // SCIPIO: Added locale
+    private Map<String, Object> checkAuth(String localName, Map<String, Object> context, ModelService origService, Locale locale,
+            ModelService permissionService) throws ServiceAuthException, GenericServiceException { // SCIPIO: Added locale, resolved permission service (may be null)
         String service = null;
         try {
             service = ServiceConfigUtil.getServiceEngine().getAuthorization().getServiceName();
@@ -966,7 +1189,7 @@ public class ServiceDispatcher {
         // evaluate permissions for the service or throw exception if fail.
         DispatchContext dctx = this.getLocalContext(localName);
         if (UtilValidate.isNotEmpty(origService.permissionServiceName)) {
-            Map<String, Object> permResp = origService.evalPermission(dctx, context);
+            Map<String, Object> permResp = origService.evalPermission(dctx, context, permissionService);
             Boolean hasPermission = (Boolean) permResp.get("hasPermission");
             if (hasPermission == null) {
                 throw new ServiceAuthException("ERROR: the permission-service [" + origService.permissionServiceName + "] did not return a result. Not running the service [" + origService.name + "]");
@@ -0,0 +1,319 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.service;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.ofbiz.base.metrics.LatencyHistogram;
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilProperties;
+
+/**
+ * SCIPIO: Per-service latency histograms recorded by {@link ServiceDispatcher#runSync} and {@link ServiceDispatcher#runAsync}.
+ * <p>
+ * Each service gets a {@link LatencyHistogram} per {@link Phase} on its first call, so p50/p99/max can be compared
+ * across services and the time of a slow service split into validation, ECA, engine and commit time.
+ * Exposed in webtools (Service Metrics), as Prometheus text via {@link #toPrometheusText()} and, optionally, over JMX.
+ * Disabled with <code>metrics.histograms.enable=false</code> in service.properties.
+ */
+public final class ServiceMetrics implements ServiceMetricsMXBean {
+
+    private static final Debug.OfbizLogger module = Debug.getOfbizLogger(java.lang.invoke.MethodHandles.lookup().lookupClass());
+
+    private static final boolean enabled = UtilProperties.getPropertyAsBoolean("service", "metrics.histograms.enable", true);
+    private static final ConcurrentMap<String, ServiceStats> serviceStats = new ConcurrentHashMap<>();
+    private static final ServiceMetrics INSTANCE = new ServiceMetrics();
+
+    static {
+        if (UtilProperties.getPropertyAsBoolean("service", "metrics.jmx.enable", false)) {
+            try {
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                ObjectName objectName = new ObjectName("org.ofbiz.service:type=ServiceMetrics");
+                if (!server.isRegistered(objectName)) {
+                    server.registerMBean(INSTANCE, objectName);
+                }
+            } catch (Exception e) {
+                Debug.logError(e, "Could not register ServiceMetrics MBean", module);
+            }
+        }
+    }
+
+    /**
+     * The part of a service call a histogram measures. TOTAL is the whole runSync call including nested services;
+     * ASYNC_DISPATCH is the time runAsync takes to validate and queue the job (the job itself is recorded as a sync call).
+     */
+    public enum Phase {
+        TOTAL("total"),
+        VALIDATE("validate"),
+        ECA("eca"),
+        ENGINE("engine"),
+        COMMIT("commit"),
+        ASYNC_DISPATCH("async_dispatch");
+
+        private final String label;
+
+        Phase(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    private ServiceMetrics() {
+    }
+
+    public static ServiceMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the stats of the service, creating them if needed.
+     */
+    public static ServiceStats getStats(String serviceName) {
+        ServiceStats stats = serviceStats.get(serviceName);
+        if (stats == null) {
+            stats = serviceStats.computeIfAbsent(serviceName, ServiceStats::new);
+        }
+        return stats;
+    }
+
+    /**
+     * Returns the stats of the service, or null if it has not recorded any call.
+     */
+    public static ServiceStats getStatsIfPresent(String serviceName) {
+        return serviceStats.get(serviceName);
+    }
+
+    /**
+     * Returns the stats of all services, sorted by descending p99 of the total time.
+     */
+    public static List<ServiceStats> getAllStats() {
+        List<ServiceStats> statsList = new ArrayList<>(serviceStats.values());
+        Map<ServiceStats, Long> p99s = new HashMap<>();
+        for (ServiceStats stats : statsList) {
+            p99s.put(stats, stats.getHistogram(Phase.TOTAL).getValueAtPercentile(99));
+        }
+        statsList.sort((a, b) -> Long.compare(p99s.get(b), p99s.get(a)));
+        return statsList;
+    }
+
+    public static void resetAll() {
+        serviceStats.clear();
+    }
+
+    /**
+     * Starts timing a runSync call; returns null if metrics are disabled.
+     */
+    static CallTimer startCall() {
+        return enabled ? new CallTimer() : null;
+    }
+
+    /**
+     * Records the time since <code>startNanos</code> as the async dispatch time of the service.
+     */
+    static void recordAsyncDispatch(String serviceName, long startNanos) {
+        if (enabled) {
+            getStats(serviceName).getHistogram(Phase.ASYNC_DISPATCH).recordNanosSince(startNanos);
+        }
+    }
+
+    /**
+     * Returns all service metrics in Prometheus text exposition format (version 0.0.4), as summaries in seconds.
+     */
+    public static String toPrometheusText() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("# HELP scipio_service_duration_seconds Service call duration by phase\n");
+        sb.append("# TYPE scipio_service_duration_seconds summary\n");
+        List<ServiceStats> statsList = getAllStats();
+        for (ServiceStats stats : statsList) {
+            String service = escapeLabelValue(stats.getServiceName());
+            for (Phase phase : Phase.values()) {
+                LatencyHistogram.Snapshot snapshot = stats.getHistogram(phase).getSnapshot();
+                if (snapshot.getTotalCount() == 0) {
+                    continue;
+                }
+                String labels = "service=\"" + service + "\",phase=\"" + phase.getLabel() + "\"";
+                appendSample(sb, "scipio_service_duration_seconds", labels + ",quantile=\"0.5\"", snapshot.getValueAtPercentile(50));
+                appendSample(sb, "scipio_service_duration_seconds", labels + ",quantile=\"0.99\"", snapshot.getValueAtPercentile(99));
+                appendSample(sb, "scipio_service_duration_seconds_sum", labels, snapshot.getTotalValue());
+                sb.append("scipio_service_duration_seconds_count{").append(labels).append("} ").append(snapshot.getTotalCount()).append('\n');
+            }
+        }
+        sb.append("# HELP scipio_service_duration_max_seconds Highest service call duration by phase\n");
+        sb.append("# TYPE scipio_service_duration_max_seconds gauge\n");
+        for (ServiceStats stats : statsList) {
+            String service = escapeLabelValue(stats.getServiceName());
+            for (Phase phase : Phase.values()) {
+                LatencyHistogram histogram = stats.getHistogram(phase);
+                if (histogram.getTotalCount() > 0) {
+                    appendSample(sb, "scipio_service_duration_max_seconds", "service=\"" + service + "\",phase=\"" + phase.getLabel() + "\"",
+                            histogram.getMaxValue());
+                }
+            }
+        }
+        sb.append("# HELP scipio_service_errors_total Service calls that returned an error or threw\n");
+        sb.append("# TYPE scipio_service_errors_total counter\n");
+        for (ServiceStats stats : statsList) {
+            sb.append("scipio_service_errors_total{service=\"").append(escapeLabelValue(stats.getServiceName())).append("\"} ")
+                    .append(stats.getErrorCount()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static void appendSample(StringBuilder sb, String name, String labels, long micros) {
+        sb.append(name).append('{').append(labels).append("} ").append(micros / 1000000.0).append('\n');
+    }
+
+    private static String escapeLabelValue(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    @Override
+    public List<String> getServiceNames() {
+        List<String> names = new ArrayList<>(serviceStats.keySet());
+        Collections.sort(names);
+        return names;
+    }
+
+    @Override
+    public Map<String, Long> getServiceSummary(String serviceName) {
+        ServiceStats stats = getStatsIfPresent(serviceName);
+        return (stats != null) ? stats.toSummaryMap() : Collections.emptyMap();
+    }
+
+    @Override
+    public String getPrometheusText() {
+        return toPrometheusText();
+    }
+
+    @Override
+    public void reset() {
+        resetAll();
+    }
+
+    /**
+     * Histograms of one service.
+     */
+    public static final class ServiceStats {
+        private final String serviceName;
+        private final LatencyHistogram[] histograms;
+        private final LongAdder errorCount = new LongAdder();
+
+        private ServiceStats(String serviceName) {
+            this.serviceName = serviceName;
+            this.histograms = new LatencyHistogram[Phase.values().length];
+            for (int i = 0; i < histograms.length; i++) {
+                histograms[i] = new LatencyHistogram();
+            }
+        }
+
+        public String getServiceName() {
+            return serviceName;
+        }
+
+        public LatencyHistogram getHistogram(Phase phase) {
+            return histograms[phase.ordinal()];
+        }
+
+        public long getCallCount() {
+            return getHistogram(Phase.TOTAL).getTotalCount();
+        }
+
+        public long getErrorCount() {
+            return errorCount.sum();
+        }
+
+        /**
+         * Returns callCount, errorCount and, per phase, [phase]P50, [phase]P99 and [phase]Max in microseconds
+         * (for example totalP99, engineMax), plus asyncCount.
+         */
+        public Map<String, Long> toSummaryMap() {
+            Map<String, Long> summary = new LinkedHashMap<>();
+            summary.put("callCount", getCallCount());
+            summary.put("errorCount", getErrorCount());
+            summary.put("asyncCount", getHistogram(Phase.ASYNC_DISPATCH).getTotalCount());
+            for (Phase phase : Phase.values()) {
+                LatencyHistogram.Snapshot snapshot = getHistogram(phase).getSnapshot();
+                String prefix = phase == Phase.ASYNC_DISPATCH ? "asyncDispatch" : phase.getLabel();
+                summary.put(prefix + "P50", snapshot.getValueAtPercentile(50));
+                summary.put(prefix + "P99", snapshot.getValueAtPercentile(99));
+                summary.put(prefix + "Max", snapshot.getMaxValue());
+            }
+            return summary;
+        }
+    }
+
+    /**
+     * Accumulates the phase times of a single runSync call on the calling thread; not thread-safe.
+     * Phase times are inclusive of any services they call (an ECA's time includes the ECA services).
+     */
+    static final class CallTimer {
+        private final long startNanos = System.nanoTime();
+        private long validateNanos;
+        private long ecaNanos;
+        private long engineNanos;
+        private long commitNanos;
+
+        void addValidate(long sinceNanos) {
+            validateNanos += System.nanoTime() - sinceNanos;
+        }
+
+        void addEca(long sinceNanos) {
+            ecaNanos += System.nanoTime() - sinceNanos;
+        }
+
+        void addEngine(long sinceNanos) {
+            engineNanos += System.nanoTime() - sinceNanos;
+        }
+
+        void addCommit(long sinceNanos) {
+            commitNanos += System.nanoTime() - sinceNanos;
+        }
+
+        void finish(String serviceName, boolean error) {
+            ServiceStats stats = getStats(serviceName);
+            stats.getHistogram(Phase.TOTAL).recordNanosSince(startNanos);
+            stats.getHistogram(Phase.VALIDATE).record(validateNanos / 1000);
+            stats.getHistogram(Phase.ECA).record(ecaNanos / 1000);
+            stats.getHistogram(Phase.ENGINE).record(engineNanos / 1000);
+            stats.getHistogram(Phase.COMMIT).record(commitNanos / 1000);
+            if (error) {
+                stats.errorCount.increment();
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.service;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * SCIPIO: JMX view of {@link ServiceMetrics}, registered as <code>org.ofbiz.service:type=ServiceMetrics</code>
+ * when <code>metrics.jmx.enable=true</code> in service.properties.
+ */
+public interface ServiceMetricsMXBean {
+
+    /** Returns the names of the services that have recorded calls. */
+    List<String> getServiceNames();
+
+    /** Returns the count, error count and p50/p99/max (microseconds) of each phase of the service. */
+    Map<String, Long> getServiceSummary(String serviceName);
+
+    /** Returns all service metrics in Prometheus text exposition format. */
+    String getPrometheusText();
+
+    /** Clears all service metrics. */
+    void reset();
+}
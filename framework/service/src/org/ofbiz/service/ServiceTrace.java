@@ -0,0 +1,87 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.service;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * SCIPIO: Trace ID shared by a top-level service call and all the services it calls, directly, through ECAs
+ * or through async (non-persisted) jobs.
+ * <p>
+ * The outermost {@link #enter(String)} on a thread starts the trace (reusing the given parent ID if any) and
+ * the matching {@link #exit()} ends it; nested calls only increase the depth. Every enter must be paired with
+ * an exit in a finally block.
+ */
+public final class ServiceTrace {
+
+    private static final ThreadLocal<ServiceTrace> currentTrace = new ThreadLocal<>();
+
+    private final String traceId;
+    private int depth;
+
+    private ServiceTrace(String traceId) {
+        this.traceId = traceId;
+    }
+
+    /**
+     * Joins the trace in place on this thread or, if none, starts one using <code>parentTraceId</code>
+     * (from the thread that queued an async job) or a new ID if that is null.
+     */
+    public static ServiceTrace enter(String parentTraceId) {
+        ServiceTrace trace = currentTrace.get();
+        if (trace == null) {
+            trace = new ServiceTrace((parentTraceId != null) ? parentTraceId : newTraceId());
+            currentTrace.set(trace);
+        }
+        trace.depth++;
+        return trace;
+    }
+
+    /**
+     * Leaves the trace; the outermost exit ends it.
+     */
+    public void exit() {
+        if (--depth <= 0) {
+            currentTrace.remove();
+        }
+    }
+
+    /**
+     * Returns the trace ID of the service call running on this thread, or null if none.
+     */
+    public static String getCurrentTraceId() {
+        ServiceTrace trace = currentTrace.get();
+        return (trace != null) ? trace.traceId : null;
+    }
+
+    public static String newTraceId() {
+        return String.format("%016x", ThreadLocalRandom.current().nextLong());
+    }
+
+    public String getTraceId() {
+        return traceId;
+    }
+
+    /**
+     * Returns the service nesting depth, 1 for the top-level service.
+     */
+    public int getDepth() {
+        return depth;
+    }
+}
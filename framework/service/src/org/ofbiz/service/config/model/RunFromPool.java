@@ -29,16 +29,56 @@ import org.w3c.dom.Element;
 public final class RunFromPool {
 
     private final String name;
+    private final int minThreads;
+    private final int maxThreads;
+    private final int jobs;
 
-    RunFromPool(Element runFromPoolElement) throws ServiceConfigException {
+    /**
+     * SCIPIO: The sizing attributes default to the given <code>&lt;thread-pool&gt;</code> values.
+     */
+    RunFromPool(Element runFromPoolElement, int defaultMinThreads, int defaultMaxThreads, int defaultJobs) throws ServiceConfigException {
         String name = runFromPoolElement.getAttribute("name").intern();
         if (name.isEmpty()) {
             throw new ServiceConfigException("<run-from-pool> element name attribute is empty");
         }
         this.name = name;
+        this.minThreads = parsePositiveInt(runFromPoolElement, "min-threads", defaultMinThreads);
+        this.maxThreads = Math.max(parsePositiveInt(runFromPoolElement, "max-threads", defaultMaxThreads), this.minThreads);
+        this.jobs = parsePositiveInt(runFromPoolElement, "jobs", defaultJobs);
+    }
+
+    private static int parsePositiveInt(Element runFromPoolElement, String attributeName, int defaultValue) throws ServiceConfigException {
+        String value = runFromPoolElement.getAttribute(attributeName);
+        if (value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            int intValue = Integer.parseInt(value);
+            if (intValue >= 1) {
+                return intValue;
+            }
+        } catch (NumberFormatException e) {
+            // handled below
+        }
+        throw new ServiceConfigException("<run-from-pool> element " + attributeName + " attribute value is invalid");
     }
 
     public String getName() {
         return name;
     }
+
+    /** SCIPIO: Returns the core number of job invoker threads of this pool. */
+    public int getMinThreads() {
+        return minThreads;
+    }
+
+    /** SCIPIO: Returns the maximum number of job invoker threads of this pool. */
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    /** SCIPIO: Returns the maximum number of queued (waiting) jobs of this pool. */
+    public int getJobs() {
+        return jobs;
+    }
 }
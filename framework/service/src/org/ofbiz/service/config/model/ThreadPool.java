@@ -42,8 +42,12 @@ public final class ThreadPool {
     public static final int POLL_WAIT = 30000; // Database polling interval - 30 seconds.
     public static final int PURGE_JOBS_DAYS = 30;
     public static final int QUEUE_SIZE = 100;
+    public static final int QUEUE_WAIT = 5000; // SCIPIO: Max wait for queue capacity when submitting a job - 5 seconds.
+    public static final int VIRTUAL_THREAD_LIMIT = 200; // SCIPIO: Max concurrent jobs per pool in virtual thread mode.
     public static final int THREAD_TTL = 120000; // Idle thread lifespan - 2 minutes.
+    public static final int TIMER_WHEEL_HORIZON = 3600000; // SCIPIO: Max delay of recurrences held in the job timer wheel - 1 hour.
 
+    private final String claimMode;
     private final int failedRetryMin;
     private final int jobs;
     private final int maxThreads;
@@ -51,9 +55,15 @@ public final class ThreadPool {
     private final int pollDbMillis;
     private final boolean pollEnabled;
     private final int purgeJobDays;
+    private final int queueWaitMillis;
     private final List<RunFromPool> runFromPools;
     private final String sendToPool;
     private final int ttl;
+    private final boolean timerWheel;
+    private final int timerWheelHorizonMillis;
+    private final boolean wakeOnSchedule;
+    private final boolean virtualThreads;
+    private final int virtualThreadLimit;
 
     ThreadPool(Element poolElement) throws ServiceConfigException, NumberFormatException {
         String sendToPool = poolElement.getAttribute("send-to-pool").intern();
@@ -159,18 +169,76 @@ public final class ThreadPool {
                 throw new ServiceConfigException("<thread-pool> element poll-db-millis attribute value is invalid");
             }
         }
+        String claimMode = poolElement.getAttribute("claim-mode").intern();
+        if (claimMode.isEmpty()) {
+            this.claimMode = "auto";
+        } else if ("auto".equals(claimMode) || "optimistic".equals(claimMode)) {
+            this.claimMode = claimMode;
+        } else {
+            throw new ServiceConfigException("<thread-pool> element claim-mode attribute value is invalid");
+        }
+        this.wakeOnSchedule = !"false".equals(poolElement.getAttribute("wake-on-schedule"));
+        String queueWaitMillis = poolElement.getAttribute("queue-wait-millis").intern();
+        if (queueWaitMillis.isEmpty()) {
+            this.queueWaitMillis = QUEUE_WAIT;
+        } else {
+            try {
+                this.queueWaitMillis = Integer.parseInt(queueWaitMillis);
+                if (this.queueWaitMillis < 0) {
+                    throw new ServiceConfigException("<thread-pool> element queue-wait-millis attribute value is invalid");
+                }
+            } catch (NumberFormatException | ServiceConfigException e) {
+                Debug.logError(e, module);
+                throw new ServiceConfigException("<thread-pool> element queue-wait-millis attribute value is invalid");
+            }
+        }
+        this.virtualThreads = "true".equals(poolElement.getAttribute("virtual-threads"));
+        String virtualThreadLimit = poolElement.getAttribute("virtual-thread-limit").intern();
+        if (virtualThreadLimit.isEmpty()) {
+            this.virtualThreadLimit = VIRTUAL_THREAD_LIMIT;
+        } else {
+            try {
+                this.virtualThreadLimit = Integer.parseInt(virtualThreadLimit);
+                if (this.virtualThreadLimit < 1) {
+                    throw new ServiceConfigException("<thread-pool> element virtual-thread-limit attribute value is invalid");
+                }
+            } catch (NumberFormatException | ServiceConfigException e) {
+                Debug.logError(e, module);
+                throw new ServiceConfigException("<thread-pool> element virtual-thread-limit attribute value is invalid");
+            }
+        }
+        this.timerWheel = !"false".equals(poolElement.getAttribute("timer-wheel"));
+        String timerWheelHorizonMillis = poolElement.getAttribute("timer-wheel-horizon-millis").intern();
+        if (timerWheelHorizonMillis.isEmpty()) {
+            this.timerWheelHorizonMillis = TIMER_WHEEL_HORIZON;
+        } else {
+            try {
+                this.timerWheelHorizonMillis = Integer.parseInt(timerWheelHorizonMillis);
+                if (this.timerWheelHorizonMillis < 0) {
+                    throw new ServiceConfigException("<thread-pool> element timer-wheel-horizon-millis attribute value is invalid");
+                }
+            } catch (NumberFormatException | ServiceConfigException e) {
+                Debug.logError(e, module);
+                throw new ServiceConfigException("<thread-pool> element timer-wheel-horizon-millis attribute value is invalid");
+            }
+        }
         List<? extends Element> runFromPoolElementList = UtilXml.childElementList(poolElement, "run-from-pool");
         if (runFromPoolElementList.isEmpty()) {
             this.runFromPools = Collections.emptyList();
         } else {
             List<RunFromPool> runFromPools = new ArrayList<RunFromPool>(runFromPoolElementList.size());
             for (Element runFromPoolElement : runFromPoolElementList) {
-                runFromPools.add(new RunFromPool(runFromPoolElement));
+                runFromPools.add(new RunFromPool(runFromPoolElement, this.minThreads, this.maxThreads, this.jobs));
             }
             this.runFromPools = Collections.unmodifiableList(runFromPools);
         }
     }
 
+    /** SCIPIO: Returns the value of the <code>claim-mode</code> attribute: "auto" (default) or "optimistic". */
+    public String getClaimMode() {
+        return claimMode;
+    }
+
     public int getFailedRetryMin() {
         return failedRetryMin;
     }
@@ -199,6 +267,11 @@ public final class ThreadPool {
         return purgeJobDays;
     }
 
+    /** SCIPIO: Returns the value of the <code>queue-wait-millis</code> attribute. */
+    public int getQueueWaitMillis() {
+        return queueWaitMillis;
+    }
+
     public List<RunFromPool> getRunFromPools() {
         return this.runFromPools;
     }
@@ -210,4 +283,29 @@ public final class ThreadPool {
     public int getTtl() {
         return ttl;
     }
+
+    /** SCIPIO: Returns the value of the <code>timer-wheel</code> attribute. */
+    public boolean getTimerWheel() {
+        return timerWheel;
+    }
+
+    /** SCIPIO: Returns the value of the <code>timer-wheel-horizon-millis</code> attribute. */
+    public int getTimerWheelHorizonMillis() {
+        return timerWheelHorizonMillis;
+    }
+
+    /** SCIPIO: Returns the value of the <code>wake-on-schedule</code> attribute. */
+    public boolean getWakeOnSchedule() {
+        return wakeOnSchedule;
+    }
+
+    /** SCIPIO: Returns the value of the <code>virtual-threads</code> attribute. */
+    public boolean getVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /** SCIPIO: Returns the value of the <code>virtual-thread-limit</code> attribute. */
+    public int getVirtualThreadLimit() {
+        return virtualThreadLimit;
+    }
 }
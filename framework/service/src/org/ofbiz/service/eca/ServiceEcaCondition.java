@@ -22,6 +22,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
+import org.ofbiz.base.util.CompiledComparison;
 import org.ofbiz.base.util.Debug;
 import org.ofbiz.base.util.ObjectType;
 import org.ofbiz.base.util.UtilGenerics;
@@ -51,6 +52,8 @@ public class ServiceEcaCondition implements java.io.Serializable {
     protected String format = null;
     protected boolean isConstant = false;
     protected boolean isService = false;
+    /** SCIPIO: The comparison compiled at load time, or null if it is not compilable; see {@link CompiledComparison}. */
+    protected transient CompiledComparison compiledComparison = null;
 
     protected ServiceEcaCondition() {}
 
@@ -74,7 +77,7 @@ public class ServiceEcaCondition implements java.io.Serializable {
             this.operator = condition.getAttribute("operator");
             this.compareType = condition.getAttribute("type");
             this.format = condition.getAttribute("format");
-
+            this.compiledComparison = CompiledComparison.compile(operator, compareType, format, isConstant, rhsValueName);
         }
     }
 
@@ -174,6 +177,14 @@ public class ServiceEcaCondition implements java.io.Serializable {
 
         if (Debug.verboseOn()) Debug.logVerbose("Comparing : " + lhsValue + " " + operator + " " + rhsValue, module);
 
+        // SCIPIO: try the compiled comparison first; it covers the common String/number cases without doRealCompare
+        if (compiledComparison != null) {
+            Boolean cond = compiledComparison.compare(lhsValue, rhsValue);
+            if (cond != null) {
+                return cond;
+            }
+        }
+
         // evaluate the condition & invoke the action(s)
         List<Object> messages = new ArrayList<>(); // SCIPIO: switched to ArrayList
         Boolean cond = ObjectType.doRealCompare(lhsValue, rhsValue, operator, compareType, format, messages, null, dctx.getClassLoader(), isConstant);
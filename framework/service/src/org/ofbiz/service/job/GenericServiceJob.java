@@ -28,6 +28,7 @@ import org.ofbiz.service.GenericRequester;
 import org.ofbiz.service.GenericServiceException;
 import org.ofbiz.service.LocalDispatcher;
 import org.ofbiz.service.ModelService;
+import org.ofbiz.service.ServiceTrace;
 import org.ofbiz.service.ServiceUtil;
 import org.ofbiz.service.semaphore.SemaphoreFailException;
 import org.ofbiz.service.semaphore.SemaphoreWaitException;
@@ -43,6 +44,7 @@ public class GenericServiceJob extends AbstractJob implements Serializable {
     protected final transient DispatchContext dctx;
     private final String service;
     private final Map<String, Object> context;
+    private final String parentTraceId; // SCIPIO: trace of the service that queued this job, if any
 
     public GenericServiceJob(DispatchContext dctx, String jobId, String jobName, String service, Map<String, Object> context, GenericRequester req) {
         super(jobId, jobName);
@@ -51,6 +53,7 @@ public class GenericServiceJob extends AbstractJob implements Serializable {
         this.service = service;
         this.context = context;
         this.requester = req;
+        this.parentTraceId = ServiceTrace.getCurrentTraceId();
     }
 
     /**
@@ -66,6 +69,7 @@ public class GenericServiceJob extends AbstractJob implements Serializable {
         Throwable thrown = null;
         Map<String, Object> result = null;
         // no transaction is necessary since runSync handles this
+        ServiceTrace trace = ServiceTrace.enter(parentTraceId); // SCIPIO: continue the trace of the queuing service
         try {
             // get the dispatcher and invoke the service via runSync -- will run all ECAs
             LocalDispatcher dispatcher = dctx.getDispatcher();
@@ -83,6 +87,8 @@ public class GenericServiceJob extends AbstractJob implements Serializable {
                 requester.receiveThrowable(t);
             }
             thrown = t;
+        } finally {
+            trace.exit();
         }
         if (thrown == null) {
             finish(result);
@@ -150,6 +156,22 @@ public class GenericServiceJob extends AbstractJob implements Serializable {
         return (serviceName != null) ? dctx.getModelService(serviceName) : null;
     }
 
+    /**
+     * SCIPIO: Returns the priority of the service model, or normal priority if the service is not found.
+     */
+    @Override
+    public int getPriority() {
+        try {
+            ModelService model = getModelService();
+            if (model != null) {
+                return model.priority;
+            }
+        } catch (GenericServiceException e) {
+            Debug.logWarning("Unable to get priority of service [" + getServiceName() + "]: " + e.getMessage(), module);
+        }
+        return JobPriority.NORMAL;
+    }
+
     @Override
     public boolean isValid() {
         return currentState == State.CREATED;
@@ -72,5 +72,19 @@ public interface Job extends Runnable {
      * Returns the time this job is scheduled to start.
      */
     Date getStartTime();
+
+    /**
+     * SCIPIO: Returns the job pool this job runs in, or null for the default pool (the thread-pool send-to-pool).
+     */
+    default String getPoolId() {
+        return null;
+    }
+
+    /**
+     * SCIPIO: Returns the queue priority of this job, from {@link JobPriority#LOWEST} to {@link JobPriority#HIGHEST}.
+     */
+    default int getPriority() {
+        return JobPriority.NORMAL;
+    }
 }
 
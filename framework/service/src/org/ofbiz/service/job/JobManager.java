@@ -20,6 +20,7 @@ package org.ofbiz.service.job;
 
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
@@ -27,6 +28,10 @@ import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.RejectedExecutionException;
 
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+
+
 import org.apache.tomcat.util.buf.StringUtils;
 import org.ofbiz.base.config.GenericConfigException;
 import org.ofbiz.base.util.Assert;
@@ -42,8 +47,12 @@ import org.ofbiz.entity.condition.EntityCondition;
 import org.ofbiz.entity.condition.EntityExpr;
 import org.ofbiz.entity.condition.EntityJoinOperator;
 import org.ofbiz.entity.condition.EntityOperator;
+import org.ofbiz.entity.config.model.Datasource;
+import org.ofbiz.entity.config.model.EntityConfig;
+import org.ofbiz.entity.datasource.GenericHelperInfo;
 import org.ofbiz.entity.serialize.XmlSerializer;
 import org.ofbiz.entity.transaction.TransactionUtil;
+import org.ofbiz.entity.util.EntityFindOptions;
 import org.ofbiz.entity.util.EntityListIterator;
 import org.ofbiz.entity.util.EntityQuery;
 import org.ofbiz.service.DispatchContext;
@@ -72,6 +81,10 @@ public final class JobManager {
     public static final String instanceId = UtilProperties.getPropertyValue("general", "unique.instanceId", "ofbiz0");
     private static final ConcurrentHashMap<String, JobManager> registeredManagers = new ConcurrentHashMap<>();
     private static boolean isShutDown = false;
+    /** SCIPIO: How long a claimed, never started job may be overdue before other instances release it for polling. */
+    private static final long ORPHANED_JOB_MILLIS = 5 * 60 * 1000;
+    /** SCIPIO: Minimum time between two checks for orphaned jobs. */
+    private static final long ORPHANED_JOB_CHECK_MILLIS = 60 * 1000;
 
     private static void assertIsRunning() {
         if (isShutDown) {
@@ -119,6 +132,11 @@ public final class JobManager {
      */
     private volatile boolean startupJobsQueued = false;
 
+    /** SCIPIO: The last result of {@link #isAvailable()}, checked by the job timer wheel without a query. */
+    private volatile boolean available = true;
+    private volatile long lastOrphanedJobCheck = 0;
+    private volatile boolean skipLockedWarned = false;
+
     private JobManager(Delegator delegator) {
         this.delegator = delegator;
     }
@@ -158,13 +176,49 @@ public final class JobManager {
                             EntityCondition.makeCondition("instanceId", "_NA_"))
                             , EntityJoinOperator.OR)
                     ), EntityJoinOperator.AND);
-            return delegator.findCountByCondition("JobManagerLock", condition, null, null) == 0;
+            available = delegator.findCountByCondition("JobManagerLock", condition, null, null) == 0;
+            return available;
         } catch (GenericEntityException e) {
             Debug.logWarning(e, "Exception thrown while check lock on JobManager : " + instanceId, module);
+            available = false;
             return false;
         }
     }
 
+    /**
+     * SCIPIO: Returns the result of the last {@link #isAvailable()} check, made on each poll.
+     */
+    boolean wasAvailable() {
+        return available;
+    }
+
+    /**
+     * SCIPIO: Releases for polling the jobs claimed by another instance that have not started and are overdue by more
+     * than {@link #ORPHANED_JOB_MILLIS}: runs held in the timer wheel of an instance that crashed or left the cluster.
+     * Checks at most once every {@link #ORPHANED_JOB_CHECK_MILLIS}.
+     */
+    private void releaseOrphanedJobs() {
+        long now = System.currentTimeMillis();
+        if (now - lastOrphanedJobCheck < ORPHANED_JOB_CHECK_MILLIS) {
+            return;
+        }
+        lastOrphanedJobCheck = now;
+        try {
+            int released = delegator.storeByCondition("JobSandbox", UtilMisc.toMap("runByInstanceId", null), EntityCondition.makeCondition(
+                    EntityCondition.makeCondition("runByInstanceId", EntityOperator.NOT_EQUAL, null),
+                    EntityCondition.makeCondition("runByInstanceId", EntityOperator.NOT_EQUAL, instanceId),
+                    EntityCondition.makeCondition("statusId", "SERVICE_PENDING"),
+                    EntityCondition.makeCondition("startDateTime", null),
+                    EntityCondition.makeCondition("cancelDateTime", null),
+                    EntityCondition.makeCondition("runTime", EntityOperator.LESS_THAN, new Timestamp(now - ORPHANED_JOB_MILLIS))));
+            if (released > 0) {
+                Debug.logInfo("Released " + released + " overdue jobs claimed by other instances for polling", module);
+            }
+        } catch (GenericEntityException e) {
+            Debug.logWarning(e, "Unable to release orphaned jobs: ", module);
+        }
+    }
+
     private static List<String> getRunPools() throws GenericConfigException {
         List<RunFromPool> runFromPools = ServiceConfigUtil.getServiceEngine().getThreadPool().getRunFromPools();
         List<String> readPools = new ArrayList<>(runFromPools.size());
@@ -174,12 +228,46 @@ public final class JobManager {
         return readPools;
     }
 
+    /**
+     * SCIPIO: Returns the condition of the jobs that are due to run and not claimed, in the pools of the given condition.
+     * Run-at-startup and other event jobs are included; callers add the <code>eventId</code> condition.
+     */
+    private static EntityCondition makeDueJobCondition(EntityCondition poolCondition) {
+        List<EntityExpr> expressions = UtilMisc.toList(EntityCondition.makeCondition("runTime", EntityOperator.LESS_THAN_EQUAL_TO, UtilDateTime.nowTimestamp()),
+                EntityCondition.makeCondition("startDateTime", EntityOperator.EQUALS, null),
+                EntityCondition.makeCondition("cancelDateTime", EntityOperator.EQUALS, null),
+                EntityCondition.makeCondition("runByInstanceId", EntityOperator.EQUALS, null));
+        return EntityCondition.makeCondition(UtilMisc.toList(EntityCondition.makeCondition(expressions), poolCondition));
+    }
+
+    /**
+     * SCIPIO: Claims up to <code>limit</code> due jobs of the given pool for this instance and returns them, without
+     * queuing them. Run-at-startup and other event jobs are not included. Concurrent callers, in this or other
+     * instances, never claim the same job.
+     */
+    public List<Job> claimJobs(String poolId, int limit) {
+        return poll(Collections.singletonList(poolId), limit);
+    }
+
+    /** SCIPIO: Returns the condition matching the jobs of the given pools; a null pool id matches the jobs without a pool. */
+    private static EntityCondition makePoolCondition(Collection<String> poolIds) {
+        List<EntityExpr> poolsExpr = new ArrayList<>(poolIds.size());
+        for (String poolId : poolIds) {
+            poolsExpr.add(EntityCondition.makeCondition("poolId", EntityOperator.EQUALS, poolId));
+        }
+        return EntityCondition.makeCondition(poolsExpr, EntityOperator.OR);
+    }
+
     /**
      * Scans the JobSandbox entity and returns a list of jobs that are due to run.
      * Returns an empty list if there are no jobs due to run.
      * This method is called by the {@link JobPoller} polling thread.
+     * <p>
+     * SCIPIO: Polls the jobs of the given pools only (a null pool id stands for the jobs without a pool), up to
+     * <code>limit</code>, the remaining capacity of the executor that runs them. The run-at-startup jobs and the jobs
+     * to purge are polled by {@link #pollStartupJobs()} and {@link #pollPurgeJobs(int)}.
      */
-    protected List<Job> poll(int limit) {
+    protected List<Job> poll(Collection<String> poolIds, int limit) {
         assertIsRunning();
         // The rest of this method logs exceptions and does not throw them.
         // The idea is to keep the JobPoller working even when a database
@@ -189,11 +277,33 @@ public final class JobManager {
             Debug.logWarning("Unable to locate DispatchContext object; not running job!", module);
             return Collections.emptyList();
         }
-        // basic query
-        List<EntityExpr> expressions = UtilMisc.toList(EntityCondition.makeCondition("runTime", EntityOperator.LESS_THAN_EQUAL_TO, UtilDateTime.nowTimestamp()),
-                EntityCondition.makeCondition("startDateTime", EntityOperator.EQUALS, null),
-                EntityCondition.makeCondition("cancelDateTime", EntityOperator.EQUALS, null),
-                EntityCondition.makeCondition("runByInstanceId", EntityOperator.EQUALS, null));
+        releaseOrphanedJobs(); // SCIPIO
+        List<Job> poll = new ArrayList<>(limit);
+        // SCIPIO: We must add to the main condition that the special new field eventId must be null
+        EntityCondition mainCondition = EntityCondition.makeCondition(makeDueJobCondition(makePoolCondition(poolIds)),
+                EntityCondition.makeCondition("eventId", null));
+        if (!claimDueJobs(dctx, limit, mainCondition, poll)) { // SCIPIO: factored out into method
+            return Collections.emptyList();
+        }
+        return poll;
+    }
+
+    /**
+     * SCIPIO: Claims the run-at-startup jobs of the pools run by this instance, on the first call only; returns an
+     * empty list afterwards.
+     * <p>
+     * Factored out from {@link #poll}.
+     */
+    protected List<Job> pollStartupJobs() {
+        assertIsRunning();
+        if (startupJobsQueued) {
+            return Collections.emptyList();
+        }
+        DispatchContext dctx = getDispatcher().getDispatchContext();
+        if (dctx == null) {
+            Debug.logWarning("Unable to locate DispatchContext object; not running job!", module);
+            return Collections.emptyList();
+        }
         // limit to just defined pools
         List<String> pools = null;
         try {
@@ -202,79 +312,91 @@ public final class JobManager {
             Debug.logWarning(e, "Unable to get run pools - not running job: ", module);
             return Collections.emptyList();
         }
-        List<EntityExpr> poolsExpr = UtilMisc.toList(EntityCondition.makeCondition("poolId", EntityOperator.EQUALS, null));
-        if (!pools.isEmpty()) {
-            for (String poolName : pools) {
-                poolsExpr.add(EntityCondition.makeCondition("poolId", EntityOperator.EQUALS, poolName));
-            }
-        }
-        List<Job> poll = new ArrayList<>(limit);
-        // make the conditions
-        EntityCondition baseCondition = EntityCondition.makeCondition(expressions);
-        EntityCondition poolCondition = EntityCondition.makeCondition(poolsExpr, EntityOperator.OR);
-        EntityCondition mainCondition = EntityCondition.makeCondition(UtilMisc.toList(baseCondition, poolCondition));
-
-        // SCIPIO: We must add to the main condition that the special new field eventId must be null
-        EntityCondition commonCondition = mainCondition;
-        mainCondition = EntityCondition.makeCondition(commonCondition, EntityCondition.makeCondition("eventId", null));
-
+        List<String> poolIds = new ArrayList<>(pools.size() + 1);
+        poolIds.add(null);
+        poolIds.addAll(pools);
+        EntityCondition commonCondition = makeDueJobCondition(makePoolCondition(poolIds));
+        List<Job> poll = new ArrayList<>();
         boolean beganTransaction = false;
+        try {
+            beganTransaction = TransactionUtil.begin();
+            if (!beganTransaction) {
+                Debug.logWarning("Unable to poll JobSandbox for jobs; unable to begin transaction.", module);
+                return poll;
+            }
 
-        // SCIPIO: first, add the run-at-startup jobs
-        if (!startupJobsQueued) {
-            try {
-                beganTransaction = TransactionUtil.begin();
-                if (!beganTransaction) {
-                    Debug.logWarning("Unable to poll JobSandbox for jobs; unable to begin transaction.", module);
-                    return poll;
-                }
-
-                try (EntityListIterator jobsIterator = queryStartupJobs(commonCondition)) {
-                    // NOTE: due to synchronization, we could have null here
-                    if (jobsIterator != null) {
-                        // SCIPIO: FIXME?: We currently ignore the limit for the startup jobs;
-                        // might want to find way to delay them to next poll, because we violate the limit request from caller...
-                        ownAndCollectJobs(dctx, delegator, -1, jobsIterator, poll);
+            try (EntityListIterator jobsIterator = queryStartupJobs(commonCondition)) {
+                // NOTE: due to synchronization, we could have null here
+                if (jobsIterator != null) {
+                    // SCIPIO: FIXME?: We currently ignore the limit for the startup jobs;
+                    // might want to find way to delay them to next poll, because we violate the limit request from caller...
+                    ownAndCollectJobs(dctx, delegator, -1, jobsIterator, poll);
 
-                        if (Debug.infoOn()) {
-                            Debug.logInfo("Scipio: Collected " + poll.size() +
-                                    " SCH_EVENT_STARTUP run-at-startup jobs for queuing", module);
-                        }
+                    if (Debug.infoOn()) {
+                        Debug.logInfo("Scipio: Collected " + poll.size() +
+                                " SCH_EVENT_STARTUP run-at-startup jobs for queuing", module);
                     }
                 }
-                //} catch (GenericEntityException e) { // SCIPIO: 2018-08-29: this catch is counter-productive
-                //    Debug.logWarning(e, module);
-                //}
+            }
+            //} catch (GenericEntityException e) { // SCIPIO: 2018-08-29: this catch is counter-productive
+            //    Debug.logWarning(e, module);
+            //}
 
-                TransactionUtil.commit(beganTransaction);
-            } catch (Throwable t) {
-                String errMsg = "Exception thrown while polling JobSandbox: ";
-                try {
-                    TransactionUtil.rollback(beganTransaction, errMsg, t);
-                } catch (GenericEntityException e) {
-                    Debug.logWarning(e, "Exception thrown while rolling back transaction: ", module);
-                }
-                Debug.logWarning(t, errMsg, module);
-                return Collections.emptyList();
+            TransactionUtil.commit(beganTransaction);
+        } catch (Throwable t) {
+            String errMsg = "Exception thrown while polling JobSandbox: ";
+            try {
+                TransactionUtil.rollback(beganTransaction, errMsg, t);
+            } catch (GenericEntityException e) {
+                Debug.logWarning(e, "Exception thrown while rolling back transaction: ", module);
             }
+            Debug.logWarning(t, errMsg, module);
+            return Collections.emptyList();
         }
+        return poll;
+    }
 
-        beganTransaction = false;
+    /**
+     * SCIPIO: Returns up to <code>limit</code> finished or cancelled jobs of this instance that are old enough to purge.
+     * <p>
+     * Factored out from {@link #poll}.
+     */
+    protected List<Job> pollPurgeJobs(int limit) {
+        assertIsRunning();
+        List<Job> poll = new ArrayList<>();
+        Calendar cal = Calendar.getInstance();
+        try {
+            int daysToKeep = ServiceConfigUtil.getServiceEngine().getThreadPool().getPurgeJobDays();
+            cal.add(Calendar.DAY_OF_YEAR, -daysToKeep);
+        } catch (GenericConfigException e) {
+            Debug.logWarning(e, "Unable to get purge job days: ", module);
+            return Collections.emptyList();
+        }
+        Timestamp purgeTime = new Timestamp(cal.getTimeInMillis());
+        List<EntityExpr> finExp = UtilMisc.toList(EntityCondition.makeCondition("finishDateTime", EntityOperator.NOT_EQUAL, null), EntityCondition.makeCondition("finishDateTime", EntityOperator.LESS_THAN, purgeTime));
+        List<EntityExpr> canExp = UtilMisc.toList(EntityCondition.makeCondition("cancelDateTime", EntityOperator.NOT_EQUAL, null), EntityCondition.makeCondition("cancelDateTime", EntityOperator.LESS_THAN, purgeTime));
+        EntityCondition doneCond = EntityCondition.makeCondition(UtilMisc.toList(EntityCondition.makeCondition(canExp), EntityCondition.makeCondition(finExp)), EntityOperator.OR);
+        EntityCondition mainCondition = EntityCondition.makeCondition(UtilMisc.toList(EntityCondition.makeCondition("runByInstanceId", instanceId), doneCond));
+        boolean beganTransaction = false;
         try {
             beganTransaction = TransactionUtil.begin();
             if (!beganTransaction) {
                 Debug.logWarning("Unable to poll JobSandbox for jobs; unable to begin transaction.", module);
-                return poll;
+                return Collections.emptyList();
             }
-
-            try (EntityListIterator jobsIterator = EntityQuery.use(delegator).from("JobSandbox").where(mainCondition).orderBy("runTime").queryIterator()) {
-                // SCIPIO: factored out into method
-                ownAndCollectJobs(dctx, delegator, limit, jobsIterator, poll);
+            try (EntityListIterator jobsIterator = EntityQuery.use(delegator).from("JobSandbox").where(mainCondition).orderBy("jobId").queryIterator()) {
+                GenericValue jobValue = jobsIterator.next();
+                while (jobValue != null) {
+                    poll.add(new PurgeJob(jobValue));
+                    if (poll.size() == limit) {
+                        break;
+                    }
+                    jobValue = jobsIterator.next();
+                }
             }
             //} catch (GenericEntityException e) { // SCIPIO: 2018-08-29: this catch is counter-productive
             //    Debug.logWarning(e, module);
             //}
-
             TransactionUtil.commit(beganTransaction);
         } catch (Throwable t) {
             String errMsg = "Exception thrown while polling JobSandbox: ";
@@ -286,54 +408,49 @@ public final class JobManager {
             Debug.logWarning(t, errMsg, module);
             return Collections.emptyList();
         }
-        if (poll.isEmpty()) {
-            // No jobs to run, see if there are any jobs to purge
-            Calendar cal = Calendar.getInstance();
-            try {
-                int daysToKeep = ServiceConfigUtil.getServiceEngine().getThreadPool().getPurgeJobDays();
-                cal.add(Calendar.DAY_OF_YEAR, -daysToKeep);
-            } catch (GenericConfigException e) {
-                Debug.logWarning(e, "Unable to get purge job days: ", module);
-                return Collections.emptyList();
+        return poll;
+    }
+
+    /**
+     * SCIPIO: Claims up to <code>limit</code> due jobs matching the condition in a new transaction and adds them to the
+     * list; returns false if the claim failed (logged).
+     * <p>
+     * Factored out from {@link #poll}.
+     */
+    private boolean claimDueJobs(DispatchContext dctx, int limit, EntityCondition mainCondition, List<Job> poll) {
+        boolean beganTransaction = false;
+        try {
+            beganTransaction = TransactionUtil.begin();
+            if (!beganTransaction) {
+                Debug.logWarning("Unable to poll JobSandbox for jobs; unable to begin transaction.", module);
+                return true;
             }
-            Timestamp purgeTime = new Timestamp(cal.getTimeInMillis());
-            List<EntityExpr> finExp = UtilMisc.toList(EntityCondition.makeCondition("finishDateTime", EntityOperator.NOT_EQUAL, null), EntityCondition.makeCondition("finishDateTime", EntityOperator.LESS_THAN, purgeTime));
-            List<EntityExpr> canExp = UtilMisc.toList(EntityCondition.makeCondition("cancelDateTime", EntityOperator.NOT_EQUAL, null), EntityCondition.makeCondition("cancelDateTime", EntityOperator.LESS_THAN, purgeTime));
-            EntityCondition doneCond = EntityCondition.makeCondition(UtilMisc.toList(EntityCondition.makeCondition(canExp), EntityCondition.makeCondition(finExp)), EntityOperator.OR);
-            mainCondition = EntityCondition.makeCondition(UtilMisc.toList(EntityCondition.makeCondition("runByInstanceId", instanceId), doneCond));
-            beganTransaction = false;
-            try {
-                beganTransaction = TransactionUtil.begin();
-                if (!beganTransaction) {
-                    Debug.logWarning("Unable to poll JobSandbox for jobs; unable to begin transaction.", module);
-                    return Collections.emptyList();
-                }
-                try (EntityListIterator jobsIterator = EntityQuery.use(delegator).from("JobSandbox").where(mainCondition).orderBy("jobId").queryIterator()) {
-                    GenericValue jobValue = jobsIterator.next();
-                    while (jobValue != null) {
-                        poll.add(new PurgeJob(jobValue));
-                        if (poll.size() == limit) {
-                            break;
-                        }
-                        jobValue = jobsIterator.next();
-                    }
-                }
-                //} catch (GenericEntityException e) { // SCIPIO: 2018-08-29: this catch is counter-productive
-                //    Debug.logWarning(e, module);
-                //}
-                TransactionUtil.commit(beganTransaction);
-            } catch (Throwable t) {
-                String errMsg = "Exception thrown while polling JobSandbox: ";
-                try {
-                    TransactionUtil.rollback(beganTransaction, errMsg, t);
-                } catch (GenericEntityException e) {
-                    Debug.logWarning(e, "Exception thrown while rolling back transaction: ", module);
+
+            if (useSkipLocked()) {
+                // SCIPIO: lock and claim up to limit due jobs at once, skipping the ones other instances are claiming
+                claimAndCollectJobs(dctx, delegator, limit, mainCondition, poll);
+            } else {
+                try (EntityListIterator jobsIterator = EntityQuery.use(delegator).from("JobSandbox").where(mainCondition).orderBy("runTime").queryIterator()) {
+                    // SCIPIO: factored out into method
+                    ownAndCollectJobs(dctx, delegator, limit, jobsIterator, poll);
                 }
-                Debug.logWarning(t, errMsg, module);
-                return Collections.emptyList();
             }
+            //} catch (GenericEntityException e) { // SCIPIO: 2018-08-29: this catch is counter-productive
+            //    Debug.logWarning(e, module);
+            //}
+
+            TransactionUtil.commit(beganTransaction);
+            return true;
+        } catch (Throwable t) {
+            String errMsg = "Exception thrown while polling JobSandbox: ";
+            try {
+                TransactionUtil.rollback(beganTransaction, errMsg, t);
+            } catch (GenericEntityException e) {
+                Debug.logWarning(e, "Exception thrown while rolling back transaction: ", module);
+            }
+            Debug.logWarning(t, errMsg, module);
+            return false;
         }
-        return poll;
     }
 
     /**
@@ -360,6 +477,81 @@ public final class JobManager {
         }
     }
 
+    /**
+     * SCIPIO: Returns true if due jobs are claimed with SELECT ... FOR UPDATE SKIP LOCKED: the thread-pool
+     * <code>claim-mode</code> is "auto" and the JobSandbox datasource has the <code>skip-locked</code> attribute set,
+     * and an <code>offset-style</code> so that the number of rows locked is limited in the SQL.
+     */
+    private boolean useSkipLocked() {
+        try {
+            if (!"auto".equals(ServiceConfigUtil.getServiceEngine().getThreadPool().getClaimMode())) {
+                return false;
+            }
+        } catch (GenericConfigException e) {
+            Debug.logWarning(e, "Unable to get job claim mode: ", module);
+            return false;
+        }
+        GenericHelperInfo helperInfo = delegator.getGroupHelperInfo(delegator.getEntityGroupName("JobSandbox"));
+        if (helperInfo == null) {
+            return false;
+        }
+        Datasource datasource = EntityConfig.getDatasource(helperInfo.getHelperBaseName());
+        if (datasource == null || !datasource.getSkipLocked()) {
+            return false;
+        }
+        if ("none".equals(datasource.getOffsetStyle())) {
+            // without a SQL limit, the select would lock every due job, not just the ones claimed
+            if (!skipLockedWarned) {
+                skipLockedWarned = true;
+                Debug.logWarning("Datasource [" + datasource.getName() + "] has skip-locked but no offset-style; claiming jobs optimistically", module);
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * SCIPIO: Takes ownership of up to <code>limit</code> due jobs and adds them to the list, by locking the rows with
+     * SELECT ... FOR UPDATE SKIP LOCKED and claiming them all with a single update. Rows being claimed by other instances
+     * are skipped rather than contended for, so concurrent pollers each get distinct jobs and no claim fails.
+     * Must be called within a transaction.
+     */
+    protected void claimAndCollectJobs(DispatchContext dctx, Delegator delegator, int limit,
+            EntityCondition mainCondition, List<Job> poll) throws GenericEntityException {
+        int maxRows = (limit < 0) ? 0 : limit - poll.size();
+        if (limit >= 0 && maxRows <= 0) {
+            return;
+        }
+        // limit in the SQL (LIMIT or FETCH FIRST, per the datasource offset-style): the database locks every row the
+        // select returns, so a JDBC max rows alone would lock all due jobs
+        EntityFindOptions findOptions = new EntityFindOptions();
+        findOptions.setSkipLocked(true);
+        if (maxRows > 0) {
+            findOptions.setMaxRows(maxRows);
+            findOptions.setLimit(maxRows);
+            findOptions.setOffset(0);
+        }
+        List<GenericValue> jobValues = delegator.findList("JobSandbox", mainCondition, null, UtilMisc.toList("runTime"), findOptions, false);
+        if (jobValues.isEmpty()) {
+            return;
+        }
+        List<Object> jobIds = new ArrayList<>(jobValues.size());
+        for (GenericValue jobValue : jobValues) {
+            jobIds.add(jobValue.get("jobId"));
+        }
+        // the rows are locked by this transaction, so the runByInstanceId check only guards against misconfiguration
+        int rowsUpdated = delegator.storeByCondition("JobSandbox", UtilMisc.toMap("runByInstanceId", instanceId),
+                EntityCondition.makeCondition(EntityCondition.makeCondition("jobId", EntityOperator.IN, jobIds),
+                        EntityCondition.makeCondition("runByInstanceId", EntityOperator.EQUALS, null)));
+        if (rowsUpdated != jobValues.size()) {
+            throw new GenericEntityException("Claimed " + rowsUpdated + " of " + jobValues.size()
+                    + " locked JobSandbox rows; the datasource may not support SKIP LOCKED (set claim-mode=\"optimistic\")");
+        }
+        for (GenericValue jobValue : jobValues) {
+            poll.add(new PersistedServiceJob(dctx, jobValue, null));
+        }
+    }
+
     /**
      * SCIPIO: Queries run-at-start Job entities if not already done.
      * If already done, returns null.
@@ -389,6 +581,19 @@ public final class JobManager {
         if (crashedJobsReloaded) {
             return;
         }
+        // SCIPIO: jobs claimed but never started (such as runs held in the timer wheel) did not crash; release them for
+        // polling with their run time and recurrence intact, rather than re-running them now as one-off jobs
+        try {
+            int released = delegator.storeByCondition("JobSandbox", UtilMisc.toMap("runByInstanceId", null), EntityCondition.makeCondition(
+                    EntityCondition.makeCondition("runByInstanceId", instanceId),
+                    EntityCondition.makeCondition("statusId", "SERVICE_PENDING"),
+                    EntityCondition.makeCondition("startDateTime", null)));
+            if (released > 0 && Debug.infoOn()) {
+                Debug.logInfo("Released " + released + " pending jobs claimed before the last shutdown", module);
+            }
+        } catch (GenericEntityException e) {
+            Debug.logWarning(e, "Unable to release pending jobs", module);
+        }
         List<GenericValue> crashed = null;
         List<EntityExpr> statusExprList = UtilMisc.toList(EntityCondition.makeCondition("statusId", EntityOperator.EQUALS, "SERVICE_PENDING"),
                 EntityCondition.makeCondition("statusId", EntityOperator.EQUALS, "SERVICE_QUEUED"),
@@ -722,6 +927,39 @@ public final class JobManager {
         } catch (GenericEntityException e) {
             throw new JobManagerException(e.getMessage(), e);
         }
+        // SCIPIO: if the job is due now, have the local poller pick it up without waiting for the next poll interval
+        if (eventId == null && startTime <= System.currentTimeMillis()) {
+            wakePollerOnCommit((String) jFields.get("poolId"));
+        }
+    }
+
+    /**
+     * SCIPIO: Wakes the local {@link JobPoller} once the current transaction commits (immediately if there is none),
+     * if the thread-pool <code>wake-on-schedule</code> attribute is set and this instance runs jobs from the pool.
+     */
+    private void wakePollerOnCommit(String poolName) {
+        try {
+            if (!ServiceConfigUtil.getServiceEngine().getThreadPool().getWakeOnSchedule() || !getRunPools().contains(poolName)) {
+                return;
+            }
+            if (TransactionUtil.isTransactionInPlace()) {
+                TransactionUtil.registerSynchronization(new Synchronization() {
+                    public void beforeCompletion() {
+                    }
+
+                    public void afterCompletion(int status) {
+                        if (status == Status.STATUS_COMMITTED) {
+                            JobPoller.getInstance().wakeUp();
+                        }
+                    }
+                });
+            } else {
+                JobPoller.getInstance().wakeUp();
+            }
+        } catch (GenericConfigException | GenericEntityException e) {
+            // the job is picked up by the next regular poll
+            Debug.logWarning(e, "Unable to wake job poller for scheduled job: ", module);
+        }
     }
 
     /**
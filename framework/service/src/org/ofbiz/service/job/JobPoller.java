@@ -22,23 +22,28 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.BlockingQueue;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
-import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
 
 import org.ofbiz.base.config.GenericConfigException;
 import org.ofbiz.base.start.Start;
 import org.ofbiz.base.util.Assert;
 import org.ofbiz.base.util.Debug;
+import org.ofbiz.entity.transaction.GenericTransactionException;
+import org.ofbiz.entity.transaction.TransactionUtil;
 import org.ofbiz.service.config.ServiceConfigListener;
 import org.ofbiz.service.config.ServiceConfigUtil;
+import org.ofbiz.service.config.model.RunFromPool;
 import org.ofbiz.service.config.model.ServiceConfig;
 import org.ofbiz.service.config.model.ThreadPool;
 
@@ -48,10 +53,12 @@ import org.ofbiz.service.config.model.ThreadPool;
 public final class JobPoller implements ServiceConfigListener {
 
     private static final Debug.OfbizLogger module = Debug.getOfbizLogger(java.lang.invoke.MethodHandles.lookup().lookupClass());
-    private static final AtomicInteger created = new AtomicInteger();
     private static final ConcurrentHashMap<String, JobManager> jobManagers = new ConcurrentHashMap<>();
-    private static final ThreadPoolExecutor executor = createThreadPoolExecutor();
     private static final JobPoller instance = new JobPoller();
+    /** SCIPIO: Minimum time between the start of two polls when woken up, so bursts of scheduled jobs coalesce. */
+    private static final long MIN_WAKE_INTERVAL_MILLIS = 50;
+    /** SCIPIO: Accuracy of the job timer wheel. */
+    private static final long TIMER_WHEEL_TICK_MILLIS = 100;
 
     /**
      * Returns the <code>JobPoller</code> instance.
@@ -60,15 +67,12 @@ public final class JobPoller implements ServiceConfigListener {
         return instance;
     }
 
-    private static ThreadPoolExecutor createThreadPoolExecutor() {
+    private static ThreadPool getThreadPoolConfig() {
         try {
-            ThreadPool threadPool = ServiceConfigUtil.getServiceEngine(ServiceConfigUtil.getEngine()).getThreadPool();
-            return new ThreadPoolExecutor(threadPool.getMinThreads(), threadPool.getMaxThreads(), threadPool.getTtl(),
-                    TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(threadPool.getJobs()), new JobInvokerThreadFactory(), new ThreadPoolExecutor.AbortPolicy());
+            return ServiceConfigUtil.getServiceEngine(ServiceConfigUtil.getEngine()).getThreadPool();
         } catch (GenericConfigException e) {
             Debug.logError(e, "Exception thrown while getting <thread-pool> model, using default <thread-pool> values: ", module);
-            return new ThreadPoolExecutor(ThreadPool.MIN_THREADS, ThreadPool.MAX_THREADS, ThreadPool.THREAD_TTL,
-                    TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(ThreadPool.QUEUE_SIZE), new JobInvokerThreadFactory(), new ThreadPoolExecutor.AbortPolicy());
+            return null;
         }
     }
 
@@ -96,35 +100,115 @@ public final class JobPoller implements ServiceConfigListener {
     // -------------------------------------- //
 
     private final Thread jobManagerPollerThread;
+    private final Object pollLock = new Object(); // SCIPIO
+    private boolean wakeUpRequested = false; // SCIPIO: guarded by pollLock
+    /** SCIPIO: The executors of the run-from-pool pools, by pool name. */
+    private final ConcurrentHashMap<String, JobPool> pools = new ConcurrentHashMap<>();
+    /** SCIPIO: The executor for jobs without a pool (non-persisted async services) or of a pool not run here: the send-to-pool. */
+    private final JobPool defaultPool;
+    private volatile int queueWaitMillis = ThreadPool.QUEUE_WAIT;
+    /** SCIPIO: Holds the upcoming runs of recurring persisted jobs claimed by this instance; null if disabled. */
+    private final JobTimerWheel timerWheel;
+    private volatile long timerWheelHorizonMillis = ThreadPool.TIMER_WHEEL_HORIZON;
 
     private JobPoller() {
+        ThreadPool threadPool = getThreadPoolConfig();
+        if (threadPool != null) {
+            for (RunFromPool runFromPool : threadPool.getRunFromPools()) {
+                pools.put(runFromPool.getName(), newPool(runFromPool.getName(), runFromPool.getMinThreads(), runFromPool.getMaxThreads(),
+                        runFromPool.getJobs(), threadPool));
+            }
+            JobPool sendToPool = pools.get(threadPool.getSendToPool());
+            defaultPool = (sendToPool != null) ? sendToPool : newPool(threadPool.getSendToPool(), threadPool.getMinThreads(), threadPool.getMaxThreads(),
+                    threadPool.getJobs(), threadPool);
+            queueWaitMillis = threadPool.getQueueWaitMillis();
+            if (threadPool.getVirtualThreads()) {
+                Debug.logInfo("Job pools use " + (defaultPool.isVirtual() ? "virtual" : "platform") + " threads", module);
+            }
+        } else {
+            defaultPool = new JobPool("pool", ThreadPool.MIN_THREADS, ThreadPool.MAX_THREADS, ThreadPool.QUEUE_SIZE, ThreadPool.THREAD_TTL, false);
+        }
         if (pollEnabled()) {
             jobManagerPollerThread = new Thread(new JobManagerPoller(), "Scipio-JobPoller");
             jobManagerPollerThread.setDaemon(false);
             jobManagerPollerThread.start();
+            if (threadPool != null && threadPool.getTimerWheel()) {
+                timerWheelHorizonMillis = threadPool.getTimerWheelHorizonMillis();
+                timerWheel = new JobTimerWheel("Scipio-JobTimer", TIMER_WHEEL_TICK_MILLIS, this::queueTimerJob);
+            } else {
+                timerWheel = null;
+            }
         } else {
             jobManagerPollerThread = null;
+            timerWheel = null;
         }
         ServiceConfigUtil.registerServiceConfigListener(this);
     }
 
+    /**
+     * SCIPIO: Makes a job pool; with thread-pool <code>virtual-threads</code>, it runs the jobs on virtual threads
+     * limited to <code>virtual-thread-limit</code> at once instead of the min/max platform threads.
+     */
+    private static JobPool newPool(String name, int minThreads, int maxThreads, int jobs, ThreadPool threadPool) {
+        boolean virtualThreads = threadPool.getVirtualThreads();
+        return new JobPool(name, minThreads, virtualThreads ? threadPool.getVirtualThreadLimit() : maxThreads, jobs,
+                threadPool.getTtl(), virtualThreads);
+    }
+
+    private static void resizePool(JobPool pool, int minThreads, int maxThreads, ThreadPool threadPool) {
+        pool.setThreads(minThreads, pool.isVirtual() ? threadPool.getVirtualThreadLimit() : maxThreads, threadPool.getTtl());
+    }
+
+    /** SCIPIO: Returns the job pools, the default pool first. */
+    private Collection<JobPool> getPools() {
+        Set<JobPool> allPools = new LinkedHashSet<>();
+        allPools.add(defaultPool);
+        allPools.addAll(pools.values());
+        return allPools;
+    }
+
+    /** SCIPIO: Returns the executor of the job's pool, or the default pool. */
+    private JobPool getPool(Job job) {
+        String poolId = job.getPoolId();
+        JobPool pool = (poolId != null) ? pools.get(poolId) : null;
+        return (pool != null) ? pool : defaultPool;
+    }
+
     /**
      * Returns a <code>Map</code> containing <code>JobPoller</code> statistics.
+     * <p>
+     * SCIPIO: The thread counts are totals over the job pools; the "pools" entry has the statistics of each pool,
+     * including queue size and queue wait times.
      */
     public Map<String, Object> getPoolState() {
         Map<String, Object> poolState = new HashMap<>();
-        poolState.put("keepAliveTimeInSeconds", executor.getKeepAliveTime(TimeUnit.SECONDS));
-        poolState.put("numberOfCoreInvokerThreads", executor.getCorePoolSize());
-        poolState.put("currentNumberOfInvokerThreads", executor.getPoolSize());
-        poolState.put("numberOfActiveInvokerThreads", executor.getActiveCount());
-        poolState.put("maxNumberOfInvokerThreads", executor.getMaximumPoolSize());
-        poolState.put("greatestNumberOfInvokerThreads", executor.getLargestPoolSize());
-        poolState.put("numberOfCompletedTasks", executor.getCompletedTaskCount());
-        BlockingQueue<Runnable> queue = executor.getQueue();
+        int coreThreads = 0, currentThreads = 0, activeThreads = 0, maxThreads = 0, greatestThreads = 0;
+        long completedTasks = 0;
+        List<Map<String, Object>> poolList = new ArrayList<>();
+        List<Job> queuedJobs = new ArrayList<>();
+        for (JobPool pool : getPools()) {
+            ThreadPoolExecutor executor = pool.getExecutor();
+            coreThreads += executor.getCorePoolSize();
+            currentThreads += executor.getPoolSize();
+            activeThreads += executor.getActiveCount();
+            maxThreads += executor.getMaximumPoolSize();
+            greatestThreads += executor.getLargestPoolSize();
+            completedTasks += executor.getCompletedTaskCount();
+            poolList.add(pool.getState());
+            queuedJobs.addAll(pool.getQueuedJobs());
+        }
+        poolState.put("keepAliveTimeInSeconds", defaultPool.getExecutor().getKeepAliveTime(TimeUnit.SECONDS));
+        poolState.put("numberOfCoreInvokerThreads", coreThreads);
+        poolState.put("currentNumberOfInvokerThreads", currentThreads);
+        poolState.put("numberOfActiveInvokerThreads", activeThreads);
+        poolState.put("maxNumberOfInvokerThreads", maxThreads);
+        poolState.put("greatestNumberOfInvokerThreads", greatestThreads);
+        poolState.put("numberOfCompletedTasks", completedTasks);
+        poolState.put("pools", poolList);
+        poolState.put("timerWheelJobs", (timerWheel != null) ? timerWheel.size() : 0);
         List<Map<String, Object>> taskList = new ArrayList<>();
         Map<String, Object> taskInfo = null;
-        for (Runnable task : queue) {
-            Job job = (Job) task;
+        for (Job job : queuedJobs) {
             taskInfo = new HashMap<>();
             taskInfo.put("id", job.getJobId());
             taskInfo.put("name", job.getJobName());
@@ -143,11 +227,23 @@ public final class JobPoller implements ServiceConfigListener {
 
     @Override
     public void onServiceConfigChange(ServiceConfig serviceConfig) {
-        if (!executor.isShutdown()) {
+        if (!defaultPool.isShutdown()) {
+            // SCIPIO: resize the pools; new run-from-pool pools get an executor, removed ones keep theirs
             ThreadPool threadPool = serviceConfig.getServiceEngine(ServiceConfigUtil.getEngine()).getThreadPool();
-            executor.setCorePoolSize(threadPool.getMinThreads());
-            executor.setMaximumPoolSize(threadPool.getMaxThreads());
-            executor.setKeepAliveTime(threadPool.getTtl(), TimeUnit.MILLISECONDS);
+            for (RunFromPool runFromPool : threadPool.getRunFromPools()) {
+                JobPool pool = pools.get(runFromPool.getName());
+                if (pool != null) {
+                    resizePool(pool, runFromPool.getMinThreads(), runFromPool.getMaxThreads(), threadPool);
+                } else {
+                    pools.put(runFromPool.getName(), newPool(runFromPool.getName(), runFromPool.getMinThreads(), runFromPool.getMaxThreads(),
+                            runFromPool.getJobs(), threadPool));
+                }
+            }
+            if (!pools.containsValue(defaultPool)) {
+                resizePool(defaultPool, threadPool.getMinThreads(), threadPool.getMaxThreads(), threadPool);
+            }
+            queueWaitMillis = threadPool.getQueueWaitMillis();
+            timerWheelHorizonMillis = threadPool.getTimerWheelHorizonMillis();
         }
     }
 
@@ -162,15 +258,167 @@ public final class JobPoller implements ServiceConfigListener {
 
     /**
      * Adds a job to the job queue.
+     * <p>
+     * SCIPIO: The job goes to the queue of its pool. If the queue is full, waits up to the thread-pool
+     * <code>queue-wait-millis</code> for room (backpressure) before giving up; see {@link JobPool#execute}.
      * @throws InvalidJobException if the job is in an invalid state.
      * @throws RejectedExecutionException if the poller is stopped.
      */
     public void queueNow(Job job) throws InvalidJobException {
+        queueNow(job, queueWaitMillis);
+    }
+
+    /**
+     * SCIPIO: Adds a job to the job queue, waiting up to <code>waitMillis</code> for room if the queue of its pool is full.
+     * If it cannot be queued, the job is dequeued, which for a persisted job leaves it for a later poll.
+     */
+    private void queueNow(Job job, long waitMillis) throws InvalidJobException {
+        queueNow(job, getPool(job), waitMillis);
+    }
+
+    /** SCIPIO: Adds a job to the queue of the given pool; returns false if it could not be queued and was dequeued. */
+    private static boolean queueNow(Job job, JobPool pool, long waitMillis) throws InvalidJobException {
         job.queue();
         try {
-            executor.execute(job);
+            pool.execute(job, waitMillis);
+            return true;
         } catch (Exception e) {
             job.deQueue();
+            return false;
+        }
+    }
+
+    /**
+     * SCIPIO: Returns the pool ids polled for each executor: the run-from pools, plus the jobs without a pool for the
+     * default pool.
+     */
+    private Map<JobPool, List<String>> getPollPools() {
+        Map<JobPool, List<String>> pollPools = new LinkedHashMap<>();
+        ThreadPool threadPool = getThreadPoolConfig();
+        if (threadPool != null) {
+            for (RunFromPool runFromPool : threadPool.getRunFromPools()) {
+                JobPool pool = pools.get(runFromPool.getName());
+                if (pool != null) {
+                    pollPools.computeIfAbsent(pool, k -> new ArrayList<>()).add(runFromPool.getName());
+                }
+            }
+        }
+        pollPools.computeIfAbsent(defaultPool, k -> new ArrayList<>()).add(null);
+        return pollPools;
+    }
+
+    /**
+     * SCIPIO: Claims the due jobs of the given pool ids (null for the jobs without a pool), up to the remaining capacity
+     * of the executor, and queues them there; returns the number of jobs queued. A full executor is not polled, so its
+     * jobs are left unclaimed for other instances and later polls rather than claimed and released on every poll.
+     */
+    public int pollPool(JobManager jm, JobPool pool, Collection<String> poolIds) {
+        int remainingCapacity = pool.getRemainingCapacity();
+        if (remainingCapacity <= 0 || pool.isShutdown()) {
+            return 0;
+        }
+        int queued = 0;
+        for (Job job : jm.poll(poolIds, remainingCapacity)) {
+            try {
+                if (queueNow(job, pool, 0)) {
+                    queued++;
+                }
+            } catch (InvalidJobException e) {
+                Debug.logError(e, module);
+            }
+        }
+        return queued;
+    }
+
+    /**
+     * SCIPIO: Returns true if a persisted job run of the pool due at <code>runTimeMillis</code> can be held in the
+     * timer wheel of this instance: the timer wheel is enabled, this instance runs the pool and the run is due within
+     * the thread-pool <code>timer-wheel-horizon-millis</code>.
+     */
+    boolean canHoldInTimerWheel(String poolId, long runTimeMillis) {
+        if (timerWheel == null || timerWheel.isShutdown() || defaultPool.isShutdown() || runTimeMillis - System.currentTimeMillis() > timerWheelHorizonMillis) {
+            return false;
+        }
+        return poolId == null || pools.containsKey(poolId);
+    }
+
+    /**
+     * SCIPIO: Holds a persisted job run, already claimed by this instance, in the timer wheel; it is queued at
+     * <code>runTimeMillis</code> without the JobSandbox poll. See {@link #canHoldInTimerWheel}.
+     * <p>
+     * If a transaction is in place, the run is only held once it commits, since the transaction claims the run and
+     * writes its JobSandbox row; on rollback there is no run to hold.
+     */
+    void holdInTimerWheel(PersistedServiceJob job, long runTimeMillis) throws GenericTransactionException {
+        if (TransactionUtil.isTransactionInPlace()) {
+            TransactionUtil.registerSynchronization(new Synchronization() {
+                @Override
+                public void beforeCompletion() {
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    if (status == Status.STATUS_COMMITTED) {
+                        scheduleInTimerWheel(job, runTimeMillis);
+                    }
+                }
+            });
+        } else {
+            scheduleInTimerWheel(job, runTimeMillis);
+        }
+    }
+
+    private void scheduleInTimerWheel(PersistedServiceJob job, long runTimeMillis) {
+        try {
+            timerWheel.schedule(job, runTimeMillis);
+        } catch (RejectedExecutionException e) {
+            // the timer wheel was shut down since the run was claimed
+            job.release();
+        }
+    }
+
+    /** SCIPIO: Queues a job that came due in the timer wheel, or releases it for polling if it cannot run here now. */
+    private void queueTimerJob(Job job) {
+        PersistedServiceJob persistedJob = (PersistedServiceJob) job;
+        JobManager jm = jobManagers.get(persistedJob.getDelegator().getDelegatorName());
+        if (defaultPool.isShutdown() || (jm != null && !jm.wasAvailable())) {
+            persistedJob.release();
+            return;
+        }
+        try {
+            queueNow(job, 0); // a full pool dequeues the job, which releases it for polling
+        } catch (InvalidJobException e) {
+            // cancelled or removed since it was scheduled
+            if (Debug.verboseOn()) {
+                Debug.logVerbose("Job [" + job.getJobId() + "] from the timer wheel not queued: " + e.getMessage(), module);
+            }
+        }
+    }
+
+    /**
+     * SCIPIO: Makes the poller thread poll the job managers now instead of at the end of the current poll interval,
+     * for example because a job due to run now was just scheduled. Wake-ups during a poll cause one more poll.
+     */
+    public void wakeUp() {
+        synchronized (pollLock) {
+            wakeUpRequested = true;
+            pollLock.notifyAll();
+        }
+    }
+
+    /** SCIPIO: Waits for the poll interval to elapse or a {@link #wakeUp()}, replacing the former fixed sleep. */
+    private void waitForNextPoll(long pollStartMillis) throws InterruptedException {
+        long pollDeadline = pollStartMillis + pollWaitTime();
+        synchronized (pollLock) {
+            while (true) {
+                long now = System.currentTimeMillis();
+                long deadline = wakeUpRequested ? Math.min(pollDeadline, pollStartMillis + MIN_WAKE_INTERVAL_MILLIS) : pollDeadline;
+                if (now >= deadline) {
+                    break;
+                }
+                pollLock.wait(deadline - now);
+            }
+            wakeUpRequested = false;
         }
     }
 
@@ -183,10 +431,18 @@ public final class JobPoller implements ServiceConfigListener {
         if (jobManagerPollerThread != null) {
             jobManagerPollerThread.interrupt();
         }
-        List<Runnable> queuedJobs = executor.shutdownNow();
-        for (Runnable task : queuedJobs) {
+        if (timerWheel != null) {
+            // SCIPIO: give the runs held in the timer wheel back to the poll of any instance
+            for (Job timerJob : timerWheel.shutdown()) {
+                ((PersistedServiceJob) timerJob).release();
+            }
+        }
+        List<Job> queuedJobs = new ArrayList<>();
+        for (JobPool pool : getPools()) {
+            queuedJobs.addAll(pool.shutdownNow());
+        }
+        for (Job queuedJob : queuedJobs) {
             try {
-                Job queuedJob = (Job) task;
                 queuedJob.deQueue();
             } catch (Exception e) {
                 Debug.logWarning(e, module);
@@ -195,13 +451,6 @@ public final class JobPoller implements ServiceConfigListener {
         Debug.logInfo("JobPoller shutdown completed.", module);
     }
 
-    private static class JobInvokerThreadFactory implements ThreadFactory {
-
-        public Thread newThread(Runnable runnable) {
-            return new Thread(runnable, "Scipio-JobQueue-" + created.getAndIncrement());
-        }
-    }
-
     // Polls all registered JobManagers for jobs to queue.
     private class JobManagerPoller implements Runnable {
 
@@ -213,45 +462,41 @@ public final class JobPoller implements ServiceConfigListener {
                 while (Start.getInstance().getCurrentState() != Start.ServerState.RUNNING) {
                     Thread.sleep(1000);
                 }
-                while (!executor.isShutdown()) {
-                    int remainingCapacity = executor.getQueue().remainingCapacity();
-                    if (remainingCapacity > 0) {
-                        // Build "list of lists"
-                        Collection<JobManager> jmCollection = jobManagers.values();
-                        List<Iterator<Job>> pollResults = new ArrayList<>();
-                        for (JobManager jm : jmCollection) {
-                            if (!jm.isAvailable()) {
-                                if (Debug.infoOn()) {
-                                    Debug.logInfo("The job manager is locked.", module);
-                                }
-                                continue;
+                while (!defaultPool.isShutdown()) {
+                    long pollStartMillis = System.currentTimeMillis();
+                    // SCIPIO: poll and claim per pool, up to the remaining capacity of each; a full pool is not polled
+                    Map<JobPool, List<String>> pollPools = getPollPools();
+                    for (JobManager jm : jobManagers.values()) {
+                        if (!jm.isAvailable()) {
+                            if (Debug.infoOn()) {
+                                Debug.logInfo("The job manager is locked.", module);
                             }
-                            jm.reloadCrashedJobs();
-                            pollResults.add(jm.poll(remainingCapacity).iterator());
+                            continue;
                         }
-                        // Create queue candidate list from "list of lists"
-                        List<Job> queueCandidates = new ArrayList<>();
-                        boolean addingJobs = true;
-                        while (addingJobs) {
-                            addingJobs = false;
-                            for (Iterator<Job> jobIterator : pollResults) {
-                                if (jobIterator.hasNext()) {
-                                    queueCandidates.add(jobIterator.next());
-                                    addingJobs = true;
-                                }
-                            }
-                        }
-                        // The candidate list might be larger than the queue remaining capacity,
-                        // but that is okay - the excess jobs will be dequeued and rescheduled.
-                        for (Job job : queueCandidates) {
+                        jm.reloadCrashedJobs();
+                        for (Job job : jm.pollStartupJobs()) {
                             try {
-                                queueNow(job);
+                                queueNow(job, 0); // excess run-at-startup jobs are dequeued for a later poll
                             } catch (InvalidJobException e) {
                                 Debug.logError(e, module);
                             }
                         }
+                        int queued = 0;
+                        for (Map.Entry<JobPool, List<String>> entry : pollPools.entrySet()) {
+                            queued += pollPool(jm, entry.getKey(), entry.getValue());
+                        }
+                        if (queued == 0 && defaultPool.getRemainingCapacity() > 0) {
+                            // No jobs to run, see if there are any jobs to purge
+                            for (Job job : jm.pollPurgeJobs(defaultPool.getRemainingCapacity())) {
+                                try {
+                                    queueNow(job, defaultPool, 0);
+                                } catch (InvalidJobException e) {
+                                    Debug.logError(e, module);
+                                }
+                            }
+                        }
                     }
-                    Thread.sleep(pollWaitTime());
+                    waitForNextPoll(pollStartMillis);
                 }
             } catch (InterruptedException e) {
                 // Happens when JobPoller shuts down - nothing to do.
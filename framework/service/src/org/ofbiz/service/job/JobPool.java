@@ -0,0 +1,298 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.service.job;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.ofbiz.base.concurrent.VirtualThreads;
+import org.ofbiz.base.util.Debug;
+
+/**
+ * SCIPIO: The executor of one job pool (a <code>&lt;run-from-pool&gt;</code>, or the default pool): its own invoker
+ * threads and a priority queue, so jobs of one pool cannot starve the jobs of another.
+ * <p>
+ * Queued jobs run highest {@link Job#getPriority() priority} first, then in queue order. The queue is bounded by the
+ * <code>jobs</code> setting with a semaphore rather than by the queue itself (priority queues are unbounded), so
+ * submitters can wait for room instead of being rejected. The pool keeps min-threads threads and starts more, up to
+ * max-threads, while all threads are busy; threads above min-threads time out after the ttl.
+ * <p>
+ * In virtual thread mode (thread-pool <code>virtual-threads</code>, JDK 21+), the jobs run on virtual threads and
+ * max-threads is the concurrency limit; idle virtual threads are discarded after the ttl like platform threads.
+ */
+public final class JobPool {
+
+    private static final Debug.OfbizLogger module = Debug.getOfbizLogger(java.lang.invoke.MethodHandles.lookup().lookupClass());
+    private static final AtomicInteger created = new AtomicInteger();
+    /** Set while a job of any pool runs in the current thread. */
+    private static final ThreadLocal<Boolean> invokerThread = new ThreadLocal<>();
+
+    private final String name;
+    private final boolean virtual;
+    private final int capacity;
+    private final Semaphore queuePermits;
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong sequence = new AtomicLong();
+    private final LongAdder waitCount = new LongAdder();
+    private final LongAdder waitTimeTotalNanos = new LongAdder();
+    private final AtomicLong waitTimeMaxNanos = new AtomicLong();
+    private final LongAdder backpressureWaits = new LongAdder();
+    private final LongAdder overCapacityJobs = new LongAdder();
+    private final LongAdder rejectedJobs = new LongAdder();
+
+    /**
+     * Creates a job pool.
+     * @param virtualThreads run the jobs on virtual threads, with <code>maxThreads</code> as concurrency limit; ignored
+     *            with a warning if the JDK does not support virtual threads
+     */
+    public JobPool(String name, int minThreads, int maxThreads, int capacity, long ttlMillis, boolean virtualThreads) {
+        this.name = name;
+        this.capacity = capacity;
+        this.queuePermits = new Semaphore(capacity);
+        ThreadFactory threadFactory = null;
+        if (virtualThreads) {
+            threadFactory = VirtualThreads.newThreadFactory("Scipio-JobQueue-" + name + "-virtual-");
+            if (threadFactory == null) {
+                Debug.logWarning("Virtual threads are not supported by this JDK; job pool [" + name + "] uses platform threads", module);
+            }
+        }
+        this.virtual = (threadFactory != null);
+        if (virtual) {
+            // virtual threads are cheap to start, so there is no point keeping a minimum
+            minThreads = maxThreads;
+        } else {
+            threadFactory = new JobInvokerThreadFactory(name);
+        }
+        ScalingQueue queue = new ScalingQueue();
+        this.executor = new ThreadPoolExecutor(minThreads, maxThreads, ttlMillis, TimeUnit.MILLISECONDS, queue,
+                threadFactory, (runnable, executor) -> {
+                    // the queue refused the job to make the executor start a thread, but it is at max-threads
+                    if (executor.isShutdown()) {
+                        throw new RejectedExecutionException("Job pool [" + name + "] is shut down");
+                    }
+                    queue.force(runnable);
+                });
+        queue.executor = this.executor;
+        if (virtual) {
+            this.executor.allowCoreThreadTimeOut(true);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /** Returns true if the jobs run on virtual threads. */
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    /** Returns the number of jobs that can still be queued without waiting. */
+    int getRemainingCapacity() {
+        return queuePermits.availablePermits();
+    }
+
+    boolean isShutdown() {
+        return executor.isShutdown();
+    }
+
+    void setThreads(int minThreads, int maxThreads, long ttlMillis) {
+        if (virtual) {
+            minThreads = maxThreads;
+        }
+        if (minThreads > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(maxThreads);
+            executor.setCorePoolSize(minThreads);
+        } else {
+            executor.setCorePoolSize(minThreads);
+            executor.setMaximumPoolSize(maxThreads);
+        }
+        executor.setKeepAliveTime(ttlMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queues the job for execution. If the queue is full, job invoker threads queue the job over capacity (waiting
+     * could deadlock the pool), other threads wait up to <code>waitMillis</code> for room.
+     * @throws RejectedExecutionException if there is no room or the pool is shut down
+     */
+    public void execute(Job job, long waitMillis) {
+        boolean permit = queuePermits.tryAcquire();
+        if (!permit) {
+            if (invokerThread.get() != null) {
+                overCapacityJobs.increment();
+            } else if (waitMillis > 0) {
+                backpressureWaits.increment();
+                try {
+                    permit = queuePermits.tryAcquire(waitMillis, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                if (!permit) {
+                    rejectedJobs.increment();
+                    throw new RejectedExecutionException("Job pool [" + name + "] queue is full");
+                }
+            } else {
+                rejectedJobs.increment();
+                throw new RejectedExecutionException("Job pool [" + name + "] queue is full");
+            }
+        }
+        try {
+            executor.execute(new QueuedJob(job, permit));
+        } catch (RejectedExecutionException e) {
+            if (permit) {
+                queuePermits.release();
+            }
+            throw e;
+        }
+    }
+
+    /** Shuts the pool down and returns the jobs that were waiting in the queue. */
+    public List<Job> shutdownNow() {
+        List<Runnable> queued = executor.shutdownNow();
+        List<Job> jobs = new ArrayList<>(queued.size());
+        for (Runnable task : queued) {
+            jobs.add(((QueuedJob) task).job);
+        }
+        return jobs;
+    }
+
+    /** Returns the jobs waiting in the queue, in no particular order. */
+    List<Job> getQueuedJobs() {
+        List<Job> jobs = new ArrayList<>();
+        for (Runnable task : executor.getQueue()) {
+            jobs.add(((QueuedJob) task).job);
+        }
+        return jobs;
+    }
+
+    ThreadPoolExecutor getExecutor() {
+        return executor;
+    }
+
+    /** Returns the pool statistics for {@link JobPoller#getPoolState()}. */
+    public Map<String, Object> getState() {
+        Map<String, Object> state = new HashMap<>();
+        state.put("poolId", name);
+        state.put("virtualThreads", virtual);
+        state.put("maxNumberOfInvokerThreads", executor.getMaximumPoolSize());
+        state.put("currentNumberOfInvokerThreads", executor.getPoolSize());
+        state.put("numberOfActiveInvokerThreads", executor.getActiveCount());
+        state.put("greatestNumberOfInvokerThreads", executor.getLargestPoolSize());
+        state.put("numberOfCompletedTasks", executor.getCompletedTaskCount());
+        state.put("queueCapacity", capacity);
+        state.put("queueSize", executor.getQueue().size());
+        state.put("remainingQueueCapacity", queuePermits.availablePermits());
+        long count = waitCount.sum();
+        state.put("averageQueueWaitMillis", (count > 0) ? TimeUnit.NANOSECONDS.toMillis(waitTimeTotalNanos.sum() / count) : 0L);
+        state.put("maxQueueWaitMillis", TimeUnit.NANOSECONDS.toMillis(waitTimeMaxNanos.get()));
+        state.put("backpressureWaits", backpressureWaits.sum());
+        state.put("overCapacityJobs", overCapacityJobs.sum());
+        state.put("rejectedJobs", rejectedJobs.sum());
+        return state;
+    }
+
+    /** A job in the queue, ordered by priority then queue order. */
+    private final class QueuedJob implements Runnable, Comparable<QueuedJob> {
+        private final Job job;
+        private final boolean permit;
+        private final int priority;
+        private final long seq;
+        private final long queuedNanos;
+
+        QueuedJob(Job job, boolean permit) {
+            this.job = job;
+            this.permit = permit;
+            this.priority = job.getPriority();
+            this.seq = sequence.getAndIncrement();
+            this.queuedNanos = System.nanoTime();
+        }
+
+        @Override
+        public void run() {
+            if (permit) {
+                queuePermits.release();
+            }
+            long waitNanos = System.nanoTime() - queuedNanos;
+            waitCount.increment();
+            waitTimeTotalNanos.add(waitNanos);
+            waitTimeMaxNanos.accumulateAndGet(waitNanos, Math::max);
+            invokerThread.set(Boolean.TRUE);
+            try {
+                job.run();
+            } finally {
+                invokerThread.remove();
+            }
+        }
+
+        @Override
+        public int compareTo(QueuedJob other) {
+            if (priority != other.priority) {
+                return (priority > other.priority) ? -1 : 1;
+            }
+            return Long.compare(seq, other.seq);
+        }
+    }
+
+    /**
+     * Refuses jobs while the executor can start another thread and none is idle, so the executor grows to
+     * max-threads before queueing (a plain unbounded queue would keep it at min-threads).
+     */
+    @SuppressWarnings("serial")
+    private static final class ScalingQueue extends PriorityBlockingQueue<Runnable> {
+        private volatile ThreadPoolExecutor executor;
+
+        @Override
+        public boolean offer(Runnable runnable) {
+            ThreadPoolExecutor executor = this.executor;
+            if (executor != null && executor.getPoolSize() < executor.getMaximumPoolSize()
+                    && executor.getActiveCount() >= executor.getPoolSize()) {
+                return false;
+            }
+            return super.offer(runnable);
+        }
+
+        void force(Runnable runnable) {
+            super.offer(runnable);
+        }
+    }
+
+    private static final class JobInvokerThreadFactory implements ThreadFactory {
+        private final String poolName;
+
+        JobInvokerThreadFactory(String poolName) {
+            this.poolName = poolName;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, "Scipio-JobQueue-" + poolName + "-" + created.getAndIncrement());
+        }
+    }
+}
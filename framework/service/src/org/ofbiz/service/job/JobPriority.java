@@ -0,0 +1,35 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.service.job;
+
+/**
+ * SCIPIO: Job priority values. Queued jobs of a pool run in priority order, highest first, then in queue order.
+ * Priorities come from the JobSandbox <code>priority</code> field or the service <code>priority</code> attribute.
+ */
+public final class JobPriority {
+
+    public static final int LOWEST = 0;
+    public static final int LOW = 25;
+    public static final int NORMAL = 50;
+    public static final int HIGH = 75;
+    public static final int HIGHEST = 100;
+
+    private JobPriority() {
+    }
+}
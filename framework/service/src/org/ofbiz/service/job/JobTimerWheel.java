@@ -0,0 +1,202 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.service.job;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.ofbiz.base.concurrent.ExecutionPool;
+import org.ofbiz.base.util.Debug;
+
+/**
+ * SCIPIO: Hierarchical timer wheel that hands jobs to a handler when their run time comes, with an accuracy of one tick.
+ * <p>
+ * There are {@link #LEVELS} wheels of 64 slots; a slot of level <i>n</i> spans 64<sup>n</sup> ticks, so with the
+ * default 100ms tick the wheels cover 6.4 seconds, 6.8 minutes, 7.3 hours and 19 days. A job goes into the lowest
+ * level whose span covers its delay and moves down a level each time the wheel below turns over, so scheduling and
+ * expiring a job cost a constant time regardless of how many jobs are held. Jobs further away than the top level
+ * are simply re-inserted when their slot comes up early.
+ * <p>
+ * Used by {@link JobPoller} for the recurrences of persisted jobs; see {@link PersistedServiceJob}.
+ */
+public final class JobTimerWheel {
+
+    private static final Debug.OfbizLogger module = Debug.getOfbizLogger(java.lang.invoke.MethodHandles.lookup().lookupClass());
+
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    static final int LEVELS = 4;
+
+    private final long tickMillis;
+    private final Consumer<Job> expiryHandler;
+    /** Entries by level and slot; slot lists are created on first use. Guarded by this. */
+    private final List<Entry>[][] wheels;
+    /** The last tick processed. Guarded by this. */
+    private long currentTick;
+    private int size = 0; // guarded by this
+    private final ScheduledExecutorService executor;
+
+    @SuppressWarnings("unchecked")
+    public JobTimerWheel(String name, long tickMillis, Consumer<Job> expiryHandler) {
+        this.tickMillis = tickMillis;
+        this.expiryHandler = expiryHandler;
+        this.wheels = new List[LEVELS][SLOTS];
+        this.currentTick = System.currentTimeMillis() / tickMillis;
+        this.executor = ExecutionPool.getScheduledExecutor(new ThreadGroup(name), name, 1, 0, true);
+        this.executor.scheduleWithFixedDelay(this::advance, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Schedules the job to be handed to the expiry handler at <code>runTimeMillis</code>; if that time has already
+     * passed, it is handed over on the timer thread right away.
+     * @throws RejectedExecutionException if the wheel was shut down
+     */
+    public void schedule(Job job, long runTimeMillis) {
+        Entry entry = new Entry(job, (runTimeMillis + tickMillis - 1) / tickMillis);
+        synchronized (this) {
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException("Timer wheel is shut down");
+            }
+            if (add(entry)) {
+                size++;
+                return;
+            }
+        }
+        executor.execute(() -> expire(job));
+    }
+
+    /** Returns the number of jobs waiting in the wheel. */
+    public synchronized int size() {
+        return size;
+    }
+
+    /** Returns true once {@link #shutdown} was called; the wheel then no longer accepts jobs. */
+    public boolean isShutdown() {
+        return executor.isShutdown();
+    }
+
+    /**
+     * Stops the timer and returns the jobs that were waiting in the wheel.
+     */
+    public List<Job> shutdown() {
+        executor.shutdownNow();
+        List<Job> jobs = new ArrayList<>();
+        synchronized (this) {
+            for (List<Entry>[] wheel : wheels) {
+                for (int i = 0; i < SLOTS; i++) {
+                    if (wheel[i] != null) {
+                        for (Entry entry : wheel[i]) {
+                            jobs.add(entry.job);
+                        }
+                        wheel[i] = null;
+                    }
+                }
+            }
+            size = 0;
+        }
+        return jobs;
+    }
+
+    /**
+     * Puts the entry in the slot of the lowest level whose span covers its delay; returns false if it is already due.
+     */
+    private boolean add(Entry entry) {
+        long delta = entry.dueTick - currentTick;
+        if (delta <= 0) {
+            return false;
+        }
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= (1L << (SLOT_BITS * (level + 1)))) {
+            level++;
+        }
+        int index = (int) ((entry.dueTick >>> (SLOT_BITS * level)) & SLOT_MASK);
+        List<Entry> slot = wheels[level][index];
+        if (slot == null) {
+            slot = new ArrayList<>();
+            wheels[level][index] = slot;
+        }
+        slot.add(entry);
+        return true;
+    }
+
+    /** Processes the ticks up to the current time, then runs the expiry handler for the jobs that came due. */
+    private void advance() {
+        List<Job> expired = null;
+        synchronized (this) {
+            long nowTick = System.currentTimeMillis() / tickMillis;
+            while (currentTick < nowTick) {
+                currentTick++;
+                // when a wheel turns over, move the next slot of the wheel above down (top level first)
+                for (int level = LEVELS - 1; level > 0; level--) {
+                    if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) == 0) {
+                        expired = redistribute(level, (int) ((currentTick >>> (SLOT_BITS * level)) & SLOT_MASK), expired);
+                    }
+                }
+                expired = redistribute(0, (int) (currentTick & SLOT_MASK), expired);
+            }
+        }
+        if (expired != null) {
+            for (Job job : expired) {
+                expire(job);
+            }
+        }
+    }
+
+    /** Empties the slot, re-adding the entries not due yet and collecting the others. */
+    private List<Job> redistribute(int level, int index, List<Job> expired) {
+        List<Entry> slot = wheels[level][index];
+        if (slot == null) {
+            return expired;
+        }
+        wheels[level][index] = null;
+        for (Entry entry : slot) {
+            if (!add(entry)) {
+                if (expired == null) {
+                    expired = new ArrayList<>();
+                }
+                expired.add(entry.job);
+                size--;
+            }
+        }
+        return expired;
+    }
+
+    private void expire(Job job) {
+        try {
+            expiryHandler.accept(job);
+        } catch (RuntimeException e) {
+            Debug.logError(e, "Error handing over job [" + job.getJobId() + "] from the job timer", module);
+        }
+    }
+
+    private static final class Entry {
+        final Job job;
+        final long dueTick;
+
+        Entry(Job job, long dueTick) {
+            this.job = job;
+            this.dueTick = dueTick;
+        }
+    }
+}
@@ -31,10 +31,12 @@ import org.ofbiz.base.config.GenericConfigException;
 import org.ofbiz.base.util.Debug;
 import org.ofbiz.base.util.UtilDateTime;
 import org.ofbiz.base.util.UtilGenerics;
+import org.ofbiz.base.util.UtilMisc;
 import org.ofbiz.base.util.UtilValidate;
 import org.ofbiz.entity.Delegator;
 import org.ofbiz.entity.GenericEntityException;
 import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.condition.EntityCondition;
 import org.ofbiz.entity.serialize.SerializeException;
 import org.ofbiz.entity.serialize.XmlSerializer;
 import org.ofbiz.entity.util.EntityQuery;
@@ -236,10 +238,21 @@ public class PersistedServiceJob extends GenericServiceJob {
                 newJob.put("tempExprId", null);
             }
 
+            // SCIPIO: if the next run is due soon, claim it now and hold it in the local timer wheel, so that it runs
+            // on time without being polled for; the row stays the record of the job (see JobPoller.holdInTimerWheel)
+            JobPoller poller = JobPoller.getInstance();
+            boolean holdInTimer = newJob.get("eventId") == null && poller.canHoldInTimerWheel(newJob.getString("poolId"), next);
+            if (holdInTimer) {
+                newJob.set("runByInstanceId", JobManager.instanceId);
+            }
+
             delegator.createSetNextSeqId(newJob);
             if (Debug.verboseOn()) {
                 Debug.logVerbose("Created next job entry: " + newJob, module);
             }
+            if (holdInTimer) {
+                poller.holdInTimerWheel(new PersistedServiceJob(dctx, newJob, null), next);
+            }
         }
     }
 
@@ -425,8 +438,43 @@ public class PersistedServiceJob extends GenericServiceJob {
         }
     }
 
+    /**
+     * SCIPIO: Gives up the claim of this instance on the job if it has not been queued yet, so that the poller of any
+     * instance can run it; used for the runs held in the timer wheel.
+     */
+    void release() {
+        try {
+            delegator.storeByCondition("JobSandbox", UtilMisc.toMap("runByInstanceId", null), EntityCondition.makeCondition(
+                    EntityCondition.makeCondition("jobId", getJobId()),
+                    EntityCondition.makeCondition("runByInstanceId", JobManager.instanceId),
+                    EntityCondition.makeCondition("statusId", "SERVICE_PENDING"),
+                    EntityCondition.makeCondition("startDateTime", null)));
+        } catch (GenericEntityException e) {
+            Debug.logWarning(e, "Unable to release job [" + getJobId() + "] for polling", module);
+        }
+    }
+
+    /** SCIPIO: Returns the delegator of the job. */
+    Delegator getDelegator() {
+        return delegator;
+    }
+
     @Override
     public Date getStartTime() {
         return new Date(startTime);
     }
+
+    @Override
+    public String getPoolId() {
+        return jobValue.getString("poolId");
+    }
+
+    /**
+     * SCIPIO: Returns the JobSandbox priority if set, otherwise the service priority.
+     */
+    @Override
+    public int getPriority() {
+        Long priority = jobValue.getLong("priority");
+        return (priority != null) ? priority.intValue() : super.getPriority();
+    }
 }
@@ -19,15 +19,24 @@
 package org.ofbiz.service.semaphore;
 
 import java.sql.Timestamp;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
-import javax.transaction.Transaction;
-
+import org.ofbiz.base.concurrent.ExecutionPool;
 import org.ofbiz.base.util.Debug;
 import org.ofbiz.base.util.UtilDateTime;
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.base.util.UtilProperties;
 import org.ofbiz.entity.Delegator;
 import org.ofbiz.entity.GenericEntityException;
 import org.ofbiz.entity.GenericValue;
-import org.ofbiz.entity.transaction.GenericTransactionException;
+import org.ofbiz.entity.condition.EntityCondition;
+import org.ofbiz.entity.condition.EntityOperator;
 import org.ofbiz.entity.transaction.TransactionUtil;
 import org.ofbiz.entity.util.EntityQuery;
 import org.ofbiz.service.ModelService;
@@ -35,16 +44,31 @@ import org.ofbiz.service.job.JobManager;
 
 /**
  * ServiceSemaphore
+ * <p>
+ * SCIPIO: The lock of each service is a fair JVM-local semaphore, so waiters queue up and wake as soon as it is
+ * released instead of polling. In cluster mode (service.properties <code>semaphore.lockMode</code>), the holder of
+ * the local semaphore also takes a lease in the ServiceSemaphore entity, which it renews every
+ * <code>semaphore.heartbeat.millis</code>; a lease that was not renewed for <code>semaphore.lease.millis</code>
+ * (crashed or hung node) is taken over by the next node that needs it.
  */
 public class ServiceSemaphore {
-    // TODO: add something to make sure semaphores are cleaned up on failures and when the thread somehow goes away without cleaning it up
-    // TODO: write service engine test cases to make sure semaphore both blocking and timing out (use config to set sleep and wait to low values so it times out quickly)
 
     private static final Debug.OfbizLogger module = Debug.getOfbizLogger(java.lang.invoke.MethodHandles.lookup().lookupClass());
     public static final int SEMAPHORE_MODE_FAIL = 0;
     public static final int SEMAPHORE_MODE_WAIT = 1;
     public static final int SEMAPHORE_MODE_NONE = 2;
 
+    /** SCIPIO: "local" (this JVM only), "cluster" (also a database lease) or "auto" (cluster if distributed cache clear is enabled). */
+    private static final String LOCK_MODE = UtilProperties.getPropertyValue("service", "semaphore.lockMode", "auto");
+    private static final long LEASE_MILLIS = UtilProperties.getPropertyAsLong("service", "semaphore.lease.millis", 60000);
+    private static final long HEARTBEAT_MILLIS = UtilProperties.getPropertyAsLong("service", "semaphore.heartbeat.millis", 20000);
+
+    /** SCIPIO: The local locks, by delegator name and service name (the ServiceSemaphore lease is per delegator). */
+    private static final ConcurrentMap<String, Semaphore> localLocks = new ConcurrentHashMap<>();
+    private static final ThreadGroup SEMAPHORE_THREAD_GROUP = new ThreadGroup("ServiceSemaphore");
+    /** SCIPIO: Renews the database leases held by this node. */
+    private static final ScheduledExecutorService heartbeatExecutor = ExecutionPool.getScheduledExecutor(SEMAPHORE_THREAD_GROUP, "semaphore-heartbeat", 1, 60, false);
+
     protected Delegator delegator;
     protected GenericValue lock;
     protected ModelService model;
@@ -53,11 +77,27 @@ public class ServiceSemaphore {
     protected int mode = SEMAPHORE_MODE_NONE;
     protected Timestamp lockTime = null;
 
+    private final boolean cluster;
+    private Semaphore localLock;
+    /** SCIPIO: Read by the heartbeat thread. */
+    private volatile String leaseId;
+    private volatile ScheduledFuture<?> heartbeat;
+
     public ServiceSemaphore(Delegator delegator, ModelService model) {
         this.delegator = delegator;
         this.mode = "wait".equals(model.semaphore) ? SEMAPHORE_MODE_WAIT : ("fail".equals(model.semaphore) ? SEMAPHORE_MODE_FAIL : SEMAPHORE_MODE_NONE);
         this.model = model;
         this.lock = null;
+        this.cluster = isClusterMode(delegator);
+    }
+
+    private static boolean isClusterMode(Delegator delegator) {
+        if ("cluster".equals(LOCK_MODE)) {
+            return true;
+        } else if ("local".equals(LOCK_MODE)) {
+            return false;
+        }
+        return delegator != null && delegator.useDistributedCacheClear();
     }
 
     public void acquire() throws SemaphoreWaitException, SemaphoreFailException {
@@ -66,9 +106,18 @@ public class ServiceSemaphore {
         }
 
         lockTime = UtilDateTime.nowTimestamp();
+        long deadline = lockTime.getTime() + model.semaphoreWait * 1000L;
 
-        if (this.checkLockNeedToWait()) {
-            waitOrFail();
+        Semaphore local = localLocks.computeIfAbsent(getLocalLockKey(), key -> new Semaphore(1, true));
+        acquireLocal(local, deadline);
+        localLock = local;
+        if (cluster) {
+            try {
+                acquireLease(deadline);
+            } catch (SemaphoreWaitException | SemaphoreFailException | RuntimeException e) {
+                releaseLocal();
+                throw e;
+            }
         }
     }
 
@@ -77,130 +126,151 @@ public class ServiceSemaphore {
             return;
         }
 
-        // remove the lock file
-        if (lock != null) {
-            dbWrite(lock, true);
+        try {
+            // remove the lease
+            if (leaseId != null) {
+                releaseLease();
+            }
+        } finally {
+            releaseLocal();
         }
     }
 
-    private void waitOrFail() throws SemaphoreWaitException, SemaphoreFailException {
+    private void acquireLocal(Semaphore local, long deadline) throws SemaphoreWaitException, SemaphoreFailException {
         if (SEMAPHORE_MODE_FAIL == mode) {
-            // fail
-            throw new SemaphoreFailException("Service [" + model.name + "] is locked");
+            if (!local.tryAcquire()) {
+                throw new SemaphoreFailException("Service [" + model.name + "] is locked");
+            }
         } else if (SEMAPHORE_MODE_WAIT == mode) {
-            // get the wait and sleep values
-            long maxWaitCount = ((model.semaphoreWait * 1000) / model.semaphoreSleep);
-            long sleep = model.semaphoreSleep;
-
-            boolean timedOut = true;
-            while (wait < maxWaitCount) {
-                wait++;
-                try {
-                    Thread.sleep(sleep);
-                } catch (InterruptedException e) {
-                    Debug.logInfo(e, "Sleep interrupted: ServiceSemaphone.waitOrFail()", module);
-                }
-
-                // try again
-                if (!checkLockNeedToWait()) {
-                    timedOut = false;
-                    break;
+            try {
+                if (!local.tryAcquire(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS)) {
+                    throw new SemaphoreWaitException(makeTimeoutMessage());
                 }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SemaphoreWaitException("Service [" + model.name + "] wait for semaphore interrupted", e);
             }
-            if (timedOut) {
-                double waitTimeSec = ((System.currentTimeMillis() - lockTime.getTime()) / 1000.0);
-                String errMsg = "Service [" + model.name + "] with wait semaphore exceeded wait timeout, waited [" + waitTimeSec + "], wait started at " + lockTime;
-                throw new SemaphoreWaitException(errMsg);
-            }
-        } else if (SEMAPHORE_MODE_NONE == mode) {
-            Debug.logWarning("Semaphore mode [none] attempted to aquire a lock; but should not have!", module);
         } else {
             throw new SemaphoreFailException("Found invalid Semaphore mode [" + mode + "]");
         }
     }
 
-    private boolean checkLockNeedToWait() throws SemaphoreFailException {
-        String threadName = Thread.currentThread().getName();
-        GenericValue semaphore;
+    private String getLocalLockKey() {
+        return (delegator != null ? delegator.getDelegatorName() : "") + "::" + model.name;
+    }
 
-        try {
-            semaphore = EntityQuery.use(delegator).from("ServiceSemaphore").where("serviceName", model.name).queryOne();
-        } catch (GenericEntityException e) {
-            throw new SemaphoreFailException(e);
+    private void releaseLocal() {
+        if (localLock != null) {
+            localLock.release();
+            localLock = null;
         }
+    }
 
-        if (semaphore == null) {
-            semaphore = delegator.makeValue("ServiceSemaphore", "serviceName", model.name, "lockedByInstanceId", JobManager.instanceId, "lockThread", threadName, "lockTime", lockTime);
-
-            // use the special method below so we can reuse the unqiue tx functions
+    /**
+     * SCIPIO: Takes the database lease of the service, polling every semaphore-sleep milliseconds in wait mode while
+     * another node holds it. Only the holder of the local lock gets here, so each node polls once per service.
+     */
+    private void acquireLease(long deadline) throws SemaphoreWaitException, SemaphoreFailException {
+        String leaseId = UUID.randomUUID().toString();
+        while (!tryLease(leaseId)) {
+            if (SEMAPHORE_MODE_FAIL == mode) {
+                throw new SemaphoreFailException("Service [" + model.name + "] is locked");
+            }
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                throw new SemaphoreWaitException(makeTimeoutMessage());
+            }
+            wait++;
             try {
-                dbWrite(semaphore, false);
-            } catch (SemaphoreFailException e) {
-                // can't write a new semaphore, need to wait
-                return true;
+                Thread.sleep(Math.min(model.semaphoreSleep, remaining));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SemaphoreWaitException("Service [" + model.name + "] wait for semaphore interrupted", e);
             }
-
-            // we own the lock, no waiting
-            return false;
         }
-        // found a semaphore, need to wait
-        return true;
+        this.leaseId = leaseId;
+        this.heartbeat = heartbeatExecutor.scheduleWithFixedDelay(this::renewLease, HEARTBEAT_MILLIS, HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
     }
 
-    private synchronized void dbWrite(GenericValue value, boolean delete) throws SemaphoreFailException {
-        Transaction parent = null;
-        boolean beganTx = false;
-        boolean isError = false;
-
+    /** SCIPIO: Creates the lease, or takes over an expired one; returns false if another node holds it. */
+    private boolean tryLease(String leaseId) throws SemaphoreFailException {
         try {
-            // prepare the suspended transaction
-            if (TransactionUtil.isTransactionInPlace()) {
-                parent = TransactionUtil.suspend();
-            }
-            beganTx = TransactionUtil.begin();
-            if (!beganTx) {
-                throw new SemaphoreFailException("Cannot obtain unique transaction for semaphore logging");
-            }
-
-            // store the value
-            try {
-                if (delete) {
-                    value.refresh();
-                    value.remove();
-                    lock = null;
-                } else {
-                    lock = value.create();
+            return TransactionUtil.doNewTransaction(() -> {
+                Timestamp now = UtilDateTime.nowTimestamp();
+                Timestamp expireTime = new Timestamp(now.getTime() + LEASE_MILLIS);
+                GenericValue current = EntityQuery.use(delegator).from("ServiceSemaphore").where("serviceName", model.name).queryOne();
+                if (current == null) {
+                    lock = delegator.create("ServiceSemaphore", "serviceName", model.name, "lockedByInstanceId", JobManager.instanceId,
+                            "lockThread", Thread.currentThread().getName(), "lockTime", lockTime, "leaseId", leaseId, "leaseExpireTime", expireTime);
+                    return true;
                 }
-            } catch (GenericEntityException e) {
-                Debug.logError(e, module);
-                isError = true;
-                throw new SemaphoreFailException("Cannot obtain unique transaction for semaphore logging");
-            } finally {
-                if (isError) {
-                    try {
-                        TransactionUtil.rollback(beganTx, "ServiceSemaphore: dbWrite()", new Exception());
-                    } catch (GenericTransactionException e) {
-                        Debug.logError(e, module);
-                    }
+                // leases without expire time were left by older versions and must be removed by hand (or on their node's restart)
+                Timestamp currentExpireTime = current.getTimestamp("leaseExpireTime");
+                if (currentExpireTime == null || !currentExpireTime.before(now)) {
+                    return false;
                 }
-                if (!isError) {
-                    try {
-                        TransactionUtil.commit(beganTx);
-                    } catch (GenericTransactionException e) {
-                        Debug.logError(e, module);
-                    }
+                // take over the lease, unless its holder renewed it or another node took it over meanwhile
+                int updated = delegator.storeByCondition("ServiceSemaphore", UtilMisc.toMap("lockedByInstanceId", JobManager.instanceId,
+                        "lockThread", Thread.currentThread().getName(), "lockTime", lockTime, "leaseId", leaseId, "leaseExpireTime", expireTime),
+                        EntityCondition.makeCondition(EntityCondition.makeCondition("serviceName", model.name),
+                                EntityCondition.makeCondition("leaseId", current.getString("leaseId")),
+                                EntityCondition.makeCondition("leaseExpireTime", EntityOperator.LESS_THAN, now)));
+                if (updated == 0) {
+                    return false;
                 }
+                Debug.logWarning("Service [" + model.name + "] semaphore lease of instance [" + current.getString("lockedByInstanceId")
+                        + "] expired at " + currentExpireTime + "; taken over", module);
+                lock = current;
+                return true;
+            }, "ServiceSemaphore: tryLease()", 0, false);
+        } catch (GenericEntityException e) {
+            // most likely another node created the lease at the same time
+            if (Debug.verboseOn()) {
+                Debug.logVerbose(e, "Service [" + model.name + "] semaphore lease not created", module);
             }
-        } catch (GenericTransactionException e) {
-            Debug.logError(e, module);
-        } finally {
-            if (parent != null) {
-                try {
-                    TransactionUtil.resume(parent);
-                } catch (GenericTransactionException e) {
-                    Debug.logError(e, module);
+            return false;
+        }
+    }
+
+    private void renewLease() {
+        String leaseId = this.leaseId;
+        if (leaseId == null) {
+            return;
+        }
+        try {
+            int updated = TransactionUtil.doNewTransaction(() -> delegator.storeByCondition("ServiceSemaphore",
+                    UtilMisc.toMap("leaseExpireTime", new Timestamp(System.currentTimeMillis() + LEASE_MILLIS)),
+                    EntityCondition.makeCondition(EntityCondition.makeCondition("serviceName", model.name),
+                            EntityCondition.makeCondition("leaseId", leaseId))), "ServiceSemaphore: renewLease()", 0, false);
+            if (updated == 0) {
+                Debug.logWarning("Service [" + model.name + "] semaphore lease was lost (expired and taken over by another instance)", module);
+                ScheduledFuture<?> heartbeat = this.heartbeat;
+                if (heartbeat != null) {
+                    heartbeat.cancel(false);
                 }
             }
+        } catch (GenericEntityException e) {
+            Debug.logError(e, "Service [" + model.name + "] semaphore lease not renewed", module);
+        }
+    }
+
+    private void releaseLease() {
+        String leaseId = this.leaseId;
+        this.leaseId = null;
+        heartbeat.cancel(false);
+        heartbeat = null;
+        lock = null;
+        try {
+            TransactionUtil.doNewTransaction(() -> delegator.removeByCondition("ServiceSemaphore",
+                    EntityCondition.makeCondition(EntityCondition.makeCondition("serviceName", model.name),
+                            EntityCondition.makeCondition("leaseId", leaseId))), "ServiceSemaphore: releaseLease()", 0, false);
+        } catch (GenericEntityException e) {
+            Debug.logError(e, "Service [" + model.name + "] semaphore lease not removed; it expires in " + LEASE_MILLIS + "ms", module);
         }
     }
+
+    private String makeTimeoutMessage() {
+        double waitTimeSec = ((System.currentTimeMillis() - lockTime.getTime()) / 1000.0);
+        return "Service [" + model.name + "] with wait semaphore exceeded wait timeout, waited [" + waitTimeSec + "], wait started at " + lockTime;
+    }
 }
@@ -18,6 +18,7 @@
  */
 package org.ofbiz.service.test;
 
+import java.math.BigDecimal;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
@@ -70,6 +71,13 @@ public class ServiceEngineTestServices {
         return ServiceUtil.returnSuccess();
     }
 
+    /** SCIPIO: Permission service granting every request. */
+    public static Map<String, Object> testServicePermissionAllow(DispatchContext dctx, Map<String, ? extends Object> context) {
+        Map<String, Object> result = ServiceUtil.returnSuccess();
+        result.put("hasPermission", Boolean.TRUE);
+        return result;
+    }
+
     public static Map<String, Object> testServiceDeadLockRetryThreadA(DispatchContext dctx, Map<String, ? extends Object> context) {
         Delegator delegator = dctx.getDelegator();
         Locale locale = (Locale) context.get("locale");
@@ -375,4 +383,16 @@ public class ServiceEngineTestServices {
 
         return ServiceUtil.returnSuccess();
     }
+
+    /**
+     * SCIPIO: Returns the line total of an order item; used to benchmark the dispatcher overhead.
+     */
+    public static Map<String, Object> testServiceValidateBenchmark(DispatchContext dctx, Map<String, ? extends Object> context) {
+        BigDecimal quantity = (BigDecimal) context.get("quantity");
+        BigDecimal unitPrice = (BigDecimal) context.get("unitPrice");
+        Map<String, Object> result = ServiceUtil.returnSuccess();
+        result.put("lineTotal", unitPrice != null ? quantity.multiply(unitPrice) : BigDecimal.ZERO);
+        result.put("itemSeqId", context.get("itemSeqId"));
+        return result;
+    }
 }
@@ -18,14 +18,54 @@
  *******************************************************************************/
 package org.ofbiz.service.test;
 
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.ofbiz.base.concurrent.VirtualThreads;
+import org.ofbiz.base.metrics.LatencyHistogram;
+import org.ofbiz.base.util.CompiledComparison;
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.ObjectType;
 import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.condition.EntityCondition;
+import org.ofbiz.entity.condition.EntityOperator;
+import org.ofbiz.entity.util.EntityQuery;
+import org.ofbiz.service.DispatchContext;
+import org.ofbiz.service.GenericServiceException;
 import org.ofbiz.service.ModelService;
+import org.ofbiz.service.ServiceBatchResult;
+import org.ofbiz.service.ServiceDispatcher;
+import org.ofbiz.service.ServiceMetrics;
+import org.ofbiz.service.ServiceTrace;
+import org.ofbiz.service.ServiceValidationException;
+import org.ofbiz.service.job.Job;
+import org.ofbiz.service.job.JobManager;
+import org.ofbiz.service.job.JobPoller;
+import org.ofbiz.service.job.JobPool;
+import org.ofbiz.service.job.JobTimerWheel;
+import org.ofbiz.service.semaphore.SemaphoreFailException;
+import org.ofbiz.service.semaphore.SemaphoreWaitException;
+import org.ofbiz.service.semaphore.ServiceSemaphore;
 import org.ofbiz.service.testtools.OFBizTestCase;
 
 public class ServiceEngineTests extends OFBizTestCase {
 
+    private static final Debug.OfbizLogger module = Debug.getOfbizLogger(java.lang.invoke.MethodHandles.lookup().lookupClass());
+
     public ServiceEngineTests(String name) {
         super(name);
     }
@@ -42,4 +82,547 @@ public class ServiceEngineTests extends OFBizTestCase {
         Map<String, Object> result = dispatcher.runSync("testScv", UtilMisc.toMap("message", "Unit Test"));
         assertEquals("Service result success", ModelService.RESPOND_SUCCESS, result.get(ModelService.RESPONSE_MESSAGE));
     }
+
+    /**
+     * SCIPIO: runSyncBatch groups items in transactions; a group with a failing item is rerun item by item, so only
+     * the failing item is lost.
+     */
+    public void testRunSyncBatch() throws Exception {
+        List<Map<String, Object>> contexts = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            contexts.add(UtilMisc.toMap("testingId", "BATCH_OK_" + i, "testingName", "runSyncBatch test"));
+        }
+        ServiceBatchResult result = dispatcher.runSyncBatch("testEntityAutoCreateTestingPkPresent", contexts, 2);
+        assertFalse("Batch has no errors: " + result, result.hasErrors());
+        assertEquals("Batch transaction groups", 3, result.getTransactionGroups());
+        assertEquals("Batch created all items", 5, EntityQuery.use(delegator).from("Testing").where("testingName", "runSyncBatch test").queryCount());
+
+        contexts.clear();
+        for (int i = 0; i < 4; i++) {
+            contexts.add(UtilMisc.toMap("testingId", "BATCH_ERR_" + i, "testingName", "runSyncBatch error test"));
+        }
+        // duplicate primary key in the same group
+        contexts.add(2, UtilMisc.toMap("testingId", "BATCH_ERR_0", "testingName", "runSyncBatch error test"));
+        result = dispatcher.runSyncBatch("testEntityAutoCreateTestingPkPresent", contexts, 0);
+        assertEquals("Batch error indexes", UtilMisc.toList(2), result.getErrorIndexes());
+        assertTrue("Batch item with duplicate key failed", result.isError(2));
+        assertEquals("Batch group with error was retried", 1, result.getRetriedGroups());
+        assertEquals("Batch created the other items", 4, EntityQuery.use(delegator).from("Testing").where("testingName", "runSyncBatch error test").queryCount());
+    }
+
+    /**
+     * SCIPIO: runSyncBatch resolves the ECA rules, engine and permission service once for the whole batch, where
+     * runSync resolves them on every call.
+     */
+    public void testRunSyncBatchResolvesOnce() throws Exception {
+        CountingServiceDispatcher sd = new CountingServiceDispatcher(delegator, dispatcher.getDispatchContext());
+        ModelService model = dispatcher.getDispatchContext().getModelService("testEntityAutoCreateTestingWithPermission");
+        assertEquals("Test service has a permission service", "testServicePermissionAllow", model.permissionServiceName);
+        List<Map<String, Object>> contexts = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            contexts.add(UtilMisc.toMap("testingId", "BATCH_RESOLVE_" + i, "testingName", "runSyncBatch resolve test"));
+        }
+        ServiceBatchResult result = sd.runSyncBatch(dispatcher.getName(), model, contexts, 2);
+        assertFalse("Batch has no errors: " + result, result.hasErrors());
+        assertEquals("Batch created all items", 6, EntityQuery.use(delegator).from("Testing").where("testingName", "runSyncBatch resolve test").queryCount());
+        assertEquals("Service resolved once for the batch", 1, sd.resolveCount.get());
+
+        for (int i = 0; i < 3; i++) {
+            sd.runSync(dispatcher.getName(), model, UtilMisc.toMap("testingId", "SYNC_RESOLVE_" + i, "testingName", "runSyncBatch resolve test"));
+        }
+        assertEquals("Service resolved for each runSync", 4, sd.resolveCount.get());
+    }
+
+    /** A service dispatcher counting the service resolutions, for {@link #testRunSyncBatchResolvesOnce()}. */
+    private static final class CountingServiceDispatcher extends ServiceDispatcher {
+        private final AtomicInteger resolveCount = new AtomicInteger();
+
+        CountingServiceDispatcher(Delegator delegator, DispatchContext dctx) {
+            super(delegator, false, false);
+            register(dctx);
+        }
+
+        @Override
+        protected ResolvedService resolveService(String localName, ModelService modelService) throws GenericServiceException {
+            resolveCount.incrementAndGet();
+            return super.resolveService(localName, modelService);
+        }
+    }
+
+    /**
+     * SCIPIO: The compiled parameters accept valid contexts, and invalid ones still get the errors of the full
+     * validation.
+     */
+    public void testValidateCompiledParams() throws Exception {
+        ModelService model = dispatcher.getDispatchContext().getModelService("testServiceValidateBenchmark");
+        model.validate(makeValidateBenchmarkContext(), ModelService.IN_PARAM, Locale.ENGLISH);
+        model.validate(new HashMap<>(UtilMisc.toMap("lineTotal", BigDecimal.ONE, "itemSeqId", null)), ModelService.OUT_PARAM, Locale.ENGLISH);
+
+        Map<String, Object> missing = makeValidateBenchmarkContext();
+        missing.remove("productId");
+        Map<String, Object> requiredNull = makeValidateBenchmarkContext();
+        requiredNull.put("quantity", null);
+        Map<String, Object> wrongType = makeValidateBenchmarkContext();
+        wrongType.put("quantity", "2");
+        Map<String, Object> unknown = makeValidateBenchmarkContext();
+        unknown.put("unknownParam", "x");
+        Map<String, Object> html = makeValidateBenchmarkContext();
+        html.put("itemSeqId", "<script>");
+        for (Map<String, Object> context : UtilMisc.toList(missing, requiredNull, wrongType, unknown, html)) {
+            assertEquals("Compiled validation errors for " + context, getValidationErrors(model, context, false), getValidationErrors(model, context, true));
+        }
+    }
+
+    private static Object getValidationErrors(ModelService model, Map<String, Object> context, boolean full) {
+        try {
+            if (full) {
+                model.validateFull(context, ModelService.IN_PARAM, Locale.ENGLISH);
+            } else {
+                model.validate(context, ModelService.IN_PARAM, Locale.ENGLISH);
+            }
+        } catch (ServiceValidationException e) {
+            return e.getMessageList();
+        }
+        fail("Validation passed: " + context);
+        return null;
+    }
+
+    private static Map<String, Object> makeValidateBenchmarkContext() {
+        Map<String, Object> context = new HashMap<>();
+        context.put("orderId", "WS10000");
+        context.put("productId", "GZ-1000");
+        context.put("quantity", new BigDecimal("2"));
+        context.put("unitPrice", new BigDecimal("15.99"));
+        context.put("shipDate", new Timestamp(System.currentTimeMillis()));
+        context.put("attributes", UtilMisc.toMap("giftWrap", "Y"));
+        context.put("itemSeqId", "00001");
+        return context;
+    }
+
+    /**
+     * SCIPIO: Micro-benchmark of the parameter validation (compiled and full) and of the whole dispatcher call of a
+     * typical service; logs the time per call.
+     */
+    public void testValidateBenchmark() throws Exception {
+        final int warmup = 20000;
+        final int iterations = 200000;
+        ModelService model = dispatcher.getDispatchContext().getModelService("testServiceValidateBenchmark");
+        Map<String, Object> context = makeValidateBenchmarkContext();
+        Map<String, Object> result = new HashMap<>(UtilMisc.toMap("lineTotal", new BigDecimal("31.98"), "itemSeqId", "00001"));
+
+        for (int i = 0; i < warmup; i++) {
+            model.validate(context, ModelService.IN_PARAM, Locale.ENGLISH);
+            model.validateFull(context, ModelService.IN_PARAM, Locale.ENGLISH);
+            model.validate(result, ModelService.OUT_PARAM, Locale.ENGLISH);
+            model.validateFull(result, ModelService.OUT_PARAM, Locale.ENGLISH);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            model.validateFull(context, ModelService.IN_PARAM, Locale.ENGLISH);
+            model.validateFull(result, ModelService.OUT_PARAM, Locale.ENGLISH);
+        }
+        long fullNanos = (System.nanoTime() - start) / iterations;
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            model.validate(context, ModelService.IN_PARAM, Locale.ENGLISH);
+            model.validate(result, ModelService.OUT_PARAM, Locale.ENGLISH);
+        }
+        long compiledNanos = (System.nanoTime() - start) / iterations;
+        Debug.logInfo("Validate benchmark (IN + OUT, " + model.getModelParamList().size() + " params): full " + fullNanos
+                + " ns/call, compiled " + compiledNanos + " ns/call", module);
+
+        final int calls = 5000;
+        for (int i = 0; i < calls; i++) {
+            dispatcher.runSync("testServiceValidateBenchmark", context);
+        }
+        start = System.nanoTime();
+        for (int i = 0; i < calls; i++) {
+            dispatcher.runSync("testServiceValidateBenchmark", context);
+        }
+        long dispatchNanos = (System.nanoTime() - start) / calls;
+        Debug.logInfo("Dispatcher benchmark: runSync " + dispatchNanos + " ns/call, of which validation (compiled) "
+                + compiledNanos + " ns/call, saving " + (fullNanos - compiledNanos) + " ns/call over full validation", module);
+    }
+
+    /**
+     * SCIPIO: Local (single node) service semaphores: "fail" fails while the lock is held, "wait" gets the lock as soon
+     * as it is released, and times out after semaphore-wait-seconds.
+     */
+    public void testServiceSemaphoreLocal() throws Exception {
+        ModelService failModel = new ModelService();
+        failModel.name = "testServiceSemaphoreLocal";
+        failModel.semaphore = "fail";
+        ModelService waitModel = new ModelService(failModel);
+        waitModel.semaphore = "wait";
+        waitModel.semaphoreWait = 1;
+
+        ServiceSemaphore holder = new ServiceSemaphore(null, failModel);
+        holder.acquire();
+        try {
+            new ServiceSemaphore(null, failModel).acquire();
+            fail("Semaphore fail mode acquired a held lock");
+        } catch (SemaphoreFailException e) {
+            // expected
+        }
+        try {
+            new ServiceSemaphore(null, waitModel).acquire();
+            fail("Semaphore wait mode acquired a held lock");
+        } catch (SemaphoreWaitException e) {
+            // expected
+        }
+
+        ServiceSemaphore waiter = new ServiceSemaphore(null, waitModel);
+        CountDownLatch acquired = new CountDownLatch(1);
+        Thread waiterThread = new Thread(() -> {
+            try {
+                waiter.acquire();
+                acquired.countDown();
+            } catch (Exception e) {
+                Debug.logError(e, module);
+            }
+        });
+        waiterThread.start();
+        Thread.sleep(100);
+        holder.release();
+        assertTrue("Semaphore waiter acquired the released lock", acquired.await(500, TimeUnit.MILLISECONDS));
+        waiter.release();
+        waiterThread.join();
+    }
+
+    /**
+     * SCIPIO: runSync records each call in the service latency histograms, and nested calls share the trace ID.
+     */
+    public void testServiceMetrics() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        assertEquals("Histogram count", 1000, histogram.getTotalCount());
+        assertEquals("Histogram max", 1000, histogram.getMaxValue());
+        long p50 = histogram.getValueAtPercentile(50);
+        long p99 = histogram.getValueAtPercentile(99);
+        assertTrue("Histogram p50 within bucket precision: " + p50, p50 >= 500 && p50 <= 500 * 1.125);
+        assertTrue("Histogram p99 within bucket precision: " + p99, p99 >= 990 && p99 <= 1000);
+
+        ServiceTrace outer = ServiceTrace.enter(null);
+        try {
+            ServiceTrace inner = ServiceTrace.enter("other");
+            assertSame("Nested call joins the trace in place", outer, inner);
+            assertEquals("Nested call depth", 2, inner.getDepth());
+            inner.exit();
+            assertEquals("Trace ID kept after nested call", outer.getTraceId(), ServiceTrace.getCurrentTraceId());
+        } finally {
+            outer.exit();
+        }
+        assertNull("Trace ended by outermost exit", ServiceTrace.getCurrentTraceId());
+
+        if (!ServiceMetrics.isEnabled()) {
+            return;
+        }
+        ServiceMetrics.ServiceStats stats = ServiceMetrics.getStats("testScv");
+        long calls = stats.getCallCount();
+        dispatcher.runSync("testScv", UtilMisc.toMap("message", "Unit Test"));
+        assertEquals("Service call recorded", calls + 1, stats.getCallCount());
+        assertTrue("Prometheus text has the service", ServiceMetrics.toPrometheusText().contains("service=\"testScv\""));
+    }
+
+    /**
+     * SCIPIO: Compiled ECA conditions give the same results as ObjectType.doRealCompare, and a micro-benchmark of
+     * delegator writes to an entity with an entity ECA rule (TestingType, see eecas_test_se.xml) and to one without
+     * (TestingSubtype); logs the time per write.
+     */
+    public void testEntityEcaBenchmark() throws Exception {
+        Object[][] cases = new Object[][] {
+                { "equals", "String", "ABC", "ABC" }, { "equals", "String", "ABC", "ABD" }, { "not-equals", "String", "", "X" },
+                { "less", "String", "A", "B" }, { "is-empty", "String", "", null }, { "is-not-empty", "String", null, null },
+                { "equals", "BigDecimal", new BigDecimal("1.50"), "1.5" }, { "greater-equals", "Long", 5L, "4" },
+                { "less", "Double", 1.0d, "0.5" }, { "equals", "Long", null, "3" } };
+        for (Object[] c : cases) {
+            String operator = (String) c[0];
+            String type = (String) c[1];
+            CompiledComparison compiled = CompiledComparison.compile(operator, type, "", true, (String) c[3]);
+            assertNotNull("Comparison " + operator + "-" + type + " compiles", compiled);
+            Boolean expected = ObjectType.doRealCompare(c[2], c[3], operator, type, "", new ArrayList<>(), null, null, true);
+            assertEquals("Compiled " + c[2] + " " + operator + "-" + type + " " + c[3], expected, compiled.compare(c[2], null));
+        }
+        assertNull("Formatted comparison is not compiled", CompiledComparison.compile("equals", "Timestamp", "yyyy", true, "2000"));
+
+        final int writes = 2000;
+        for (int round = 0; round < 2; round++) { // first round warms up
+            long ecaNanos = runEntityWrites("TestingType", "description", writes);
+            long plainNanos = runEntityWrites("TestingSubtype", "subtypeDescription", writes);
+            if (round > 0) {
+                Debug.logInfo("Entity ECA benchmark (create + store): with a non-matching ECA rule " + ecaNanos
+                        + " ns/write, without ECA rules " + plainNanos + " ns/write", module);
+            }
+        }
+        assertEquals("Benchmark rows removed", 0, EntityQuery.use(delegator).from("TestingType")
+                .where(EntityCondition.makeCondition("testingTypeId", EntityOperator.LIKE, "EECA_BENCH_%")).queryCount());
+    }
+
+    private long runEntityWrites(String entityName, String fieldName, int writes) throws Exception {
+        List<GenericValue> values = new ArrayList<>(writes);
+        long start = System.nanoTime();
+        for (int i = 0; i < writes; i++) {
+            GenericValue value = delegator.makeValue(entityName, "testingTypeId", "EECA_BENCH_" + i, fieldName, "Benchmark");
+            values.add(delegator.create(value));
+            value.set(fieldName, "Benchmark stored");
+            value.store();
+        }
+        long nanosPerWrite = (System.nanoTime() - start) / (2L * writes);
+        for (GenericValue value : values) {
+            value.refresh();
+            assertEquals("Stored value", "Benchmark stored", value.get(fieldName));
+            value.remove();
+        }
+        return nanosPerWrite;
+    }
+
+    /**
+     * SCIPIO: The job timer wheel hands each job over no earlier than its run time and shortly after it, for delays
+     * held in each of the lower wheel levels (1ms tick: 64ms per level 1 slot, 4096ms per level 2 slot).
+     */
+    public void testJobTimerWheel() throws Exception {
+        long[] delays = new long[] { 0, 20, 63, 64, 150, 700, 4100 };
+        Map<String, Long> runTimes = new ConcurrentHashMap<>();
+        Map<String, Long> firedTimes = new ConcurrentHashMap<>();
+        CountDownLatch fired = new CountDownLatch(delays.length);
+        JobTimerWheel timerWheel = new JobTimerWheel("testJobTimerWheel", 1, job -> {
+            firedTimes.put(job.getJobId(), System.currentTimeMillis());
+            fired.countDown();
+        });
+        try {
+            long now = System.currentTimeMillis();
+            for (long delay : delays) {
+                String jobId = "timer." + delay;
+                runTimes.put(jobId, now + delay);
+                timerWheel.schedule(new SleepJob(jobId, 0, null), now + delay);
+            }
+            assertTrue("Timer wheel jobs fired", fired.await(30, TimeUnit.SECONDS));
+            assertEquals("Timer wheel empty", 0, timerWheel.size());
+            for (Map.Entry<String, Long> entry : runTimes.entrySet()) {
+                long late = firedTimes.get(entry.getKey()) - entry.getValue();
+                assertTrue("Job " + entry.getKey() + " not fired early (" + late + "ms)", late >= 0);
+                assertTrue("Job " + entry.getKey() + " fired within a second (" + late + "ms)", late < 1000);
+            }
+            timerWheel.schedule(new SleepJob("timer.held", 0, null), System.currentTimeMillis() + 60000);
+            assertEquals("Held job returned at shutdown", 1, timerWheel.shutdown().size());
+        } finally {
+            timerWheel.shutdown();
+        }
+    }
+
+    /**
+     * SCIPIO: Two concurrent claimers of the same pool each get distinct jobs, and together claim every due job.
+     * The pool is not one this instance runs from, so the job poller does not claim or run the test jobs.
+     */
+    public void testJobClaimConcurrent() throws Exception {
+        final String poolId = "testJobClaimPool";
+        final int jobCount = 60;
+        JobManager jm = dispatcher.getJobManager();
+        delegator.removeByAnd("JobSandbox", UtilMisc.toMap("poolId", poolId));
+        try {
+            Timestamp runTime = new Timestamp(System.currentTimeMillis() - 60000);
+            for (int i = 0; i < jobCount; i++) {
+                delegator.create("JobSandbox", UtilMisc.toMap("jobId", "TEST_CLAIM_" + i, "jobName", "testJobClaim", "poolId", poolId,
+                        "serviceName", "testScv", "runTime", runTime, "statusId", "SERVICE_PENDING"));
+            }
+            List<String> claimedIds = Collections.synchronizedList(new ArrayList<>());
+            CountDownLatch start = new CountDownLatch(1);
+            List<Thread> claimers = new ArrayList<>();
+            for (int t = 0; t < 2; t++) {
+                Thread claimer = new Thread(() -> {
+                    try {
+                        start.await();
+                        List<Job> jobs;
+                        do {
+                            jobs = jm.claimJobs(poolId, 7);
+                            for (Job job : jobs) {
+                                claimedIds.add(job.getJobId());
+                            }
+                        } while (!jobs.isEmpty());
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }, "testJobClaimConcurrent-" + t);
+                claimer.start();
+                claimers.add(claimer);
+            }
+            start.countDown();
+            for (Thread claimer : claimers) {
+                claimer.join(60000);
+            }
+            assertEquals("No job claimed twice", claimedIds.size(), new HashSet<>(claimedIds).size());
+            assertEquals("All due jobs claimed", jobCount, claimedIds.size());
+            assertEquals("All jobs owned by this instance", jobCount, EntityQuery.use(delegator).from("JobSandbox")
+                    .where("poolId", poolId, "runByInstanceId", JobManager.instanceId).queryCount());
+        } finally {
+            delegator.removeByAnd("JobSandbox", UtilMisc.toMap("poolId", poolId));
+        }
+    }
+
+    /**
+     * SCIPIO: The poller claims jobs per pool, up to the remaining capacity of each: the jobs of a saturated pool are
+     * left unclaimed, while those of an idle pool are claimed and run there.
+     */
+    public void testJobPollSaturatedPool() throws Exception {
+        final String saturatedPoolId = "testSaturatedPool";
+        final String idlePoolId = "testIdlePool";
+        final int jobCount = 5;
+        JobManager jm = dispatcher.getJobManager();
+        JobPoller poller = JobPoller.getInstance();
+        JobPool saturatedPool = new JobPool(saturatedPoolId, 1, 1, 1, 60000, false);
+        JobPool idlePool = new JobPool(idlePoolId, 1, 1, 10, 60000, false);
+        List<String> testPoolIds = UtilMisc.toList(saturatedPoolId, idlePoolId);
+        EntityCondition testPoolsCond = EntityCondition.makeCondition("poolId", EntityOperator.IN, testPoolIds);
+        delegator.removeByCondition("JobSandbox", testPoolsCond);
+        try {
+            // one job running and one waiting leave no room in the saturated pool
+            SleepJob running = new SleepJob("saturated.running", 60000, null);
+            saturatedPool.execute(running, 0);
+            while (running.currentState() != Job.State.RUNNING) {
+                Thread.sleep(10);
+            }
+            saturatedPool.execute(new SleepJob("saturated.waiting", 60000, null), 0);
+
+            Timestamp runTime = new Timestamp(System.currentTimeMillis() - 60000);
+            for (String poolId : testPoolIds) {
+                for (int i = 0; i < jobCount; i++) {
+                    delegator.create("JobSandbox", UtilMisc.toMap("jobId", "TEST_" + poolId + "_" + i, "jobName", "testJobPoll",
+                            "poolId", poolId, "serviceName", "testScv", "runTime", runTime, "statusId", "SERVICE_PENDING"));
+                }
+            }
+            assertEquals("No jobs queued in the saturated pool", 0, poller.pollPool(jm, saturatedPool, UtilMisc.toList(saturatedPoolId)));
+            assertEquals("Saturated pool jobs left unclaimed", jobCount, EntityQuery.use(delegator).from("JobSandbox")
+                    .where("poolId", saturatedPoolId, "runByInstanceId", null, "statusId", "SERVICE_PENDING").queryCount());
+            assertEquals("All jobs queued in the idle pool", jobCount, poller.pollPool(jm, idlePool, UtilMisc.toList(idlePoolId)));
+            long deadline = System.currentTimeMillis() + 30000;
+            long finished = 0;
+            while (System.currentTimeMillis() < deadline) {
+                finished = EntityQuery.use(delegator).from("JobSandbox").where("poolId", idlePoolId, "statusId", "SERVICE_FINISHED").queryCount();
+                if (finished == jobCount) {
+                    break;
+                }
+                Thread.sleep(100);
+            }
+            assertEquals("Idle pool jobs run", jobCount, finished);
+        } finally {
+            saturatedPool.shutdownNow();
+            idlePool.shutdownNow();
+            delegator.removeByCondition("JobSandbox", testPoolsCond);
+        }
+    }
+
+    /**
+     * SCIPIO: Load test of the job pool with I/O-bound jobs (a sleep standing in for a JDBC or gateway call), on the
+     * default platform thread pool (5 threads) and on virtual threads (limit 200); logs the throughput of both. Only
+     * checks that each pool runs every job, since throughput depends on the load of the machine.
+     */
+    public void testJobPoolVirtualThreadThroughput() throws Exception {
+        final int jobCount = 400;
+        final long ioMillis = 25;
+        double platformRate = runJobPoolLoad(false, 5, jobCount, ioMillis);
+        Debug.logInfo("Job pool load test, platform threads: " + jobCount + " jobs of " + ioMillis + "ms I/O, "
+                + String.format("%.1f", platformRate) + " jobs/s", module);
+        if (!VirtualThreads.isSupported()) {
+            Debug.logInfo("Job pool load test: virtual threads not supported by this JDK; skipping virtual thread run", module);
+            return;
+        }
+        double virtualRate = runJobPoolLoad(true, 200, jobCount, ioMillis);
+        Debug.logInfo("Job pool load test, virtual threads: " + jobCount + " jobs of " + ioMillis + "ms I/O, "
+                + String.format("%.1f", virtualRate) + " jobs/s", module);
+    }
+
+    private static double runJobPoolLoad(boolean virtualThreads, int maxThreads, int jobCount, long ioMillis) throws Exception {
+        JobPool pool = new JobPool("loadTest", Math.min(2, maxThreads), maxThreads, jobCount, 60000, virtualThreads);
+        assertEquals("Job pool uses the requested thread kind", virtualThreads, pool.isVirtual());
+        CountDownLatch done = new CountDownLatch(jobCount);
+        try {
+            long start = System.nanoTime();
+            for (int i = 0; i < jobCount; i++) {
+                pool.execute(new SleepJob("loadTest." + i, ioMillis, done), 0);
+            }
+            assertTrue("Job pool load test jobs finished", done.await(5, TimeUnit.MINUTES));
+            long elapsedNanos = System.nanoTime() - start;
+            return jobCount / (elapsedNanos / 1e9);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * A job that blocks for a fixed time, like a service waiting on a database or remote server; counts down the done
+     * latch, if any, when it ends.
+     */
+    private static final class SleepJob implements Job {
+        private final String jobId;
+        private final long sleepMillis;
+        private final CountDownLatch done;
+        private volatile State state = State.CREATED;
+        private volatile long runtime = 0;
+
+        SleepJob(String jobId, long sleepMillis, CountDownLatch done) {
+            this.jobId = jobId;
+            this.sleepMillis = sleepMillis;
+            this.done = done;
+        }
+
+        @Override
+        public void run() {
+            state = State.RUNNING;
+            long start = System.currentTimeMillis();
+            try {
+                Thread.sleep(sleepMillis);
+                state = State.FINISHED;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                state = State.FAILED;
+            } finally {
+                runtime = System.currentTimeMillis() - start;
+                if (done != null) {
+                    done.countDown();
+                }
+            }
+        }
+
+        @Override
+        public State currentState() {
+            return state;
+        }
+
+        @Override
+        public String getJobId() {
+            return jobId;
+        }
+
+        @Override
+        public String getJobName() {
+            return jobId;
+        }
+
+        @Override
+        public long getRuntime() {
+            return runtime;
+        }
+
+        @Override
+        public boolean isValid() {
+            return state == State.CREATED;
+        }
+
+        @Override
+        public void deQueue() {
+            state = State.CREATED;
+        }
+
+        @Override
+        public void queue() {
+            state = State.QUEUED;
+        }
+
+        @Override
+        public Date getStartTime() {
+            return new Date();
+        }
+    }
 }
@@ -18,14 +18,30 @@
  *******************************************************************************/
 package org.ofbiz.webapp.stats;
 
-import java.util.Date;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
 
 import javax.servlet.http.HttpServletRequest;
 
+import org.ofbiz.base.concurrent.ExecutionPool;
 import org.ofbiz.base.util.Debug;
 import org.ofbiz.base.util.UtilHttp;
 import org.ofbiz.base.util.UtilProperties;
@@ -37,13 +53,15 @@ import org.ofbiz.entity.GenericValue;
 import org.ofbiz.entity.model.ModelEntity;
 import org.ofbiz.entity.util.EntityQuery;
 import org.ofbiz.entity.util.EntityUtilProperties;
-
-import com.ibm.icu.util.Calendar;
+import org.ofbiz.entity.util.EntityWriteBehind;
 
 /**
  * <p>Counts server hits and tracks statistics for request, events and views
  * <p>Handles total stats since the server started and binned
  *  stats according to settings in the serverstats.properties file.
+ * <p>SCIPIO: Counting is lock-free: each id keeps a fixed {@link BinRing} of time bins with striped counters, and
+ * the serverstats settings are read once. Bins that have ended are persisted by a background task
+ * instead of on the request that rolls them over; the task only runs if some stats.enable.[type] is on.
  */
 public class ServerHitBin {
     // Debug module name
@@ -57,12 +75,34 @@ public class ServerHitBin {
 
     private static final String[] typeIds = {"", "REQUEST", "EVENT", "VIEW", "ENTITY", "SERVICE"};
 
-    // these Maps contain Lists of ServerHitBin objects by id, the most recent is first in the list
-    public static final ConcurrentMap<String, Deque<ServerHitBin>> requestHistory = new ConcurrentHashMap<String, Deque<ServerHitBin>>();
-    public static final ConcurrentMap<String, Deque<ServerHitBin>> eventHistory = new ConcurrentHashMap<String, Deque<ServerHitBin>>();
-    public static final ConcurrentMap<String, Deque<ServerHitBin>> viewHistory = new ConcurrentHashMap<String, Deque<ServerHitBin>>();
-    public static final ConcurrentMap<String, Deque<ServerHitBin>> entityHistory = new ConcurrentHashMap<String, Deque<ServerHitBin>>();
-    public static final ConcurrentMap<String, Deque<ServerHitBin>> serviceHistory = new ConcurrentHashMap<String, Deque<ServerHitBin>>();
+    // SCIPIO: serverstats settings, read once
+    private static final boolean[] typeEnabled = new boolean[typeIds.length];
+    static {
+        for (int type = REQUEST; type <= SERVICE; type++) {
+            // only count hits if enabled, if not specified defaults to false
+            typeEnabled[type] = "true".equals(UtilProperties.getPropertyValue("serverstats", "stats.enable." + typeIds[type]));
+        }
+    }
+    private static final long binLength = getNewBinLength();
+    private static final int binHistorySize = UtilProperties.getPropertyAsInteger("serverstats", "stats.bin.history.size", 96);
+    private static final long binFlushMillis = Math.min(binLength, UtilProperties.getPropertyAsLong("serverstats", "stats.bin.flush.millis", 60000L));
+    /** SCIPIO: stats.persist.[type].hit per delegator, as these may be overridden per tenant. */
+    private static final ConcurrentMap<String, boolean[]> persistHitByDelegator = new ConcurrentHashMap<>();
+
+    /** SCIPIO: The bin rings by id, backing the *History maps. */
+    private static final ConcurrentMap<String, BinRing> requestRings = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, BinRing> eventRings = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, BinRing> viewRings = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, BinRing> entityRings = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, BinRing> serviceRings = new ConcurrentHashMap<>();
+
+    // these Maps contain the bin history by id, the most recent is first when iterating
+    // SCIPIO: read-only views of the bin rings; each get returns a snapshot of the id's bins
+    public static final ConcurrentMap<String, Deque<ServerHitBin>> requestHistory = new HistoryView(requestRings);
+    public static final ConcurrentMap<String, Deque<ServerHitBin>> eventHistory = new HistoryView(eventRings);
+    public static final ConcurrentMap<String, Deque<ServerHitBin>> viewHistory = new HistoryView(viewRings);
+    public static final ConcurrentMap<String, Deque<ServerHitBin>> entityHistory = new HistoryView(entityRings);
+    public static final ConcurrentMap<String, Deque<ServerHitBin>> serviceHistory = new HistoryView(serviceRings);
 
     // these Maps contain ServerHitBin objects by id
     public static final ConcurrentMap<String, ServerHitBin> requestSinceStarted = new ConcurrentHashMap<String, ServerHitBin>();
@@ -71,6 +111,23 @@ public class ServerHitBin {
     public static final ConcurrentMap<String, ServerHitBin> entitySinceStarted = new ConcurrentHashMap<String, ServerHitBin>();
     public static final ConcurrentMap<String, ServerHitBin> serviceSinceStarted = new ConcurrentHashMap<String, ServerHitBin>();
 
+    /** SCIPIO: Bins overwritten in their ring before the flush task saw them. */
+    private static final Queue<ServerHitBin> pendingFlush = new ConcurrentLinkedQueue<>();
+    /** SCIPIO: Flushes ended bins every stats.bin.flush.millis; null if no hit type is counted. */
+    private static final ScheduledExecutorService flushExecutor = isAnyTypeEnabled() ? ExecutionPool.getScheduledExecutor(new ThreadGroup("ServerHitBin"),
+            "serverhitbin-flush", 1, 0, false) : null;
+    static {
+        if (flushExecutor != null) {
+            flushExecutor.scheduleWithFixedDelay(() -> {
+                try {
+                    flushEndedBins(System.currentTimeMillis());
+                } catch (Throwable t) {
+                    Debug.logError(t, "Could not flush ServerHitBin bins", module);
+                }
+            }, binFlushMillis, binFlushMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
     public static void countRequest(String id, HttpServletRequest request, long startTime, long runningTime, GenericValue userLogin) {
         countHit(id, REQUEST, request, startTime, runningTime, userLogin);
     }
@@ -91,18 +148,18 @@ public class ServerHitBin {
         countHit(id, SERVICE, request, startTime, runningTime, userLogin);
     }
 
-    private static void countHit(String id, int type, HttpServletRequest request, long startTime, long runningTime, GenericValue userLogin) {
-        // only count hits if enabled, if not specified defaults to false
-        if (!"true".equals(UtilProperties.getPropertyValue("serverstats", "stats.enable." + typeIds[type]))) return;
-        countHit(id, type, request, startTime, runningTime, userLogin, true);
+    /** SCIPIO: Returns true if hits of the given type are counted (stats.enable.[type]). */
+    public static boolean isEnabled(int type) {
+        return type >= REQUEST && type <= SERVICE && typeEnabled[type];
     }
 
-    private static String makeIdTenantAware(String id, Delegator delegator) {
-        if (UtilValidate.isNotEmpty(delegator.getDelegatorTenantId())) {
-            return id + "#" + delegator.getDelegatorTenantId();
-        } else {
-            return id;
+    private static boolean isAnyTypeEnabled() {
+        for (int type = REQUEST; type <= SERVICE; type++) {
+            if (typeEnabled[type]) {
+                return true;
+            }
         }
+        return false;
     }
 
     private static long getNewBinLength() {
@@ -115,26 +172,10 @@ public class ServerHitBin {
         return binLength;
     }
 
-    private static long getEvenStartingTime(long binLength) {
-        // binLengths should be a divisable evenly into 1 hour
-        long curTime = System.currentTimeMillis();
-
-        // find the first previous millis that are even on the hour
-        Calendar cal = Calendar.getInstance();
-
-        cal.setTime(new Date(curTime));
-        cal.set(Calendar.MINUTE, 0);
-        cal.set(Calendar.SECOND, 0);
-        cal.set(Calendar.MILLISECOND, 0);
-
-        while (cal.getTime().getTime() < (curTime - binLength)) {
-            cal.add(Calendar.MILLISECOND, (int) binLength);
+    private static void countHit(String baseId, int type, HttpServletRequest request, long startTime, long runningTime, GenericValue userLogin) {
+        if (!typeEnabled[type]) {
+            return;
         }
-
-        return cal.getTime().getTime();
-    }
-
-    private static void countHit(String baseId, int type, HttpServletRequest request, long startTime, long runningTime, GenericValue userLogin, boolean isOriginal) {
         Delegator delegator = (Delegator) request.getAttribute("delegator");
         if (delegator == null) {
             String delegatorName = (String) request.getSession().getAttribute("delegatorName");
@@ -144,234 +185,350 @@ public class ServerHitBin {
             throw new IllegalArgumentException("In countHit could not find a delegator or delegatorName to work from");
         }
 
-        String id = makeIdTenantAware(baseId, delegator);
+        ServerHitBin bin = countBins(baseId, type, delegator, startTime, runningTime);
+        if (isPersistHit(type, delegator)) {
+            try {
+                bin.saveHit(request, startTime, runningTime, userLogin);
+            } catch (GenericEntityException e) {
+                Debug.logWarning("Error saving ServerHit: " + e.toString(), module);
+            }
+        }
+    }
+
+    /**
+     * SCIPIO: Counts a hit in the bins and since-start totals of the id, its parent ids and GLOBAL, without persisting
+     * a ServerHit; for hits that have no request. Does nothing if the type is not enabled.
+     */
+    public static void countHit(String id, int type, Delegator delegator, long startTime, long runningTime) {
+        if (!typeEnabled[type]) {
+            return;
+        }
+        countBins(id, type, delegator, startTime, runningTime);
+    }
+
+    /** SCIPIO: Counts the hit in all bins and returns the bin of the id itself. */
+    private static ServerHitBin countBins(String baseId, int type, Delegator delegator, long startTime, long runningTime) {
+        String tenantId = delegator.getDelegatorTenantId();
+        String id = UtilValidate.isNotEmpty(tenantId) ? baseId + "#" + tenantId : baseId;
+        String globalId = UtilValidate.isNotEmpty(tenantId) ? "GLOBAL#" + tenantId : "GLOBAL";
+        long toTime = startTime + runningTime;
+
+        BinRing ring = getBinRing(type, id, delegator);
+        ServerHitBin bin = ring.getBin(toTime);
+        bin.addHit(runningTime);
+
+        // count since start global and per id hits
+        if (!id.startsWith("GLOBAL")) {
+            countHitSinceStart(id, type, runningTime, delegator);
+            countHitSinceStart(globalId, type, runningTime, delegator);
+        }
+
+        // also count hits up the hierarchy if the id contains a '.'
+        for (BinRing parent = ring.getParent(); parent != null; parent = parent.getParent()) {
+            parent.getBin(toTime).addHit(runningTime);
+            if (!parent.id.startsWith("GLOBAL")) {
+                countHitSinceStart(parent.id, type, runningTime, delegator);
+            }
+        }
 
-        ServerHitBin bin = null;
-        Deque<ServerHitBin> binList = null;
+        getBinRing(type, globalId, delegator).getBin(toTime).addHit(runningTime);
+        return bin;
+    }
 
+    private static ConcurrentMap<String, BinRing> getRingMap(int type) {
         switch (type) {
         case REQUEST:
-            binList = requestHistory.get(id);
-            break;
-
+            return requestRings;
         case EVENT:
-            binList = eventHistory.get(id);
-            break;
-
+            return eventRings;
         case VIEW:
-            binList = viewHistory.get(id);
-            break;
-
+            return viewRings;
         case ENTITY:
-            binList = entityHistory.get(id);
-            break;
-
+            return entityRings;
         case SERVICE:
-            binList = serviceHistory.get(id);
-            break;
+            return serviceRings;
+        default:
+            throw new IllegalArgumentException("Invalid ServerHitBin type: " + type);
         }
+    }
 
-        if (binList == null) {
-            binList = new ConcurrentLinkedDeque<ServerHitBin>();
-            Deque<ServerHitBin> listFromMap = null;
-            switch (type) {
-            case REQUEST:
-                listFromMap = requestHistory.putIfAbsent(id, binList);
-                break;
-
-            case EVENT:
-                listFromMap = eventHistory.putIfAbsent(id, binList);
-                break;
+    private static ConcurrentMap<String, ServerHitBin> getSinceStartedMap(int type) {
+        switch (type) {
+        case REQUEST:
+            return requestSinceStarted;
+        case EVENT:
+            return eventSinceStarted;
+        case VIEW:
+            return viewSinceStarted;
+        case ENTITY:
+            return entitySinceStarted;
+        case SERVICE:
+            return serviceSinceStarted;
+        default:
+            throw new IllegalArgumentException("Invalid ServerHitBin type: " + type);
+        }
+    }
 
-            case VIEW:
-                listFromMap = viewHistory.putIfAbsent(id, binList);
-                break;
+    private static BinRing getBinRing(int type, String id, Delegator delegator) {
+        ConcurrentMap<String, BinRing> ringMap = getRingMap(type);
+        BinRing ring = ringMap.get(id);
+        if (ring == null) {
+            ring = ringMap.computeIfAbsent(id, key -> new BinRing(key, type, delegator));
+        }
+        return ring;
+    }
 
-            case ENTITY:
-                listFromMap = entityHistory.putIfAbsent(id, binList);
-                break;
+    private static void countHitSinceStart(String id, int type, long runningTime, Delegator delegator) {
+        ConcurrentMap<String, ServerHitBin> sinceStartedMap = getSinceStartedMap(type);
+        ServerHitBin bin = sinceStartedMap.get(id);
+        if (bin == null) {
+            bin = sinceStartedMap.computeIfAbsent(id, key -> new ServerHitBin(key, type, false, delegator, System.currentTimeMillis()));
+        }
+        bin.addHit(runningTime);
+    }
 
-            case SERVICE:
-                listFromMap = serviceHistory.putIfAbsent(id, binList);
-                break;
+    private static boolean isPersistHit(int type, Delegator delegator) {
+        boolean[] persistHit = persistHitByDelegator.get(delegator.getDelegatorName());
+        if (persistHit == null) {
+            persistHit = persistHitByDelegator.computeIfAbsent(delegator.getDelegatorName(), name -> {
+                boolean[] flags = new boolean[typeIds.length];
+                for (int i = REQUEST; i <= SERVICE; i++) {
+                    flags[i] = EntityUtilProperties.propertyValueEqualsIgnoreCase("serverstats", "stats.persist." + typeIds[i] + ".hit", "true", delegator);
+                }
+                return flags;
+            });
+        }
+        return persistHit[type];
+    }
+
+    /**
+     * SCIPIO: Persists the bins that ended before <code>now</code> and have not been flushed yet, including those already
+     * replaced in their ring, if stats.persist.[type].bin is on; returns the number of ServerHitBin records written.
+     * Called periodically by the flush executor.
+     */
+    public static int flushEndedBins(long now) {
+        int flushedCount = 0;
+        ServerHitBin pending;
+        while ((pending = pendingFlush.poll()) != null) {
+            if (pending.flush()) {
+                flushedCount++;
+            }
+        }
+        for (int type = REQUEST; type <= SERVICE; type++) {
+            for (BinRing ring : getRingMap(type).values()) {
+                for (int i = 0; i < ring.bins.length(); i++) {
+                    ServerHitBin bin = ring.bins.get(i);
+                    if (bin != null && bin.endTime < now && bin.flush()) {
+                        flushedCount++;
+                    }
+                }
             }
-            binList = listFromMap != null ? listFromMap : binList;
+        }
+        return flushedCount;
+    }
+
+    /**
+     * SCIPIO: Fixed ring of the most recent time bins of one id (stats.bin.history.size, default 96); iterates
+     * from the most recent bin.
+     */
+    private static final class BinRing implements Iterable<ServerHitBin> {
+        private final String id;
+        private final int type;
+        private final Delegator delegator;
+        private final AtomicReferenceArray<ServerHitBin> bins = new AtomicReferenceArray<>(binHistorySize);
+        private final String parentId;
+        private volatile BinRing parent;
+
+        private BinRing(String id, int type, Delegator delegator) {
+            this.id = id;
+            this.type = type;
+            this.delegator = delegator;
+            String tenantSuffix = "";
+            String baseId = id;
+            int tenantSep = id.indexOf('#');
+            if (tenantSep >= 0) {
+                baseId = id.substring(0, tenantSep);
+                tenantSuffix = id.substring(tenantSep);
+            }
+            int parentSep = baseId.lastIndexOf('.');
+            this.parentId = (parentSep > 0) ? baseId.substring(0, parentSep) + tenantSuffix : null;
         }
 
-        do {
-            bin = binList.peek();
-            if (bin == null) {
-                binList.addFirst(new ServerHitBin(id, type, true, delegator));
+        /** Returns the ring of the parent id (the id up to its last '.'), or null if none. */
+        BinRing getParent() {
+            if (parentId == null) {
+                return null;
+            }
+            BinRing parent = this.parent;
+            if (parent == null) {
+                parent = getBinRing(type, parentId, delegator);
+                this.parent = parent;
             }
-        } while (bin == null);
+            return parent;
+        }
 
-        long toTime = startTime + runningTime;
-        // advance the bin
-        // first check to see if the bin has expired, if so save and recycle it
-        while (bin.limitLength && toTime > bin.endTime) {
-            // the first in the list will be this object, remove and copy it,
-            // put the copy at the first of the list, then put this object back on
-            if (bin.getNumberHits() > 0) {
-                // persist each bin when time ends if option turned on
-                if (EntityUtilProperties.propertyValueEqualsIgnoreCase("serverstats", "stats.persist." + ServerHitBin.typeIds[type] + ".bin", "true", delegator)) {
-                    GenericValue serverHitBin = delegator.makeValue("ServerHitBin");
-                    serverHitBin.set("contentId", bin.id);
-                    serverHitBin.set("hitTypeId", ServerHitBin.typeIds[bin.type]);
-                    serverHitBin.set("binStartDateTime", new java.sql.Timestamp(bin.startTime));
-                    serverHitBin.set("binEndDateTime", new java.sql.Timestamp(bin.endTime));
-                    serverHitBin.set("numberHits", bin.getNumberHits());
-                    serverHitBin.set("totalTimeMillis", bin.getTotalRunningTime());
-                    serverHitBin.set("minTimeMillis", bin.getMinTime());
-                    serverHitBin.set("maxTimeMillis", bin.getMaxTime());
-                    // get localhost ip address and hostname to store
-                    if (VisitHandler.address != null) {
-                        serverHitBin.set("serverIpAddress", VisitHandler.address.getHostAddress());
-                        serverHitBin.set("serverHostName", VisitHandler.address.getHostName());
-                    }
-                    try {
-                        delegator.createSetNextSeqId(serverHitBin);
-                    } catch (GenericEntityException e) {
-                        Debug.logError(e, "Could not save ServerHitBin:", module);
+        /** Returns the bin holding the given time, replacing the older bin in its slot if needed. */
+        ServerHitBin getBin(long time) {
+            long binStart = time - (time % binLength);
+            int slot = (int) ((binStart / binLength) % bins.length());
+            ServerHitBin bin = bins.get(slot);
+            while (bin == null || bin.startTime < binStart) {
+                ServerHitBin newBin = new ServerHitBin(id, type, true, delegator, binStart);
+                if (bins.compareAndSet(slot, bin, newBin)) {
+                    if (bin != null && !bin.flushed.get()) {
+                        pendingFlush.add(bin);
                     }
+                    return newBin;
                 }
-            } else {
-                binList.pollFirst();
+                bin = bins.get(slot);
             }
-            bin = new ServerHitBin(bin, bin.endTime + 1);
-            binList.addFirst(bin);
+            // NOTE: a late hit for an older time than the bin in its slot is counted in that (newer) bin
+            return bin;
         }
 
-        bin.addHit(runningTime);
-        if (isOriginal) {
-            try {
-                bin.saveHit(request, startTime, runningTime, userLogin);
-            } catch (GenericEntityException e) {
-                Debug.logWarning("Error saving ServerHit: " + e.toString(), module);
+        @Override
+        public Iterator<ServerHitBin> iterator() {
+            List<ServerHitBin> binList = new ArrayList<>(bins.length());
+            for (int i = 0; i < bins.length(); i++) {
+                ServerHitBin bin = bins.get(i);
+                if (bin != null) {
+                    binList.add(bin);
+                }
             }
+            binList.sort((a, b) -> Long.compare(b.startTime, a.startTime));
+            return binList.iterator();
         }
 
-        // count since start global and per id hits
-        if (!id.startsWith("GLOBAL")) {
-            countHitSinceStart(id, type, runningTime, delegator);
-            if (isOriginal) {
-                countHitSinceStart(makeIdTenantAware("GLOBAL", delegator), type, runningTime, delegator);
+        Deque<ServerHitBin> toDeque() {
+            Deque<ServerHitBin> deque = new ArrayDeque<>(bins.length());
+            for (ServerHitBin bin : this) {
+                deque.add(bin);
             }
+            return deque;
         }
+    }
 
-        // also count hits up the hierarchy if the id contains a '.'
-        if (id.indexOf('.') > 0) {
-            countHit(id.substring(0, id.lastIndexOf('.')), type, request, startTime, runningTime, userLogin, false);
+    /**
+     * SCIPIO: Read-only map view of bin rings by id, giving each ring as a deque of its bins, most recent first.
+     * Only removal is supported, which drops the ring.
+     */
+    private static final class HistoryView extends AbstractMap<String, Deque<ServerHitBin>> implements ConcurrentMap<String, Deque<ServerHitBin>> {
+        private final ConcurrentMap<String, BinRing> rings;
+
+        HistoryView(ConcurrentMap<String, BinRing> rings) {
+            this.rings = rings;
         }
 
-        if (isOriginal) {
-            countHit("GLOBAL", type, request, startTime, runningTime, userLogin, false);
+        @Override
+        public Deque<ServerHitBin> get(Object key) {
+            BinRing ring = rings.get(key);
+            return (ring != null) ? ring.toDeque() : null;
         }
-    }
 
-    private static void countHitSinceStart(String id, int type, long runningTime, Delegator delegator) {
-        ServerHitBin bin = null;
+        @Override
+        public boolean containsKey(Object key) {
+            return rings.containsKey(key);
+        }
 
-        switch (type) {
-        case REQUEST:
-            bin = requestSinceStarted.get(id);
-            break;
+        @Override
+        public int size() {
+            return rings.size();
+        }
 
-        case EVENT:
-            bin = eventSinceStarted.get(id);
-            break;
+        @Override
+        public Set<String> keySet() {
+            return Collections.unmodifiableSet(rings.keySet());
+        }
 
-        case VIEW:
-            bin = viewSinceStarted.get(id);
-            break;
+        @Override
+        public Deque<ServerHitBin> remove(Object key) {
+            BinRing ring = rings.remove(key);
+            return (ring != null) ? ring.toDeque() : null;
+        }
 
-        case ENTITY:
-            bin = entitySinceStarted.get(id);
-            break;
+        @Override
+        public void clear() {
+            rings.clear();
+        }
 
-        case SERVICE:
-            bin = serviceSinceStarted.get(id);
-            break;
+        @Override
+        public Set<Map.Entry<String, Deque<ServerHitBin>>> entrySet() {
+            return new AbstractSet<Map.Entry<String, Deque<ServerHitBin>>>() {
+                @Override
+                public Iterator<Map.Entry<String, Deque<ServerHitBin>>> iterator() {
+                    Iterator<Map.Entry<String, BinRing>> it = rings.entrySet().iterator();
+                    return new Iterator<Map.Entry<String, Deque<ServerHitBin>>>() {
+                        @Override
+                        public boolean hasNext() {
+                            return it.hasNext();
+                        }
+
+                        @Override
+                        public Map.Entry<String, Deque<ServerHitBin>> next() {
+                            Map.Entry<String, BinRing> entry = it.next();
+                            return new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue().toDeque());
+                        }
+
+                        @Override
+                        public void remove() {
+                            it.remove();
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return rings.size();
+                }
+            };
         }
 
-        if (bin == null) {
-            bin = new ServerHitBin(id, type, false, delegator);
-            ServerHitBin binFromMap = null;
-            switch (type) {
-            case REQUEST:
-                binFromMap = requestSinceStarted.putIfAbsent(id, bin);
-                break;
-
-            case EVENT:
-                binFromMap = eventSinceStarted.putIfAbsent(id, bin);
-                break;
-
-            case VIEW:
-                binFromMap = viewSinceStarted.putIfAbsent(id, bin);
-                break;
-
-            case ENTITY:
-                binFromMap = entitySinceStarted.putIfAbsent(id, bin);
-                break;
-
-            case SERVICE:
-                binFromMap = serviceSinceStarted.putIfAbsent(id, bin);
-                break;
-            }
-            bin = binFromMap != null ? binFromMap : bin;
+        @Override
+        public Deque<ServerHitBin> putIfAbsent(String key, Deque<ServerHitBin> value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean remove(Object key, Object value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean replace(String key, Deque<ServerHitBin> oldValue, Deque<ServerHitBin> newValue) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Deque<ServerHitBin> replace(String key, Deque<ServerHitBin> value) {
+            throw new UnsupportedOperationException();
         }
-        bin.addHit(runningTime);
     }
 
     private final Delegator delegator;
     private final String id;
     private final int type;
     private final boolean limitLength;
-    private final long binLength;
     private final long startTime;
     private final long endTime;
 
-    private long numberHits;
-    private long totalRunningTime;
-    private long minTime;
-    private long maxTime;
+    private final LongAdder numberHits = new LongAdder();
+    private final LongAdder totalRunningTime = new LongAdder();
+    private final LongAccumulator minTime = new LongAccumulator(Math::min, Long.MAX_VALUE);
+    private final LongAccumulator maxTime = new LongAccumulator(Math::max, 0);
+    private final AtomicBoolean flushed = new AtomicBoolean();
 
-    private ServerHitBin(String id, int type, boolean limitLength, Delegator delegator) {
+    private ServerHitBin(String id, int type, boolean limitLength, Delegator delegator, long startTime) {
         this.id = id;
         this.type = type;
         this.limitLength = limitLength;
         this.delegator = delegator;
-        this.binLength = getNewBinLength();
-        this.startTime = getEvenStartingTime(this.binLength);
-        if (this.limitLength) {
-            // subtract 1 millisecond to keep bin starting times even
-            this.endTime = this.startTime + this.binLength - 1;
-        } else {
-            this.endTime = 0;
-        }
-        this.numberHits = 0;
-        this.totalRunningTime = 0;
-        this.minTime = Long.MAX_VALUE;
-        this.maxTime = 0;
-    }
-
-    private ServerHitBin(ServerHitBin oldBin, long startTime) {
-        this.id = oldBin.id;
-        this.type = oldBin.type;
-        this.limitLength = oldBin.limitLength;
-        this.delegator = oldBin.delegator;
-        this.binLength = oldBin.binLength;
-
         this.startTime = startTime;
-        if (limitLength) {
+        if (this.limitLength) {
             // subtract 1 millisecond to keep bin starting times even
-            this.endTime = this.startTime + this.binLength - 1;
+            this.endTime = this.startTime + binLength - 1;
         } else {
             this.endTime = 0;
         }
-        this.numberHits = 0;
-        this.totalRunningTime = 0;
-        this.minTime = Long.MAX_VALUE;
-        this.maxTime = 0;
     }
 
     public Delegator getDelegator() {
@@ -417,20 +574,20 @@ public class ServerHitBin {
         return (this.getBinLength()) / 60000.0;
     }
 
-    public synchronized long getNumberHits() {
-        return this.numberHits;
+    public long getNumberHits() {
+        return this.numberHits.sum();
     }
 
-    public synchronized long getMinTime() {
-        return this.minTime;
+    public long getMinTime() {
+        return this.minTime.get();
     }
 
-    public synchronized long getMaxTime() {
-        return this.maxTime;
+    public long getMaxTime() {
+        return this.maxTime.get();
     }
 
-    public synchronized long getTotalRunningTime() {
-        return this.totalRunningTime;
+    public long getTotalRunningTime() {
+        return this.totalRunningTime.sum();
     }
 
     public double getMinTimeSeconds() {
@@ -441,7 +598,7 @@ public class ServerHitBin {
         return (this.getMaxTime()) / 1000.0;
     }
 
-    public synchronized double getAvgTime() {
+    public double getAvgTime() {
         return ((double) this.getTotalRunningTime()) / ((double) this.getNumberHits());
     }
 
@@ -454,110 +611,150 @@ public class ServerHitBin {
         return this.getNumberHits() / this.getBinLengthMinutes();
     }
 
-    private synchronized void addHit(long runningTime) {
-        this.numberHits++;
-        this.totalRunningTime += runningTime;
-        if (runningTime < this.minTime)
-            this.minTime = runningTime;
-        if (runningTime > this.maxTime)
-            this.maxTime = runningTime;
+    /** SCIPIO: Returns true if this bin has been handed to {@link #flushEndedBins(long)}, whether or not it was persisted. */
+    public boolean isFlushed() {
+        return this.flushed.get();
+    }
+
+    private void addHit(long runningTime) {
+        this.numberHits.increment();
+        this.totalRunningTime.add(runningTime);
+        this.minTime.accumulate(runningTime);
+        this.maxTime.accumulate(runningTime);
+    }
+
+    /**
+     * SCIPIO: Persists this ended bin once, if it has hits and stats.persist.[type].bin is on; returns true if a record was written.
+     */
+    private boolean flush() {
+        if (!this.flushed.compareAndSet(false, true) || getNumberHits() <= 0) {
+            return false;
+        }
+        if (!EntityUtilProperties.propertyValueEqualsIgnoreCase("serverstats", "stats.persist." + ServerHitBin.typeIds[type] + ".bin", "true", delegator)) {
+            return false;
+        }
+        GenericValue serverHitBin = delegator.makeValue("ServerHitBin");
+        serverHitBin.set("contentId", this.id);
+        serverHitBin.set("hitTypeId", ServerHitBin.typeIds[this.type]);
+        serverHitBin.set("binStartDateTime", new java.sql.Timestamp(this.startTime));
+        serverHitBin.set("binEndDateTime", new java.sql.Timestamp(this.endTime));
+        serverHitBin.set("numberHits", getNumberHits());
+        serverHitBin.set("totalTimeMillis", getTotalRunningTime());
+        serverHitBin.set("minTimeMillis", getMinTime());
+        serverHitBin.set("maxTimeMillis", getMaxTime());
+        // get localhost ip address and hostname to store
+        if (VisitHandler.address != null) {
+            serverHitBin.set("serverIpAddress", VisitHandler.address.getHostAddress());
+            serverHitBin.set("serverHostName", VisitHandler.address.getHostName());
+        }
+        try {
+            EntityWriteBehind.createSetNextSeqId(serverHitBin); // SCIPIO: queued if write-behind
+            return true;
+        } catch (GenericEntityException e) {
+            Debug.logError(e, "Could not save ServerHitBin:", module);
+            return false;
+        }
     }
 
     private void saveHit(HttpServletRequest request, long startTime, long runningTime, GenericValue userLogin) throws GenericEntityException {
-        // persist record of hit in ServerHit entity if option turned on
+        // persist record of hit in ServerHit entity if option turned on (SCIPIO: checked by caller)
         Delegator delegator = (Delegator) request.getAttribute("delegator");
-        if (EntityUtilProperties.propertyValueEqualsIgnoreCase("serverstats", "stats.persist." + ServerHitBin.typeIds[type] + ".hit", "true", delegator)) {
-            // if the hit type is ENTITY and the name contains "ServerHit" don't
-            // persist; avoids the infinite loop and a bunch of annoying data
-            if (this.type == ENTITY && this.id.indexOf("ServerHit") > 0) {
-                return;
-            }
+        // if the hit type is ENTITY and the name contains "ServerHit" don't
+        // persist; avoids the infinite loop and a bunch of annoying data
+        if (this.type == ENTITY && this.id.indexOf("ServerHit") > 0) {
+            return;
+        }
 
-            // check for type data before running.
-            GenericValue serverHitType = null;
+        // check for type data before running.
+        GenericValue serverHitType = null;
 
-            serverHitType = EntityQuery.use(delegator).from("ServerHitType").where("hitTypeId", ServerHitBin.typeIds[this.type]).cache().queryOne();
-            if (serverHitType == null) {
-                // datamodel data not loaded; not storing hit.
-                Debug.logWarning("The datamodel data has not been loaded; cannot find hitTypeId '" + ServerHitBin.typeIds[this.type] + " not storing ServerHit.", module);
-                return;
-            }
+        serverHitType = EntityQuery.use(delegator).from("ServerHitType").where("hitTypeId", ServerHitBin.typeIds[this.type]).cache().queryOne();
+        if (serverHitType == null) {
+            // datamodel data not loaded; not storing hit.
+            Debug.logWarning("The datamodel data has not been loaded; cannot find hitTypeId '" + ServerHitBin.typeIds[this.type] + " not storing ServerHit.", module);
+            return;
+        }
 
-            GenericValue visit = VisitHandler.getVisit(request.getSession());
-            if (visit == null) {
-                // no visit info stored, so don't store the ServerHit
-                Debug.logWarning("Could not find a visitId, so not storing ServerHit. This is probably a configuration error. If you turn off persistance of visits you should also turn off persistence of hits.", module);
-                return;
-            }
-            String visitId = visit.getString("visitId");
+        GenericValue visit = VisitHandler.getVisit(request.getSession());
+        if (visit == null) {
+            // no visit info stored, so don't store the ServerHit
+            Debug.logWarning("Could not find a visitId, so not storing ServerHit. This is probably a configuration error. If you turn off persistance of visits you should also turn off persistence of hits.", module);
+            return;
+        }
+        String visitId = visit.getString("visitId");
+        // SCIPIO: A write-behind Visit may not be written yet; the hit is then queued after it, so skip the check
+        if (!EntityWriteBehind.isWriteBehind(visit)) {
             visit = EntityQuery.use(delegator).from("Visit").where("visitId", visitId).queryOne();
             if (visit == null) {
                 // GenericValue stored in client session does not exist in database.
                 Debug.logInfo("The Visit GenericValue stored in the client session does not exist in the database, not storing server hit.", module);
                 return;
             }
+        }
 
-            Debug.logInfo("Visit delegatorName=" + visit.getDelegator().getDelegatorName() + ", ServerHitBin delegatorName=" + this.delegator.getDelegatorName(), module);
+        if (Debug.verboseOn()) { // SCIPIO: was logInfo on every hit
+            Debug.logVerbose("Visit delegatorName=" + visit.getDelegator().getDelegatorName() + ", ServerHitBin delegatorName=" + this.delegator.getDelegatorName(), module);
+        }
 
-            GenericValue serverHit = delegator.makeValue("ServerHit");
+        GenericValue serverHit = delegator.makeValue("ServerHit");
 
-            serverHit.set("visitId", visitId);
-            serverHit.set("hitStartDateTime", new java.sql.Timestamp(startTime));
-            serverHit.set("hitTypeId", ServerHitBin.typeIds[this.type]);
-            if (userLogin != null) {
-                serverHit.set("userLoginId", userLogin.get("userLoginId"));
-                ModelEntity modelUserLogin = userLogin.getModelEntity();
-                if (modelUserLogin.isField("partyId")) {
-                    serverHit.set("partyId", userLogin.get("partyId"));
-                }
+        serverHit.set("visitId", visitId);
+        serverHit.set("hitStartDateTime", new java.sql.Timestamp(startTime));
+        serverHit.set("hitTypeId", ServerHitBin.typeIds[this.type]);
+        if (userLogin != null) {
+            serverHit.set("userLoginId", userLogin.get("userLoginId"));
+            ModelEntity modelUserLogin = userLogin.getModelEntity();
+            if (modelUserLogin.isField("partyId")) {
+                serverHit.set("partyId", userLogin.get("partyId"));
             }
-            serverHit.set("contentId", this.id);
-            serverHit.set("runningTimeMillis", runningTime);
+        }
+        serverHit.set("contentId", this.id);
+        serverHit.set("runningTimeMillis", runningTime);
 
-            String fullRequestUrl = UtilHttp.getFullRequestUrl(request);
+        String fullRequestUrl = UtilHttp.getFullRequestUrl(request);
 
-            serverHit.set("requestUrl", fullRequestUrl);
-            String referrerUrl = request.getHeader("Referer") != null ? request.getHeader("Referer") : "";
+        serverHit.set("requestUrl", fullRequestUrl);
+        String referrerUrl = request.getHeader("Referer") != null ? request.getHeader("Referer") : "";
 
-            serverHit.set("referrerUrl", referrerUrl);
+        serverHit.set("referrerUrl", referrerUrl);
 
-            // get localhost ip address and hostname to store
-            if (VisitHandler.address != null) {
-                serverHit.set("serverIpAddress", VisitHandler.address.getHostAddress());
-                serverHit.set("serverHostName", VisitHandler.address.getHostName());
-            }
+        // get localhost ip address and hostname to store
+        if (VisitHandler.address != null) {
+            serverHit.set("serverIpAddress", VisitHandler.address.getHostAddress());
+            serverHit.set("serverHostName", VisitHandler.address.getHostName());
+        }
 
-            // The problem with
-            //
-            //     serverHit.create();
-            //
-            // is that if there are two requests with the same startTime (this should only happen with MySQL see https://issues.apache.org/jira/browse/OFBIZ-2208)
-            // then this will go wrong and abort the actual
-            // transaction we are interested in.
-            // Another way instead of using create is to store or update,
-            // that is overwrite in case there already was an entry, thus
-            // avoiding the transaction being aborted which is not
-            // less desirable than having multiple requests with the
-            // same startTime overwriting each other.
-            // This may not satisfy those who want to record each and
-            // every server hit even with equal startTimes but that could be
-            // solved adding a counter to the ServerHit's PK (a counter
-            // counting multiple hits at the same startTime).
-            
-            // SCIPIO: 2018-10-12: Create often fails with duplicate PK due to entitymodel design despite comments above,
-            // due to AJAX requests on pages.
-            // So prevent entity engine from logging errors; it throws GenericEntityException anyway.
-            // TODO?: in future this should be optimized/replaced using Delegator/GenericValue/SqlProcessor logging options. 
-            //serverHit.create();
-            if (Debug.verboseOn()) {
-                serverHit.create();
-            } else {
-                try {
-                    Debug.setThreadLevelDisableWarningError();
-                    serverHit.create();
-                } finally {
-                    Debug.restoreThreadLevelAllow();
-                }
+        // The problem with
+        //
+        //     serverHit.create();
+        //
+        // is that if there are two requests with the same startTime (this should only happen with MySQL see https://issues.apache.org/jira/browse/OFBIZ-2208)
+        // then this will go wrong and abort the actual
+        // transaction we are interested in.
+        // Another way instead of using create is to store or update,
+        // that is overwrite in case there already was an entry, thus
+        // avoiding the transaction being aborted which is not
+        // less desirable than having multiple requests with the
+        // same startTime overwriting each other.
+        // This may not satisfy those who want to record each and
+        // every server hit even with equal startTimes but that could be
+        // solved adding a counter to the ServerHit's PK (a counter
+        // counting multiple hits at the same startTime).
+        
+        // SCIPIO: 2018-10-12: Create often fails with duplicate PK due to entitymodel design despite comments above,
+        // due to AJAX requests on pages.
+        // So prevent entity engine from logging errors; it throws GenericEntityException anyway.
+        // TODO?: in future this should be optimized/replaced using Delegator/GenericValue/SqlProcessor logging options. 
+        //serverHit.create();
+        // SCIPIO: queued if ServerHit is write-behind, in which case the writer handles duplicates
+        if (Debug.verboseOn()) {
+            EntityWriteBehind.create(serverHit);
+        } else {
+            try {
+                Debug.setThreadLevelDisableWarningError();
+                EntityWriteBehind.create(serverHit);
+            } finally {
+                Debug.restoreThreadLevelAllow();
             }
         }
     }
@@ -39,6 +39,7 @@ import org.ofbiz.entity.GenericValue;
 import org.ofbiz.entity.model.ModelEntity;
 import org.ofbiz.entity.util.EntityQuery;
 import org.ofbiz.entity.util.EntityUtilProperties;
+import org.ofbiz.entity.util.EntityWriteBehind;
 
 /**
  * Handles saving and maintaining visit information
@@ -71,7 +72,7 @@ public class VisitHandler {
                 visitor.set("partyId", userLogin.get("partyId"));
             }
             try {
-                visitor.store();
+                EntityWriteBehind.store(visitor); // SCIPIO: queued if write-behind
             } catch (GenericEntityException e) {
                 Debug.logError(e, "Could not update visitor: ", module);
             }
@@ -91,7 +92,7 @@ public class VisitHandler {
             }
 
             try {
-                visit.store();
+                EntityWriteBehind.store(visit); // SCIPIO: queued if write-behind
             } catch (GenericEntityException e) {
                 Debug.logError(e, "Could not update visit: ", module);
             }
@@ -172,7 +173,10 @@ public class VisitHandler {
                                 try {
                                     GenericValue checkVisitor = EntityQuery.use(delegator).from("Visitor").where("visitorId", visitorId).queryOne();
                                     if (checkVisitor == null) {
-                                        GenericValue newVisitor = delegator.create("Visitor", "visitorId", visitorId);
+                                        // SCIPIO: store rather than create, because a write-behind Visitor
+                                        // created earlier in this session may simply not be written yet
+                                        GenericValue newVisitor = delegator.makeValue("Visitor", "visitorId", visitorId);
+                                        EntityWriteBehind.store(newVisitor);
                                         session.setAttribute("visitor", newVisitor);
                                     }
                                     visit.set("visitorId", visitorId);
@@ -188,7 +192,7 @@ public class VisitHandler {
                             }
 
                             try {
-                                visit = delegator.createSetNextSeqId(visit);
+                                visit = EntityWriteBehind.createSetNextSeqId(visit); // SCIPIO: queued if write-behind
                                 session.setAttribute("visit", visit);
                             } catch (GenericEntityException e) {
                                 Debug.logError(e, "Could not create new visit:", module);
@@ -248,18 +252,22 @@ public class VisitHandler {
                                 // no visitor cookie? create visitor and send back cookie too
                                 visitor = delegator.makeValue("Visitor");
                                 try {
-                                    delegator.createSetNextSeqId(visitor);
+                                    EntityWriteBehind.createSetNextSeqId(visitor); // SCIPIO: queued if write-behind
                                 } catch (GenericEntityException e) {
                                     Debug.logError(e, "Could not create new visitor:", module);
                                     visitor = null;
                                 }
                             } else {
                                 try {
-                                    visitor = EntityQuery.use(delegator).from("Visitor").where("visitorId", cookieVisitorId).queryOne();
+                                    // SCIPIO: the Visitor may still be in the write-behind queue (cookie set by a recent request)
+                                    visitor = EntityWriteBehind.getQueued(delegator.makePK("Visitor", "visitorId", cookieVisitorId));
+                                    if (visitor == null) {
+                                        visitor = EntityQuery.use(delegator).from("Visitor").where("visitorId", cookieVisitorId).queryOne();
+                                    }
                                     if (visitor == null) {
                                         // looks like we have an ID that doesn't exist in our database, so we'll create a new one
                                         visitor = delegator.makeValue("Visitor");
-                                        visitor = delegator.createSetNextSeqId(visitor);
+                                        visitor = EntityWriteBehind.createSetNextSeqId(visitor); // SCIPIO: queued if write-behind
                                         if (Debug.infoOn()) {
                                             String visitorId = visitor != null ? visitor.getString("visitorId") : "empty visitor";
                                             Debug.logInfo("The visitorId [" + cookieVisitorId + "] found in cookie was invalid, creating new Visitor with ID [" + visitorId + "]", module);
@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.webapp.test;
+
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.ofbiz.base.util.UtilProperties;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.testtools.EntityTestCase;
+import org.ofbiz.entity.util.EntityQuery;
+import org.ofbiz.entity.util.EntityUtilProperties;
+import org.ofbiz.entity.util.EntityWriteBehind;
+import org.ofbiz.webapp.stats.ServerHitBin;
+
+/**
+ * SCIPIO: Tests of the {@link ServerHitBin} bin rings: bin rollover within the history size and flushing each ended
+ * bin exactly once.
+ */
+public class ServerHitBinTests extends EntityTestCase {
+
+    private final String statsId = "ServerHitBinTest" + System.currentTimeMillis();
+
+    public ServerHitBinTests(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        ServerHitBin.requestHistory.remove(statsId);
+        ServerHitBin.requestSinceStarted.remove(statsId);
+        EntityWriteBehind.flush(30, TimeUnit.SECONDS);
+        delegator.removeByAnd("ServerHitBin", "contentId", statsId);
+    }
+
+    /*
+     * Hits in two consecutive bins, then one a full ring later that replaces the oldest bin; all three bins are flushed once.
+     */
+    public void testBinRolloverAndFlush() throws Exception {
+        if (!ServerHitBin.isEnabled(ServerHitBin.REQUEST)) {
+            return; // stats.enable.REQUEST is off, nothing is counted
+        }
+        long binLength = getBinLength();
+        int historySize = UtilProperties.getPropertyAsInteger("serverstats", "stats.bin.history.size", 96);
+        long now = System.currentTimeMillis();
+        long firstStart = (now - (now % binLength)) - (historySize + 2) * binLength;
+
+        ServerHitBin.countHit(statsId, ServerHitBin.REQUEST, delegator, firstStart, 10);
+        ServerHitBin.countHit(statsId, ServerHitBin.REQUEST, delegator, firstStart + 5, 30);
+        ServerHitBin.countHit(statsId, ServerHitBin.REQUEST, delegator, firstStart + binLength, 20);
+
+        Deque<ServerHitBin> history = ServerHitBin.requestHistory.get(statsId);
+        assertEquals("Bins before rollover", 2, history.size());
+        ServerHitBin second = history.getFirst();
+        ServerHitBin first = history.getLast();
+        assertEquals("Most recent bin first", firstStart + binLength, second.getStartTime());
+        assertEquals("First bin start", firstStart, first.getStartTime());
+        assertEquals("First bin hits", 2, first.getNumberHits());
+        assertEquals("First bin min time", 10, first.getMinTime());
+        assertEquals("First bin max time", 30, first.getMaxTime());
+        assertEquals("Second bin hits", 1, second.getNumberHits());
+
+        // same ring slot as the first bin
+        long lastStart = firstStart + historySize * binLength;
+        ServerHitBin.countHit(statsId, ServerHitBin.REQUEST, delegator, lastStart, 40);
+
+        history = ServerHitBin.requestHistory.get(statsId);
+        assertEquals("Bins after rollover", 2, history.size());
+        Iterator<ServerHitBin> it = history.iterator();
+        ServerHitBin last = it.next();
+        assertEquals("Rolled over bin start", lastStart, last.getStartTime());
+        assertEquals("Rolled over bin hits", 1, last.getNumberHits());
+        assertSame("Second bin kept", second, it.next());
+        assertFalse("Replaced bin not flushed yet", first.isFlushed());
+        assertEquals("Hits since start", 4, ServerHitBin.requestSinceStarted.get(statsId).getNumberHits());
+
+        ServerHitBin.flushEndedBins(last.getEndTime() + 1);
+        assertTrue("Replaced bin flushed", first.isFlushed());
+        assertTrue("Second bin flushed", second.isFlushed());
+        assertTrue("Rolled over bin flushed", last.isFlushed());
+        ServerHitBin.flushEndedBins(last.getEndTime() + 1);
+
+        EntityWriteBehind.flush(30, TimeUnit.SECONDS);
+        List<GenericValue> records = EntityQuery.use(delegator).from("ServerHitBin").where("contentId", statsId)
+                .orderBy("binStartDateTime").queryList();
+        if (!EntityUtilProperties.propertyValueEqualsIgnoreCase("serverstats", "stats.persist.REQUEST.bin", "true", delegator)) {
+            assertEquals("No records without stats.persist.REQUEST.bin", 0, records.size());
+            return;
+        }
+        assertEquals("One record per bin", 3, records.size());
+        assertEquals("First bin record hits", 2L, records.get(0).getLong("numberHits").longValue());
+        assertEquals("First bin record total time", 40L, records.get(0).getLong("totalTimeMillis").longValue());
+        assertEquals("Second bin record hits", 1L, records.get(1).getLong("numberHits").longValue());
+        assertEquals("Rolled over bin record hits", 1L, records.get(2).getLong("numberHits").longValue());
+        assertEquals("Rolled over bin record start", lastStart, records.get(2).getTimestamp("binStartDateTime").getTime());
+    }
+
+    private static long getBinLength() {
+        long binLength = (long) UtilProperties.getPropertyNumber("serverstats", "stats.bin.length.millis");
+        if (binLength <= 0) binLength = 1800000;
+        if (binLength > 3600000) binLength = 3600000;
+        return binLength;
+    }
+}
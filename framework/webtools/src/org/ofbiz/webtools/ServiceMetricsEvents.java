@@ -0,0 +1,141 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.webtools;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Base64;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.ofbiz.base.util.CredentialUtil;
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilProperties;
+import org.ofbiz.base.util.UtilValidate;
+import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.GenericEntityException;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.util.EntityQuery;
+import org.ofbiz.entity.util.EntityUtilProperties;
+import org.ofbiz.security.Security;
+import org.ofbiz.service.ServiceMetrics;
+
+/**
+ * SCIPIO: Events for the service latency histograms of {@link ServiceMetrics}.
+ */
+public final class ServiceMetricsEvents {
+
+    private static final Debug.OfbizLogger module = Debug.getOfbizLogger(java.lang.invoke.MethodHandles.lookup().lookupClass());
+
+    private ServiceMetricsEvents() {}
+
+    /**
+     * Writes the service metrics in Prometheus text format.
+     * <p>
+     * The request map does not require a session login, since scrapers cannot log in; instead one of these is accepted:
+     * a session login with WEBTOOLS_VIEW, an <code>Authorization: Bearer</code> header matching
+     * <code>metrics.prometheus.token</code> (service.properties), or an <code>Authorization: Basic</code> header
+     * for a user login with WEBTOOLS_VIEW. Otherwise responds 401 (or 403 if the login lacks the permission).
+     */
+    public static String prometheusEvent(HttpServletRequest request, HttpServletResponse response) {
+        Security security = (Security) request.getAttribute("security");
+        if (!security.hasPermission("WEBTOOLS_VIEW", request)) {
+            int status = checkScrapeAuth(request, security);
+            if (status != HttpServletResponse.SC_OK) {
+                if (status == HttpServletResponse.SC_UNAUTHORIZED) {
+                    response.setHeader("WWW-Authenticate", "Basic realm=\"Service Metrics\"");
+                }
+                response.setStatus(status);
+                return "error";
+            }
+        }
+        try {
+            response.setContentType("text/plain; version=0.0.4; charset=UTF-8");
+            PrintWriter out = response.getWriter();
+            out.print(ServiceMetrics.toPrometheusText());
+            out.flush();
+        } catch (IOException e) {
+            Debug.logError(e, "Problems writing servlet output!", module);
+        }
+        return "success";
+    }
+
+    /**
+     * Checks the Authorization header of a Prometheus scrape; returns SC_OK, SC_UNAUTHORIZED or SC_FORBIDDEN.
+     */
+    private static int checkScrapeAuth(HttpServletRequest request, Security security) {
+        String authorization = request.getHeader("Authorization");
+        if (UtilValidate.isEmpty(authorization)) {
+            return HttpServletResponse.SC_UNAUTHORIZED;
+        }
+        if (authorization.regionMatches(true, 0, "Bearer ", 0, 7)) {
+            String token = UtilProperties.getPropertyValue("service", "metrics.prometheus.token");
+            if (UtilValidate.isNotEmpty(token) && MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8),
+                    authorization.substring(7).trim().getBytes(StandardCharsets.UTF_8))) {
+                return HttpServletResponse.SC_OK;
+            }
+            return HttpServletResponse.SC_UNAUTHORIZED;
+        }
+        if (authorization.regionMatches(true, 0, "Basic ", 0, 6)) {
+            String credentials;
+            try {
+                credentials = new String(Base64.getDecoder().decode(authorization.substring(6).trim()), StandardCharsets.UTF_8);
+            } catch (IllegalArgumentException e) {
+                return HttpServletResponse.SC_UNAUTHORIZED;
+            }
+            int sep = credentials.indexOf(':');
+            if (sep <= 0) {
+                return HttpServletResponse.SC_UNAUTHORIZED;
+            }
+            Delegator delegator = (Delegator) request.getAttribute("delegator");
+            try {
+                // Checked against the stored password hash rather than with the userLogin service, so that scrapes
+                // write no login history and failed scrapes do not count towards the lockout of the account
+                GenericValue userLogin = EntityQuery.use(delegator).from("UserLogin").where("userLoginId", credentials.substring(0, sep)).queryOne();
+                if (userLogin == null || "N".equals(userLogin.getString("enabled")) || UtilValidate.isNotEmpty(userLogin.getString("disabledBy"))
+                        || userLogin.getString("currentPassword") == null) {
+                    return HttpServletResponse.SC_UNAUTHORIZED;
+                }
+                boolean useEncryption = "true".equals(EntityUtilProperties.getPropertyValue("security", "password.encrypt", delegator));
+                if (!CredentialUtil.checkPassword(userLogin.getString("currentPassword"), useEncryption, credentials.substring(sep + 1))) {
+                    return HttpServletResponse.SC_UNAUTHORIZED;
+                }
+                return security.hasPermission("WEBTOOLS_VIEW", userLogin) ? HttpServletResponse.SC_OK : HttpServletResponse.SC_FORBIDDEN;
+            } catch (GenericEntityException e) {
+                Debug.logError(e, "Could not authenticate service metrics scrape: " + e.getMessage(), module);
+                return HttpServletResponse.SC_UNAUTHORIZED;
+            }
+        }
+        return HttpServletResponse.SC_UNAUTHORIZED;
+    }
+
+    /** Clears the service metrics; requires SERVICE_MAINT (the request map only accepts POST). */
+    public static String resetEvent(HttpServletRequest request, HttpServletResponse response) {
+        Security security = (Security) request.getAttribute("security");
+        if (!security.hasPermission("SERVICE_MAINT", request)) {
+            request.setAttribute("_ERROR_MESSAGE_", "Permission SERVICE_MAINT is required to reset service metrics");
+            return "error";
+        }
+        ServiceMetrics.resetAll();
+        return "success";
+    }
+}
@@ -18,14 +18,10 @@
  */
 package org.ofbiz.webtools;
 
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
@@ -75,12 +71,11 @@ import org.ofbiz.entity.model.ModelReader;
 import org.ofbiz.entity.model.ModelRelation;
 import org.ofbiz.entity.model.ModelUtil;
 import org.ofbiz.entity.model.ModelViewEntity;
-import org.ofbiz.entity.transaction.TransactionUtil;
 import org.ofbiz.entity.util.EntityDataAssert;
 import org.ofbiz.entity.util.EntityDataLoader;
-import org.ofbiz.entity.util.EntityListIterator;
 import org.ofbiz.entity.util.EntityQuery;
 import org.ofbiz.entity.util.EntitySaxReader;
+import org.ofbiz.entity.util.EntityXmlExporter;
 import org.ofbiz.entityext.EntityGroupUtil;
 import org.ofbiz.security.Security;
 import org.ofbiz.service.DispatchContext;
@@ -611,65 +606,31 @@ public class WebToolsServices {
                 } catch (Exception exc) {
                     return ServiceUtil.returnError(UtilProperties.getMessage(resource, "EntityImportErrorRetrievingEntityNames", locale));
                 }
+                // SCIPIO: stream each entity through a forward-only cursor in a single transaction (the former
+                // commit every 500 rows closed the cursor on some databases), optionally gzipped and in parallel
+                EntityCondition cond = null;
+                if (UtilValidate.isNotEmpty(fromDate)) {
+                    cond = EntityCondition.makeCondition("createdStamp", EntityOperator.GREATER_THAN_EQUAL_TO, fromDate);
+                }
+                EntityXmlExporter exporter = new EntityXmlExporter(delegator).setTransactionTimeout(txTimeout)
+                        .setGzip(Boolean.TRUE.equals(context.get("compress")));
+                if (context.get("fetchSize") != null) {
+                    exporter.setFetchSize((Integer) context.get("fetchSize"));
+                }
+                int threads = (context.get("threads") != null) ? (Integer) context.get("threads") : 1;
                 int fileNumber = 1;
-
-                for (String curEntityName: passedEntityNames) {
-                    long numberWritten = 0;
-                    EntityListIterator values = null;
-
-                    try {
-                        ModelEntity me = delegator.getModelEntity(curEntityName);
-                        if (me instanceof ModelViewEntity) {
-                            results.add("["+fileNumber +"] [vvv] " + curEntityName + " skipping view entity");
-                            continue;
-                        }
-
-                        boolean beganTx = TransactionUtil.begin();
-                        // some databases don't support cursors, or other problems may happen, so if there is an error here log it and move on to get as much as possible
-                        try {
-                            List<EntityCondition> conds = new LinkedList<EntityCondition>();
-                            if (UtilValidate.isNotEmpty(fromDate)) {
-                                conds.add(EntityCondition.makeCondition("createdStamp", EntityOperator.GREATER_THAN_EQUAL_TO, fromDate));
-                            }
-                            values = EntityQuery.use(delegator).from(curEntityName).where(conds).orderBy(me.getPkFieldNames()).queryIterator();
-                        } catch (Exception entityEx) {
-                            results.add("["+fileNumber +"] [xxx] Error when writing " + curEntityName + ": " + entityEx);
-                            continue;
-                        }
-
-                        //Don't bother writing the file if there's nothing
-                        //to put into it
-                        GenericValue value = values.next();
-                        if (value != null) {
-                            PrintWriter writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(new File(outdir, curEntityName +".xml")), "UTF-8")));
-                            writer.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
-                            writer.println("<entity-engine-xml>");
-
-                            do {
-                                value.writeXmlText(writer, "");
-                                numberWritten++;
-                                if (numberWritten % 500 == 0) {
-                                    TransactionUtil.commit(beganTx);
-                                    beganTx = TransactionUtil.begin();
-                                }
-                            } while ((value = values.next()) != null);
-                            writer.println("</entity-engine-xml>");
-                            writer.close();
-                            results.add("["+fileNumber +"] [" + numberWritten + "] " + curEntityName + " wrote " + numberWritten + " records");
-                        } else {
-                            results.add("["+fileNumber +"] [---] " + curEntityName + " has no records, not writing file");
-                        }
-                        values.close();
-                        TransactionUtil.commit(beganTx);
-                    } catch (Exception ex) {
-                        if (values != null) {
-                            try {
-                                values.close();
-                            } catch (Exception exc) {
-                                //Debug.warning();
-                            }
-                        }
-                        results.add("["+fileNumber +"] [xxx] Error when writing " + curEntityName + ": " + ex);
+                for (EntityXmlExporter.ExportResult result : exporter.exportEntities(passedEntityNames, cond, outdir, threads)) {
+                    String curEntityName = result.getEntityName();
+                    if (result.isSkipped()) {
+                        results.add("["+fileNumber +"] [vvv] " + curEntityName + " skipping view entity");
+                        continue;
+                    }
+                    if (result.getError() != null) {
+                        results.add("["+fileNumber +"] [xxx] Error when writing " + curEntityName + ": " + result.getError());
+                    } else if (result.getNumberWritten() > 0) {
+                        results.add("["+fileNumber +"] [" + result.getNumberWritten() + "] " + curEntityName + " wrote " + result.getNumberWritten() + " records");
+                    } else {
+                        results.add("["+fileNumber +"] [---] " + curEntityName + " has no records, not writing file");
                     }
                     fileNumber++;
                 }
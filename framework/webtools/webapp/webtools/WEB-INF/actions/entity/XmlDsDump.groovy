@@ -187,7 +187,8 @@ if (passedEntityNames) {
             "userLogin":context.userLogin, "entityList":entityList, "fromDate":entityFrom, "thruDate":entityThru,"description":description]);
         
     } else {
-        efo = new EntityFindOptions(true, EntityFindOptions.TYPE_SCROLL_INSENSITIVE, EntityFindOptions.CONCUR_READ_ONLY, true);
+        // SCIPIO: forward-only with a streaming fetch size (set per entity below), so rows aren't all held in memory
+        efo = new EntityFindOptions(true, EntityFindOptions.TYPE_FORWARD_ONLY, EntityFindOptions.CONCUR_READ_ONLY, true);
         numberOfEntities = passedEntityNames?.size() ?: 0;
         context.numberOfEntities = numberOfEntities;
         numberWritten = 0;
@@ -209,6 +210,7 @@ if (passedEntityNames) {
                 beganTransaction = TransactionUtil.begin(3600);
                 try {
                     me = reader.getModelEntity(curEntityName);
+                    efo.setFetchSize(EntityXmlExporter.getStreamingFetchSize(delegator, curEntityName));
                     if (me.getNoAutoStamp() || me instanceof ModelViewEntity) {
                         values = delegator.find(curEntityName, null, null, null, me.getPkFieldNames(), efo);
                     } else {
@@ -264,6 +266,7 @@ if (passedEntityNames) {
                             results.add("[$fileNumber] [vvv] $curEntityName skipping view entity");
                             return;
                         }
+                        efo.setFetchSize(EntityXmlExporter.getStreamingFetchSize(delegator, curEntityName));
                         if (me.getNoAutoStamp() || me instanceof ModelViewEntity) {
                             values = delegator.find(curEntityName, null, null, null, me.getPkFieldNames(), efo);
                         } else {